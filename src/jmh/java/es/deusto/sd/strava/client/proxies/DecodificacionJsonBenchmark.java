@@ -0,0 +1,105 @@
+package es.deusto.sd.strava.client.proxies;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import es.deusto.sd.strava.client.data.Entrenamiento;
+import es.deusto.sd.strava.client.data.Reto;
+
+/**
+ * Decoding of the training and reto lists as they arrive from the server,
+ * with the streaming {@link DecodificadorJson} used by the proxies and, as a
+ * reference, with plain Jackson databinding through a TypeReference and with
+ * the untyped {@code List.class} read the proxies did before (one map per
+ * element).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DecodificacionJsonBenchmark {
+
+    private static final TypeReference<List<Entrenamiento>> LISTA_ENTRENAMIENTOS = new TypeReference<>() {
+    };
+    private static final TypeReference<List<Reto>> LISTA_RETOS = new TypeReference<>() {
+    };
+    private static final String[] DEPORTES = { "Ciclismo", "Correr" };
+
+    @Param({ "10", "1000", "100000" })
+    private int elementos;
+
+    private ObjectMapper mapper;
+    private DecodificadorJson decodificador;
+    private byte[] entrenamientos;
+    private byte[] retos;
+
+    @Setup
+    public void preparar() throws IOException {
+        mapper = JsonMapper.builder()
+                .addModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+        decodificador = new DecodificadorJson(mapper);
+
+        LocalDate inicio = LocalDate.of(2020, 1, 1);
+        long milisInicio = 1_700_000_000_000L;
+        List<Entrenamiento> listaEntrenamientos = new ArrayList<>(elementos);
+        List<Reto> listaRetos = new ArrayList<>(elementos);
+        for (int i = 0; i < elementos; i++) {
+            String deporte = DEPORTES[i % 2];
+            listaEntrenamientos.add(new Entrenamiento("Entrenamiento " + i, deporte, 5 + i % 40 + 0.25f,
+                    inicio.plusDays(i % 1500), String.format("%02d:%02d", 6 + i % 14, i % 60), 30 + i % 120));
+            listaRetos.add(new Reto("Reto " + i, milisInicio + i * 86_400_000L, milisInicio + (i + 30) * 86_400_000L,
+                    50 + i % 200, 600 + i % 600, deporte, null));
+        }
+        entrenamientos = mapper.writeValueAsBytes(listaEntrenamientos);
+        retos = mapper.writeValueAsBytes(listaRetos);
+    }
+
+    @Benchmark
+    public List<Entrenamiento> entrenamientosDecodificador() throws IOException {
+        return decodificador.entrenamientos(entrenamientos);
+    }
+
+    @Benchmark
+    public List<Entrenamiento> entrenamientosDatabind() throws IOException {
+        return mapper.readValue(entrenamientos, LISTA_ENTRENAMIENTOS);
+    }
+
+    @Benchmark
+    public List<?> entrenamientosMapas() throws IOException {
+        return mapper.readValue(entrenamientos, List.class);
+    }
+
+    @Benchmark
+    public List<Reto> retosDecodificador() throws IOException {
+        return decodificador.retos(retos);
+    }
+
+    @Benchmark
+    public List<Reto> retosDatabind() throws IOException {
+        return mapper.readValue(retos, LISTA_RETOS);
+    }
+
+    @Benchmark
+    public List<?> retosMapas() throws IOException {
+        return mapper.readValue(retos, List.class);
+    }
+}
@@ -0,0 +1,84 @@
+package es.deusto.sd.strava.client.proxies;
+
+import java.net.URI;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import es.deusto.sd.strava.client.data.Credentials;
+import es.deusto.sd.strava.client.data.Usuario;
+
+/**
+ * URL building of every proxy operation, up to the URI handed to the HTTP
+ * clients. Run with the gc profiler (the default in build.gradle) to see the
+ * bytes allocated per URL.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EndpointsStravaBenchmark {
+
+    private final EndpointsStrava endpoints = new EndpointsStrava("http://localhost:8080");
+    private final String token = "tok-5f0c2a9e-3b1d-4c7e-9a8f-1e2d3c4b5a6f";
+    private final Usuario usuario = new Usuario("Ane Etxeberria", "ane@deusto.es", 61.5f, 1.68f,
+            LocalDate.of(1999, 3, 14), 192, 54, "GOOGLE");
+    private final Credentials credenciales = new Credentials("ane@deusto.es", "contrasenya-larga-123");
+    private final LocalDate desde = LocalDate.of(2024, 11, 1);
+    private final LocalDate hasta = LocalDate.of(2024, 11, 30);
+
+    @Benchmark
+    public URI registrar() {
+        return endpoints.registrar(usuario);
+    }
+
+    @Benchmark
+    public URI login() {
+        return endpoints.login(credenciales);
+    }
+
+    @Benchmark
+    public URI logout() {
+        return endpoints.logout();
+    }
+
+    @Benchmark
+    public URI consultarEntrenamientos() {
+        return endpoints.consultarEntrenamientos(token, desde, hasta);
+    }
+
+    @Benchmark
+    public URI anadirEntrenamiento() {
+        return endpoints.anadirEntrenamiento(token, "Vuelta a Artxanda", "Ciclismo", 42.7f, 95, desde, "08:30");
+    }
+
+    @Benchmark
+    public URI anadirReto() {
+        return endpoints.anadirReto("Reto de noviembre", "Correr", 100f, 600, desde, hasta);
+    }
+
+    @Benchmark
+    public URI aceptarReto() {
+        return endpoints.aceptarReto("Reto de noviembre");
+    }
+
+    @Benchmark
+    public URI consultarRetosActivos() {
+        return endpoints.consultarRetosActivos();
+    }
+
+    @Benchmark
+    public URI consultarRetosActivosFiltrados() {
+        return endpoints.consultarRetosActivosFiltrados(desde, "Ciclismo");
+    }
+
+    @Benchmark
+    public URI retosAceptados() {
+        return endpoints.retosAceptados(token);
+    }
+}
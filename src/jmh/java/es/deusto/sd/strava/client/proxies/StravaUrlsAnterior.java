@@ -0,0 +1,118 @@
+package es.deusto.sd.strava.client.proxies;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+import es.deusto.sd.strava.client.data.Credentials;
+import es.deusto.sd.strava.client.data.Usuario;
+
+/**
+ * URL building of the proxies before {@link EndpointsStrava}: the former
+ * {@code StravaUrls}, unchanged, kept only as the baseline of
+ * {@link StravaUrlsAnteriorBenchmark}.
+ */
+final class StravaUrlsAnterior {
+
+    private StravaUrlsAnterior() {
+    }
+
+    static String registrar(String apiBaseUrl, Usuario usuario) {
+        DecimalFormat decimalFormat = new DecimalFormat("0.######", DecimalFormatSymbols.getInstance(Locale.US));
+        String peso = decimalFormat.format(usuario.peso());
+        String altura = decimalFormat.format(usuario.altura());
+
+        return String.format(
+                "%s/auth/registroUsuario?email=%s&tipoLogin=%s&nombre=%s&fechaNacimiento=%s&peso=%s&altura=%s&frecuenciaCardiacaMax=%d&frecuenciaCardiacaReposo=%d",
+                apiBaseUrl,
+                usuario.email(),
+                usuario.tipoLogin(),
+                usuario.nombre(),
+                usuario.fechaNacimiento(),
+                peso,
+                altura,
+                usuario.frecuenciaCardiacaMax(),
+                usuario.frecuenciaCardiacaReposo());
+    }
+
+    static String logout(String apiBaseUrl) {
+        return apiBaseUrl + "/auth/logout";
+    }
+
+    static String login(String apiBaseUrl, Credentials credentials) {
+        return String.format("%s/auth/login?email=%s&contrasenya=%s",
+                apiBaseUrl,
+                credentials.email(),
+                credentials.password());
+    }
+
+    static String consultarEntrenamientos(String apiBaseUrl, String token, LocalDate fechaInicio,
+            LocalDate fechaFin) {
+        // Formatear las fechas si no son nulas
+        String fechaInicioParam = (fechaInicio != null) ? fechaInicio.format(DateTimeFormatter.ofPattern("dd/MM/yyyy"))
+                : null;
+        String fechaFinParam = (fechaFin != null) ? fechaFin.format(DateTimeFormatter.ofPattern("dd/MM/yyyy")) : null;
+
+        // Construir la URL sin incluir las fechas si son nulas
+        StringBuilder url = new StringBuilder(String.format("%s/api/entrenamientos?token=%s", apiBaseUrl, token));
+
+        // Solo agregar los parámetros de fechas si no son nulos
+        if (fechaInicioParam != null) {
+            url.append("&fechaInicio=").append(fechaInicioParam);
+        }
+        if (fechaFinParam != null) {
+            url.append("&fechaFin=").append(fechaFinParam);
+        }
+        return url.toString();
+    }
+
+    static String anadirEntrenamiento(String apiBaseUrl, String token, String titulo, String deporte,
+            float distancia, int duracion, LocalDate fechaInicio, String horaInicio) {
+        return String.format(
+                "%s/api/entrenamiento?titulo=%s&deporte=%s&distancia=%s&duracion=%d&fechaInicio=%s&horaInicio=%s&token=%s",
+                apiBaseUrl,
+                titulo,
+                deporte,
+                distancia,
+                duracion,
+                fechaInicio.format(DateTimeFormatter.ofPattern("dd/MM/yyyy")),
+                horaInicio,
+                token);
+    }
+
+    static String anadirReto(String apiBaseUrl, String nombre, String deporte, float objetivoDistancia,
+            int objetivoTiempo, LocalDate fechaInicio, LocalDate fechaFin) {
+        return String.format("%s/api/reto?nombre=%s&deporte=%s&objetivoDistancia=%s&objetivoTiempo=%s&fechaInicio=%s&fechaFin=%s",
+                apiBaseUrl,
+                nombre,
+                deporte,
+                objetivoDistancia,
+                objetivoTiempo,
+                fechaInicio.format(DateTimeFormatter.ofPattern("dd/MM/yyyy")),
+                fechaFin.format(DateTimeFormatter.ofPattern("dd/MM/yyyy")));
+    }
+
+    static String aceptarReto(String apiBaseUrl, String nombreReto) {
+        return String.format("%s/api/retos/%s/aceptar",
+                apiBaseUrl,
+                nombreReto);
+    }
+
+    static String consultarRetosActivos(String apiBaseUrl) {
+        return String.format("%s/api/retos", apiBaseUrl);
+    }
+
+    static String consultarRetosActivosFiltrados(String apiBaseUrl, LocalDate fechaInicio, String deporte) {
+        if (fechaInicio == null) {
+            fechaInicio = LocalDate.now();
+        }
+        String fechaFormateada = fechaInicio.format(DateTimeFormatter.ofPattern("dd/MM/yyyy"));
+        return String.format("%s/api/retos?fecha=%s&deporte=%s", apiBaseUrl, fechaFormateada, deporte);
+    }
+
+    static String retosAceptados(String apiBaseUrl, String token) {
+        return String.format("%s/api/retosAceptados?token=%s", apiBaseUrl, token);
+    }
+}
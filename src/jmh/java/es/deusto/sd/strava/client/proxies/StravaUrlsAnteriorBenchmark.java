@@ -0,0 +1,92 @@
+package es.deusto.sd.strava.client.proxies;
+
+import java.net.URI;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import org.springframework.web.util.DefaultUriBuilderFactory;
+
+import es.deusto.sd.strava.client.data.Credentials;
+import es.deusto.sd.strava.client.data.Usuario;
+
+/**
+ * Baseline of {@link EndpointsStravaBenchmark}: the same URLs built as the
+ * proxies did before {@link EndpointsStrava}, with the {@link StravaUrlsAnterior}
+ * string expanded by {@link DefaultUriBuilderFactory} into the URI handed to
+ * the HTTP clients. Run with the gc profiler (the default in build.gradle) to
+ * see the bytes allocated per URL.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StravaUrlsAnteriorBenchmark {
+
+    private static final String BASE = "http://localhost:8080";
+
+    private final DefaultUriBuilderFactory uriFactory = new DefaultUriBuilderFactory();
+    private final String token = "tok-5f0c2a9e-3b1d-4c7e-9a8f-1e2d3c4b5a6f";
+    private final Usuario usuario = new Usuario("Ane Etxeberria", "ane@deusto.es", 61.5f, 1.68f,
+            LocalDate.of(1999, 3, 14), 192, 54, "GOOGLE");
+    private final Credentials credenciales = new Credentials("ane@deusto.es", "contrasenya-larga-123");
+    private final LocalDate desde = LocalDate.of(2024, 11, 1);
+    private final LocalDate hasta = LocalDate.of(2024, 11, 30);
+
+    @Benchmark
+    public URI registrar() {
+        return uriFactory.expand(StravaUrlsAnterior.registrar(BASE, usuario));
+    }
+
+    @Benchmark
+    public URI login() {
+        return uriFactory.expand(StravaUrlsAnterior.login(BASE, credenciales));
+    }
+
+    @Benchmark
+    public URI logout() {
+        return uriFactory.expand(StravaUrlsAnterior.logout(BASE));
+    }
+
+    @Benchmark
+    public URI consultarEntrenamientos() {
+        return uriFactory.expand(StravaUrlsAnterior.consultarEntrenamientos(BASE, token, desde, hasta));
+    }
+
+    @Benchmark
+    public URI anadirEntrenamiento() {
+        return uriFactory.expand(StravaUrlsAnterior.anadirEntrenamiento(BASE, token, "Vuelta a Artxanda", "Ciclismo",
+                42.7f, 95, desde, "08:30"));
+    }
+
+    @Benchmark
+    public URI anadirReto() {
+        return uriFactory.expand(
+                StravaUrlsAnterior.anadirReto(BASE, "Reto de noviembre", "Correr", 100f, 600, desde, hasta));
+    }
+
+    @Benchmark
+    public URI aceptarReto() {
+        return uriFactory.expand(StravaUrlsAnterior.aceptarReto(BASE, "Reto de noviembre"));
+    }
+
+    @Benchmark
+    public URI consultarRetosActivos() {
+        return uriFactory.expand(StravaUrlsAnterior.consultarRetosActivos(BASE));
+    }
+
+    @Benchmark
+    public URI consultarRetosActivosFiltrados() {
+        return uriFactory.expand(StravaUrlsAnterior.consultarRetosActivosFiltrados(BASE, desde, "Ciclismo"));
+    }
+
+    @Benchmark
+    public URI retosAceptados() {
+        return uriFactory.expand(StravaUrlsAnterior.retosAceptados(BASE, token));
+    }
+}
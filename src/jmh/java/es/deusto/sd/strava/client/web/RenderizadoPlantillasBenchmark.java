@@ -0,0 +1,143 @@
+package es.deusto.sd.strava.client.web;
+
+import java.io.Writer;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.thymeleaf.context.Context;
+import org.thymeleaf.context.IExpressionContext;
+import org.thymeleaf.linkbuilder.StandardLinkBuilder;
+import org.thymeleaf.spring6.SpringTemplateEngine;
+import org.thymeleaf.templatemode.TemplateMode;
+import org.thymeleaf.templateresolver.ClassLoaderTemplateResolver;
+
+import es.deusto.sd.strava.client.data.Entrenamiento;
+import es.deusto.sd.strava.client.data.Reto;
+
+/**
+ * Rendering of the training and reto pages with large models, using the
+ * templates of src/main/resources with the same engine as the application.
+ * The output is counted and discarded, as the servlet response would do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RenderizadoPlantillasBenchmark {
+
+    @Param({ "50", "1000", "10000" })
+    private int filas;
+
+    private SpringTemplateEngine motor;
+    private Context modeloEntrenamientos;
+    private Context modeloRetos;
+
+    @Setup
+    public void preparar() {
+        ClassLoaderTemplateResolver resolutor = new ClassLoaderTemplateResolver();
+        resolutor.setPrefix("templates/");
+        resolutor.setSuffix(".html");
+        resolutor.setTemplateMode(TemplateMode.HTML);
+        resolutor.setCharacterEncoding("UTF-8");
+        resolutor.setCacheable(true);
+        motor = new SpringTemplateEngine();
+        motor.setTemplateResolver(resolutor);
+        // Fuera de una petición no hay contexto de servlet: los enlaces se resuelven desde la raíz
+        motor.setLinkBuilder(new StandardLinkBuilder() {
+            @Override
+            protected String computeContextPath(IExpressionContext context, String base,
+                    Map<String, Object> parameters) {
+                return "";
+            }
+        });
+
+        LocalDate inicio = LocalDate.of(2024, 1, 1);
+        long milisInicio = 1_700_000_000_000L;
+        List<Entrenamiento> entrenamientos = new ArrayList<>(filas);
+        List<Reto> retos = new ArrayList<>(filas);
+        List<Reto> aceptados = new ArrayList<>();
+        for (int i = 0; i < filas; i++) {
+            String deporte = i % 2 == 0 ? "Ciclismo" : "Correr";
+            entrenamientos.add(new Entrenamiento("Entrenamiento " + i, deporte, 5 + i % 40 + 0.25f,
+                    inicio.plusDays(i % 365), "08:30", 30 + i % 120));
+            Reto reto = new Reto("Reto " + i, milisInicio + i * 86_400_000L, milisInicio + (i + 30) * 86_400_000L,
+                    50 + i % 200, 600 + i % 600, deporte, null);
+            retos.add(reto);
+            if (i % 10 == 0) {
+                aceptados.add(new Reto(reto.nombre(), reto.fechaInicio(), reto.fechaFin(), reto.objetivoDistancia(),
+                        reto.objetivoTiempo(), deporte, (float) (i % 130)));
+            }
+        }
+
+        modeloEntrenamientos = modeloComun();
+        modeloEntrenamientos.setVariable("entrenamientos", entrenamientos);
+        modeloEntrenamientos.setVariable("primeraPagina", true);
+        modeloEntrenamientos.setVariable("siguientePagina", "/entrenamientos?cursor=siguiente");
+        modeloEntrenamientos.setVariable("siguientesFilas", "/entrenamientos/filas?cursor=siguiente");
+
+        modeloRetos = modeloComun();
+        modeloRetos.setVariable("retos", retos);
+        modeloRetos.setVariable("retosAceptados", aceptados);
+    }
+
+    private static Context modeloComun() {
+        Context modelo = new Context();
+        modelo.setVariable("token", "tok-5f0c2a9e-3b1d-4c7e-9a8f-1e2d3c4b5a6f");
+        modelo.setVariable("currentUrl", "http://localhost:8084/retos");
+        modelo.setVariable("enviosDiferidos", false);
+        return modelo;
+    }
+
+    @Benchmark
+    public long entrenamientos() {
+        return renderizar("entrenamientos", modeloEntrenamientos);
+    }
+
+    @Benchmark
+    public long retos() {
+        return renderizar("retos", modeloRetos);
+    }
+
+    private long renderizar(String plantilla, Context modelo) {
+        CaracteresEscritos salida = new CaracteresEscritos();
+        motor.process(plantilla, modelo, salida);
+        return salida.total;
+    }
+
+    private static final class CaracteresEscritos extends Writer {
+        private long total;
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            total += len;
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            total += len;
+        }
+
+        @Override
+        public void write(int c) {
+            total++;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
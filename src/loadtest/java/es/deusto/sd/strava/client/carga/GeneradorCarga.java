@@ -0,0 +1,275 @@
+package es.deusto.sd.strava.client.carga;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+
+/**
+ * Load generator for the web client. Each virtual user is a browser session
+ * going through the usual journey, over and over until the run ends:
+ * <ol>
+ * <li>log in;</li>
+ * <li>open the trainings page, then the reto page, unfiltered and filtered
+ * by sport;</li>
+ * <li>sometimes add a training or accept one of the retos shown;</li>
+ * <li>filter the trainings by the last month and log out.</li>
+ * </ol>
+ * Between two pages the user waits a random time with mean {@code --pausa}.
+ * Only the requests made after {@code --calentamiento} are measured. At the
+ * end it prints, for each step and in total, the requests per second and the
+ * latency percentiles, and saves them as JSON in {@code --salida}.
+ *
+ * Redirects are not followed: each request is one page. A response counts as
+ * an error when its status is 4xx/5xx, when it sends a logged-in user back to
+ * the login page, when it is the login form shown again with an error, or
+ * when it is the error page of the client.
+ */
+public class GeneradorCarga {
+
+    private static final DateTimeFormatter FECHA = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+    private static final Pattern NOMBRE_RETO = Pattern.compile("name=\"retoNombre\" value=\"([^\"]*)\"");
+    private static final Pattern COOKIE = Pattern.compile("^([^=;]+)=([^;]*)");
+    private static final String[] DEPORTES = { "Ciclismo", "Correr" };
+
+    private final URI base;
+    private final int usuarios;
+    private final Duration duracion;
+    private final Duration calentamiento;
+    private final Duration pausa;
+    private final Duration timeout;
+    private final double altas;
+    private final double aceptaciones;
+    private final HttpClient cliente;
+    private final Map<String, Medidas> pasos = new LinkedHashMap<>();
+    private final LongAdder recorridos = new LongAdder();
+
+    private volatile long inicioMedida;
+    private volatile long finMedida;
+
+    private GeneradorCarga(Opciones opciones) {
+        this.base = URI.create(opciones.texto("url", "http://localhost:8084"));
+        this.usuarios = opciones.entero("usuarios", 20);
+        this.duracion = opciones.duracion("duracion", "60s");
+        this.calentamiento = opciones.duracion("calentamiento", "10s");
+        this.pausa = opciones.duracion("pausa", "200ms");
+        this.timeout = opciones.duracion("timeout", "30s");
+        this.altas = opciones.real("altas", 0.3);
+        this.aceptaciones = opciones.real("aceptaciones", 0.2);
+        this.cliente = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        for (String paso : new String[] { "login", "entrenamientos", "retos", "retosFiltrados", "anadirEntrenamiento",
+                "aceptarReto", "entrenamientosFiltrados", "logout" }) {
+            pasos.put(paso, new Medidas(paso));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Opciones opciones = Opciones.de(args);
+        GeneradorCarga generador = new GeneradorCarga(opciones);
+        List<Medidas.Resumen> resumenes = generador.ejecutar();
+        generador.imprimir(resumenes);
+        generador.guardar(resumenes, Path.of(opciones.texto("salida", "build/results/carga/resultado.json")));
+    }
+
+    private List<Medidas.Resumen> ejecutar() throws InterruptedException {
+        System.out.printf("Prueba de carga contra %s: %d usuarios, %d s de calentamiento y %d s de medida%n", base,
+                usuarios, calentamiento.toSeconds(), duracion.toSeconds());
+        long ahora = System.nanoTime();
+        inicioMedida = ahora + calentamiento.toNanos();
+        finMedida = inicioMedida + duracion.toNanos();
+        try (ExecutorService hilos = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < usuarios; i++) {
+                int usuario = i;
+                hilos.execute(() -> recorrer(usuario));
+            }
+        }
+        double segundos = duracion.toNanos() / 1e9;
+        List<Medidas.Resumen> resumenes = new ArrayList<>();
+        Medidas total = new Medidas("total");
+        for (Medidas medidas : pasos.values()) {
+            resumenes.add(medidas.resumen(segundos));
+            total.sumar(medidas);
+        }
+        resumenes.add(total.resumen(segundos));
+        return resumenes;
+    }
+
+    private void recorrer(int numero) {
+        Sesion sesion = new Sesion("usuario" + numero + "@carga.test");
+        while (System.nanoTime() < finMedida) {
+            try {
+                recorrido(sesion);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void recorrido(Sesion sesion) throws InterruptedException {
+        ThreadLocalRandom azar = ThreadLocalRandom.current();
+        sesion.cookies.clear();
+        if (!pagina(sesion, "login", post("/login", "email", sesion.email, "password", "carga"), false)) {
+            esperar();
+            return;
+        }
+        esperar();
+        pagina(sesion, "entrenamientos", get("/entrenamientos"), true);
+        esperar();
+        String retos = pagina(sesion, "retos", get("/retos"), true) ? sesion.ultimoCuerpo : "";
+        esperar();
+        pagina(sesion, "retosFiltrados", get("/retos?deporte=" + DEPORTES[azar.nextInt(DEPORTES.length)]), true);
+        if (azar.nextDouble() < altas) {
+            esperar();
+            pagina(sesion, "anadirEntrenamiento", post("/anadirEntrenamientos",
+                    "titulo", "Carga " + azar.nextInt(1_000_000), "deporte", DEPORTES[azar.nextInt(2)],
+                    "distancia", String.valueOf(1 + azar.nextInt(100)), "fechaInicio", LocalDate.now().toString(),
+                    "horaInicio", "08:30", "duracion", String.valueOf(10 + azar.nextInt(120))), true);
+        }
+        if (azar.nextDouble() < aceptaciones) {
+            List<String> nombres = new ArrayList<>();
+            Matcher retosMostrados = NOMBRE_RETO.matcher(retos);
+            while (retosMostrados.find()) {
+                nombres.add(retosMostrados.group(1));
+            }
+            if (!nombres.isEmpty()) {
+                esperar();
+                pagina(sesion, "aceptarReto", post("/retos/aceptar",
+                        "retoNombre", nombres.get(azar.nextInt(nombres.size()))), true);
+            }
+        }
+        esperar();
+        LocalDate hoy = LocalDate.now();
+        pagina(sesion, "entrenamientosFiltrados", get("/entrenamientos?fechaInicio="
+                + hoy.minusMonths(1).format(FECHA) + "&fechaFin=" + hoy.format(FECHA)), true);
+        esperar();
+        pagina(sesion, "logout", get("/logout"), false);
+        recorridos.increment();
+    }
+
+    // Hace la petición y la anota en su paso si cae en el periodo de medida; devuelve si fue correcta
+    private boolean pagina(Sesion sesion, String paso, HttpRequest.Builder peticion, boolean conSesion) {
+        if (!sesion.cookies.isEmpty()) {
+            peticion.header("Cookie", String.join("; ", sesion.cookies.entrySet().stream()
+                    .map(cookie -> cookie.getKey() + "=" + cookie.getValue()).toList()));
+        }
+        long inicio = System.nanoTime();
+        boolean correcta;
+        try {
+            HttpResponse<String> respuesta = cliente.send(peticion.timeout(timeout).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            for (String cabecera : respuesta.headers().allValues("Set-Cookie")) {
+                Matcher cookie = COOKIE.matcher(cabecera);
+                if (cookie.find()) {
+                    sesion.cookies.put(cookie.group(1).trim(), cookie.group(2));
+                }
+            }
+            sesion.ultimoCuerpo = respuesta.body();
+            String destino = respuesta.headers().firstValue("Location").orElse("");
+            correcta = respuesta.statusCode() < 400
+                    && !(conSesion && destino.contains("/login"))
+                    // Un login fallido vuelve a mostrar el formulario con el error
+                    && !(paso.equals("login") && sesion.ultimoCuerpo.contains("Login failed"))
+                    && !sesion.ultimoCuerpo.contains("<title>Error");
+        } catch (IOException e) {
+            sesion.ultimoCuerpo = "";
+            correcta = false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        long fin = System.nanoTime();
+        if (inicio >= inicioMedida && fin <= finMedida) {
+            pasos.get(paso).anotar((fin - inicio) / 1000, correcta);
+        }
+        return correcta;
+    }
+
+    private HttpRequest.Builder get(String ruta) {
+        return HttpRequest.newBuilder(base.resolve(ruta)).GET();
+    }
+
+    private HttpRequest.Builder post(String ruta, String... campos) {
+        StringBuilder formulario = new StringBuilder();
+        for (int i = 0; i < campos.length; i += 2) {
+            if (i > 0) {
+                formulario.append('&');
+            }
+            formulario.append(campos[i]).append('=').append(URLEncoder.encode(campos[i + 1], StandardCharsets.UTF_8));
+        }
+        return HttpRequest.newBuilder(base.resolve(ruta))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(formulario.toString()));
+    }
+
+    // Pausa entre páginas: exponencial con la media configurada, como un usuario que lee a su ritmo
+    private void esperar() throws InterruptedException {
+        long media = pausa.toNanos();
+        if (media > 0) {
+            long nanos = (long) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) * media);
+            Thread.sleep(Duration.ofNanos(Math.min(nanos, 10 * media)));
+        }
+    }
+
+    private void imprimir(List<Medidas.Resumen> resumenes) {
+        System.out.printf("%n%-24s %10s %8s %9s %9s %9s %9s %9s %9s%n", "paso", "peticiones", "errores", "pet/s",
+                "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (Medidas.Resumen r : resumenes) {
+            System.out.printf("%-24s %10d %8d %9.1f %9.1f %9.1f %9.1f %9.1f %9.1f%n", r.paso(), r.peticiones(),
+                    r.errores(), r.porSegundo(), r.p50(), r.p90(), r.p99(), r.p999(), r.maximo());
+        }
+        System.out.printf("%nRecorridos completos: %d%n", recorridos.sum());
+    }
+
+    private void guardar(List<Medidas.Resumen> resumenes, Path salida) throws IOException {
+        Map<String, Object> resultado = new LinkedHashMap<>();
+        resultado.put("url", base.toString());
+        resultado.put("usuarios", usuarios);
+        resultado.put("segundos", duracion.toSeconds());
+        resultado.put("calentamiento", calentamiento.toSeconds());
+        resultado.put("pausa", pausa.toMillis());
+        resultado.put("recorridos", recorridos.sum());
+        resultado.put("pasos", resumenes.stream().map(Medidas.Resumen::comoMapa).toList());
+        if (salida.getParent() != null) {
+            Files.createDirectories(salida.getParent());
+        }
+        Files.write(salida, JsonMapper.builder().enable(SerializationFeature.INDENT_OUTPUT).build()
+                .writeValueAsBytes(resultado));
+        System.out.println("Resultados guardados en " + salida);
+    }
+
+    private static final class Sesion {
+        private final String email;
+        private final Map<String, String> cookies = new LinkedHashMap<>();
+        private String ultimoCuerpo = "";
+
+        private Sesion(String email) {
+            this.email = email;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package es.deusto.sd.strava.client.carga;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.springframework.boot.convert.DurationStyle;
+
+/**
+ * Latency distribution of the simulated server, parsed from its option:
+ * <ul>
+ * <li>{@code 20ms}: always the same;</li>
+ * <li>{@code uniforme:5ms-50ms}: uniform between both limits;</li>
+ * <li>{@code lognormal:20ms-200ms}: log-normal with that median and that 99th
+ * percentile, the usual shape of a real service (most responses close to the
+ * median, a long tail).</li>
+ * </ul>
+ */
+@FunctionalInterface
+interface Latencia {
+
+    // Percentil 99 de la normal estándar
+    double Z_P99 = 2.3263;
+
+    long nanos();
+
+    static Latencia de(String texto) {
+        int dosPuntos = texto.indexOf(':');
+        if (dosPuntos < 0) {
+            long fija = duracion(texto).toNanos();
+            return () -> fija;
+        }
+        String tipo = texto.substring(0, dosPuntos);
+        String[] limites = texto.substring(dosPuntos + 1).split("-", 2);
+        if (limites.length != 2) {
+            throw new IllegalArgumentException("Latencia no válida: " + texto);
+        }
+        long a = duracion(limites[0]).toNanos();
+        long b = duracion(limites[1]).toNanos();
+        return switch (tipo) {
+            case "uniforme" -> () -> a + (b > a ? ThreadLocalRandom.current().nextLong(b - a) : 0);
+            case "lognormal" -> {
+                double mu = Math.log(Math.max(a, 1));
+                double sigma = Math.max(0, Math.log(Math.max(b, 1)) - mu) / Z_P99;
+                yield () -> (long) Math.exp(mu + sigma * ThreadLocalRandom.current().nextGaussian());
+            }
+            default -> throw new IllegalArgumentException("Distribución de latencia desconocida: " + tipo);
+        };
+    }
+
+    private static Duration duracion(String texto) {
+        return DurationStyle.detectAndParse(texto.trim());
+    }
+}
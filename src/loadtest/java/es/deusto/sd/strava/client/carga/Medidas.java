@@ -0,0 +1,86 @@
+package es.deusto.sd.strava.client.carga;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Latencies and errors of one step of the user journey. Every latency is kept
+ * (in microseconds) and sorted at the end, so the percentiles are exact; a run
+ * of a few minutes is a few hundred thousand samples.
+ */
+final class Medidas {
+
+    private final String paso;
+    private long[] latencias = new long[1024];
+    private int total;
+    private long errores;
+
+    Medidas(String paso) {
+        this.paso = paso;
+    }
+
+    synchronized void anotar(long micros, boolean correcta) {
+        if (total == latencias.length) {
+            latencias = Arrays.copyOf(latencias, total * 2);
+        }
+        latencias[total++] = micros;
+        if (!correcta) {
+            errores++;
+        }
+    }
+
+    /** Adds the samples of another step; used for the total of the run. */
+    synchronized void sumar(Medidas otras) {
+        synchronized (otras) {
+            if (total + otras.total > latencias.length) {
+                latencias = Arrays.copyOf(latencias, Math.max(latencias.length * 2, total + otras.total));
+            }
+            System.arraycopy(otras.latencias, 0, latencias, total, otras.total);
+            total += otras.total;
+            errores += otras.errores;
+        }
+    }
+
+    String paso() {
+        return paso;
+    }
+
+    synchronized Resumen resumen(double segundos) {
+        long[] ordenadas = Arrays.copyOf(latencias, total);
+        Arrays.sort(ordenadas);
+        return new Resumen(paso, total, errores, total / segundos, percentil(ordenadas, 50), percentil(ordenadas, 90),
+                percentil(ordenadas, 99), percentil(ordenadas, 99.9), total == 0 ? 0 : ordenadas[total - 1] / 1000.0);
+    }
+
+    private static double percentil(long[] ordenadas, double percentil) {
+        if (ordenadas.length == 0) {
+            return 0;
+        }
+        int posicion = (int) Math.ceil(percentil / 100 * ordenadas.length) - 1;
+        return ordenadas[Math.max(0, posicion)] / 1000.0;
+    }
+
+    /** Figures of one step; the latencies in milliseconds. */
+    record Resumen(String paso, long peticiones, long errores, double porSegundo, double p50, double p90,
+            double p99, double p999, double maximo) {
+
+        Map<String, Object> comoMapa() {
+            Map<String, Object> mapa = new LinkedHashMap<>();
+            mapa.put("paso", paso);
+            mapa.put("peticiones", peticiones);
+            mapa.put("errores", errores);
+            mapa.put("porSegundo", redondear(porSegundo));
+            mapa.put("p50", p50);
+            mapa.put("p90", p90);
+            mapa.put("p99", p99);
+            mapa.put("p999", p999);
+            mapa.put("maximo", maximo);
+            return mapa;
+        }
+
+        private static double redondear(double valor) {
+            return Math.round(valor * 10) / 10.0;
+        }
+    }
+}
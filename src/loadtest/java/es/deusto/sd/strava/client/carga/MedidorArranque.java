@@ -0,0 +1,226 @@
+package es.deusto.sd.strava.client.carga;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+
+/**
+ * Startup benchmark of the web client. It starts the application again and
+ * again in each mode, measures the time from launching the JVM to the first
+ * answered request ({@code --ruta}, a page that does not call the API) and
+ * reads the resident memory of the process right after it, then stops it:
+ * <ul>
+ * <li>{@code normal}: the boot jar, as it is deployed today;</li>
+ * <li>{@code extraido}: the jar extracted as jar + {@code lib/}, on its own,
+ * to tell its effect apart from that of CDS;</li>
+ * <li>{@code cds}: the extracted jar with the AppCDS archive;</li>
+ * <li>{@code aot}: the extracted jar with the AOT bean definitions;</li>
+ * <li>{@code rapido}: CDS, AOT and lazy initialization, as in
+ * {@code gradle bootRunRapido}.</li>
+ * </ul>
+ * The modes take turns in each round, so that a change in the load of the
+ * machine affects all of them alike, and the first {@code --descartar} rounds
+ * (cold page cache) are not counted. At the end it prints the median, minimum
+ * and maximum of each mode and the change of the medians against
+ * {@code normal}, and saves the runs as JSON in {@code --salida}.
+ *
+ * The resident memory is read from {@code /proc}, so it is only reported on
+ * Linux. The CDS modes are started with {@code -Xshare:on}: if the archive
+ * cannot be used the run fails instead of silently measuring without it.
+ */
+public class MedidorArranque {
+
+    private static final String CLASE_PRINCIPAL = "es.deusto.sd.strava.client.web.WebClientApplication";
+
+    private final String java = ProcessHandle.current().info().command().orElse("java");
+    private final Path jar;
+    private final Path extraido;
+    private final Path cds;
+    private final List<String> modos;
+    private final int repeticiones;
+    private final int descartar;
+    private final int puerto;
+    private final URI primeraPeticion;
+    private final Duration timeout;
+    private final HttpClient cliente = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .connectTimeout(Duration.ofMillis(200))
+            .build();
+    private final Map<String, List<Arranque>> arranques = new LinkedHashMap<>();
+
+    private MedidorArranque(Opciones opciones) {
+        this.jar = Path.of(opciones.texto("jar", "build/libs/StravaCliente-1.0.jar")).toAbsolutePath();
+        this.extraido = Path.of(opciones.texto("extraido", "build/arranque-rapido/StravaCliente-1.0.jar"))
+                .toAbsolutePath();
+        this.cds = Path.of(opciones.texto("cds", "build/arranque-rapido/aplicacion.jsa")).toAbsolutePath();
+        this.modos = Arrays.asList(opciones.texto("modos", "normal,extraido,cds,aot,rapido").split(","));
+        this.repeticiones = opciones.entero("repeticiones", 5);
+        this.descartar = opciones.entero("descartar", 1);
+        this.puerto = opciones.entero("puerto", 8094);
+        this.primeraPeticion = URI.create("http://localhost:" + puerto + opciones.texto("ruta", "/login"));
+        this.timeout = opciones.duracion("timeout", "60s");
+        for (String modo : modos) {
+            arranques.put(modo, new ArrayList<>());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Opciones opciones = Opciones.de(args);
+        MedidorArranque medidor = new MedidorArranque(opciones);
+        medidor.ejecutar();
+        medidor.imprimir();
+        medidor.guardar(Path.of(opciones.texto("salida", "build/results/arranque/resultado.json")));
+    }
+
+    private void ejecutar() throws IOException, InterruptedException {
+        System.out.printf("Arranque del cliente web: %s, %d repeticiones (+%d descartadas), primera petición %s%n",
+                String.join(", ", modos), repeticiones, descartar, primeraPeticion);
+        for (int ronda = 0; ronda < descartar + repeticiones; ronda++) {
+            for (String modo : modos) {
+                Arranque arranque = arrancar(modo);
+                System.out.printf("  %-8s %7.0f ms %8s%n", modo, arranque.msPrimeraPeticion(),
+                        arranque.rssMb() < 0 ? "n/d" : String.format("%.0f MB", arranque.rssMb()));
+                if (ronda >= descartar) {
+                    arranques.get(modo).add(arranque);
+                }
+            }
+        }
+    }
+
+    private Arranque arrancar(String modo) throws IOException, InterruptedException {
+        List<String> comando = new ArrayList<>(List.of(java));
+        switch (modo) {
+        case "normal" -> comando.addAll(List.of("-jar", jar.toString()));
+        case "extraido" -> comando.addAll(List.of("-cp", extraido.toString(), CLASE_PRINCIPAL));
+        case "cds" -> comando.addAll(List.of("-XX:SharedArchiveFile=" + cds, "-Xshare:on",
+                "-cp", extraido.toString(), CLASE_PRINCIPAL));
+        case "aot" -> comando.addAll(List.of("-Dspring.aot.enabled=true", "-cp", extraido.toString(), CLASE_PRINCIPAL));
+        case "rapido" -> comando.addAll(List.of("-XX:SharedArchiveFile=" + cds, "-Xshare:on",
+                "-Dspring.aot.enabled=true", "-Dspring.main.lazy-initialization=true",
+                "-cp", extraido.toString(), CLASE_PRINCIPAL));
+        default -> throw new IllegalArgumentException("Modo desconocido: " + modo);
+        }
+        comando.add("--server.port=" + puerto);
+
+        long inicio = System.nanoTime();
+        Process proceso = new ProcessBuilder(comando)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        try {
+            esperarPrimeraPeticion(proceso, inicio);
+            double ms = (System.nanoTime() - inicio) / 1e6;
+            return new Arranque(ms, rssMb(proceso.pid()));
+        } finally {
+            proceso.destroy();
+            proceso.waitFor();
+        }
+    }
+
+    // Repite la petición hasta que la aplicación responde; antes la conexión se rechaza
+    private void esperarPrimeraPeticion(Process proceso, long inicio) throws InterruptedException {
+        HttpRequest peticion = HttpRequest.newBuilder(primeraPeticion).timeout(timeout).GET().build();
+        while (System.nanoTime() - inicio < timeout.toNanos()) {
+            if (!proceso.isAlive()) {
+                throw new IllegalStateException("La aplicación ha terminado con código " + proceso.exitValue()
+                        + " antes de responder");
+            }
+            try {
+                HttpResponse<Void> respuesta = cliente.send(peticion, HttpResponse.BodyHandlers.discarding());
+                if (respuesta.statusCode() < 500) {
+                    return;
+                }
+            } catch (IOException e) {
+                // Todavía no escucha
+            }
+            Thread.sleep(5);
+        }
+        throw new IllegalStateException("Sin respuesta de " + primeraPeticion + " en " + timeout.toSeconds() + " s");
+    }
+
+    // VmRSS de /proc, en MB; -1 fuera de Linux
+    private static double rssMb(long pid) {
+        try {
+            for (String linea : Files.readAllLines(Path.of("/proc", Long.toString(pid), "status"))) {
+                if (linea.startsWith("VmRSS:")) {
+                    return Long.parseLong(linea.replaceAll("\\D", "")) / 1024.0;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Sin /proc
+        }
+        return -1;
+    }
+
+    private void imprimir() {
+        System.out.printf("%n%-8s %10s %10s %10s %10s %12s %12s%n", "modo", "p50 ms", "min ms", "max ms", "p50 MB",
+                "tiempo", "memoria");
+        Resumen referencia = arranques.containsKey("normal") ? resumen(arranques.get("normal")) : null;
+        for (Map.Entry<String, List<Arranque>> modo : arranques.entrySet()) {
+            Resumen r = resumen(modo.getValue());
+            System.out.printf("%-8s %10.0f %10.0f %10.0f %10s %12s %12s%n", modo.getKey(), r.mediana(), r.minimo(),
+                    r.maximo(), r.rssMb() < 0 ? "n/d" : String.format("%.0f", r.rssMb()),
+                    cambio(referencia == null ? -1 : referencia.mediana(), r.mediana()),
+                    cambio(referencia == null ? -1 : referencia.rssMb(), r.rssMb()));
+        }
+    }
+
+    private static String cambio(double antes, double despues) {
+        return antes <= 0 || despues < 0 ? "" : String.format("%+.0f %%", (despues - antes) * 100 / antes);
+    }
+
+    private void guardar(Path salida) throws IOException {
+        Map<String, Object> resultado = new LinkedHashMap<>();
+        resultado.put("java", Runtime.version().toString());
+        resultado.put("primeraPeticion", primeraPeticion.toString());
+        resultado.put("repeticiones", repeticiones);
+        Map<String, Object> porModo = new LinkedHashMap<>();
+        arranques.forEach((modo, lista) -> porModo.put(modo, Map.of(
+                "resumen", resumen(lista),
+                "arranques", lista)));
+        resultado.put("modos", porModo);
+        if (salida.getParent() != null) {
+            Files.createDirectories(salida.getParent());
+        }
+        Files.write(salida, JsonMapper.builder().enable(SerializationFeature.INDENT_OUTPUT).build()
+                .writeValueAsBytes(resultado));
+        System.out.println("Resultados guardados en " + salida);
+    }
+
+    private static Resumen resumen(List<Arranque> lista) {
+        double[] ms = lista.stream().mapToDouble(Arranque::msPrimeraPeticion).sorted().toArray();
+        double[] rss = lista.stream().mapToDouble(Arranque::rssMb).sorted().toArray();
+        return new Resumen(mediana(ms), ms.length == 0 ? 0 : ms[0], ms.length == 0 ? 0 : ms[ms.length - 1],
+                mediana(rss));
+    }
+
+    private static double mediana(double[] ordenados) {
+        if (ordenados.length == 0) {
+            return 0;
+        }
+        int medio = ordenados.length / 2;
+        return ordenados.length % 2 == 1 ? ordenados[medio] : (ordenados[medio - 1] + ordenados[medio]) / 2;
+    }
+
+    /** One start: milliseconds from launching the JVM to the first response, and resident MB after it. */
+    record Arranque(double msPrimeraPeticion, double rssMb) {
+    }
+
+    /** Median, minimum and maximum time to the first response, and median resident MB, of one mode. */
+    record Resumen(double mediana, double minimo, double maximo, double rssMb) {
+    }
+}
@@ -0,0 +1,58 @@
+package es.deusto.sd.strava.client.carga;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.boot.convert.DurationStyle;
+
+/**
+ * Command-line options of the load-test tools, written as {@code --name=value}
+ * (or {@code --name} alone for a flag). Durations use the same format as the
+ * application properties: {@code 250ms}, {@code 2s}, {@code 1m}.
+ */
+final class Opciones {
+
+    private final Map<String, String> valores = new HashMap<>();
+
+    private Opciones() {
+    }
+
+    static Opciones de(String[] args) {
+        Opciones opciones = new Opciones();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Opción no válida: " + arg + " (se espera --nombre=valor)");
+            }
+            int igual = arg.indexOf('=');
+            if (igual < 0) {
+                opciones.valores.put(arg.substring(2), "true");
+            } else {
+                opciones.valores.put(arg.substring(2, igual), arg.substring(igual + 1));
+            }
+        }
+        return opciones;
+    }
+
+    String texto(String nombre, String porDefecto) {
+        return valores.getOrDefault(nombre, porDefecto);
+    }
+
+    int entero(String nombre, int porDefecto) {
+        String valor = valores.get(nombre);
+        return valor == null ? porDefecto : Integer.parseInt(valor);
+    }
+
+    double real(String nombre, double porDefecto) {
+        String valor = valores.get(nombre);
+        return valor == null ? porDefecto : Double.parseDouble(valor);
+    }
+
+    Duration duracion(String nombre, String porDefecto) {
+        return DurationStyle.detectAndParse(valores.getOrDefault(nombre, porDefecto));
+    }
+
+    boolean activa(String nombre) {
+        return Boolean.parseBoolean(valores.get(nombre));
+    }
+}
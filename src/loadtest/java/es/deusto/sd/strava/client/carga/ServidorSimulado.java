@@ -0,0 +1,474 @@
+package es.deusto.sd.strava.client.carga;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import es.deusto.sd.strava.client.data.Entrenamiento;
+import es.deusto.sd.strava.client.data.Reto;
+
+/**
+ * Stand-in for the Strava server, with the endpoints the proxies call, so the
+ * web client can be measured offline. Built on the JDK HTTP server, one
+ * virtual thread per request.
+ *
+ * Data are generated from a seed: a catalog of {@code --retos} retos and, for
+ * each user (by email, the first time they log in), {@code --entrenamientos}
+ * trainings spread over the last two years and {@code --aceptados} accepted
+ * retos. New trainings, retos and acceptances are kept in memory.
+ *
+ * Every request waits a time drawn from {@code --latencia} (see
+ * {@link Latencia}) and, to inject faults, a fraction {@code --lentas} waits
+ * {@code --latencia-lenta} instead, a fraction {@code --errores} is answered
+ * with 503 and a fraction {@code --cortes} has its connection closed with no
+ * response. {@code --fallos-en} limits the faults to some path prefixes.
+ *
+ * With {@code --validadores=true} every JSON response carries an ETag (a
+ * checksum of its body) and a request whose {@code If-None-Match} matches it
+ * gets a 304 without body.
+ *
+ * The JDK server closes the idle connections past 200 by default, and under
+ * high concurrency the client then reuses connections already closed;
+ * {@code --max-inactivas} raises that limit. It is read once per JVM, by the
+ * first server started.
+ *
+ * Can be embedded with {@link #iniciar(String...)} or run on its own:
+ * {@code gradle simuladorStrava -Psimulador="--latencia=lognormal:20ms-200ms --errores=0.01"}.
+ */
+public class ServidorSimulado implements AutoCloseable {
+
+    private static final DateTimeFormatter FECHA = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+    private static final String[] DEPORTES = { "Ciclismo", "Correr" };
+    private static final long DIA = 86_400_000L;
+
+    private final HttpServer servidor;
+    private final ExecutorService hilos = Executors.newVirtualThreadPerTaskExecutor();
+    private final ObjectMapper mapper = JsonMapper.builder()
+            .addModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .build();
+
+    private final Latencia latencia;
+    private final Duration latenciaLenta;
+    private final double lentas;
+    private final double errores;
+    private final double cortes;
+    private final String[] fallosEn;
+    private final int entrenamientosPorUsuario;
+    private final int aceptadosPorUsuario;
+    private final long semilla;
+    private final boolean validadores;
+
+    private final Map<String, String> sesiones = new ConcurrentHashMap<>();
+    private final Map<String, DatosUsuario> usuarios = new ConcurrentHashMap<>();
+    private final List<Reto> retos = new CopyOnWriteArrayList<>();
+    private volatile byte[] catalogo;
+
+    private final LongAdder peticiones = new LongAdder();
+    private final LongAdder fallosInyectados = new LongAdder();
+    private final LongAdder noModificadas = new LongAdder();
+
+    private ServidorSimulado(Opciones opciones) throws IOException {
+        this.latencia = Latencia.de(opciones.texto("latencia", "0ms"));
+        this.latenciaLenta = opciones.duracion("latencia-lenta", "5s");
+        this.lentas = opciones.real("lentas", 0);
+        this.errores = opciones.real("errores", 0);
+        this.cortes = opciones.real("cortes", 0);
+        String rutas = opciones.texto("fallos-en", "");
+        this.fallosEn = rutas.isBlank() ? new String[0] : rutas.split(",");
+        this.entrenamientosPorUsuario = opciones.entero("entrenamientos", 500);
+        this.aceptadosPorUsuario = opciones.entero("aceptados", 5);
+        this.semilla = opciones.entero("semilla", 42);
+        this.validadores = opciones.activa("validadores");
+        generarCatalogo(opciones.entero("retos", 200));
+
+        if (System.getProperty("sun.net.httpserver.maxIdleConnections") == null) {
+            System.setProperty("sun.net.httpserver.maxIdleConnections",
+                    String.valueOf(opciones.entero("max-inactivas", 10_000)));
+        }
+        InetSocketAddress direccion = new InetSocketAddress(opciones.texto("host", "127.0.0.1"),
+                opciones.entero("puerto", 8080));
+        this.servidor = HttpServer.create(direccion, opciones.entero("backlog", 1024));
+        servidor.setExecutor(hilos);
+        servidor.createContext("/", this::atender);
+    }
+
+    /** Starts the server with the given options, e.g. {@code "--puerto=0", "--retos=50"}; closing it stops it. */
+    public static ServidorSimulado iniciar(String... opciones) throws IOException {
+        ServidorSimulado simulado = new ServidorSimulado(Opciones.de(opciones));
+        simulado.servidor.start();
+        return simulado;
+    }
+
+    public static void main(String[] args) throws Exception {
+        ServidorSimulado simulado = iniciar(args);
+        System.out.printf("Servidor simulado en http://%s:%d (%d retos, %d entrenamientos por usuario)%n",
+                simulado.servidor.getAddress().getHostString(), simulado.servidor.getAddress().getPort(),
+                simulado.retos.size(), simulado.entrenamientosPorUsuario);
+        CountDownLatch fin = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            simulado.close();
+            System.out.printf("%d peticiones atendidas, %d fallos inyectados, %d respuestas 304%n",
+                    simulado.peticiones.sum(), simulado.fallosInyectados.sum(), simulado.noModificadas.sum());
+            fin.countDown();
+        }));
+        fin.await();
+    }
+
+    public int puerto() {
+        return servidor.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        servidor.stop(0);
+        hilos.shutdownNow();
+    }
+
+    private void atender(HttpExchange exchange) throws IOException {
+        peticiones.increment();
+        try (exchange) {
+            String ruta = exchange.getRequestURI().getRawPath();
+            ThreadLocalRandom azar = ThreadLocalRandom.current();
+            boolean inyectar = admiteFallos(ruta);
+            if (inyectar && azar.nextDouble() < cortes) {
+                // Se cierra la conexión sin responder: el cliente ve un fin de flujo o un reset
+                fallosInyectados.increment();
+                return;
+            }
+            boolean lenta = inyectar && azar.nextDouble() < lentas;
+            esperar(lenta ? latenciaLenta.toNanos() : latencia.nanos());
+            if (lenta) {
+                fallosInyectados.increment();
+            }
+            if (inyectar && azar.nextDouble() < errores) {
+                fallosInyectados.increment();
+                responder(exchange, 503, "text/plain", "Servicio no disponible (simulado)");
+                return;
+            }
+            try {
+                Map<String, String> parametros = parametros(exchange.getRequestURI().getRawQuery());
+                String cuerpo = leerCuerpo(exchange.getRequestBody());
+                enrutar(exchange, exchange.getRequestMethod(), ruta, parametros, cuerpo);
+            } catch (IllegalArgumentException | DateTimeParseException e) {
+                responder(exchange, 400, "text/plain", "Petición no válida: " + e.getMessage());
+            }
+        }
+    }
+
+    private void enrutar(HttpExchange exchange, String metodo, String ruta, Map<String, String> parametros,
+            String cuerpo) throws IOException {
+        boolean post = "POST".equals(metodo);
+        switch (ruta) {
+            case "/auth/login" -> {
+                String email = obligatorio(parametros, "email");
+                String token = "tok-" + UUID.randomUUID();
+                sesiones.put(token, email);
+                usuario(email);
+                responder(exchange, 200, "text/plain", token);
+            }
+            case "/auth/logout" -> {
+                sesiones.remove(cuerpo.trim());
+                responder(exchange, 200, "text/plain", "");
+            }
+            case "/auth/registroUsuario" -> {
+                usuario(obligatorio(parametros, "email"));
+                responder(exchange, 200, "text/plain", "Usuario registrado");
+            }
+            case "/api/entrenamientos" -> {
+                DatosUsuario usuario = sesion(parametros.get("token"));
+                if (usuario == null) {
+                    responder(exchange, 401, "text/plain", "Token no válido");
+                    return;
+                }
+                responderJson(exchange, usuario.entrenamientos(fecha(parametros.get("fechaInicio")),
+                        fecha(parametros.get("fechaFin"))));
+            }
+            case "/api/entrenamiento" -> {
+                DatosUsuario usuario = sesion(parametros.get("token"));
+                if (!post || usuario == null) {
+                    responder(exchange, usuario == null ? 401 : 405, "text/plain", "");
+                    return;
+                }
+                usuario.anadir(new Entrenamiento(obligatorio(parametros, "titulo"), obligatorio(parametros, "deporte"),
+                        Float.parseFloat(obligatorio(parametros, "distancia")),
+                        LocalDate.parse(obligatorio(parametros, "fechaInicio"), FECHA),
+                        parametros.getOrDefault("horaInicio", "00:00"),
+                        Integer.parseInt(obligatorio(parametros, "duracion"))));
+                responder(exchange, 200, "text/plain", "Entrenamiento creado");
+            }
+            case "/api/reto" -> {
+                if (sesion(cuerpo.trim()) == null) {
+                    responder(exchange, 401, "text/plain", "Token no válido");
+                    return;
+                }
+                retos.add(new Reto(obligatorio(parametros, "nombre"),
+                        milis(LocalDate.parse(obligatorio(parametros, "fechaInicio"), FECHA)),
+                        milis(LocalDate.parse(obligatorio(parametros, "fechaFin"), FECHA)),
+                        Float.parseFloat(obligatorio(parametros, "objetivoDistancia")),
+                        Integer.parseInt(obligatorio(parametros, "objetivoTiempo")),
+                        obligatorio(parametros, "deporte"), null));
+                catalogo = null;
+                responder(exchange, 200, "text/plain", "Reto creado");
+            }
+            case "/api/retos" -> {
+                if (parametros.isEmpty()) {
+                    responderJson(exchange, catalogo());
+                } else {
+                    responderJson(exchange, filtrar(fecha(parametros.get("fecha")), parametros.get("deporte")));
+                }
+            }
+            case "/api/retosAceptados" -> {
+                DatosUsuario usuario = sesion(parametros.get("token"));
+                if (usuario == null) {
+                    responder(exchange, 401, "text/plain", "Token no válido");
+                    return;
+                }
+                responderJson(exchange, usuario.aceptados(retos));
+            }
+            default -> {
+                if (post && ruta.startsWith("/api/retos/") && ruta.endsWith("/aceptar")) {
+                    String nombre = URLDecoder.decode(ruta.substring("/api/retos/".length(),
+                            ruta.length() - "/aceptar".length()), StandardCharsets.UTF_8);
+                    aceptar(exchange, nombre, sesion(cuerpo.trim()));
+                } else {
+                    responder(exchange, 404, "text/plain", "No existe " + ruta);
+                }
+            }
+        }
+    }
+
+    private void aceptar(HttpExchange exchange, String nombre, DatosUsuario usuario) throws IOException {
+        if (usuario == null) {
+            responder(exchange, 401, "text/plain", "Token no válido");
+        } else if (retos.stream().noneMatch(reto -> reto.nombre().equals(nombre))) {
+            responder(exchange, 404, "text/plain", "Reto no encontrado");
+        } else {
+            usuario.aceptar(nombre);
+            responder(exchange, 200, "text/plain", "Reto aceptado");
+        }
+    }
+
+    private boolean admiteFallos(String ruta) {
+        if (fallosEn.length == 0) {
+            return true;
+        }
+        for (String prefijo : fallosEn) {
+            if (ruta.startsWith(prefijo)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void generarCatalogo(int cantidad) {
+        Random azar = new Random(semilla);
+        long hoy = milis(LocalDate.now());
+        List<Reto> generados = new ArrayList<>(cantidad);
+        for (int i = 0; i < cantidad; i++) {
+            long inicio = hoy - azar.nextInt(60) * DIA;
+            generados.add(new Reto("Reto " + (i + 1), inicio, inicio + (7 + azar.nextInt(90)) * DIA,
+                    20 + azar.nextInt(480), 60 + azar.nextInt(1200), DEPORTES[i % DEPORTES.length], null));
+        }
+        retos.addAll(generados);
+    }
+
+    private byte[] catalogo() throws JsonProcessingException {
+        byte[] actual = catalogo;
+        if (actual == null) {
+            actual = mapper.writeValueAsBytes(retos);
+            catalogo = actual;
+        }
+        return actual;
+    }
+
+    private List<Reto> filtrar(LocalDate fecha, String deporte) {
+        long dia = milis(fecha != null ? fecha : LocalDate.now());
+        List<Reto> filtrados = new ArrayList<>();
+        for (Reto reto : retos) {
+            if (reto.fechaInicio() <= dia + DIA && reto.fechaFin() >= dia
+                    && (deporte == null || deporte.isBlank() || deporte.equals(reto.deporte()))) {
+                filtrados.add(reto);
+            }
+        }
+        return filtrados;
+    }
+
+    private DatosUsuario sesion(String token) {
+        String email = token == null ? null : sesiones.get(token);
+        return email == null ? null : usuarios.get(email);
+    }
+
+    private DatosUsuario usuario(String email) {
+        return usuarios.computeIfAbsent(email, e -> new DatosUsuario(new Random(semilla ^ e.hashCode()),
+                entrenamientosPorUsuario, aceptadosPorUsuario, retos));
+    }
+
+    private void responderJson(HttpExchange exchange, Object valor) throws IOException {
+        responderJson(exchange, mapper.writeValueAsBytes(valor));
+    }
+
+    private void responderJson(HttpExchange exchange, byte[] cuerpo) throws IOException {
+        if (validadores) {
+            CRC32 suma = new CRC32();
+            suma.update(cuerpo);
+            String etiqueta = "\"" + Long.toHexString(suma.getValue()) + "-" + cuerpo.length + "\"";
+            exchange.getResponseHeaders().set("ETag", etiqueta);
+            if (etiqueta.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                noModificadas.increment();
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+        }
+        responder(exchange, 200, "application/json", cuerpo);
+    }
+
+    private static void responder(HttpExchange exchange, int status, String tipo, String cuerpo) throws IOException {
+        responder(exchange, status, tipo, cuerpo.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void responder(HttpExchange exchange, int status, String tipo, byte[] cuerpo)
+            throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", tipo);
+        exchange.sendResponseHeaders(status, cuerpo.length == 0 ? -1 : cuerpo.length);
+        if (cuerpo.length > 0) {
+            try (OutputStream salida = exchange.getResponseBody()) {
+                salida.write(cuerpo);
+            }
+        }
+    }
+
+    private static void esperar(long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(Duration.ofNanos(nanos));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String leerCuerpo(InputStream cuerpo) throws IOException {
+        return new String(cuerpo.readAllBytes(), StandardCharsets.UTF_8);
+    }
+
+    private static Map<String, String> parametros(String consulta) {
+        Map<String, String> parametros = new HashMap<>();
+        if (consulta == null || consulta.isEmpty()) {
+            return parametros;
+        }
+        for (String par : consulta.split("&")) {
+            int igual = par.indexOf('=');
+            String nombre = igual < 0 ? par : par.substring(0, igual);
+            String valor = igual < 0 ? "" : par.substring(igual + 1);
+            parametros.put(URLDecoder.decode(nombre, StandardCharsets.UTF_8),
+                    URLDecoder.decode(valor, StandardCharsets.UTF_8));
+        }
+        return parametros;
+    }
+
+    private static String obligatorio(Map<String, String> parametros, String nombre) {
+        String valor = parametros.get(nombre);
+        if (valor == null || valor.isBlank()) {
+            throw new IllegalArgumentException("falta " + nombre);
+        }
+        return valor;
+    }
+
+    private static LocalDate fecha(String texto) {
+        return texto == null || texto.isBlank() ? null : LocalDate.parse(texto, FECHA);
+    }
+
+    private static long milis(LocalDate fecha) {
+        return fecha.atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+    }
+
+    /** Trainings and accepted retos of one user, generated the first time the user appears. */
+    private static final class DatosUsuario {
+        private final List<Entrenamiento> entrenamientos;
+        private final Set<String> aceptados = new LinkedHashSet<>();
+        private final Map<String, Float> progreso = new HashMap<>();
+        private final Random azar;
+
+        private DatosUsuario(Random azar, int cantidad, int aceptadosIniciales, List<Reto> catalogo) {
+            this.azar = azar;
+            LocalDate hoy = LocalDate.now();
+            entrenamientos = new ArrayList<>(cantidad);
+            for (int i = 0; i < cantidad; i++) {
+                entrenamientos.add(new Entrenamiento("Entrenamiento " + (i + 1), DEPORTES[azar.nextInt(2)],
+                        2 + azar.nextInt(1200) / 10f, hoy.minusDays(azar.nextInt(730)),
+                        String.format("%02d:%02d", 6 + azar.nextInt(15), azar.nextInt(4) * 15),
+                        15 + azar.nextInt(180)));
+            }
+            for (int i = 0; i < aceptadosIniciales && !catalogo.isEmpty(); i++) {
+                aceptar(catalogo.get(azar.nextInt(catalogo.size())).nombre());
+            }
+        }
+
+        private synchronized List<Entrenamiento> entrenamientos(LocalDate desde, LocalDate hasta) {
+            List<Entrenamiento> resultado = new ArrayList<>();
+            for (Entrenamiento entrenamiento : entrenamientos) {
+                LocalDate fecha = entrenamiento.fechaInicio();
+                if ((desde == null || !fecha.isBefore(desde)) && (hasta == null || !fecha.isAfter(hasta))) {
+                    resultado.add(entrenamiento);
+                }
+            }
+            return resultado;
+        }
+
+        private synchronized void anadir(Entrenamiento entrenamiento) {
+            entrenamientos.add(entrenamiento);
+        }
+
+        private synchronized void aceptar(String nombre) {
+            if (aceptados.add(nombre)) {
+                progreso.put(nombre, (float) azar.nextInt(101));
+            }
+        }
+
+        private synchronized List<Reto> aceptados(List<Reto> catalogo) {
+            List<Reto> resultado = new ArrayList<>();
+            for (Reto reto : catalogo) {
+                if (aceptados.contains(reto.nombre())) {
+                    resultado.add(new Reto(reto.nombre(), reto.fechaInicio(), reto.fechaFin(),
+                            reto.objetivoDistancia(), reto.objetivoTiempo(), reto.deporte(),
+                            progreso.get(reto.nombre())));
+                }
+            }
+            return resultado;
+        }
+    }
+}
@@ -0,0 +1,446 @@
+package es.deusto.sd.strava.client.analitica;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import es.deusto.sd.strava.client.data.Entrenamiento;
+import es.deusto.sd.strava.client.data.Reto;
+
+/**
+ * Training statistics of each user, computed on the client: totals by week or
+ * by month and by sport, with the pace of each group, and the progress of the
+ * retos the user has accepted.
+ *
+ * The first query of a user loads their whole history once into
+ * {@link ColumnasEntrenamientos}; every later query is a single sequential
+ * pass over those primitive columns into flat accumulator arrays, with no
+ * object created per training. The proxies add each training created through
+ * them ({@link #anadir}), so the statistics stay up to date without loading
+ * the history again, and drop the user on logout ({@link #olvidar}).
+ *
+ * A load that overlaps a write of the same user cannot tell whether the new
+ * training is already in what it read. Each user has a write sequence, bumped
+ * when a write starts ({@link #escribiendo}) and when it is added: a history
+ * whose load saw the sequence change is used for that query but not kept, and
+ * a write that started before the load of the history kept drops it instead
+ * of being added, so the next query loads it again. A training is never
+ * counted twice.
+ *
+ * The progress of a reto is the distance and time of the user's trainings of
+ * its sport between its dates, taken as days of the server zone
+ * ({@code api.zona-horaria}). It is read from an {@link IndiceProgreso} of
+ * the history, built the first time it is needed and kept up to date by
+ * {@link #anadir}, so each reto costs two prefix sums per goal whatever the
+ * number of trainings.
+ *
+ * Like the trainings cache, each user's columns are discarded after the TTL,
+ * so that changes made elsewhere become visible, and the least recently used
+ * users are dropped when the total number of trainings kept exceeds
+ * {@code max-total}.
+ */
+@Component
+public class AnaliticaEntrenamientos {
+
+    private final CodigosDeporte codigos = new CodigosDeporte();
+    private final ConcurrentHashMap<String, Historial> historiales = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, AtomicLong> escrituras = new ConcurrentHashMap<>();
+    private final AtomicLong totalEntrenamientos = new AtomicLong();
+    private final long ttlNanos;
+    private final long maxTotal;
+    private final ZoneId zonaServidor;
+
+    private final LongAdder cargas = new LongAdder();
+    private final LongAdder consultas = new LongAdder();
+    private final LongAdder expulsiones = new LongAdder();
+    private final LongAdder solapadas = new LongAdder();
+
+    public AnaliticaEntrenamientos(
+            @Value("${strava.analitica.ttl:5m}") Duration ttl,
+            @Value("${strava.analitica.max-total:2000000}") long maxTotal,
+            @Value("${api.zona-horaria:UTC}") ZoneId zonaServidor) {
+        this.ttlNanos = ttl.toNanos();
+        this.maxTotal = maxTotal;
+        this.zonaServidor = zonaServidor;
+    }
+
+    /**
+     * Statistics of the {@code periodos} periods ending with the one that
+     * contains {@code hasta}, most recent first. The user's history is read
+     * with {@code cargar} if it is not in memory.
+     */
+    public Resumen resumen(String token, Periodo periodo, int periodos, LocalDate hasta,
+            Supplier<List<Entrenamiento>> cargar) {
+        consultas.increment();
+        Historial historial = vigente(token);
+        if (historial == null) {
+            long secuencia = secuencia(token);
+            historial = guardar(token, secuencia, cargar.get());
+        }
+        int ultimoCubo = periodo.cubo((int) hasta.toEpochDay());
+        int primerCubo = ultimoCubo - Math.max(1, periodos) + 1;
+        int desde = (int) periodo.inicio(primerCubo).toEpochDay();
+        int fin = (int) periodo.inicio(ultimoCubo + 1).toEpochDay() - 1;
+        List<String> nombres = codigos.nombres();
+        int columnas = nombres.size();
+        int celdas = (ultimoCubo - primerCubo + 1) * columnas;
+        int[] cuentas = new int[celdas];
+        double[] distancias = new double[celdas];
+        long[] duraciones = new long[celdas];
+        historial.lock.lock();
+        try {
+            historial.ultimoAcceso = System.nanoTime();
+            historial.columnas.acumular(periodo, desde, fin, primerCubo, columnas, cuentas, distancias, duraciones);
+        } finally {
+            historial.lock.unlock();
+        }
+        return resumir(periodo, primerCubo, ultimoCubo, nombres, cuentas, distancias, duraciones);
+    }
+
+    /**
+     * Loads the user's history with {@code cargar} unless it is already in
+     * memory, for {@link #conProgreso}. The future completes when it is.
+     */
+    public CompletableFuture<Void> cargarAsync(String token,
+            Supplier<CompletableFuture<List<Entrenamiento>>> cargar) {
+        if (vigente(token) != null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        long secuencia = secuencia(token);
+        return cargar.get().thenAccept(entrenamientos -> guardar(token, secuencia, entrenamientos));
+    }
+
+    /**
+     * The retos with the progress of the user toward them, in percent: that
+     * of the goal (distance or time) furthest from being met. Without the
+     * user's history in memory, or for a reto without goals, the progress
+     * sent by the server is kept. Nothing is requested upstream.
+     */
+    public List<Reto> conProgreso(String token, List<Reto> retos) {
+        Historial historial = historiales.get(token);
+        if (historial == null || retos.isEmpty()) {
+            return retos;
+        }
+        List<Reto> resultado = new ArrayList<>(retos.size());
+        historial.lock.lock();
+        try {
+            if (historial.descartado) {
+                return retos;
+            }
+            historial.ultimoAcceso = System.nanoTime();
+            if (historial.indice == null) {
+                historial.indice = IndiceProgreso.construir(historial.columnas, (int) LocalDate.now().toEpochDay());
+            }
+            for (Reto reto : retos) {
+                resultado.add(conProgreso(historial.indice, reto));
+            }
+        } finally {
+            historial.lock.unlock();
+        }
+        return resultado;
+    }
+
+    private Reto conProgreso(IndiceProgreso indice, Reto reto) {
+        if (reto.objetivoDistancia() <= 0 && reto.objetivoTiempo() <= 0) {
+            return reto;
+        }
+        int deporte = codigos.buscar(reto.deporte());
+        int desde = dia(reto.fechaInicio());
+        int hasta = dia(reto.fechaFin());
+        double progreso = Double.MAX_VALUE;
+        if (reto.objetivoDistancia() > 0) {
+            double distancia = deporte < 0 ? 0 : indice.distancia(deporte, desde, hasta);
+            progreso = Math.min(progreso, distancia * 100 / reto.objetivoDistancia());
+        }
+        if (reto.objetivoTiempo() > 0) {
+            long minutos = deporte < 0 ? 0 : indice.minutos(deporte, desde, hasta);
+            progreso = Math.min(progreso, minutos * 100.0 / reto.objetivoTiempo());
+        }
+        return new Reto(reto.nombre(), reto.fechaInicio(), reto.fechaFin(), reto.objetivoDistancia(),
+                reto.objetivoTiempo(), reto.deporte(), (float) progreso);
+    }
+
+    // Las fechas de los retos son el inicio del día en la zona del servidor, en milisegundos desde 1970
+    private int dia(long milisegundos) {
+        return (int) Instant.ofEpochMilli(milisegundos).atZone(zonaServidor).toLocalDate().toEpochDay();
+    }
+
+    /**
+     * Marks the start of a write of a training of the user, before it is sent
+     * upstream. The value returned is passed to {@link #anadir} once the
+     * training is created.
+     */
+    public long escribiendo(String token) {
+        return escrituras.computeIfAbsent(token, t -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * Adds a training just created upstream, if the user's history is in
+     * memory; {@code escritura} is the value {@link #escribiendo} returned
+     * when the write started.
+     */
+    public void anadir(String token, long escritura, Entrenamiento entrenamiento) {
+        escribiendo(token);
+        Historial historial = historiales.get(token);
+        if (historial == null || entrenamiento.fechaInicio() == null) {
+            return;
+        }
+        historial.lock.lock();
+        try {
+            if (historial.descartado) {
+                return;
+            }
+            if (escritura <= historial.secuencia) {
+                // La escritura empezó antes de la carga del historial, que puede incluirla o no: se vuelve a cargar
+                if (retirar(token, historial)) {
+                    solapadas.increment();
+                }
+                return;
+            }
+            anadir(historial.columnas, entrenamiento);
+            if (historial.indice != null) {
+                int ultimo = historial.columnas.total() - 1;
+                int dia = historial.columnas.dia(ultimo);
+                if (historial.indice.cabe(dia)) {
+                    historial.indice.anadir(dia, historial.columnas.deporte(ultimo),
+                            historial.columnas.distancia(ultimo), historial.columnas.duracion(ultimo));
+                } else {
+                    // Fuera del rango de días del índice: se vuelve a construir, más amplio, en la próxima consulta
+                    historial.indice = null;
+                }
+            }
+        } finally {
+            historial.lock.unlock();
+        }
+        totalEntrenamientos.incrementAndGet();
+        hacerSitio();
+    }
+
+    /** Drops the user's history, e.g. after a logout. */
+    public void olvidar(String token) {
+        escrituras.remove(token);
+        Historial historial = historiales.get(token);
+        if (historial != null) {
+            retirar(token, historial);
+        }
+    }
+
+    public Estadisticas estadisticas() {
+        long bytes = 0;
+        long bytesIndices = 0;
+        for (Historial historial : historiales.values()) {
+            historial.lock.lock();
+            try {
+                bytes += historial.columnas.bytes();
+                bytesIndices += historial.indice != null ? historial.indice.bytes() : 0;
+            } finally {
+                historial.lock.unlock();
+            }
+        }
+        return new Estadisticas(historiales.size(), totalEntrenamientos.get(), bytes,
+                ColumnasEntrenamientos.BYTES_POR_ENTRENAMIENTO, bytesIndices, codigos.nombres().size(), cargas.sum(),
+                consultas.sum(), expulsiones.sum(), solapadas.sum());
+    }
+
+    // Historial del usuario en memoria, o null si no está o ha caducado
+    private Historial vigente(String token) {
+        Historial historial = historiales.get(token);
+        if (historial != null && System.nanoTime() - historial.creado > ttlNanos) {
+            if (retirar(token, historial)) {
+                expulsiones.increment();
+            }
+            return null;
+        }
+        return historial;
+    }
+
+    // Secuencia de escrituras del usuario, leída antes de descargar su historial
+    private long secuencia(String token) {
+        AtomicLong secuencia = escrituras.get(token);
+        return secuencia != null ? secuencia.get() : 0;
+    }
+
+    // El historial se descarga fuera de cualquier cerrojo. Si mientras tanto ha empezado o terminado una
+    // escritura del usuario, no se sabe si la incluye: sirve para esta consulta, pero no se guarda
+    private Historial guardar(String token, long secuencia, List<Entrenamiento> entrenamientos) {
+        long ahora = System.nanoTime();
+        ColumnasEntrenamientos columnas = new ColumnasEntrenamientos(entrenamientos.size());
+        for (Entrenamiento entrenamiento : entrenamientos) {
+            if (entrenamiento.fechaInicio() != null) {
+                anadir(columnas, entrenamiento);
+            }
+        }
+        cargas.increment();
+        Historial nuevo = new Historial(columnas, ahora, secuencia);
+        if (secuencia(token) != secuencia) {
+            solapadas.increment();
+            return nuevo;
+        }
+        Historial existente = historiales.putIfAbsent(token, nuevo);
+        if (existente != null) {
+            return existente;
+        }
+        totalEntrenamientos.addAndGet(columnas.total());
+        hacerSitio();
+        return nuevo;
+    }
+
+    private void anadir(ColumnasEntrenamientos columnas, Entrenamiento entrenamiento) {
+        columnas.anadir((int) entrenamiento.fechaInicio().toEpochDay(), codigos.codigo(entrenamiento.deporte()),
+                entrenamiento.distancia(), entrenamiento.duracion());
+    }
+
+    // Convierte los acumuladores en filas por periodo, sin las columnas de deportes que no aparecen
+    private static Resumen resumir(Periodo periodo, int primerCubo, int ultimoCubo, List<String> nombres,
+            int[] cuentas, double[] distancias, long[] duraciones) {
+        int columnas = nombres.size();
+        int[] cuentaDeporte = new int[columnas];
+        double[] distanciaDeporte = new double[columnas];
+        long[] duracionDeporte = new long[columnas];
+        for (int celda = 0; celda < cuentas.length; celda++) {
+            cuentaDeporte[celda % columnas] += cuentas[celda];
+            distanciaDeporte[celda % columnas] += distancias[celda];
+            duracionDeporte[celda % columnas] += duraciones[celda];
+        }
+        List<Integer> visibles = new ArrayList<>();
+        List<String> deportes = new ArrayList<>();
+        List<Celda> totales = new ArrayList<>();
+        for (int columna = 0; columna < columnas; columna++) {
+            if (cuentaDeporte[columna] > 0) {
+                visibles.add(columna);
+                deportes.add(nombres.get(columna));
+                totales.add(new Celda(cuentaDeporte[columna], distanciaDeporte[columna], duracionDeporte[columna]));
+            }
+        }
+        List<Fila> filas = new ArrayList<>();
+        for (int cubo = ultimoCubo; cubo >= primerCubo; cubo--) {
+            int base = (cubo - primerCubo) * columnas;
+            List<Celda> porDeporte = new ArrayList<>(visibles.size());
+            int cuenta = 0;
+            double distancia = 0;
+            long duracion = 0;
+            for (int columna : visibles) {
+                porDeporte.add(new Celda(cuentas[base + columna], distancias[base + columna],
+                        duraciones[base + columna]));
+                cuenta += cuentas[base + columna];
+                distancia += distancias[base + columna];
+                duracion += duraciones[base + columna];
+            }
+            filas.add(new Fila(periodo.etiqueta(cubo), periodo.inicio(cubo), porDeporte,
+                    new Celda(cuenta, distancia, duracion)));
+        }
+        int cuenta = 0;
+        double distancia = 0;
+        long duracion = 0;
+        for (Celda total : totales) {
+            cuenta += total.entrenamientos();
+            distancia += total.distancia();
+            duracion += total.minutos();
+        }
+        return new Resumen(periodo, deportes, filas, totales, new Celda(cuenta, distancia, duracion));
+    }
+
+    // Expulsa a los usuarios usados hace más tiempo mientras se supere el límite global
+    private void hacerSitio() {
+        while (totalEntrenamientos.get() > maxTotal) {
+            Map.Entry<String, Historial> masAntiguo = null;
+            for (Map.Entry<String, Historial> candidato : historiales.entrySet()) {
+                if (masAntiguo == null
+                        || candidato.getValue().ultimoAcceso - masAntiguo.getValue().ultimoAcceso < 0) {
+                    masAntiguo = candidato;
+                }
+            }
+            if (masAntiguo == null) {
+                return;
+            }
+            if (retirar(masAntiguo.getKey(), masAntiguo.getValue())) {
+                expulsiones.increment();
+            }
+        }
+    }
+
+    private boolean retirar(String token, Historial historial) {
+        historial.lock.lock();
+        try {
+            if (historial.descartado) {
+                return false;
+            }
+            historial.descartado = true;
+            historiales.remove(token, historial);
+            totalEntrenamientos.addAndGet(-historial.columnas.total());
+            return true;
+        } finally {
+            historial.lock.unlock();
+        }
+    }
+
+    private static final class Historial {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final ColumnasEntrenamientos columnas;
+        private final long creado;
+        private final long secuencia;
+        private volatile long ultimoAcceso;
+        private boolean descartado;
+        private IndiceProgreso indice;
+
+        private Historial(ColumnasEntrenamientos columnas, long creado, long secuencia) {
+            this.columnas = columnas;
+            this.creado = creado;
+            this.secuencia = secuencia;
+            this.ultimoAcceso = creado;
+        }
+    }
+
+    /**
+     * Statistics of one period or sport: number of trainings, kilometres and
+     * minutes.
+     */
+    public record Celda(int entrenamientos, double distancia, long minutos) {
+
+        /** Average pace in minutes per kilometre, 0 without distance. */
+        public double ritmo() {
+            return distancia > 0 ? minutos / distancia : 0;
+        }
+    }
+
+    /** A period: its label, first day, one cell per sport shown and the total. */
+    public record Fila(String etiqueta, LocalDate inicio, List<Celda> porDeporte, Celda total) {
+    }
+
+    /** Sports shown (those with trainings in the range), periods most recent first and totals. */
+    public record Resumen(Periodo periodo, List<String> deportes, List<Fila> filas, List<Celda> totales,
+            Celda total) {
+    }
+
+    /**
+     * Users in memory, trainings kept and the bytes of their columns, bytes
+     * per training, bytes of the progress indexes built, distinct sports,
+     * histories loaded, queries answered, users evicted, and histories not
+     * kept or dropped because a write of the user overlapped their load.
+     */
+    public record Estadisticas(
+            int usuarios,
+            long entrenamientos,
+            long bytesColumnas,
+            int bytesPorEntrenamiento,
+            long bytesIndices,
+            int deportes,
+            long cargas,
+            long consultas,
+            long expulsiones,
+            long solapadas) {
+    }
+}
@@ -0,0 +1,52 @@
+package es.deusto.sd.strava.client.analitica;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interned sport names: each distinct {@code deporte} gets a small code once,
+ * so the columns keep one byte per training instead of a reference to a
+ * string. Codes are shared by every user and never reused; past
+ * {@link #MAX_DEPORTES} names, the rest share the code of "Otros".
+ */
+final class CodigosDeporte {
+
+    static final int MAX_DEPORTES = 64;
+    static final String OTROS = "Otros";
+
+    private final Map<String, Byte> codigos = new HashMap<>();
+    private volatile String[] nombres = new String[0];
+
+    synchronized byte codigo(String deporte) {
+        String nombre = deporte == null || deporte.isBlank() ? OTROS : deporte.trim();
+        Byte codigo = codigos.get(nombre);
+        if (codigo != null) {
+            return codigo;
+        }
+        if (nombres.length == MAX_DEPORTES - 1 && !OTROS.equals(nombre)) {
+            return codigo(OTROS);
+        }
+        byte nuevo = (byte) nombres.length;
+        codigos.put(nombre, nuevo);
+        String[] ampliados = Arrays.copyOf(nombres, nombres.length + 1);
+        ampliados[nuevo] = nombre;
+        nombres = ampliados;
+        return nuevo;
+    }
+
+    /** Code of a sport already seen, or -1; unlike {@link #codigo} it never assigns one. */
+    synchronized int buscar(String deporte) {
+        if (deporte == null || deporte.isBlank()) {
+            return -1;
+        }
+        Byte codigo = codigos.get(deporte.trim());
+        return codigo != null ? codigo : -1;
+    }
+
+    /** Names by code; codes assigned later are not in an older copy. */
+    List<String> nombres() {
+        return List.of(nombres);
+    }
+}
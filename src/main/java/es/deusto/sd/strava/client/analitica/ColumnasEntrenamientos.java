@@ -0,0 +1,94 @@
+package es.deusto.sd.strava.client.analitica;
+
+import java.util.Arrays;
+
+/**
+ * Trainings of one user stored by columns: the day (epoch day), the sport
+ * code, the distance and the duration of the i-th training are at position i
+ * of four primitive arrays. That is 13 bytes per training, against the
+ * record, its {@code LocalDate} and its two strings of the boxed list, and an
+ * aggregate walks the arrays sequentially without touching any other object.
+ *
+ * Titles and start times are not kept: the analytics do not use them.
+ * Instances are not thread-safe; {@link AnaliticaEntrenamientos} guards each
+ * one with its own lock.
+ */
+final class ColumnasEntrenamientos {
+
+    static final int BYTES_POR_ENTRENAMIENTO = Integer.BYTES + Byte.BYTES + Float.BYTES + Integer.BYTES;
+
+    private int[] dias;
+    private byte[] deportes;
+    private float[] distancias;
+    private int[] duraciones;
+    private int total;
+
+    ColumnasEntrenamientos(int capacidad) {
+        int inicial = Math.max(16, capacidad);
+        dias = new int[inicial];
+        deportes = new byte[inicial];
+        distancias = new float[inicial];
+        duraciones = new int[inicial];
+    }
+
+    void anadir(int dia, byte deporte, float distancia, int duracion) {
+        if (total == dias.length) {
+            int capacidad = total + (total >> 1);
+            dias = Arrays.copyOf(dias, capacidad);
+            deportes = Arrays.copyOf(deportes, capacidad);
+            distancias = Arrays.copyOf(distancias, capacidad);
+            duraciones = Arrays.copyOf(duraciones, capacidad);
+        }
+        dias[total] = dia;
+        deportes[total] = deporte;
+        distancias[total] = distancia;
+        duraciones[total] = duracion;
+        total++;
+    }
+
+    int total() {
+        return total;
+    }
+
+    int dia(int i) {
+        return dias[i];
+    }
+
+    byte deporte(int i) {
+        return deportes[i];
+    }
+
+    float distancia(int i) {
+        return distancias[i];
+    }
+
+    int duracion(int i) {
+        return duraciones[i];
+    }
+
+    /** Bytes of the arrays, including the capacity not used yet. */
+    long bytes() {
+        return (long) dias.length * BYTES_POR_ENTRENAMIENTO;
+    }
+
+    /**
+     * Adds every training of [desde, hasta] (epoch days) to the cell of its
+     * period and sport: {@code periodo.cubo(dia) - primerCubo} is the row and
+     * the sport code the column of the flat accumulator arrays, which hold
+     * {@code columnas} sports per row. A single pass.
+     */
+    void acumular(Periodo periodo, int desde, int hasta, int primerCubo, int columnas, int[] cuentas,
+            double[] sumaDistancias, long[] sumaDuraciones) {
+        for (int i = 0; i < total; i++) {
+            int dia = dias[i];
+            // Un deporte con código posterior a la consulta no tiene columna: aparecerá en la siguiente
+            if (dia < desde || dia > hasta || deportes[i] >= columnas) {
+                continue;
+            }
+            int celda = (periodo.cubo(dia) - primerCubo) * columnas + deportes[i];
+            cuentas[celda]++;
+            sumaDistancias[celda] += distancias[i];
+            sumaDuraciones[celda] += duraciones[i];
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package es.deusto.sd.strava.client.analitica;
+
+/**
+ * Distance and minutes of one user by day and sport, as one pair of Fenwick
+ * trees (binary indexed trees) per sport over a fixed range of days: the sum
+ * of any date window is two prefix sums, O(log d), and adding a training is
+ * O(log d) too, d being the number of days of the range.
+ *
+ * The range goes from the first training to a year after the last one (or
+ * after today), so the trainings created from now on still fit; one outside
+ * it makes {@link #cabe} false and the owner builds a wider index again.
+ * Trees are allocated only for the sports the user has. Instances are not
+ * thread-safe; {@link AnaliticaEntrenamientos} guards each one with the lock
+ * of its history.
+ */
+final class IndiceProgreso {
+
+    private static final int MARGEN_DIAS = 366;
+
+    private final int primerDia;
+    private final int dias;
+    private final double[][] distancias = new double[CodigosDeporte.MAX_DEPORTES][];
+    private final long[][] minutos = new long[CodigosDeporte.MAX_DEPORTES][];
+
+    private IndiceProgreso(int primerDia, int dias) {
+        this.primerDia = primerDia;
+        this.dias = dias;
+    }
+
+    /** Index of every training in the columns; {@code hoy} (epoch day) is the least end of the range. */
+    static IndiceProgreso construir(ColumnasEntrenamientos columnas, int hoy) {
+        int primero = hoy;
+        int ultimo = hoy;
+        for (int i = 0; i < columnas.total(); i++) {
+            primero = Math.min(primero, columnas.dia(i));
+            ultimo = Math.max(ultimo, columnas.dia(i));
+        }
+        IndiceProgreso indice = new IndiceProgreso(primero, ultimo + MARGEN_DIAS - primero + 1);
+        // Construcción en O(n + d): primero el valor de cada día y después cada nodo se suma a su padre
+        for (int i = 0; i < columnas.total(); i++) {
+            int nodo = columnas.dia(i) - primero + 1;
+            indice.distancias(columnas.deporte(i))[nodo] += columnas.distancia(i);
+            indice.minutos(columnas.deporte(i))[nodo] += columnas.duracion(i);
+        }
+        for (int deporte = 0; deporte < CodigosDeporte.MAX_DEPORTES; deporte++) {
+            double[] distancia = indice.distancias[deporte];
+            long[] minuto = indice.minutos[deporte];
+            if (distancia == null) {
+                continue;
+            }
+            for (int nodo = 1; nodo <= indice.dias; nodo++) {
+                int padre = nodo + (nodo & -nodo);
+                if (padre <= indice.dias) {
+                    distancia[padre] += distancia[nodo];
+                    minuto[padre] += minuto[nodo];
+                }
+            }
+        }
+        return indice;
+    }
+
+    boolean cabe(int dia) {
+        return dia >= primerDia && dia < primerDia + dias;
+    }
+
+    /** Adds a training whose day {@linkplain #cabe fits} in the range. */
+    void anadir(int dia, byte deporte, float distancia, int duracion) {
+        double[] arbolDistancias = distancias(deporte);
+        long[] arbolMinutos = minutos(deporte);
+        for (int nodo = dia - primerDia + 1; nodo <= dias; nodo += nodo & -nodo) {
+            arbolDistancias[nodo] += distancia;
+            arbolMinutos[nodo] += duracion;
+        }
+    }
+
+    /** Kilometres of the sport between two epoch days, both included. */
+    double distancia(int deporte, int desde, int hasta) {
+        double[] arbol = distancias[deporte];
+        return arbol == null || hasta < desde ? 0 : suma(arbol, hasta) - suma(arbol, desde - 1);
+    }
+
+    /** Minutes of the sport between two epoch days, both included. */
+    long minutos(int deporte, int desde, int hasta) {
+        long[] arbol = minutos[deporte];
+        return arbol == null || hasta < desde ? 0 : suma(arbol, hasta) - suma(arbol, desde - 1);
+    }
+
+    long bytes() {
+        long bytes = 0;
+        for (double[] arbol : distancias) {
+            if (arbol != null) {
+                bytes += (long) arbol.length * (Double.BYTES + Long.BYTES);
+            }
+        }
+        return bytes;
+    }
+
+    // Suma de los días hasta 'dia' incluido, recortado al rango del índice
+    private double suma(double[] arbol, int dia) {
+        double suma = 0;
+        for (int nodo = Math.min(dia - primerDia + 1, dias); nodo > 0; nodo -= nodo & -nodo) {
+            suma += arbol[nodo];
+        }
+        return suma;
+    }
+
+    private long suma(long[] arbol, int dia) {
+        long suma = 0;
+        for (int nodo = Math.min(dia - primerDia + 1, dias); nodo > 0; nodo -= nodo & -nodo) {
+            suma += arbol[nodo];
+        }
+        return suma;
+    }
+
+    private double[] distancias(byte deporte) {
+        if (distancias[deporte] == null) {
+            distancias[deporte] = new double[dias + 1];
+            minutos[deporte] = new long[dias + 1];
+        }
+        return distancias[deporte];
+    }
+
+    private long[] minutos(byte deporte) {
+        distancias(deporte);
+        return minutos[deporte];
+    }
+}
@@ -0,0 +1,64 @@
+package es.deusto.sd.strava.client.analitica;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Period the statistics are grouped by. Each period is numbered with an
+ * integer (its "bucket") computed from the epoch day with integer arithmetic
+ * only, so grouping a training costs no {@code LocalDate}.
+ */
+public enum Periodo {
+    /** Weeks from Monday to Sunday. */
+    SEMANA {
+        @Override
+        int cubo(int dia) {
+            // El día 0 (1/1/1970) fue jueves: se desplaza para que las semanas empiecen en lunes
+            return Math.floorDiv(dia + 3, 7);
+        }
+
+        @Override
+        LocalDate inicio(int cubo) {
+            return LocalDate.ofEpochDay(cubo * 7L - 3);
+        }
+
+        @Override
+        String etiqueta(int cubo) {
+            return "Semana del " + inicio(cubo).format(DIA);
+        }
+    },
+    MES {
+        @Override
+        int cubo(int dia) {
+            // Año y mes del día con aritmética entera (algoritmo civil_from_days de Howard Hinnant)
+            int z = dia + 719468;
+            int era = Math.floorDiv(z, 146097);
+            int diaDeEra = z - era * 146097;
+            int anoDeEra = (diaDeEra - diaDeEra / 1460 + diaDeEra / 36524 - diaDeEra / 146096) / 365;
+            int diaDelAno = diaDeEra - (365 * anoDeEra + anoDeEra / 4 - anoDeEra / 100);
+            int mp = (5 * diaDelAno + 2) / 153;
+            int mes = mp < 10 ? mp + 3 : mp - 9;
+            int ano = anoDeEra + era * 400 + (mes <= 2 ? 1 : 0);
+            return ano * 12 + mes - 1;
+        }
+
+        @Override
+        LocalDate inicio(int cubo) {
+            return LocalDate.of(Math.floorDiv(cubo, 12), Math.floorMod(cubo, 12) + 1, 1);
+        }
+
+        @Override
+        String etiqueta(int cubo) {
+            return inicio(cubo).format(MES_ANO);
+        }
+    };
+
+    private static final DateTimeFormatter DIA = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+    private static final DateTimeFormatter MES_ANO = DateTimeFormatter.ofPattern("MM/yyyy");
+
+    abstract int cubo(int dia);
+
+    abstract LocalDate inicio(int cubo);
+
+    abstract String etiqueta(int cubo);
+}
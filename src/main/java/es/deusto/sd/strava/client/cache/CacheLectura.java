@@ -0,0 +1,181 @@
+package es.deusto.sd.strava.client.cache;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Size-bounded read-through cache with a time to live and
+ * stale-while-revalidate refresh.
+ *
+ * Values are stored as futures, so a load that is still in flight is shared
+ * by every caller asking for the same key. A value younger than the TTL is
+ * returned as is. Once it is older, and for a further stale window, it is
+ * still returned immediately while a single background reload replaces it.
+ * After the stale window the next caller waits for a fresh load. Failed loads
+ * are never cached.
+ *
+ * Every caller gets its own copy of the stored future: a caller that
+ * completes it or times it out (e.g. with {@code orTimeout}) only changes
+ * its copy, never the value served to the others.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class CacheLectura<K, V> {
+
+    private final ConcurrentHashMap<K, Entrada<V>> entradas = new ConcurrentHashMap<>();
+    private final long ttlNanos;
+    private final long obsoletoNanos;
+    private final int maxEntradas;
+    private final Executor executor;
+
+    private final LongAdder aciertos = new LongAdder();
+    private final LongAdder fallos = new LongAdder();
+    private final LongAdder expulsiones = new LongAdder();
+    private final LongAdder servidasObsoletas = new LongAdder();
+    private final LongAdder revalidaciones = new LongAdder();
+
+    /**
+     * @param ttlNanos      time a value is served without reloading it
+     * @param obsoletoNanos time after the TTL during which the old value is
+     *                      still served while it is reloaded in the background
+     * @param maxEntradas   maximum number of keys kept
+     * @param executor      executor running background reloads
+     */
+    public CacheLectura(long ttlNanos, long obsoletoNanos, int maxEntradas, Executor executor) {
+        this.ttlNanos = ttlNanos;
+        this.obsoletoNanos = obsoletoNanos;
+        this.maxEntradas = maxEntradas;
+        this.executor = executor;
+    }
+
+    public CompletableFuture<V> obtener(K clave, Supplier<CompletableFuture<V>> cargador) {
+        Entrada<V> entrada = entradas.get(clave);
+        if (entrada != null) {
+            if (!entrada.valor.isDone()) {
+                // Otra petición ya lo está cargando: se comparte la misma carga
+                aciertos.increment();
+                return entrada.valor.copy();
+            }
+            long edad = System.nanoTime() - entrada.cargadaEn;
+            if (edad <= ttlNanos) {
+                aciertos.increment();
+                return entrada.valor.copy();
+            }
+            if (edad <= ttlNanos + obsoletoNanos) {
+                aciertos.increment();
+                servidasObsoletas.increment();
+                revalidar(clave, entrada, cargador);
+                return entrada.valor.copy();
+            }
+            expulsiones.increment();
+        }
+        fallos.increment();
+        return cargar(clave, entrada, cargador);
+    }
+
+    /** Drops every cached value, so the next read goes upstream. */
+    public void invalidar() {
+        entradas.clear();
+    }
+
+    public int tamano() {
+        return entradas.size();
+    }
+
+    public Estadisticas estadisticas() {
+        return new Estadisticas(entradas.size(), aciertos.sum(), fallos.sum(), expulsiones.sum(),
+                servidasObsoletas.sum(), revalidaciones.sum());
+    }
+
+    private CompletableFuture<V> cargar(K clave, Entrada<V> vista, Supplier<CompletableFuture<V>> cargador) {
+        Entrada<V> nueva = new Entrada<>();
+        // Solo instala la entrada quien la encuentra tal y como la vio; el resto espera esa carga
+        Entrada<V> instalada = entradas.compute(clave, (k, actual) -> actual == vista ? nueva : actual);
+        if (instalada != nueva) {
+            return instalada.valor.copy();
+        }
+        if (vista == null && entradas.size() > maxEntradas) {
+            hacerSitio(clave);
+        }
+        iniciar(cargador).whenComplete((valor, error) -> {
+            if (error != null) {
+                entradas.remove(clave, nueva);
+                nueva.valor.completeExceptionally(error);
+            } else {
+                nueva.cargadaEn = System.nanoTime();
+                nueva.valor.complete(valor);
+            }
+        });
+        return nueva.valor.copy();
+    }
+
+    private void revalidar(K clave, Entrada<V> obsoleta, Supplier<CompletableFuture<V>> cargador) {
+        if (!obsoleta.revalidando.compareAndSet(false, true)) {
+            return;
+        }
+        revalidaciones.increment();
+        CompletableFuture.supplyAsync(() -> iniciar(cargador), executor)
+                .thenCompose(carga -> carga)
+                .whenComplete((valor, error) -> {
+                    if (error != null) {
+                        // Se sigue sirviendo el valor anterior hasta el siguiente intento
+                        obsoleta.revalidando.set(false);
+                        return;
+                    }
+                    Entrada<V> fresca = new Entrada<>();
+                    fresca.cargadaEn = System.nanoTime();
+                    fresca.valor.complete(valor);
+                    entradas.replace(clave, obsoleta, fresca);
+                });
+    }
+
+    private CompletableFuture<V> iniciar(Supplier<CompletableFuture<V>> cargador) {
+        try {
+            return cargador.get();
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    // Expulsa la entrada cargada hace más tiempo
+    private void hacerSitio(K protegida) {
+        Map.Entry<K, Entrada<V>> masAntigua = null;
+        for (Map.Entry<K, Entrada<V>> candidata : entradas.entrySet()) {
+            if (candidata.getKey().equals(protegida) || !candidata.getValue().valor.isDone()) {
+                continue;
+            }
+            if (masAntigua == null || candidata.getValue().cargadaEn - masAntigua.getValue().cargadaEn < 0) {
+                masAntigua = candidata;
+            }
+        }
+        if (masAntigua != null && entradas.remove(masAntigua.getKey(), masAntigua.getValue())) {
+            expulsiones.increment();
+        }
+    }
+
+    private static final class Entrada<V> {
+        private final CompletableFuture<V> valor = new CompletableFuture<>();
+        private final AtomicBoolean revalidando = new AtomicBoolean();
+        private volatile long cargadaEn;
+    }
+
+    /**
+     * Counters of the cache: hits (including stale values served), misses,
+     * evictions because of size or expiry, stale values served and background
+     * reloads started.
+     */
+    public record Estadisticas(
+            int entradas,
+            long aciertos,
+            long fallos,
+            long expulsiones,
+            long servidasObsoletas,
+            long revalidaciones) {
+    }
+}
@@ -0,0 +1,136 @@
+package es.deusto.sd.strava.client.cache;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.stereotype.Component;
+
+import es.deusto.sd.strava.client.data.Reto;
+
+/**
+ * Shared cache of the public reto catalog. The catalog does not depend on the
+ * user, so a single copy serves every page view; the proxies read through it
+ * and invalidate it as soon as a new reto is created.
+ *
+ * Every load of the full catalog also builds an {@link IndiceRetos}, and the
+ * filtered queries are answered from it, without going upstream, while it is
+ * younger than the TTL. Until the catalog has been loaded, after the TTL, after
+ * an invalidation and for dates before the day it was loaded (the catalog
+ * only has the active retos) the filtered endpoint is used instead, cached
+ * per date and sport as before. The day is counted in the zone of the server
+ * ({@code api.zona-horaria}), where the dates of the retos start, not in that
+ * of this machine.
+ *
+ * {@link #version()} changes whenever the catalog served may have changed: a
+ * load that brings a different list (a 304 revalidation keeps the same one)
+ * and every invalidation. What is derived from the catalog, such as the
+ * rendered reto table, is kept per version.
+ */
+@Component
+public class CatalogoRetosCache {
+
+    private static final String TODOS = "*";
+
+    private final CacheLectura<String, List<Reto>> cache;
+    private final long ttlNanos;
+    private final ZoneId zonaServidor;
+    private final AtomicLong generacion = new AtomicLong();
+    private final AtomicLong version = new AtomicLong();
+    private volatile Indexado indexado;
+
+    private final LongAdder consultasLocales = new LongAdder();
+    private final LongAdder consultasServidor = new LongAdder();
+
+    public CatalogoRetosCache(
+            @Value("${strava.cache.retos.ttl:30s}") Duration ttl,
+            @Value("${strava.cache.retos.obsoleto:5m}") Duration obsoleto,
+            @Value("${strava.cache.retos.max-entradas:64}") int maxEntradas,
+            @Value("${api.zona-horaria:UTC}") ZoneId zonaServidor,
+            @Qualifier(TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME) Executor executor) {
+        this.cache = new CacheLectura<>(ttl.toNanos(), obsoleto.toNanos(), maxEntradas, executor);
+        this.ttlNanos = ttl.toNanos();
+        this.zonaServidor = zonaServidor;
+    }
+
+    /** Catalog of active retos, without filters. */
+    public CompletableFuture<List<Reto>> activos(Supplier<CompletableFuture<List<Reto>>> cargador) {
+        return cache.obtener(TODOS, () -> {
+            long vista = generacion.get();
+            return cargador.get().thenApply(retos -> indexar(vista, retos));
+        });
+    }
+
+    /** Active retos filtered by date and sport; these results are public too. */
+    public CompletableFuture<List<Reto>> filtrados(LocalDate fecha, String deporte,
+            Supplier<CompletableFuture<List<Reto>>> cargador) {
+        LocalDate dia = fecha != null ? fecha : LocalDate.now(); // Mismo valor por defecto que el proxy
+        Indexado actual = indexado;
+        if (actual != null && System.nanoTime() - actual.cargadoEn <= ttlNanos && !dia.isBefore(actual.dia)) {
+            consultasLocales.increment();
+            long inicioDia = dia.atStartOfDay(zonaServidor).toInstant().toEpochMilli();
+            return CompletableFuture.completedFuture(actual.indice.filtrar(inicioDia, deporte));
+        }
+        consultasServidor.increment();
+        return cache.obtener(dia + "|" + deporte, cargador);
+    }
+
+    public synchronized void invalidar() {
+        generacion.incrementAndGet();
+        version.incrementAndGet();
+        indexado = null;
+        cache.invalidar();
+    }
+
+    /** Version of the catalog, see above. */
+    public long version() {
+        return version.get();
+    }
+
+    /** Whether the index can answer now, its retos and sports and the filtered queries answered with and without it. */
+    public EstadisticasIndice indice() {
+        Indexado actual = indexado;
+        boolean vigente = actual != null && System.nanoTime() - actual.cargadoEn <= ttlNanos;
+        return new EstadisticasIndice(vigente, actual != null ? actual.indice.retos() : 0,
+                actual != null ? actual.indice.deportes() : 0, consultasLocales.sum(), consultasServidor.sum());
+    }
+
+    // Un catálogo descargado antes de la última invalidación no se indexa
+    private List<Reto> indexar(long vista, List<Reto> retos) {
+        Indexado nuevo = new Indexado(retos, new IndiceRetos(retos), LocalDate.now(), System.nanoTime());
+        synchronized (this) {
+            if (generacion.get() == vista) {
+                Indexado anterior = indexado;
+                if (anterior == null || anterior.retos != retos) {
+                    version.incrementAndGet();
+                }
+                indexado = nuevo;
+            }
+        }
+        return retos;
+    }
+
+    private record Indexado(List<Reto> retos, IndiceRetos indice, LocalDate dia, long cargadoEn) {
+    }
+
+    public record EstadisticasIndice(
+            boolean vigente,
+            int retos,
+            int deportes,
+            long consultasLocales,
+            long consultasServidor) {
+    }
+
+    public CacheLectura.Estadisticas estadisticas() {
+        return cache.estadisticas();
+    }
+}
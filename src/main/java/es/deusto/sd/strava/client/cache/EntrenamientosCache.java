@@ -0,0 +1,466 @@
+package es.deusto.sd.strava.client.cache;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import es.deusto.sd.strava.client.data.Entrenamiento;
+import es.deusto.sd.strava.client.data.PaginaEntrenamientos;
+
+/**
+ * Per-user cache of trainings, organised by the date intervals already
+ * downloaded from the server.
+ *
+ * A query is answered in two steps. {@link #pendientes} returns the parts of
+ * the requested range that are not covered yet; the proxy downloads only those
+ * sub-ranges and hands them to {@link #completar}, which merges them and
+ * answers the whole range from memory. A range contained in what the user
+ * already loaded therefore needs no upstream call at all. Once a range is
+ * covered, {@link #pagina} serves it page by page with a keyset cursor.
+ *
+ * The cache is bounded by the total number of trainings kept: when the limit
+ * is exceeded the least recently used users are dropped. Users with more
+ * trainings than {@code max-por-usuario} are not cached, and every user's data
+ * is discarded after the TTL so that changes made elsewhere become visible.
+ *
+ * Open-ended ranges (null dates) are supported, and the server is assumed to
+ * filter by date inclusively at both ends.
+ */
+@Component
+public class EntrenamientosCache {
+
+    private static final long SIN_INICIO = LocalDate.MIN.toEpochDay();
+    private static final long SIN_FIN = LocalDate.MAX.toEpochDay();
+    private static final String PREFIJO_CURSOR = "d";
+
+    private final ConcurrentHashMap<String, Historial> historiales = new ConcurrentHashMap<>();
+    // Usuarios con demasiados entrenamientos para la caché, con el instante en que se excluyeron
+    private final ConcurrentHashMap<String, Long> excluidos = new ConcurrentHashMap<>();
+    private final AtomicLong totalEntrenamientos = new AtomicLong();
+    private final long ttlNanos;
+    private final long maxTotal;
+    private final int maxPorUsuario;
+
+    private final LongAdder aciertos = new LongAdder();
+    private final LongAdder parciales = new LongAdder();
+    private final LongAdder fallos = new LongAdder();
+    private final LongAdder expulsiones = new LongAdder();
+
+    public EntrenamientosCache(
+            @Value("${strava.cache.entrenamientos.ttl:5m}") Duration ttl,
+            @Value("${strava.cache.entrenamientos.max-total:200000}") long maxTotal,
+            @Value("${strava.cache.entrenamientos.max-por-usuario:20000}") int maxPorUsuario) {
+        this.ttlNanos = ttl.toNanos();
+        this.maxTotal = maxTotal;
+        this.maxPorUsuario = maxPorUsuario;
+    }
+
+    /**
+     * Date range to download from the server; a null bound means the range is
+     * open on that side.
+     */
+    public record Rango(LocalDate desde, LocalDate hasta) {
+    }
+
+    /** Sub-ranges of [desde, hasta] that must be downloaded before answering. */
+    public List<Rango> pendientes(String token, LocalDate desde, LocalDate hasta) {
+        long inicio = dia(desde, SIN_INICIO);
+        long fin = dia(hasta, SIN_FIN);
+        Historial historial = historial(token);
+        List<Rango> pendientes;
+        historial.lock.lock();
+        try {
+            pendientes = historial.huecos(inicio, fin);
+        } finally {
+            historial.lock.unlock();
+        }
+        if (pendientes.isEmpty()) {
+            aciertos.increment();
+        } else if (pendientes.size() == 1 && pendientes.get(0).equals(rango(inicio, fin))) {
+            fallos.increment();
+        } else {
+            parciales.increment();
+        }
+        return pendientes;
+    }
+
+    /**
+     * Merges the downloaded sub-ranges and returns the trainings of
+     * [desde, hasta] ordered by date.
+     *
+     * Returns null when the range is still not fully covered after the merge:
+     * the user's history expired or was evicted while the sub-ranges were
+     * being downloaded, so the parts that were covered are gone. The caller
+     * must then download the whole range and call this method again with it,
+     * which always succeeds.
+     */
+    public List<Entrenamiento> completar(String token, LocalDate desde, LocalDate hasta,
+            Map<Rango, List<Entrenamiento>> descargados) {
+        long inicio = dia(desde, SIN_INICIO);
+        long fin = dia(hasta, SIN_FIN);
+        Historial historial = historial(token);
+        List<Entrenamiento> resultado = new ArrayList<>();
+        boolean cubierto;
+        historial.lock.lock();
+        try {
+            historial.sustituir(descargados);
+            cubierto = historial.huecos(inicio, fin).isEmpty();
+            if (cubierto) {
+                for (List<Entrenamiento> delDia : historial.porDia.subMap(inicio, true, fin, true).values()) {
+                    resultado.addAll(delDia);
+                }
+            }
+            contabilizar(token, historial);
+        } finally {
+            historial.lock.unlock();
+        }
+        hacerSitio();
+        return cubierto ? resultado : null;
+    }
+
+    /** Merges the downloaded sub-ranges without building any answer. */
+    public void incorporar(String token, Map<Rango, List<Entrenamiento>> descargados) {
+        if (descargados.isEmpty()) {
+            return;
+        }
+        Historial historial = historial(token);
+        historial.lock.lock();
+        try {
+            historial.sustituir(descargados);
+            contabilizar(token, historial);
+        } finally {
+            historial.lock.unlock();
+        }
+        hacerSitio();
+    }
+
+    /** Whether the text has the form of a cursor returned by {@link #pagina}. */
+    public static boolean esCursor(String cursor) {
+        int punto = cursor.indexOf('.');
+        if (!cursor.startsWith(PREFIJO_CURSOR) || punto < 0) {
+            return false;
+        }
+        try {
+            Long.parseLong(cursor.substring(PREFIJO_CURSOR.length(), punto));
+            return Integer.parseInt(cursor.substring(punto + 1)) >= 0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns up to {@code limite} trainings of [desde, hasta], ordered by
+     * date, starting at the cursor of a previous page (null for the first
+     * one). The cursor points at a day and a position inside it, so reaching a
+     * page costs a tree lookup and only the trainings of the page are copied.
+     *
+     * Returns null when the range is not fully covered any more (the user may
+     * have been evicted meanwhile) or the cursor was not produced here; the
+     * caller must then read the page from the server.
+     */
+    public PaginaEntrenamientos pagina(String token, LocalDate desde, LocalDate hasta, String cursor, int limite) {
+        long inicio = dia(desde, SIN_INICIO);
+        long fin = dia(hasta, SIN_FIN);
+        long diaCursor = inicio;
+        int posicionCursor = 0;
+        if (cursor != null) {
+            int punto = cursor.indexOf('.');
+            if (!cursor.startsWith(PREFIJO_CURSOR) || punto < 0) {
+                return null;
+            }
+            try {
+                diaCursor = Math.max(inicio, Long.parseLong(cursor.substring(PREFIJO_CURSOR.length(), punto)));
+                posicionCursor = Integer.parseInt(cursor.substring(punto + 1));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        Historial historial = historiales.get(token);
+        if (historial == null) {
+            return null;
+        }
+        List<Entrenamiento> entrenamientos = new ArrayList<>(Math.min(limite, 256));
+        historial.lock.lock();
+        try {
+            if (historial.descartado || !historial.huecos(inicio, fin).isEmpty()) {
+                return null;
+            }
+            historial.ultimoAcceso = System.nanoTime();
+            for (Map.Entry<Long, List<Entrenamiento>> delDia : historial.porDia
+                    .subMap(diaCursor, true, fin, true).entrySet()) {
+                List<Entrenamiento> lista = delDia.getValue();
+                int desdePosicion = delDia.getKey() == diaCursor ? posicionCursor : 0;
+                for (int i = desdePosicion; i < lista.size(); i++) {
+                    if (entrenamientos.size() == limite) {
+                        return new PaginaEntrenamientos(entrenamientos, PREFIJO_CURSOR + delDia.getKey() + "." + i);
+                    }
+                    entrenamientos.add(lista.get(i));
+                }
+            }
+        } finally {
+            historial.lock.unlock();
+        }
+        return new PaginaEntrenamientos(entrenamientos, null);
+    }
+
+    /**
+     * True when the user's history was too large to cache; their queries must
+     * go to the server until the TTL expires or the user logs out.
+     */
+    public boolean excluido(String token) {
+        Long desde = excluidos.get(token);
+        if (desde == null) {
+            return false;
+        }
+        if (System.nanoTime() - desde > ttlNanos) {
+            excluidos.remove(token, desde);
+            return false;
+        }
+        return true;
+    }
+
+    /** Marks the user as too large to cache and drops what was kept. */
+    public void excluir(String token) {
+        olvidar(token);
+        excluidos.put(token, System.nanoTime());
+    }
+
+    public int maxPorUsuario() {
+        return maxPorUsuario;
+    }
+
+    /** Write-through of a training just created upstream. */
+    public void anadir(String token, Entrenamiento entrenamiento) {
+        Historial historial = historiales.get(token);
+        if (historial == null || entrenamiento.fechaInicio() == null) {
+            return;
+        }
+        long fecha = entrenamiento.fechaInicio().toEpochDay();
+        historial.lock.lock();
+        try {
+            // Solo se guarda si su fecha está cubierta; si no, llegará con la próxima descarga de ese rango
+            Map.Entry<Long, Long> cubierto = historial.cubiertos.floorEntry(fecha);
+            if (cubierto != null && cubierto.getValue() >= fecha) {
+                historial.porDia.computeIfAbsent(fecha, k -> new ArrayList<>()).add(entrenamiento);
+                historial.total++;
+                contabilizar(token, historial);
+            }
+        } finally {
+            historial.lock.unlock();
+        }
+        hacerSitio();
+    }
+
+    /** Drops everything cached for the user, e.g. after a logout. */
+    public void olvidar(String token) {
+        excluidos.remove(token);
+        Historial historial = historiales.get(token);
+        if (historial != null) {
+            retirar(token, historial);
+        }
+    }
+
+    public Estadisticas estadisticas() {
+        return new Estadisticas(historiales.size(), totalEntrenamientos.get(), aciertos.sum(), parciales.sum(),
+                fallos.sum(), expulsiones.sum());
+    }
+
+    private Historial historial(String token) {
+        long ahora = System.nanoTime();
+        Historial historial = historiales.get(token);
+        if (historial != null && ahora - historial.creado > ttlNanos) {
+            if (retirar(token, historial)) {
+                expulsiones.increment();
+            }
+            historial = null;
+        }
+        if (historial == null) {
+            historial = historiales.computeIfAbsent(token, t -> new Historial(ahora));
+        }
+        historial.ultimoAcceso = ahora;
+        return historial;
+    }
+
+    // Traslada al contador global la variación del usuario; se llama con su cerrojo adquirido
+    private void contabilizar(String token, Historial historial) {
+        if (historial.descartado) {
+            return;
+        }
+        if (historial.total > maxPorUsuario) {
+            // Demasiados entrenamientos para un solo usuario: se le sirve sin caché
+            excluidos.put(token, System.nanoTime());
+            historial.descartado = true;
+            historiales.remove(token, historial);
+            totalEntrenamientos.addAndGet(-historial.contados);
+            return;
+        }
+        totalEntrenamientos.addAndGet(historial.total - historial.contados);
+        historial.contados = historial.total;
+    }
+
+    // Expulsa a los usuarios usados hace más tiempo mientras se supere el límite global
+    private void hacerSitio() {
+        while (totalEntrenamientos.get() > maxTotal) {
+            Map.Entry<String, Historial> masAntiguo = null;
+            for (Map.Entry<String, Historial> candidato : historiales.entrySet()) {
+                if (masAntiguo == null
+                        || candidato.getValue().ultimoAcceso - masAntiguo.getValue().ultimoAcceso < 0) {
+                    masAntiguo = candidato;
+                }
+            }
+            if (masAntiguo == null) {
+                return;
+            }
+            if (retirar(masAntiguo.getKey(), masAntiguo.getValue())) {
+                expulsiones.increment();
+            }
+        }
+    }
+
+    private boolean retirar(String token, Historial historial) {
+        historial.lock.lock();
+        try {
+            if (historial.descartado) {
+                return false;
+            }
+            historial.descartado = true;
+            historiales.remove(token, historial);
+            totalEntrenamientos.addAndGet(-historial.contados);
+            return true;
+        } finally {
+            historial.lock.unlock();
+        }
+    }
+
+    private static long dia(LocalDate fecha, long porDefecto) {
+        return fecha != null ? fecha.toEpochDay() : porDefecto;
+    }
+
+    private static Rango rango(long desde, long hasta) {
+        return new Rango(desde == SIN_INICIO ? null : LocalDate.ofEpochDay(desde),
+                hasta == SIN_FIN ? null : LocalDate.ofEpochDay(hasta));
+    }
+
+    private static final class Historial {
+        private final ReentrantLock lock = new ReentrantLock();
+        // Intervalos de días ya descargados (inicio -> fin, ambos incluidos), disjuntos y no adyacentes
+        private final TreeMap<Long, Long> cubiertos = new TreeMap<>();
+        private final TreeMap<Long, List<Entrenamiento>> porDia = new TreeMap<>();
+        private final long creado;
+        private volatile long ultimoAcceso;
+        private int total;
+        // Entrenamientos ya sumados al contador global
+        private int contados;
+        private boolean descartado;
+
+        private Historial(long creado) {
+            this.creado = creado;
+            this.ultimoAcceso = creado;
+        }
+
+        private List<Rango> huecos(long inicio, long fin) {
+            List<Rango> huecos = new ArrayList<>();
+            long cursor = inicio;
+            Map.Entry<Long, Long> previo = cubiertos.floorEntry(inicio);
+            NavigableMap<Long, Long> candidatos = cubiertos.tailMap(previo != null ? previo.getKey() : inicio, true);
+            for (Map.Entry<Long, Long> cubierto : candidatos.entrySet()) {
+                long desdeCubierto = cubierto.getKey();
+                long hastaCubierto = cubierto.getValue();
+                if (desdeCubierto > fin || cursor > fin) {
+                    break;
+                }
+                if (hastaCubierto < cursor) {
+                    continue;
+                }
+                if (desdeCubierto > cursor) {
+                    huecos.add(rango(cursor, desdeCubierto - 1));
+                }
+                if (hastaCubierto >= fin) {
+                    cursor = fin + 1;
+                    break;
+                }
+                cursor = hastaCubierto + 1;
+            }
+            if (cursor <= fin) {
+                huecos.add(rango(cursor, fin));
+            }
+            return huecos;
+        }
+
+        private void sustituir(Map<Rango, List<Entrenamiento>> descargados) {
+            for (Map.Entry<Rango, List<Entrenamiento>> descarga : descargados.entrySet()) {
+                sustituir(dia(descarga.getKey().desde(), SIN_INICIO), dia(descarga.getKey().hasta(), SIN_FIN),
+                        descarga.getValue());
+            }
+        }
+
+        // Reemplaza el contenido de [desde, hasta] por lo descargado y lo marca como cubierto
+        private void sustituir(long desde, long hasta, List<Entrenamiento> descargados) {
+            NavigableMap<Long, List<Entrenamiento>> previos = porDia.subMap(desde, true, hasta, true);
+            for (List<Entrenamiento> delDia : previos.values()) {
+                total -= delDia.size();
+            }
+            previos.clear();
+            if (descargados != null) {
+                for (Entrenamiento entrenamiento : descargados) {
+                    if (entrenamiento.fechaInicio() == null) {
+                        continue;
+                    }
+                    long fecha = entrenamiento.fechaInicio().toEpochDay();
+                    if (fecha >= desde && fecha <= hasta) {
+                        porDia.computeIfAbsent(fecha, k -> new ArrayList<>()).add(entrenamiento);
+                        total++;
+                    }
+                }
+            }
+            marcarCubierto(desde, hasta);
+        }
+
+        private void marcarCubierto(long desde, long hasta) {
+            long nuevoDesde = desde;
+            long nuevoHasta = hasta;
+            Map.Entry<Long, Long> previo = cubiertos.floorEntry(desde);
+            Long inicioBusqueda = previo != null ? previo.getKey() : desde;
+            for (Iterator<Map.Entry<Long, Long>> it = cubiertos.tailMap(inicioBusqueda, true).entrySet()
+                    .iterator(); it.hasNext();) {
+                Map.Entry<Long, Long> cubierto = it.next();
+                // Se fusionan los intervalos que se solapan o son contiguos
+                if (cubierto.getKey() > nuevoHasta && cubierto.getKey() - 1 > nuevoHasta) {
+                    break;
+                }
+                if (cubierto.getValue() < nuevoDesde - 1) {
+                    continue;
+                }
+                nuevoDesde = Math.min(nuevoDesde, cubierto.getKey());
+                nuevoHasta = Math.max(nuevoHasta, cubierto.getValue());
+                it.remove();
+            }
+            cubiertos.put(nuevoDesde, nuevoHasta);
+        }
+    }
+
+    /**
+     * Counters of the cache: cached users and trainings, queries answered
+     * entirely from memory, partially, or fully downloaded, and users evicted.
+     */
+    public record Estadisticas(
+            int usuarios,
+            long entrenamientos,
+            long aciertos,
+            long parciales,
+            long fallos,
+            long expulsiones) {
+    }
+}
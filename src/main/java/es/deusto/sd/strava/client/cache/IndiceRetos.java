@@ -0,0 +1,159 @@
+package es.deusto.sd.strava.client.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import es.deusto.sd.strava.client.data.Reto;
+
+/**
+ * Immutable index of one reto catalog for the filtered queries: a posting
+ * list per sport (and one with every reto) sorted by start date, each with an
+ * interval structure over the dates of its retos.
+ *
+ * A reto matches a day when it starts before the end of that day and ends
+ * after its start, the same rule as the server. Within a posting list the
+ * candidates are the prefix that starts before the end of the day (a binary
+ * search), and a segment tree with the latest end of each segment of that
+ * prefix skips every segment where all retos have already ended, so a query
+ * costs O(log n) plus O(log n) per match. The matches are returned in catalog
+ * order, like the server does; the only arrays created are those of the
+ * result.
+ */
+final class IndiceRetos {
+
+    static final long DIA = 24L * 60 * 60 * 1000;
+
+    private final Reto[] retos;
+    private final Postings todos;
+    private final Map<String, Postings> porDeporte = new HashMap<>();
+
+    IndiceRetos(List<Reto> catalogo) {
+        this.retos = catalogo.toArray(new Reto[0]);
+        int[] todas = new int[retos.length];
+        Map<String, List<Integer>> grupos = new HashMap<>();
+        for (int i = 0; i < retos.length; i++) {
+            todas[i] = i;
+            grupos.computeIfAbsent(clave(retos[i].deporte()), deporte -> new ArrayList<>()).add(i);
+        }
+        this.todos = new Postings(retos, todas);
+        grupos.forEach((deporte, posiciones) -> porDeporte.put(deporte,
+                new Postings(retos, posiciones.stream().mapToInt(Integer::intValue).toArray())));
+    }
+
+    /**
+     * Retos of the sport (every sport if it is null or blank) active on the
+     * day that starts at {@code inicioDia} (epoch millis).
+     */
+    List<Reto> filtrar(long inicioDia, String deporte) {
+        Postings postings = deporte == null || deporte.isBlank() ? todos : porDeporte.get(deporte);
+        if (postings == null) {
+            return List.of();
+        }
+        return postings.filtrar(retos, inicioDia, inicioDia + DIA);
+    }
+
+    int retos() {
+        return retos.length;
+    }
+
+    int deportes() {
+        return porDeporte.size();
+    }
+
+    private static String clave(String deporte) {
+        return deporte != null ? deporte : "";
+    }
+
+    /** Positions of some retos in the catalog, sorted by start date, with their interval structure. */
+    private static final class Postings {
+        private final int[] posiciones;
+        private final long[] inicios;
+        private final long[] maxFin; // Árbol de segmentos implícito: el nodo n cubre sus hijos 2n y 2n+1
+        private final int hojas;
+
+        private Postings(Reto[] retos, int[] posiciones) {
+            Integer[] orden = new Integer[posiciones.length];
+            for (int i = 0; i < orden.length; i++) {
+                orden[i] = posiciones[i];
+            }
+            Arrays.sort(orden, Comparator.comparingLong((Integer i) -> retos[i].fechaInicio()));
+            this.posiciones = new int[orden.length];
+            this.inicios = new long[orden.length];
+            int hojas = 1;
+            while (hojas < orden.length) {
+                hojas <<= 1;
+            }
+            this.hojas = hojas;
+            this.maxFin = new long[2 * hojas];
+            Arrays.fill(maxFin, Long.MIN_VALUE);
+            for (int i = 0; i < orden.length; i++) {
+                this.posiciones[i] = orden[i];
+                this.inicios[i] = retos[orden[i]].fechaInicio();
+                maxFin[hojas + i] = retos[orden[i]].fechaFin();
+            }
+            for (int nodo = hojas - 1; nodo > 0; nodo--) {
+                maxFin[nodo] = Math.max(maxFin[2 * nodo], maxFin[2 * nodo + 1]);
+            }
+        }
+
+        private List<Reto> filtrar(Reto[] retos, long desde, long hasta) {
+            int candidatos = empiezanHasta(hasta);
+            int cuenta = contar(1, 0, hojas, candidatos, desde);
+            if (cuenta == 0) {
+                return List.of();
+            }
+            int[] encontradas = new int[cuenta];
+            recoger(1, 0, hojas, candidatos, desde, encontradas, 0);
+            Arrays.sort(encontradas);
+            Reto[] resultado = new Reto[cuenta];
+            for (int i = 0; i < cuenta; i++) {
+                resultado[i] = retos[encontradas[i]];
+            }
+            return Arrays.asList(resultado);
+        }
+
+        // Número de retos que empiezan como muy tarde en 'hasta' (los primeros de la lista)
+        private int empiezanHasta(long hasta) {
+            int bajo = 0;
+            int alto = inicios.length;
+            while (bajo < alto) {
+                int medio = (bajo + alto) >>> 1;
+                if (inicios[medio] <= hasta) {
+                    bajo = medio + 1;
+                } else {
+                    alto = medio;
+                }
+            }
+            return bajo;
+        }
+
+        // Retos entre los 'limite' primeros que terminan en 'desde' o después, bajo el nodo que cubre [inicio, fin)
+        private int contar(int nodo, int inicio, int fin, int limite, long desde) {
+            if (inicio >= limite || maxFin[nodo] < desde) {
+                return 0;
+            }
+            if (fin - inicio == 1) {
+                return 1;
+            }
+            int medio = (inicio + fin) >>> 1;
+            return contar(2 * nodo, inicio, medio, limite, desde) + contar(2 * nodo + 1, medio, fin, limite, desde);
+        }
+
+        private int recoger(int nodo, int inicio, int fin, int limite, long desde, int[] encontradas, int siguiente) {
+            if (inicio >= limite || maxFin[nodo] < desde) {
+                return siguiente;
+            }
+            if (fin - inicio == 1) {
+                encontradas[siguiente] = posiciones[inicio];
+                return siguiente + 1;
+            }
+            int medio = (inicio + fin) >>> 1;
+            siguiente = recoger(2 * nodo, inicio, medio, limite, desde, encontradas, siguiente);
+            return recoger(2 * nodo + 1, medio, fin, limite, desde, encontradas, siguiente);
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package es.deusto.sd.strava.client.data;
+
+import java.util.List;
+
+public record PaginaEntrenamientos(
+		List<Entrenamiento> entrenamientos,
+		String siguiente // Cursor opaco de la página siguiente; null si es la última
+	) {}
@@ -6,5 +6,6 @@ public record Reto(
 		long fechaFin,
 		float objetivoDistancia,
 		int objetivoTiempo,
-		String deporte
+		String deporte,
+		Float progreso // Porcentaje completado; solo lo informa el servidor en los retos aceptados
 	) {}
\ No newline at end of file
@@ -0,0 +1,607 @@
+package es.deusto.sd.strava.client.envios;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import es.deusto.sd.strava.client.envios.RegistroEnvios.Evento;
+import es.deusto.sd.strava.client.envios.RegistroEnvios.TipoEvento;
+import es.deusto.sd.strava.client.proxies.IStravaServiceProxyAsync;
+import es.deusto.sd.strava.client.proxies.StravaServiceException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Write-behind mailbox for new trainings and challenges, enabled with
+ * {@code strava.envios.diferidos=true}.
+ *
+ * A submission is acknowledged as soon as it has been appended to the log
+ * ({@link RegistroEnvios}), which groups concurrent appends and applies each
+ * change to the mailbox once its event is written, so the lock of the mailbox
+ * is never held during disk I/O. It is then sent upstream in the background
+ * through the asynchronous proxy:
+ * <ul>
+ * <li>each user has a queue and only its head is in flight, so the
+ * submissions of a user reach the server in the order they were made, while
+ * up to {@code strava.envios.lote} users are served at the same time;</li>
+ * <li>transient failures (no connection, timeouts, 5xx, 429) are retried
+ * with exponential backoff and jitter, up to {@code strava.envios.max-intentos}
+ * attempts, always with the same Idempotency-Key;</li>
+ * <li>other failures, or too many attempts, move the submission to the
+ * failed list, where the user can retry or discard it, and the queue goes
+ * on with the next one.</li>
+ * </ul>
+ * Queues belong to users, identified by the email they log in with, not to
+ * sessions: the token a submission is sent with is the one of the user's
+ * latest session and is only kept in memory, never in the log. While a token
+ * still has submissions to send, its upstream logout is held back
+ * ({@link #aplazarCierre}); a submission rejected because its token is no
+ * longer valid waits for the user's next login instead of failing.
+ *
+ * On startup the log is replayed: whatever was not confirmed by the server is
+ * sent again once its user logs in, so the mailbox is created on startup even
+ * with lazy initialization.
+ */
+@Service
+@Lazy(false)
+@ConditionalOnProperty(name = "strava.envios.diferidos", havingValue = "true")
+public class BuzonEnvios {
+
+    private static final Logger logger = LoggerFactory.getLogger(BuzonEnvios.class);
+
+    private final IStravaServiceProxyAsync stravaServiceProxyAsync;
+    private final Executor executor;
+    private final RegistroEnvios registro;
+    private final int lote;
+    private final int maxIntentos;
+    private final long esperaInicialNanos;
+    private final long esperaMaximaNanos;
+    private final long compactarBytes;
+
+    // Estado del buzón, protegido por estado. Cada cambio lo aplica el registro cuando su evento ya está
+    // anotado, así que nunca se escribe en disco con estado tomado (el registro lo toma dentro de su cerrojo).
+    // Las colas son por usuario; solo tienen token las de los usuarios con sesión
+    private final ReentrantLock estado = new ReentrantLock();
+    private final Map<String, Deque<Entrada>> colas = new LinkedHashMap<>();
+    private final Map<String, Fallido> fallidos = new LinkedHashMap<>();
+    private final Map<String, String> tokens = new HashMap<>();
+    // Cierres de sesión aplazados de cada usuario, por token
+    private final Map<String, Map<String, Runnable>> cierres = new HashMap<>();
+    private int enVuelo;
+    private long enviados;
+    private long reintentos;
+    // Fallidos que se están reintentando o descartando, mientras se anota
+    private final Set<String> reclamados = new HashSet<>();
+    private final AtomicBoolean compactando = new AtomicBoolean();
+    private volatile long tamanoTrasCompactar;
+
+    public BuzonEnvios(IStravaServiceProxyAsync stravaServiceProxyAsync, ObjectMapper mapper,
+            @Qualifier(TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME) Executor executor,
+            @Value("${strava.envios.registro:data/envios.log}") Path fichero,
+            @Value("${strava.envios.sincronizar:true}") boolean sincronizar,
+            @Value("${strava.envios.lote:16}") int lote,
+            @Value("${strava.envios.max-intentos:10}") int maxIntentos,
+            @Value("${strava.envios.espera-inicial:1s}") Duration esperaInicial,
+            @Value("${strava.envios.espera-maxima:5m}") Duration esperaMaxima,
+            @Value("${strava.envios.compactar:16MB}") DataSize compactar) {
+        this.stravaServiceProxyAsync = stravaServiceProxyAsync;
+        this.executor = executor;
+        this.registro = new RegistroEnvios(fichero, mapper, sincronizar);
+        this.lote = lote;
+        this.maxIntentos = maxIntentos;
+        this.esperaInicialNanos = esperaInicial.toNanos();
+        this.esperaMaximaNanos = esperaMaxima.toNanos();
+        this.compactarBytes = compactar.toBytes();
+    }
+
+    @PostConstruct
+    void recuperar() throws IOException {
+        // Se reconstruye el estado repitiendo los eventos en orden
+        Map<String, Envio> pendientes = new LinkedHashMap<>();
+        estado.lock();
+        try {
+            for (Evento evento : registro.leer()) {
+                switch (evento.tipo()) {
+                    case ALTA -> pendientes.put(evento.envio().id(), evento.envio());
+                    case ENVIADO -> pendientes.remove(evento.id());
+                    case FALLIDO -> {
+                        Envio envio = pendientes.remove(evento.id());
+                        if (envio != null) {
+                            fallidos.put(envio.id(), new Fallido(envio, evento.error()));
+                        }
+                    }
+                    case REINTENTO -> {
+                        Fallido fallido = fallidos.remove(evento.id());
+                        if (fallido != null) {
+                            pendientes.put(fallido.envio().id(), fallido.envio());
+                        }
+                    }
+                    case DESCARTADO -> fallidos.remove(evento.id());
+                }
+            }
+            // Los tokens no se guardan: cada cola espera a que su usuario vuelva a iniciar sesión
+            pendientes.values().forEach(envio -> cola(envio.usuario()).addLast(new Entrada(envio)));
+        } finally {
+            estado.unlock();
+        }
+        compactar();
+        logger.info("-Envios- Registro recuperado: {} envíos pendientes y {} fallidos", pendientes.size(),
+                fallidos.size());
+    }
+
+    @PreDestroy
+    void cerrar() throws IOException {
+        // Los envíos que sigan en vuelo se repetirán al arrancar, con la misma clave de idempotencia
+        registro.close();
+    }
+
+    /**
+     * Stores a new training of the user, to be sent with the given token of
+     * its session, and returns once it is in the log.
+     *
+     * @throws UncheckedIOException if it could not be written, in which case
+     *                              it has not been accepted
+     */
+    public Envio encolarEntrenamiento(String usuario, String token, String titulo, String deporte,
+            float distancia, int duracion, LocalDate fechaInicio, String horaInicio) {
+        return encolar(new Envio(UUID.randomUUID().toString(), Envio.Tipo.ENTRENAMIENTO, usuario, Instant.now(),
+                titulo, deporte, distancia, duracion, fechaInicio, horaInicio, null), token);
+    }
+
+    /** Same as {@link #encolarEntrenamiento} for a new challenge. */
+    public Envio encolarReto(String usuario, String token, String nombre, String deporte, float objetivoDistancia,
+            int objetivoTiempo, LocalDate fechaInicio, LocalDate fechaFin) {
+        return encolar(new Envio(UUID.randomUUID().toString(), Envio.Tipo.RETO, usuario, Instant.now(), nombre,
+                deporte, objetivoDistancia, objetivoTiempo, fechaInicio, null, fechaFin), token);
+    }
+
+    private Envio encolar(Envio envio, String token) {
+        anotar(Evento.alta(envio), () -> cola(envio.usuario()).addLast(new Entrada(envio)));
+        logger.info("-Envios- {} {} guardado para enviarlo en segundo plano", envio.tipo(), envio.id());
+        conEstado(() -> usarToken(envio.usuario(), token)).forEach(Runnable::run);
+        executor.execute(this::despachar);
+        return envio;
+    }
+
+    /**
+     * Moves a failed submission of the user back to its queue, to be sent with
+     * the given token; false if it does not exist.
+     */
+    public boolean reintentar(String id, String usuario, String token) {
+        Fallido fallido = reclamar(id, usuario);
+        if (fallido == null) {
+            return false;
+        }
+        try {
+            anotar(Evento.de(TipoEvento.REINTENTO, id, null), () -> {
+                reclamados.remove(id);
+                fallidos.remove(id);
+                cola(usuario).addLast(new Entrada(fallido.envio()));
+            });
+        } catch (UncheckedIOException e) {
+            conEstado(() -> reclamados.remove(id));
+            throw e;
+        }
+        conEstado(() -> usarToken(usuario, token)).forEach(Runnable::run);
+        executor.execute(this::despachar);
+        return true;
+    }
+
+    /** Forgets a failed submission of the user; false if it does not exist. */
+    public boolean descartar(String id, String usuario) {
+        if (reclamar(id, usuario) == null) {
+            return false;
+        }
+        try {
+            anotar(Evento.de(TipoEvento.DESCARTADO, id, null), () -> {
+                reclamados.remove(id);
+                fallidos.remove(id);
+            });
+        } catch (UncheckedIOException e) {
+            conEstado(() -> reclamados.remove(id));
+            throw e;
+        }
+        return true;
+    }
+
+    // Aparta un fallido del usuario mientras se anota qué se hace con él; null si no existe o ya está apartado
+    private Fallido reclamar(String id, String usuario) {
+        return conEstado(() -> {
+            Fallido fallido = fallidos.get(id);
+            if (fallido == null || !fallido.envio().usuario().equals(usuario) || !reclamados.add(id)) {
+                return null;
+            }
+            return fallido;
+        });
+    }
+
+    /**
+     * Gives the mailbox the token of a new session of the user, so that its
+     * waiting submissions are sent with it.
+     */
+    public void sesionIniciada(String usuario, String token) {
+        List<Runnable> libres = conEstado(() -> colas.containsKey(usuario) ? usarToken(usuario, token) : null);
+        if (libres == null) {
+            return;
+        }
+        libres.forEach(Runnable::run);
+        executor.execute(this::despachar);
+    }
+
+    /**
+     * Holds back the upstream logout of a token while submissions are still
+     * to be sent with it. The logout is run once they have been answered, or
+     * once a newer session of the user takes over. Returns false when nothing
+     * is waiting and the caller can log out now.
+     */
+    public boolean aplazarCierre(String token, Runnable cierre) {
+        boolean aplazado = conEstado(() -> {
+            for (String usuario : colas.keySet()) {
+                if (enUso(usuario, token)) {
+                    cierres.computeIfAbsent(usuario, u -> new HashMap<>()).put(token, cierre);
+                    return true;
+                }
+            }
+            return false;
+        });
+        if (aplazado) {
+            logger.info("-Envios- Cierre de sesión aplazado hasta enviar lo pendiente");
+        }
+        return aplazado;
+    }
+
+    // Con estado tomado. Devuelve los cierres aplazados que el cambio de token deja libres
+    private List<Runnable> usarToken(String usuario, String token) {
+        tokens.put(usuario, token);
+        return cierresLibres(usuario);
+    }
+
+    // Con estado tomado. Saca los cierres aplazados del usuario cuyo token ya no se va a usar
+    private List<Runnable> cierresLibres(String usuario) {
+        Map<String, Runnable> aplazados = cierres.get(usuario);
+        if (aplazados == null) {
+            return List.of();
+        }
+        List<Runnable> libres = new ArrayList<>();
+        aplazados.entrySet().removeIf(cierre -> {
+            if (enUso(usuario, cierre.getKey())) {
+                return false;
+            }
+            tokens.remove(usuario, cierre.getKey());
+            libres.add(cierre.getValue());
+            return true;
+        });
+        if (aplazados.isEmpty()) {
+            cierres.remove(usuario);
+        }
+        return libres;
+    }
+
+    // El token es el del usuario y tiene cola, o la cabeza de la cola ha salido con él
+    private boolean enUso(String usuario, String token) {
+        Deque<Entrada> cola = colas.get(usuario);
+        if (cola == null) {
+            return false;
+        }
+        Entrada cabeza = cola.peekFirst();
+        return token.equals(tokens.get(usuario)) || cabeza.enviando && token.equals(cabeza.token);
+    }
+
+    /**
+     * Sends the head of every queue that is not in flight, whose backoff has
+     * expired and whose user has a session, up to the batch size. It runs
+     * periodically and whenever a submission is added or answered.
+     */
+    @Scheduled(fixedDelayString = "${strava.envios.intervalo:1s}")
+    public void despachar() {
+        List<Entrada> salientes = new ArrayList<>();
+        estado.lock();
+        try {
+            long ahora = System.nanoTime();
+            for (Map.Entry<String, Deque<Entrada>> cola : colas.entrySet()) {
+                if (enVuelo >= lote) {
+                    break;
+                }
+                Entrada cabeza = cola.getValue().peekFirst();
+                String token = tokens.get(cola.getKey());
+                if (token != null && !cabeza.enviando && cabeza.siguienteIntento - ahora <= 0) {
+                    cabeza.enviando = true;
+                    cabeza.token = token;
+                    enVuelo++;
+                    salientes.add(cabeza);
+                }
+            }
+        } finally {
+            estado.unlock();
+        }
+        salientes.forEach(this::enviar);
+        compactarSiCrece();
+    }
+
+    private void enviar(Entrada entrada) {
+        Envio envio = entrada.envio;
+        CompletableFuture<Void> peticion;
+        try {
+            peticion = switch (envio.tipo()) {
+                case ENTRENAMIENTO -> stravaServiceProxyAsync.anadirEntrenamiento(entrada.token, envio.titulo(),
+                        envio.deporte(), envio.distancia(), envio.duracion(), envio.fechaInicio(),
+                        envio.horaInicio(), envio.id());
+                case RETO -> stravaServiceProxyAsync.anadirReto(entrada.token, envio.titulo(), envio.deporte(),
+                        envio.distancia(), envio.duracion(), envio.fechaInicio(), envio.fechaFin(), envio.id());
+            };
+        } catch (RuntimeException e) {
+            peticion = CompletableFuture.failedFuture(e);
+        }
+        peticion.whenComplete((ok, error) -> {
+            terminado(entrada, error == null ? null : causa(error));
+            executor.execute(this::despachar);
+        });
+    }
+
+    private void terminado(Entrada entrada, Throwable error) {
+        Envio envio = entrada.envio;
+        // La entrada sigue en vuelo hasta que se aplica la respuesta, para que no vuelva a salir
+        boolean definitivo = conEstado(() -> {
+            if (error != null && caducado(error)) {
+                // La sesión ya no vale en el servidor: no es un fallo del envío, espera al próximo login
+                liberar(entrada);
+                tokens.remove(envio.usuario(), entrada.token);
+                entrada.ultimoError = error.getMessage();
+                return false;
+            }
+            if (error != null && transitorio(error) && entrada.intentos + 1 < maxIntentos) {
+                liberar(entrada);
+                entrada.intentos++;
+                entrada.ultimoError = error.getMessage();
+                entrada.siguienteIntento = System.nanoTime() + espera(entrada.intentos);
+                reintentos++;
+                return false;
+            }
+            return true;
+        });
+        if (error == null) {
+            anotarSinFallar(Evento.de(TipoEvento.ENVIADO, envio.id(), null), () -> {
+                liberar(entrada);
+                quitar(entrada);
+                enviados++;
+            });
+            logger.info("-Envios- {} {} enviado", envio.tipo(), envio.id());
+        } else if (definitivo) {
+            anotarSinFallar(Evento.de(TipoEvento.FALLIDO, envio.id(), error.getMessage()), () -> {
+                liberar(entrada);
+                quitar(entrada);
+                fallidos.put(envio.id(), new Fallido(envio, error.getMessage()));
+            });
+            logger.error("-Envios- {} no se ha podido enviar: {}", envio.id(), error.getMessage());
+        } else if (caducado(error)) {
+            logger.warn("-Envios- {} espera a que el usuario vuelva a iniciar sesión: {}", envio.id(),
+                    error.getMessage());
+        } else {
+            logger.warn("-Envios- {} falló (intento {}), se reintentará: {}", envio.id(), entrada.intentos,
+                    error.getMessage());
+        }
+        conEstado(() -> cierresLibres(envio.usuario())).forEach(Runnable::run);
+    }
+
+    private void liberar(Entrada entrada) {
+        enVuelo--;
+        entrada.enviando = false;
+    }
+
+    private Deque<Entrada> cola(String usuario) {
+        return colas.computeIfAbsent(usuario, u -> new ArrayDeque<>());
+    }
+
+    // Saca la cabeza de la cola del usuario y la pasa al final del turno para repartir el lote.
+    // Sin nada más que enviar se olvida su token
+    private void quitar(Entrada entrada) {
+        String usuario = entrada.envio.usuario();
+        Deque<Entrada> cola = colas.remove(usuario);
+        cola.pollFirst();
+        if (cola.isEmpty()) {
+            tokens.remove(usuario);
+        } else {
+            colas.put(usuario, cola);
+        }
+    }
+
+    private static boolean caducado(Throwable error) {
+        return error instanceof StravaServiceException fallo && fallo.getStatus() == 401;
+    }
+
+    // Sin conexión, tiempo agotado, error del servidor o demasiadas peticiones: puede ir bien más tarde
+    private static boolean transitorio(Throwable error) {
+        if (!(error instanceof StravaServiceException fallo)) {
+            return false;
+        }
+        int status = fallo.getStatus();
+        return status == 0 || status == 408 || status == 429 || status >= 500;
+    }
+
+    // Espera exponencial con jitter: entre la mitad y el total de inicial * 2^(intentos - 1)
+    private long espera(int intentos) {
+        long maxima = esperaMaximaNanos;
+        if (intentos < 63 && esperaInicialNanos <= maxima >> (intentos - 1)) {
+            maxima = esperaInicialNanos << (intentos - 1);
+        }
+        return maxima / 2 + ThreadLocalRandom.current().nextLong(maxima / 2 + 1);
+    }
+
+    // Anota el evento y aplica el cambio, con estado tomado, cuando ya está en el registro
+    private void anotar(Evento evento, Runnable cambio) {
+        try {
+            registro.anotar(evento, bajoEstado(cambio));
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se ha podido guardar el envío", e);
+        }
+    }
+
+    // La respuesta ya ha llegado: si no se puede anotar se aplica igual, y al arrancar se repetirá con la misma clave
+    private void anotarSinFallar(Evento evento, Runnable cambio) {
+        try {
+            registro.anotar(evento, bajoEstado(cambio));
+        } catch (IOException e) {
+            logger.error("-Envios- No se ha podido anotar {} de {}: {}", evento.tipo(), evento.id(), e.getMessage());
+            bajoEstado(cambio).run();
+        }
+    }
+
+    // El cambio, para aplicarlo con estado tomado
+    private Runnable bajoEstado(Runnable cambio) {
+        return () -> {
+            estado.lock();
+            try {
+                cambio.run();
+            } finally {
+                estado.unlock();
+            }
+        };
+    }
+
+    private <T> T conEstado(Supplier<T> lectura) {
+        estado.lock();
+        try {
+            return lectura.get();
+        } finally {
+            estado.unlock();
+        }
+    }
+
+    // Solo una compactación a la vez; las anotaciones siguen mientras se escribe el fichero nuevo
+    private void compactarSiCrece() {
+        if (!compactando.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            if (registro.tamano() > Math.max(compactarBytes, 2 * tamanoTrasCompactar)) {
+                compactar();
+            }
+        } catch (IOException e) {
+            logger.error("-Envios- No se ha podido compactar el registro: {}", e.getMessage());
+        } finally {
+            compactando.set(false);
+        }
+    }
+
+    // Reescribe el registro con solo los eventos que describen el estado actual
+    private void compactar() throws IOException {
+        registro.reescribir(() -> conEstado(() -> {
+            List<Evento> eventos = new ArrayList<>();
+            colas.values().forEach(cola -> cola.forEach(entrada -> eventos.add(Evento.alta(entrada.envio))));
+            fallidos.values().forEach(fallido -> {
+                eventos.add(Evento.alta(fallido.envio()));
+                eventos.add(Evento.de(TipoEvento.FALLIDO, fallido.envio().id(), fallido.error()));
+            });
+            return eventos;
+        }));
+        tamanoTrasCompactar = registro.tamano();
+    }
+
+    /** Pending and failed submissions of the user, in the order they were made. */
+    public Estado deUsuario(String usuario) {
+        return conEstado(() -> {
+            List<Pendiente> pendientes = new ArrayList<>();
+            Deque<Entrada> cola = colas.get(usuario);
+            if (cola != null) {
+                cola.forEach(entrada -> pendientes.add(entrada.vista()));
+            }
+            List<Fallido> propios = fallidos.values().stream()
+                    .filter(fallido -> fallido.envio().usuario().equals(usuario))
+                    .toList();
+            return new Estado(pendientes, propios);
+        });
+    }
+
+    public Estadisticas estadisticas() {
+        // El tamaño se pide fuera de estado: el registro puede estar esperándolo para aplicar un grupo
+        long tamano;
+        try {
+            tamano = registro.tamano();
+        } catch (IOException e) {
+            tamano = -1;
+        }
+        long bytesRegistro = tamano;
+        return conEstado(() -> new Estadisticas(colas.values().stream().mapToInt(Deque::size).sum(), colas.size(),
+                enVuelo, fallidos.size(), enviados, reintentos, bytesRegistro));
+    }
+
+    private static Throwable causa(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    private static final class Entrada {
+        private final Envio envio;
+        private int intentos;
+        private String ultimoError;
+        private long siguienteIntento = System.nanoTime();
+        private boolean enviando;
+        private String token; // Con el que ha salido el último intento
+
+        private Entrada(Envio envio) {
+            this.envio = envio;
+        }
+
+        private Pendiente vista() {
+            return new Pendiente(envio, intentos, ultimoError, enviando);
+        }
+    }
+
+    /** A submission waiting in its queue: failed attempts so far and whether it is being sent now. */
+    public record Pendiente(Envio envio, int intentos, String ultimoError, boolean enviando) {
+    }
+
+    /** A submission the server rejected, or that ran out of attempts. */
+    public record Fallido(Envio envio, String error) {
+    }
+
+    public record Estado(List<Pendiente> pendientes, List<Fallido> fallidos) {
+    }
+
+    /**
+     * Submissions waiting, users with a queue, requests in flight, failed
+     * submissions, submissions confirmed and retries since startup, and size of
+     * the log in bytes.
+     */
+    public record Estadisticas(
+            int pendientes,
+            int usuarios,
+            int enVuelo,
+            int fallidos,
+            long enviados,
+            long reintentos,
+            long bytesRegistro) {
+    }
+}
@@ -0,0 +1,33 @@
+package es.deusto.sd.strava.client.envios;
+
+import java.time.Instant;
+import java.time.LocalDate;
+
+/**
+ * A training or challenge submission accepted by the web client and waiting
+ * to be sent upstream. The id is also the Idempotency-Key of every attempt,
+ * so a submission repeated after a timeout or a restart can be recognised by
+ * the server. The submission belongs to {@code usuario}, the email the user
+ * logged in with; the session token it is sent with is not part of it.
+ *
+ * Both kinds share the record: for a challenge {@code titulo} is its name,
+ * {@code distancia} and {@code duracion} its targets, and {@code horaInicio}
+ * is not used; {@code fechaFin} is only used by challenges.
+ */
+public record Envio(
+        String id,
+        Tipo tipo,
+        String usuario,
+        Instant creado,
+        String titulo,
+        String deporte,
+        float distancia,
+        int duracion,
+        LocalDate fechaInicio,
+        String horaInicio,
+        LocalDate fechaFin) {
+
+    public enum Tipo {
+        ENTRENAMIENTO, RETO
+    }
+}
@@ -0,0 +1,297 @@
+package es.deusto.sd.strava.client.envios;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JacksonException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Append-only log of the mailbox, one JSON event per line.
+ *
+ * Every change of state is appended before it is applied, so the state can
+ * be rebuilt by replaying the file after a crash. A line cut by a crash in the
+ * middle of a write cannot be parsed and is ignored. Appends are group
+ * committed: concurrent callers queue their lines, and whichever of them gets
+ * the file writes the lines of all, syncs once and applies their changes in
+ * the same order, so the callers never hold their own locks during the I/O.
+ *
+ * When the file has grown enough it is rewritten with only the events that
+ * describe the current state (written to a temporary file and moved over the
+ * old one atomically). Appends go on in the old file meanwhile and are copied
+ * to the end of the new one just before the move. If the rewrite fails the
+ * log goes on with whichever file is in place; the file is reopened on the
+ * next append if it could not be reopened at once.
+ */
+class RegistroEnvios implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(RegistroEnvios.class);
+
+    enum TipoEvento {
+        ALTA, ENVIADO, FALLIDO, REINTENTO, DESCARTADO
+    }
+
+    /** One line of the log: ALTA carries the submission, the rest refer to it by id. */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    record Evento(TipoEvento tipo, Envio envio, String id, String error) {
+
+        static Evento alta(Envio envio) {
+            return new Evento(TipoEvento.ALTA, envio, null, null);
+        }
+
+        static Evento de(TipoEvento tipo, String id, String error) {
+            return new Evento(tipo, null, id, error);
+        }
+    }
+
+    private final Path fichero;
+    private final ObjectMapper mapper;
+    private final boolean sincronizar;
+    // Protege el canal y la copia: lo tiene quien escribe un grupo de líneas
+    private final ReentrantLock disco = new ReentrantLock();
+    // Protege las anotaciones que esperan su grupo; solo se tiene para añadir o recogerlas
+    private final ReentrantLock espera = new ReentrantLock();
+    private List<Anotacion> pendientes = new ArrayList<>();
+    // Líneas anotadas durante una reescritura, que se copian al final del fichero nuevo
+    private List<byte[]> copia;
+    private FileChannel canal;
+
+    RegistroEnvios(Path fichero, ObjectMapper mapper, boolean sincronizar) {
+        this.fichero = fichero;
+        this.mapper = mapper;
+        this.sincronizar = sincronizar;
+    }
+
+    /** Events written by a previous run, in order. */
+    List<Evento> leer() throws IOException {
+        if (!Files.exists(fichero)) {
+            return List.of();
+        }
+        List<Evento> eventos = new ArrayList<>();
+        try (BufferedReader lector = Files.newBufferedReader(fichero, StandardCharsets.UTF_8)) {
+            String linea;
+            int numero = 0;
+            while ((linea = lector.readLine()) != null) {
+                numero++;
+                if (linea.isBlank()) {
+                    continue;
+                }
+                try {
+                    eventos.add(mapper.readValue(linea, Evento.class));
+                } catch (JacksonException e) {
+                    logger.warn("-Envios- Línea {} del registro ilegible, se ignora: {}", numero,
+                            e.getOriginalMessage());
+                }
+            }
+        }
+        return eventos;
+    }
+
+    /**
+     * Replaces the file with the events returned by {@code estado} and leaves
+     * it open for appending. {@code estado} is called when every event already
+     * in the file has been applied. Rewrites must not overlap.
+     */
+    void reescribir(Supplier<List<Evento>> estado) throws IOException {
+        Path directorio = fichero.toAbsolutePath().getParent();
+        if (directorio != null) {
+            Files.createDirectories(directorio);
+        }
+        Path temporal = fichero.resolveSibling(fichero.getFileName() + ".tmp");
+        List<Evento> eventos;
+        disco.lock();
+        try {
+            copia = new ArrayList<>();
+            eventos = estado.get();
+        } catch (RuntimeException e) {
+            copia = null;
+            throw e;
+        } finally {
+            disco.unlock();
+        }
+        boolean bloqueado = false;
+        try {
+            // El grueso se escribe sin bloquear las anotaciones, que siguen en el fichero anterior
+            try (FileChannel nuevo = FileChannel.open(temporal, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (Evento evento : eventos) {
+                    escribir(nuevo, linea(evento));
+                }
+                nuevo.force(true);
+            }
+            disco.lock();
+            bloqueado = true;
+            try (FileChannel nuevo = FileChannel.open(temporal, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND)) {
+                for (byte[] linea : copia) {
+                    escribir(nuevo, linea);
+                }
+                nuevo.force(true);
+            }
+            // En Windows no se puede reemplazar un fichero abierto: el canal se cierra justo antes de moverlo
+            cerrarCanal();
+            Files.move(temporal, fichero, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            if (!bloqueado) {
+                disco.lock();
+            }
+            try {
+                copia = null;
+                // Tras un fallo sigue el fichero que haya: el anterior, o el nuevo si ya se había movido
+                abierto();
+            } catch (IOException e) {
+                logger.warn("-Envios- No se ha podido reabrir el registro, se intentará en la próxima escritura: {}",
+                        e.getMessage());
+            } finally {
+                disco.unlock();
+            }
+        }
+    }
+
+    /**
+     * Appends an event and then runs {@code aplicar}, the change of state it
+     * describes, possibly on the thread of another caller of the same group.
+     * With {@code sincronizar} the event is on disk when the method returns.
+     * If it could not be written the change is not applied.
+     */
+    void anotar(Evento evento, Runnable aplicar) throws IOException {
+        Anotacion propia = new Anotacion(linea(evento), aplicar);
+        espera.lock();
+        try {
+            pendientes.add(propia);
+        } finally {
+            espera.unlock();
+        }
+        IOException error;
+        disco.lock();
+        try {
+            if (!propia.hecha) {
+                escribirPendientes();
+            }
+            error = propia.error;
+        } finally {
+            disco.unlock();
+        }
+        if (error != null) {
+            throw new IOException(error.getMessage(), error);
+        }
+    }
+
+    long tamano() throws IOException {
+        disco.lock();
+        try {
+            return abierto().size();
+        } finally {
+            disco.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        disco.lock();
+        try {
+            cerrarCanal();
+        } finally {
+            disco.unlock();
+        }
+    }
+
+    // Con disco tomado: escribe el grupo que espera, lo sincroniza una vez y aplica sus cambios en orden
+    private void escribirPendientes() {
+        List<Anotacion> grupo;
+        espera.lock();
+        try {
+            grupo = pendientes;
+            pendientes = new ArrayList<>();
+        } finally {
+            espera.unlock();
+        }
+        try {
+            FileChannel destino = abierto();
+            for (Anotacion anotacion : grupo) {
+                escribir(destino, anotacion.linea);
+            }
+            if (sincronizar) {
+                destino.force(false);
+            }
+        } catch (IOException e) {
+            grupo.forEach(anotacion -> anotacion.fallar(e));
+            return;
+        }
+        for (Anotacion anotacion : grupo) {
+            if (copia != null) {
+                copia.add(anotacion.linea);
+            }
+            try {
+                anotacion.aplicar.run();
+            } catch (RuntimeException e) {
+                logger.error("-Envios- No se ha podido aplicar un evento ya anotado: {}", e.getMessage(), e);
+            }
+            anotacion.hecha = true;
+        }
+    }
+
+    private void cerrarCanal() throws IOException {
+        if (canal != null) {
+            canal.close();
+            canal = null;
+        }
+    }
+
+    private FileChannel abierto() throws IOException {
+        if (canal == null) {
+            canal = FileChannel.open(fichero, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        }
+        return canal;
+    }
+
+    private byte[] linea(Evento evento) throws IOException {
+        byte[] json = mapper.writeValueAsBytes(evento);
+        byte[] linea = Arrays.copyOf(json, json.length + 1);
+        linea[json.length] = '\n';
+        return linea;
+    }
+
+    private static void escribir(FileChannel destino, byte[] linea) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(linea);
+        while (buffer.hasRemaining()) {
+            destino.write(buffer);
+        }
+    }
+
+    // Un evento a la espera de su grupo; sus campos solo se tocan con disco tomado
+    private static final class Anotacion {
+        private final byte[] linea;
+        private final Runnable aplicar;
+        private boolean hecha;
+        private IOException error;
+
+        private Anotacion(byte[] linea, Runnable aplicar) {
+            this.linea = linea;
+            this.aplicar = aplicar;
+        }
+
+        private void fallar(IOException e) {
+            error = e;
+            hecha = true;
+        }
+    }
+}
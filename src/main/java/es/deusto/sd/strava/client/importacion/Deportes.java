@@ -0,0 +1,41 @@
+package es.deusto.sd.strava.client.importacion;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Maps the sport names found in import files to the ones used by the web
+ * client ("Ciclismo" and "Correr").
+ */
+final class Deportes {
+
+    private static final Map<String, String> EQUIVALENCIAS = Map.ofEntries(
+            Map.entry("ciclismo", "Ciclismo"),
+            Map.entry("ride", "Ciclismo"),
+            Map.entry("cycling", "Ciclismo"),
+            Map.entry("biking", "Ciclismo"),
+            Map.entry("virtualride", "Ciclismo"),
+            Map.entry("ebikeride", "Ciclismo"),
+            Map.entry("mountainbikeride", "Ciclismo"),
+            Map.entry("gravelride", "Ciclismo"),
+            Map.entry("correr", "Correr"),
+            Map.entry("running", "Correr"),
+            Map.entry("run", "Correr"),
+            Map.entry("trailrun", "Correr"),
+            Map.entry("virtualrun", "Correr"));
+
+    private Deportes() {
+    }
+
+    /** Known sport for the name, the name itself if unknown, or the default when missing. */
+    static String normalizar(String deporte, String porDefecto) {
+        if (deporte == null || deporte.isBlank()) {
+            if (porDefecto == null || porDefecto.isBlank()) {
+                throw new IllegalArgumentException("Falta el deporte");
+            }
+            return porDefecto;
+        }
+        String clave = deporte.trim().toLowerCase(Locale.ROOT).replace(" ", "").replace("_", "");
+        return EQUIVALENCIAS.getOrDefault(clave, deporte.trim());
+    }
+}
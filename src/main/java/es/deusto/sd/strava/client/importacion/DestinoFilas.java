@@ -0,0 +1,15 @@
+package es.deusto.sd.strava.client.importacion;
+
+import es.deusto.sd.strava.client.data.Entrenamiento;
+
+/**
+ * Receives, in file order, what a reader extracts from an import file: one
+ * call per valid training and one per row that could not be interpreted.
+ * Calls may block, which is how the upload pipeline slows the reader down.
+ */
+interface DestinoFilas {
+
+    void entrenamiento(int fila, Entrenamiento entrenamiento);
+
+    void error(int fila, String motivo);
+}
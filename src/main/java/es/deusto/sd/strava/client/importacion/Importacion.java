@@ -0,0 +1,131 @@
+package es.deusto.sd.strava.client.importacion;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * State of one bulk import, updated concurrently by the reader and by the
+ * completions of the upload requests.
+ *
+ * Only the first {@code maxFallos} failed rows are kept with their reason;
+ * the rest are just counted, so a file full of errors cannot fill the heap.
+ */
+public class Importacion {
+
+    public enum Estado {
+        EN_CURSO, COMPLETADA, FALLIDA
+    }
+
+    private final String id;
+    private final String token;
+    private final String fichero;
+    private final int maxFallos;
+    private final long inicio = System.nanoTime();
+
+    private final AtomicInteger leidas = new AtomicInteger();
+    private final AtomicInteger importadas = new AtomicInteger();
+    private final AtomicInteger fallidas = new AtomicInteger();
+    private final AtomicInteger enVuelo = new AtomicInteger();
+    private final List<Fallo> fallos = new ArrayList<>();
+
+    private volatile Estado estado = Estado.EN_CURSO;
+    private volatile String mensaje;
+    private volatile long fin;
+
+    Importacion(String id, String token, String fichero, int maxFallos) {
+        this.id = id;
+        this.token = token;
+        this.fichero = fichero;
+        this.maxFallos = maxFallos;
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public String token() {
+        return token;
+    }
+
+    public Estado estado() {
+        return estado;
+    }
+
+    long inicio() {
+        return inicio;
+    }
+
+    /** Time elapsed since the end of the import, or -1 while it is running. */
+    long nanosDesdeFin() {
+        return estado == Estado.EN_CURSO ? -1 : System.nanoTime() - fin;
+    }
+
+    void leida() {
+        leidas.incrementAndGet();
+    }
+
+    void enviada() {
+        enVuelo.incrementAndGet();
+    }
+
+    void importada() {
+        enVuelo.decrementAndGet();
+        importadas.incrementAndGet();
+    }
+
+    void rechazada(int fila, String motivo) {
+        enVuelo.decrementAndGet();
+        fallo(fila, motivo);
+    }
+
+    void fallo(int fila, String motivo) {
+        fallidas.incrementAndGet();
+        synchronized (fallos) {
+            if (fallos.size() < maxFallos) {
+                fallos.add(new Fallo(fila, motivo));
+            }
+        }
+    }
+
+    void terminar(String error) {
+        mensaje = error;
+        fin = System.nanoTime();
+        estado = error == null ? Estado.COMPLETADA : Estado.FALLIDA;
+    }
+
+    public Resumen resumen() {
+        long nanos = (estado == Estado.EN_CURSO ? System.nanoTime() : fin) - inicio;
+        double segundos = nanos / 1e9;
+        List<Fallo> primeros;
+        synchronized (fallos) {
+            primeros = List.copyOf(fallos);
+        }
+        return new Resumen(id, fichero, estado, leidas.get(), importadas.get(), fallidas.get(), enVuelo.get(),
+                Math.round(segundos * 10) / 10.0,
+                segundos > 0 ? Math.round(importadas.get() / segundos * 10) / 10.0 : 0,
+                mensaje, primeros);
+    }
+
+    /** A row that could not be imported, numbered as in the file (line or track). */
+    public record Fallo(int fila, String motivo) {
+    }
+
+    /**
+     * Snapshot of the progress: rows read, imported, failed and being sent,
+     * elapsed seconds and trainings imported per second.
+     */
+    public record Resumen(
+            String id,
+            String fichero,
+            Estado estado,
+            int leidas,
+            int importadas,
+            int fallidas,
+            int enVuelo,
+            double segundos,
+            double porSegundo,
+            String mensaje,
+            List<Fallo> fallos) {
+    }
+}
@@ -0,0 +1,244 @@
+package es.deusto.sd.strava.client.importacion;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import es.deusto.sd.strava.client.data.Entrenamiento;
+import es.deusto.sd.strava.client.proxies.IStravaServiceProxyAsync;
+import es.deusto.sd.strava.client.proxies.StravaServiceException;
+
+/**
+ * Bulk import of trainings from CSV and GPX files.
+ *
+ * The upload is first spooled to a temporary file, so the request ends as
+ * soon as the file is received. A virtual thread of its own then reads the
+ * file with a streaming reader and sends every training through the
+ * asynchronous proxy. At most {@code strava.importacion.max-simultaneas}
+ * imports run at a time, and the reader never blocks a thread of the
+ * application executor, which also runs the upstream responses, the
+ * challenges page and the cache revalidations.
+ * At most {@code strava.importacion.paralelismo} requests are in flight,
+ * between all the imports running: the reader blocks on a semaphore until one
+ * of them completes, which keeps both the upstream load and the memory used
+ * bounded whatever the size of the file. That limit is kept below the bulkhead
+ * of the endpoint ({@code strava.proteccion.max-simultaneas}, leaving two
+ * slots for the pages and the write-behind mailbox), and a row rejected by the
+ * bulkhead or an open breaker, which was never sent, is sent again with
+ * exponential backoff instead of being counted as failed. Progress, throughput and failed rows are available through
+ * {@link Importacion#resumen()} while the import runs.
+ */
+@Service
+public class ImportadorEntrenamientos {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImportadorEntrenamientos.class);
+    // Envíos de una fila rechazados sin salir (compartimento lleno, disyuntor abierto) y espera inicial
+    private static final int MAX_RECHAZOS = 6;
+    private static final long ESPERA_RECHAZO_MS = 250;
+    // Huecos del compartimento de /api/entrenamiento que la importación deja libres
+    private static final int HUECOS_RESERVADOS = 2;
+
+    private final IStravaServiceProxyAsync stravaServiceProxyAsync;
+    private final Executor executor;
+    // Cada importación lee en su propio hilo; enCurso limita cuántos hay a la vez
+    private final Executor lectores = tarea -> Thread.ofVirtual().name("importacion").start(tarea);
+    private final ConcurrentHashMap<String, Importacion> importaciones = new ConcurrentHashMap<>();
+    private final int paralelismo;
+    private final Semaphore envios;
+    private final int maxFallos;
+    // Importaciones en curso: se reserva un hueco antes de guardar el fichero y se devuelve al terminar
+    private final Semaphore enCurso;
+    private final long retencionNanos;
+
+    public ImportadorEntrenamientos(IStravaServiceProxyAsync stravaServiceProxyAsync,
+            @Qualifier(TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME) Executor executor,
+            @Value("${strava.importacion.paralelismo:8}") int paralelismo,
+            @Value("${strava.importacion.max-fallos:100}") int maxFallos,
+            @Value("${strava.importacion.max-simultaneas:4}") int maxSimultaneas,
+            @Value("${strava.importacion.retencion:1h}") Duration retencion,
+            @Value("${strava.proteccion.max-simultaneas:10}") int maxSimultaneasEndpoint) {
+        this.stravaServiceProxyAsync = stravaServiceProxyAsync;
+        this.executor = executor;
+        this.paralelismo = Math.max(1, Math.min(paralelismo, maxSimultaneasEndpoint - HUECOS_RESERVADOS));
+        if (this.paralelismo < paralelismo) {
+            logger.info("-Importacion- Paralelismo limitado a {} por el compartimento de la API ({} llamadas)",
+                    this.paralelismo, maxSimultaneasEndpoint);
+        }
+        this.envios = new Semaphore(this.paralelismo);
+        this.maxFallos = maxFallos;
+        this.enCurso = new Semaphore(maxSimultaneas);
+        this.retencionNanos = retencion.toNanos();
+    }
+
+    /**
+     * Saves the file and starts importing it in the background.
+     *
+     * @throws IllegalArgumentException if the file is neither CSV nor GPX
+     * @throws IllegalStateException    if too many imports are already running
+     * @throws IOException              if the file cannot be saved
+     */
+    public Importacion iniciar(String token, MultipartFile fichero, String deportePorDefecto) throws IOException {
+        String nombre = fichero.getOriginalFilename() != null ? fichero.getOriginalFilename() : "fichero";
+        LectorEntrenamientos lector = lector(nombre);
+        purgarTerminadas();
+        if (!enCurso.tryAcquire()) {
+            throw new IllegalStateException("Hay demasiadas importaciones en curso, inténtalo más tarde");
+        }
+
+        Path temporal = null;
+        try {
+            // Se copia a un fichero propio: el temporal de la subida se borra al terminar la petición
+            temporal = Files.createTempFile("strava-importacion-", nombre.substring(nombre.lastIndexOf('.')));
+            fichero.transferTo(temporal);
+
+        } catch (IOException | RuntimeException e) {
+            // No llega a empezar: se devuelve el hueco
+            enCurso.release();
+            if (temporal != null) {
+                Files.deleteIfExists(temporal);
+            }
+            throw e;
+        }
+
+        Importacion importacion = new Importacion(UUID.randomUUID().toString(), token, nombre, maxFallos);
+        importaciones.put(importacion.id(), importacion);
+        logger.info("-Importacion- Importando {} ({} bytes) como {}", nombre, fichero.getSize(), importacion.id());
+        Path guardado = temporal;
+        try {
+            lectores.execute(() -> procesar(importacion, lector, guardado, deportePorDefecto));
+        } catch (RuntimeException e) {
+            importaciones.remove(importacion.id());
+            enCurso.release();
+            Files.deleteIfExists(guardado);
+            throw e;
+        }
+        return importacion;
+    }
+
+    /** The import with that id, or null if it does not exist or belongs to another session. */
+    public Importacion consultar(String id, String token) {
+        Importacion importacion = importaciones.get(id);
+        return importacion != null && importacion.token().equals(token) ? importacion : null;
+    }
+
+    /** Imports started with the token, most recent first. */
+    public List<Importacion.Resumen> deUsuario(String token) {
+        return importaciones.values().stream()
+                .filter(i -> i.token().equals(token))
+                .sorted((a, b) -> Long.compare(b.inicio(), a.inicio()))
+                .map(Importacion::resumen)
+                .toList();
+    }
+
+    private void procesar(Importacion importacion, LectorEntrenamientos lector, Path temporal,
+            String deportePorDefecto) {
+        // Envíos en vuelo de esta importación, para esperarlos al final
+        Semaphore permisos = new Semaphore(paralelismo);
+        DestinoFilas destino = new DestinoFilas() {
+            @Override
+            public void entrenamiento(int fila, Entrenamiento e) {
+                importacion.leida();
+                // Contrapresión: la lectura espera mientras haya 'paralelismo' envíos sin responder entre todas
+                permisos.acquireUninterruptibly();
+                envios.acquireUninterruptibly();
+                importacion.enviada();
+                enviar(importacion, fila, e, 0, () -> {
+                    envios.release();
+                    permisos.release();
+                });
+            }
+
+            @Override
+            public void error(int fila, String motivo) {
+                importacion.leida();
+                importacion.fallo(fila, motivo);
+            }
+        };
+
+        String error = null;
+        try (InputStream entrada = Files.newInputStream(temporal)) {
+            lector.leer(entrada, deportePorDefecto, destino);
+        } catch (IOException | RuntimeException e) {
+            error = e.getMessage();
+            logger.error("-Importacion- Error leyendo {}: {}", importacion.id(), e.getMessage());
+        } finally {
+            // Se espera a que respondan los envíos que siguen en vuelo
+            permisos.acquireUninterruptibly(paralelismo);
+            importacion.terminar(error);
+            enCurso.release();
+            try {
+                Files.deleteIfExists(temporal);
+            } catch (IOException e) {
+                logger.warn("-Importacion- No se ha podido borrar {}: {}", temporal, e.getMessage());
+            }
+        }
+        Importacion.Resumen resumen = importacion.resumen();
+        logger.info("-Importacion- {} terminada: {} importados, {} fallidos en {} s", importacion.id(),
+                resumen.importadas(), resumen.fallidas(), resumen.segundos());
+    }
+
+    // Los huecos se devuelven al responder el servidor; un rechazo sin envío se repite tras una espera
+    private void enviar(Importacion importacion, int fila, Entrenamiento e, int rechazos, Runnable liberar) {
+        CompletableFuture<Void> envio;
+        try {
+            envio = stravaServiceProxyAsync.anadirEntrenamiento(importacion.token(), e.titulo(), e.deporte(),
+                    e.distancia(), e.duracion(), e.fechaInicio(), e.horaInicio());
+        } catch (RuntimeException error) {
+            envio = CompletableFuture.failedFuture(error);
+        }
+        envio.whenComplete((ok, error) -> {
+            if (error == null) {
+                importacion.importada();
+            } else if (causa(error) instanceof StravaServiceException fallo && fallo.isRechazada()
+                    && rechazos + 1 < MAX_RECHAZOS) {
+                long espera = ESPERA_RECHAZO_MS << rechazos;
+                espera = espera / 2 + ThreadLocalRandom.current().nextLong(espera / 2 + 1);
+                CompletableFuture.delayedExecutor(espera, TimeUnit.MILLISECONDS, executor)
+                        .execute(() -> enviar(importacion, fila, e, rechazos + 1, liberar));
+                return;
+            } else {
+                importacion.rechazada(fila, causa(error).getMessage());
+            }
+            liberar.run();
+        });
+    }
+
+    private void purgarTerminadas() {
+        importaciones.values().removeIf(i -> i.nanosDesdeFin() > retencionNanos);
+    }
+
+    private static LectorEntrenamientos lector(String nombre) {
+        String minusculas = nombre.toLowerCase(Locale.ROOT);
+        if (minusculas.endsWith(".csv")) {
+            return new LectorCsv();
+        }
+        if (minusculas.endsWith(".gpx")) {
+            return new LectorGpx();
+        }
+        throw new IllegalArgumentException("Formato no soportado: solo se pueden importar ficheros .csv o .gpx");
+    }
+
+    private static Throwable causa(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+}
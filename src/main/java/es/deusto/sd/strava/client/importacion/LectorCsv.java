@@ -0,0 +1,194 @@
+package es.deusto.sd.strava.client.importacion;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import es.deusto.sd.strava.client.data.Entrenamiento;
+
+/**
+ * CSV reader, one training per line.
+ *
+ * The first line is the header. Columns are found by name, in any order and
+ * case-insensitively, using either the names of {@link Entrenamiento}
+ * ({@code titulo, deporte, distancia, fechaInicio, horaInicio, duracion}, the
+ * duration in minutes) or the columns of the activities.csv file exported by
+ * Strava ({@code Activity Name, Activity Type, Distance, Activity Date,
+ * Elapsed Time}, the latter in seconds). The separator is a comma or a
+ * semicolon, detected from the header, and fields may be quoted.
+ */
+class LectorCsv implements LectorEntrenamientos {
+
+    private static final int TITULO = 0;
+    private static final int DEPORTE = 1;
+    private static final int DISTANCIA = 2;
+    private static final int FECHA = 3;
+    private static final int HORA = 4;
+    private static final int DURACION_MINUTOS = 5;
+    private static final int DURACION_SEGUNDOS = 6;
+
+    private static final Map<String, Integer> COLUMNAS = Map.ofEntries(
+            Map.entry("titulo", TITULO),
+            Map.entry("activity name", TITULO),
+            Map.entry("deporte", DEPORTE),
+            Map.entry("activity type", DEPORTE),
+            Map.entry("distancia", DISTANCIA),
+            Map.entry("distance", DISTANCIA),
+            Map.entry("fechainicio", FECHA),
+            Map.entry("fecha", FECHA),
+            Map.entry("activity date", FECHA),
+            Map.entry("horainicio", HORA),
+            Map.entry("hora", HORA),
+            Map.entry("duracion", DURACION_MINUTOS),
+            Map.entry("elapsed time", DURACION_SEGUNDOS));
+
+    private static final DateTimeFormatter FECHA_BARRAS = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+    // Formato de "Activity Date" en la exportación de Strava, p. ej. "Nov 1, 2024, 7:30:00 AM"
+    private static final DateTimeFormatter FECHA_STRAVA = DateTimeFormatter.ofPattern("MMM d, yyyy, h:mm:ss a",
+            Locale.ENGLISH);
+    private static final DateTimeFormatter HORA_MINUTOS = DateTimeFormatter.ofPattern("HH:mm");
+
+    @Override
+    public void leer(InputStream entrada, String deportePorDefecto, DestinoFilas destino) throws IOException {
+        BufferedReader lector = new BufferedReader(new InputStreamReader(entrada, StandardCharsets.UTF_8));
+        String cabecera = lector.readLine();
+        if (cabecera == null) {
+            throw new IOException("El fichero CSV está vacío");
+        }
+        if (cabecera.startsWith("\uFEFF")) {
+            cabecera = cabecera.substring(1);
+        }
+        char separador = cabecera.indexOf(';') >= 0 && cabecera.indexOf(',') < 0 ? ';' : ',';
+        int[] posiciones = posiciones(campos(cabecera, separador));
+        if (posiciones[TITULO] < 0 || posiciones[FECHA] < 0 || posiciones[DISTANCIA] < 0
+                || (posiciones[DURACION_MINUTOS] < 0 && posiciones[DURACION_SEGUNDOS] < 0)) {
+            throw new IOException("La cabecera del CSV debe incluir al menos título, distancia, fecha y duración");
+        }
+
+        String linea;
+        int fila = 1;
+        while ((linea = lector.readLine()) != null) {
+            fila++;
+            if (linea.isBlank()) {
+                continue;
+            }
+            try {
+                destino.entrenamiento(fila, entrenamiento(campos(linea, separador), posiciones, deportePorDefecto));
+            } catch (IllegalArgumentException e) {
+                destino.error(fila, e.getMessage());
+            } catch (DateTimeParseException e) {
+                destino.error(fila, "Fecha no válida: " + e.getParsedString());
+            }
+        }
+    }
+
+    private static Entrenamiento entrenamiento(List<String> campos, int[] posiciones, String deportePorDefecto) {
+        String titulo = obligatorio(campos, posiciones[TITULO], "título");
+        String deporte = Deportes.normalizar(campo(campos, posiciones[DEPORTE]), deportePorDefecto);
+        float distancia = numero(obligatorio(campos, posiciones[DISTANCIA], "distancia"), "distancia");
+
+        String textoFecha = obligatorio(campos, posiciones[FECHA], "fecha");
+        LocalDate fecha;
+        String hora = campo(campos, posiciones[HORA]);
+        if (Character.isLetter(textoFecha.charAt(0))) {
+            LocalDateTime fechaHora = LocalDateTime.parse(textoFecha, FECHA_STRAVA);
+            fecha = fechaHora.toLocalDate();
+            if (hora == null) {
+                hora = fechaHora.toLocalTime().format(HORA_MINUTOS);
+            }
+        } else {
+            fecha = textoFecha.indexOf('/') >= 0 ? LocalDate.parse(textoFecha, FECHA_BARRAS)
+                    : LocalDate.parse(textoFecha);
+        }
+
+        int duracion;
+        if (posiciones[DURACION_MINUTOS] >= 0) {
+            duracion = Math.round(numero(obligatorio(campos, posiciones[DURACION_MINUTOS], "duración"), "duración"));
+        } else {
+            duracion = Math.round(
+                    numero(obligatorio(campos, posiciones[DURACION_SEGUNDOS], "duración"), "duración") / 60f);
+        }
+        if (distancia < 0 || duracion <= 0) {
+            throw new IllegalArgumentException("Distancia o duración no válidas");
+        }
+        return new Entrenamiento(titulo, deporte, distancia, fecha, hora != null ? hora : "00:00", duracion);
+    }
+
+    // Admite la coma como separador decimal, igual que el formulario de entrenamientos
+    private static float numero(String texto, String nombre) {
+        try {
+            return Float.parseFloat(texto.replace(",", "."));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("El campo " + nombre + " no es un número: " + texto);
+        }
+    }
+
+    // Posición de cada columna conocida en la cabecera; si una columna se repite, vale la primera
+    private static int[] posiciones(List<String> cabecera) {
+        int[] posiciones = new int[DURACION_SEGUNDOS + 1];
+        Arrays.fill(posiciones, -1);
+        for (int i = 0; i < cabecera.size(); i++) {
+            Integer columna = COLUMNAS.get(cabecera.get(i).trim().toLowerCase(Locale.ROOT));
+            if (columna != null && posiciones[columna] < 0) {
+                posiciones[columna] = i;
+            }
+        }
+        return posiciones;
+    }
+
+    private static String campo(List<String> campos, int posicion) {
+        if (posicion < 0 || posicion >= campos.size()) {
+            return null;
+        }
+        String valor = campos.get(posicion).trim();
+        return valor.isEmpty() ? null : valor;
+    }
+
+    private static String obligatorio(List<String> campos, int posicion, String nombre) {
+        String valor = campo(campos, posicion);
+        if (valor == null) {
+            throw new IllegalArgumentException("Falta el campo " + nombre);
+        }
+        return valor;
+    }
+
+    // Separa una línea en campos, respetando las comillas y las comillas dobladas dentro de ellas
+    private static List<String> campos(String linea, char separador) {
+        List<String> campos = new ArrayList<>();
+        StringBuilder actual = new StringBuilder();
+        boolean entreComillas = false;
+        for (int i = 0; i < linea.length(); i++) {
+            char c = linea.charAt(i);
+            if (entreComillas) {
+                if (c == '"' && i + 1 < linea.length() && linea.charAt(i + 1) == '"') {
+                    actual.append('"');
+                    i++;
+                } else if (c == '"') {
+                    entreComillas = false;
+                } else {
+                    actual.append(c);
+                }
+            } else if (c == '"') {
+                entreComillas = true;
+            } else if (c == separador) {
+                campos.add(actual.toString());
+                actual.setLength(0);
+            } else {
+                actual.append(c);
+            }
+        }
+        campos.add(actual.toString());
+        return campos;
+    }
+}
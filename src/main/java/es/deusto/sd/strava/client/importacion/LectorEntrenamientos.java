@@ -0,0 +1,20 @@
+package es.deusto.sd.strava.client.importacion;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streaming reader of an import file. Implementations read the input
+ * sequentially and hand every training to the destination as soon as it is
+ * complete, so they never hold more than the current row or track.
+ */
+interface LectorEntrenamientos {
+
+    /**
+     * @param entrada          contents of the file
+     * @param deportePorDefecto sport used when the file does not say it
+     * @param destino          receiver of the trainings and row errors
+     * @throws IOException if the file cannot be read at all
+     */
+    void leer(InputStream entrada, String deportePorDefecto, DestinoFilas destino) throws IOException;
+}
@@ -0,0 +1,188 @@
+package es.deusto.sd.strava.client.importacion;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import es.deusto.sd.strava.client.data.Entrenamiento;
+
+/**
+ * GPX reader, one training per track ({@code <trk>}).
+ *
+ * The file is read with StAX, one event at a time. For every track only its
+ * name, type, the first and last point times and the accumulated distance are
+ * kept, never the list of points, so memory does not grow with the length of
+ * the track. The distance is the sum of the great-circle distances between
+ * consecutive points, and times are converted to the local time zone.
+ */
+class LectorGpx implements LectorEntrenamientos {
+
+    private static final double RADIO_TIERRA_KM = 6371.0088;
+    private static final DateTimeFormatter HORA_MINUTOS = DateTimeFormatter.ofPattern("HH:mm");
+
+    private final XMLInputFactory factory;
+
+    LectorGpx() {
+        factory = XMLInputFactory.newFactory();
+        // Un GPX no necesita DTD: se desactivan para no resolver entidades externas (XXE)
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    @Override
+    public void leer(InputStream entrada, String deportePorDefecto, DestinoFilas destino) throws IOException {
+        XMLStreamReader xml = null;
+        try {
+            xml = factory.createXMLStreamReader(entrada);
+            int pista = 0;
+            while (xml.hasNext()) {
+                if (xml.next() == XMLStreamConstants.START_ELEMENT && "trk".equals(xml.getLocalName())) {
+                    pista++;
+                    Pista leida = leerPista(xml);
+                    try {
+                        destino.entrenamiento(pista, leida.entrenamiento(pista, deportePorDefecto));
+                    } catch (IllegalArgumentException | DateTimeParseException e) {
+                        destino.error(pista, e.getMessage());
+                    }
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("El fichero GPX no es válido: " + e.getMessage(), e);
+        } finally {
+            if (xml != null) {
+                try {
+                    xml.close();
+                } catch (XMLStreamException e) {
+                    // Nada que hacer: la entrada la cierra quien la abrió
+                }
+            }
+        }
+    }
+
+    // Lee hasta el cierre de <trk> acumulando solo lo necesario para el entrenamiento
+    private static Pista leerPista(XMLStreamReader xml) throws XMLStreamException {
+        Pista pista = new Pista();
+        boolean enPunto = false;
+        int profundidad = 1;
+        while (profundidad > 0 && xml.hasNext()) {
+            int evento = xml.next();
+            if (evento == XMLStreamConstants.END_ELEMENT) {
+                profundidad--;
+                if ("trkpt".equals(xml.getLocalName())) {
+                    enPunto = false;
+                }
+                continue;
+            }
+            if (evento != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+            String nombre = xml.getLocalName();
+            switch (nombre) {
+                case "trkpt" -> {
+                    enPunto = true;
+                    profundidad++;
+                    pista.punto(xml.getAttributeValue(null, "lat"), xml.getAttributeValue(null, "lon"));
+                }
+                case "name" -> {
+                    // getElementText consume el cierre del elemento, así que la profundidad no cambia
+                    String texto = xml.getElementText();
+                    if (!enPunto && pista.nombre == null) {
+                        pista.nombre = texto.trim();
+                    }
+                }
+                case "type" -> {
+                    String texto = xml.getElementText();
+                    if (!enPunto && pista.tipo == null) {
+                        pista.tipo = texto.trim();
+                    }
+                }
+                case "time" -> {
+                    String texto = xml.getElementText();
+                    if (enPunto) {
+                        pista.hora(texto.trim());
+                    }
+                }
+                default -> profundidad++;
+            }
+        }
+        return pista;
+    }
+
+    private static final class Pista {
+        private String nombre;
+        private String tipo;
+        private String error;
+        private OffsetDateTime primera;
+        private OffsetDateTime ultima;
+        private double distanciaKm;
+        private double latAnterior = Double.NaN;
+        private double lonAnterior = Double.NaN;
+
+        private void punto(String textoLat, String textoLon) {
+            double lat;
+            double lon;
+            try {
+                lat = Double.parseDouble(textoLat);
+                lon = Double.parseDouble(textoLon);
+            } catch (NullPointerException | NumberFormatException e) {
+                error = "Punto sin coordenadas válidas";
+                return;
+            }
+            if (!Double.isNaN(latAnterior)) {
+                distanciaKm += distanciaKm(latAnterior, lonAnterior, lat, lon);
+            }
+            latAnterior = lat;
+            lonAnterior = lon;
+        }
+
+        private void hora(String texto) {
+            try {
+                OffsetDateTime hora = OffsetDateTime.parse(texto);
+                if (primera == null) {
+                    primera = hora;
+                }
+                ultima = hora;
+            } catch (DateTimeParseException e) {
+                error = "Hora de punto no válida: " + texto;
+            }
+        }
+
+        private Entrenamiento entrenamiento(int numero, String deportePorDefecto) {
+            if (error != null) {
+                throw new IllegalArgumentException(error);
+            }
+            if (primera == null) {
+                throw new IllegalArgumentException("La pista no tiene horas");
+            }
+            LocalDateTime inicio = primera.atZoneSameInstant(ZoneId.systemDefault()).toLocalDateTime();
+            int duracion = (int) Math.round(Duration.between(primera, ultima).toSeconds() / 60.0);
+            if (duracion <= 0) {
+                throw new IllegalArgumentException("La pista dura menos de un minuto");
+            }
+            String titulo = nombre != null && !nombre.isEmpty() ? nombre : "Pista " + numero;
+            return new Entrenamiento(titulo, Deportes.normalizar(tipo, deportePorDefecto),
+                    (float) (Math.round(distanciaKm * 100) / 100.0), inicio.toLocalDate(),
+                    inicio.toLocalTime().format(HORA_MINUTOS), duracion);
+        }
+    }
+
+    // Distancia sobre la esfera terrestre (fórmula del haversine)
+    private static double distanciaKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                        * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * RADIO_TIERRA_KM * Math.asin(Math.sqrt(a));
+    }
+}
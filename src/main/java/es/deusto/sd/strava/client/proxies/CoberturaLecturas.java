@@ -0,0 +1,343 @@
+package es.deusto.sd.strava.client.proxies;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.http.HttpConnectTimeoutException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.apache.hc.client5.http.ConnectTimeoutException;
+import org.apache.hc.core5.http.NoHttpResponseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Hedging and retries of the idempotent reads of both proxies
+ * ({@link OperacionStrava#idempotente()}); writes always go through unchanged.
+ *
+ * <ul>
+ * <li><b>Retries</b>: a read whose connection fails before any response
+ * (refused, reset, closed without answer, connect timeout) is repeated up to
+ * {@code reintentos} times, after a jittered exponential wait. Read timeouts,
+ * error statuses and rejections of {@link ProteccionStrava} are not
+ * retried.</li>
+ * <li><b>Hedging</b> (opt-in, {@code cobertura=true}): if a read has not
+ * answered after the {@code cobertura-percentil} of the recent latencies of
+ * its operation, a second request is sent and the first successful response
+ * wins; the other one is left to finish and discarded.</li>
+ * </ul>
+ * Both share one budget: retries and hedges together may add at most
+ * {@code presupuesto} percent to the reads sent, so a struggling server never
+ * gets its load multiplied. Every attempt is a normal upstream call, with its
+ * own metrics, breaker and bulkhead, and both sit under
+ * {@link LecturasCompartidas}: concurrent identical reads share one hedged
+ * read.
+ */
+@Component
+public class CoberturaLecturas {
+
+    private static final Logger logger = LoggerFactory.getLogger(CoberturaLecturas.class);
+    // Latencias recientes por operación de las que sale el retraso de la cobertura
+    private static final int MUESTRAS = 256;
+    private static final int MINIMO_MUESTRAS = 20;
+    // Lecturas que se pueden repetir de golpe, p. ej. al arrancar o tras un rato sin tráfico
+    private static final double MAX_FICHAS = 20;
+
+    private final boolean cobertura;
+    private final double percentil;
+    private final long retrasoMinimoNanos;
+    private final long retrasoMaximoNanos;
+    private final int maxReintentos;
+    private final long esperaReintentoNanos;
+    private final double fichasPorLectura;
+    private final Executor hilos = tarea -> Thread.ofVirtual().name("cobertura-lecturas").start(tarea);
+    private final Map<OperacionStrava, Latencias> latencias = new EnumMap<>(OperacionStrava.class);
+    private final Map<OperacionStrava, Contadores> contadores = new EnumMap<>(OperacionStrava.class);
+    private double fichas = MAX_FICHAS / 2;
+
+    public CoberturaLecturas(MeterRegistry registry,
+            @Value("${strava.lecturas.cobertura:false}") boolean cobertura,
+            @Value("${strava.lecturas.cobertura-percentil:95}") double percentil,
+            @Value("${strava.lecturas.cobertura-minimo:20ms}") Duration retrasoMinimo,
+            @Value("${strava.lecturas.cobertura-maximo:2s}") Duration retrasoMaximo,
+            @Value("${strava.lecturas.reintentos:2}") int maxReintentos,
+            @Value("${strava.lecturas.reintentos-espera:50ms}") Duration esperaReintento,
+            @Value("${strava.lecturas.presupuesto:10}") double presupuesto) {
+        this.cobertura = cobertura;
+        this.percentil = percentil;
+        this.retrasoMinimoNanos = retrasoMinimo.toNanos();
+        this.retrasoMaximoNanos = retrasoMaximo.toNanos();
+        this.maxReintentos = maxReintentos;
+        this.esperaReintentoNanos = esperaReintento.toNanos();
+        this.fichasPorLectura = presupuesto / 100;
+        for (OperacionStrava operacion : OperacionStrava.values()) {
+            if (operacion.idempotente()) {
+                latencias.put(operacion, new Latencias());
+                contadores.put(operacion, new Contadores(registry, operacion));
+            }
+        }
+    }
+
+    /** Blocking variant, used by the RestTemplate proxy; with hedging each attempt runs in its own virtual thread. */
+    public <T> T ejecutar(OperacionStrava operacion, Supplier<T> lectura) {
+        if (!operacion.idempotente()) {
+            return lectura.get();
+        }
+        depositar();
+        if (!cobertura) {
+            return reintentar(operacion, lectura);
+        }
+        return esperar(cubrir(operacion, () -> CompletableFuture.supplyAsync(lectura, hilos)));
+    }
+
+    /** Asynchronous variant, used by the HttpClient proxy. */
+    public <T> CompletableFuture<T> ejecutarAsync(OperacionStrava operacion, Supplier<CompletableFuture<T>> lectura) {
+        if (!operacion.idempotente()) {
+            return lectura.get();
+        }
+        depositar();
+        if (!cobertura) {
+            return intentar(operacion, lectura, 1);
+        }
+        return cubrir(operacion, lectura);
+    }
+
+    public Map<String, Estadisticas> estadisticas() {
+        Map<String, Estadisticas> estadisticas = new LinkedHashMap<>();
+        contadores.forEach((operacion, c) -> estadisticas.put(operacion.metodo(), new Estadisticas(
+                cobertura ? latencias.get(operacion).retrasoNanos / 1_000_000.0 : 0,
+                (long) c.lanzadas.count(), (long) c.ganadas.count(), (long) c.reintentos.count(),
+                (long) (c.coberturasSinPresupuesto.count() + c.reintentosSinPresupuesto.count()))));
+        return estadisticas;
+    }
+
+    // Lanza la primera petición y, si no ha respondido en el retraso de la operación, una segunda
+    private <T> CompletableFuture<T> cubrir(OperacionStrava operacion, Supplier<CompletableFuture<T>> lectura) {
+        Contadores c = contadores.get(operacion);
+        Carrera<T> carrera = new Carrera<>();
+        carrera.correr(intentar(operacion, lectura, 1), null);
+        long retraso = latencias.get(operacion).retrasoNanos;
+        CompletableFuture.delayedExecutor(retraso, TimeUnit.NANOSECONDS, hilos).execute(() -> {
+            if (carrera.resultado.isDone()) {
+                return;
+            }
+            if (!retirar()) {
+                c.coberturasSinPresupuesto.increment();
+                return;
+            }
+            c.lanzadas.increment();
+            logger.debug("-Cobertura- {} sin respuesta en {} ms, segunda petición", operacion.metodo(),
+                    retraso / 1_000_000);
+            carrera.correr(intentar(operacion, lectura, 1), c.ganadas);
+        });
+        return carrera.resultado;
+    }
+
+    // Una petición con sus reintentos si la conexión falla antes de la respuesta
+    private <T> CompletableFuture<T> intentar(OperacionStrava operacion, Supplier<CompletableFuture<T>> lectura,
+            int intento) {
+        long inicio = System.nanoTime();
+        CompletableFuture<T> futuro;
+        try {
+            futuro = lectura.get();
+        } catch (RuntimeException e) {
+            futuro = CompletableFuture.failedFuture(e);
+        }
+        return futuro.handle((valor, error) -> {
+            if (error == null) {
+                latencias.get(operacion).anotar(System.nanoTime() - inicio);
+                return CompletableFuture.completedFuture(valor);
+            }
+            Throwable causa = causa(error);
+            if (!repetible(operacion, causa, intento)) {
+                return CompletableFuture.<T>failedFuture(causa);
+            }
+            Executor despues = CompletableFuture.delayedExecutor(espera(intento), TimeUnit.NANOSECONDS, hilos);
+            return CompletableFuture.supplyAsync(() -> intento + 1, despues)
+                    .thenCompose(siguiente -> intentar(operacion, lectura, siguiente));
+        }).thenCompose(Function.identity());
+    }
+
+    // Igual que intentar, bloqueando el hilo que llama: sin cobertura no hace falta otro hilo
+    private <T> T reintentar(OperacionStrava operacion, Supplier<T> lectura) {
+        for (int intento = 1;; intento++) {
+            long inicio = System.nanoTime();
+            try {
+                T valor = lectura.get();
+                latencias.get(operacion).anotar(System.nanoTime() - inicio);
+                return valor;
+            } catch (RuntimeException e) {
+                if (!repetible(operacion, e, intento)) {
+                    throw e;
+                }
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(espera(intento));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new StravaServiceException(operacion, operacion.mensajeFallo() + ": interrumpida", e);
+            }
+        }
+    }
+
+    private boolean repetible(OperacionStrava operacion, Throwable error, int intento) {
+        if (intento > maxReintentos || !conexionFallida(error)) {
+            return false;
+        }
+        Contadores c = contadores.get(operacion);
+        if (!retirar()) {
+            c.reintentosSinPresupuesto.increment();
+            return false;
+        }
+        c.reintentos.increment();
+        logger.info("-Cobertura- {} reintento {} tras fallar la conexión", operacion.metodo(), intento);
+        return true;
+    }
+
+    // Sin respuesta por la conexión: rechazada, cortada, cerrada sin responder o sin llegar a abrirse
+    private static boolean conexionFallida(Throwable error) {
+        if (!(error instanceof StravaServiceException fallo) || fallo.getStatus() != 0) {
+            return false;
+        }
+        Throwable causa = fallo.getCause();
+        return causa instanceof SocketException
+                || causa instanceof NoHttpResponseException
+                || causa instanceof ConnectTimeoutException
+                || causa instanceof HttpConnectTimeoutException
+                || causa instanceof EOFException
+                // El cliente del JDK da un IOException genérico cuando el servidor cierra sin responder
+                || causa != null && causa.getClass() == IOException.class;
+    }
+
+    // Espera exponencial con jitter: entre la mitad y el total de espera * 2^(intento - 1)
+    private long espera(int intento) {
+        long maxima = esperaReintentoNanos << Math.min(intento - 1, 10);
+        return maxima / 2 + ThreadLocalRandom.current().nextLong(maxima / 2 + 1);
+    }
+
+    private synchronized void depositar() {
+        fichas = Math.min(MAX_FICHAS, fichas + fichasPorLectura);
+    }
+
+    private synchronized boolean retirar() {
+        if (fichas < 1) {
+            return false;
+        }
+        fichas--;
+        return true;
+    }
+
+    private static Throwable causa(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    private static <T> T esperar(CompletableFuture<T> futuro) {
+        try {
+            return futuro.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException causa) {
+                throw causa;
+            }
+            throw e;
+        }
+    }
+
+    // Gana la primera respuesta correcta; falla solo cuando han fallado todas las peticiones lanzadas
+    private static final class Carrera<T> {
+        private final CompletableFuture<T> resultado = new CompletableFuture<>();
+        private final AtomicInteger enCurso = new AtomicInteger();
+
+        private void correr(CompletableFuture<T> peticion, Counter victorias) {
+            enCurso.incrementAndGet();
+            peticion.whenComplete((valor, error) -> {
+                if (error == null) {
+                    if (resultado.complete(valor) && victorias != null) {
+                        victorias.increment();
+                    }
+                } else if (enCurso.decrementAndGet() == 0) {
+                    resultado.completeExceptionally(causa(error));
+                }
+            });
+        }
+    }
+
+    // Anillo de latencias correctas; el percentil se calcula con el mínimo de muestras y luego cada 16
+    private final class Latencias {
+        private final long[] muestras = new long[MUESTRAS];
+        private int total;
+        private volatile long retrasoNanos = retrasoMaximoNanos;
+
+        private synchronized void anotar(long nanos) {
+            muestras[total % MUESTRAS] = nanos;
+            total++;
+            if (total == MINIMO_MUESTRAS || total > MINIMO_MUESTRAS && total % 16 == 0) {
+                long[] ordenadas = Arrays.copyOf(muestras, Math.min(total, MUESTRAS));
+                Arrays.sort(ordenadas);
+                int posicion = (int) Math.ceil(percentil / 100 * ordenadas.length) - 1;
+                long valor = ordenadas[Math.max(0, Math.min(ordenadas.length - 1, posicion))];
+                retrasoNanos = Math.max(retrasoMinimoNanos, Math.min(retrasoMaximoNanos, valor));
+            }
+        }
+    }
+
+    private static final class Contadores {
+        private static final String COBERTURAS = "strava.upstream.hedges";
+        private static final String REINTENTOS = "strava.upstream.retries";
+
+        private final Counter lanzadas;
+        private final Counter ganadas;
+        private final Counter coberturasSinPresupuesto;
+        private final Counter reintentos;
+        private final Counter reintentosSinPresupuesto;
+
+        private Contadores(MeterRegistry registry, OperacionStrava operacion) {
+            lanzadas = contador(registry, COBERTURAS, "Segundas peticiones de una lectura lenta", operacion,
+                    "lanzada");
+            ganadas = contador(registry, COBERTURAS, "Segundas peticiones de una lectura lenta", operacion,
+                    "ganada");
+            coberturasSinPresupuesto = contador(registry, COBERTURAS, "Segundas peticiones de una lectura lenta",
+                    operacion, "sin_presupuesto");
+            reintentos = contador(registry, REINTENTOS, "Reintentos de lecturas tras fallar la conexión",
+                    operacion, "reintento");
+            reintentosSinPresupuesto = contador(registry, REINTENTOS, "Reintentos de lecturas tras fallar la conexión",
+                    operacion, "sin_presupuesto");
+        }
+
+        private static Counter contador(MeterRegistry registry, String nombre, String descripcion,
+                OperacionStrava operacion, String evento) {
+            return Counter.builder(nombre)
+                    .description(descripcion)
+                    .tags("operacion", operacion.metodo(), "evento", evento)
+                    .register(registry);
+        }
+    }
+
+    /**
+     * Per read operation: current hedging delay (0 with hedging off), hedges
+     * sent and won, retries, and hedges or retries skipped for lack of budget.
+     */
+    public record Estadisticas(
+            double retrasoMs,
+            long coberturasLanzadas,
+            long coberturasGanadas,
+            long reintentos,
+            long sinPresupuesto) {
+    }
+}
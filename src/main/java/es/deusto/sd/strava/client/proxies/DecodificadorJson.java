@@ -0,0 +1,281 @@
+package es.deusto.sd.strava.client.proxies;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import es.deusto.sd.strava.client.data.Entrenamiento;
+import es.deusto.sd.strava.client.data.Reto;
+
+/**
+ * Streaming decoder for the lists returned by the Strava server.
+ *
+ * The body is read token by token with a Jackson {@link JsonParser} and every
+ * element is built directly as a {@link Reto} or {@link Entrenamiento}, with
+ * no intermediate map or tree per element. Field names are interned by the
+ * parser, so the per-field dispatch does not allocate either. Values that
+ * usually repeat from one element to the next (sport, start time) reuse the
+ * previous String when the characters match, and ISO dates are parsed straight
+ * from the parser buffer instead of going through a DateTimeFormatter.
+ *
+ * The accepted input mirrors what data binding accepts for these records:
+ * unknown fields are skipped, null primitives become 0, numbers may arrive as
+ * strings, and {@code LocalDate} may be an ISO string, a {@code [y,m,d]} array
+ * or an epoch day. A null body is decoded as an empty list.
+ */
+@Component
+public class DecodificadorJson {
+
+    private final JsonFactory factory;
+
+    public DecodificadorJson(ObjectMapper objectMapper) {
+        this.factory = objectMapper.getFactory();
+    }
+
+    public List<Reto> retos(InputStream body) throws IOException {
+        try (JsonParser parser = factory.createParser(body)) {
+            return retos(parser);
+        }
+    }
+
+    public List<Reto> retos(byte[] body) throws IOException {
+        try (JsonParser parser = factory.createParser(body)) {
+            return retos(parser);
+        }
+    }
+
+    public List<Entrenamiento> entrenamientos(InputStream body) throws IOException {
+        return entrenamientos(body, 0, Integer.MAX_VALUE);
+    }
+
+    public List<Entrenamiento> entrenamientos(byte[] body) throws IOException {
+        try (JsonParser parser = factory.createParser(body)) {
+            return entrenamientos(parser, 0, Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Decodes at most {@code limite} trainings after skipping the first
+     * {@code saltar}. Skipped elements are never built, and reading stops as
+     * soon as the limit is reached, so memory stays bounded by the limit
+     * whatever the size of the response.
+     */
+    public List<Entrenamiento> entrenamientos(InputStream body, int saltar, int limite) throws IOException {
+        try (JsonParser parser = factory.createParser(body)) {
+            return entrenamientos(parser, saltar, limite);
+        }
+    }
+
+    private static List<Reto> retos(JsonParser parser) throws IOException {
+        List<Reto> retos = new ArrayList<>();
+        if (!abrirLista(parser)) {
+            return retos;
+        }
+        Repetidos repetidos = new Repetidos();
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            retos.add(reto(parser, repetidos));
+        }
+        cerrarLista(parser);
+        return retos;
+    }
+
+    private static List<Entrenamiento> entrenamientos(JsonParser parser, int saltar, int limite)
+            throws IOException {
+        List<Entrenamiento> entrenamientos = new ArrayList<>(Math.min(limite, 256));
+        if (!abrirLista(parser)) {
+            return entrenamientos;
+        }
+        Repetidos repetidos = new Repetidos();
+        int saltados = 0;
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            if (saltados < saltar) {
+                parser.skipChildren();
+                saltados++;
+                continue;
+            }
+            entrenamientos.add(entrenamiento(parser, repetidos));
+            if (entrenamientos.size() >= limite) {
+                // El resto de la respuesta no se lee
+                return entrenamientos;
+            }
+        }
+        cerrarLista(parser);
+        return entrenamientos;
+    }
+
+    private static Reto reto(JsonParser parser, Repetidos repetidos) throws IOException {
+        String nombre = null;
+        long fechaInicio = 0;
+        long fechaFin = 0;
+        float objetivoDistancia = 0;
+        int objetivoTiempo = 0;
+        String deporte = null;
+        Float progreso = null;
+        String campo;
+        while ((campo = parser.nextFieldName()) != null) {
+            JsonToken valor = parser.nextToken();
+            switch (campo) {
+                case "nombre" -> nombre = texto(parser, valor);
+                case "fechaInicio" -> fechaInicio = entero(parser, valor);
+                case "fechaFin" -> fechaFin = entero(parser, valor);
+                case "objetivoDistancia" -> objetivoDistancia = (float) decimal(parser, valor);
+                case "objetivoTiempo" -> objetivoTiempo = (int) entero(parser, valor);
+                case "deporte" -> deporte = repetidos.deporte = repetido(parser, valor, repetidos.deporte);
+                case "progreso" -> progreso = valor == JsonToken.VALUE_NULL ? null : (float) decimal(parser, valor);
+                default -> parser.skipChildren();
+            }
+        }
+        return new Reto(nombre, fechaInicio, fechaFin, objetivoDistancia, objetivoTiempo, deporte, progreso);
+    }
+
+    private static Entrenamiento entrenamiento(JsonParser parser, Repetidos repetidos) throws IOException {
+        String titulo = null;
+        String deporte = null;
+        float distancia = 0;
+        LocalDate fechaInicio = null;
+        String horaInicio = null;
+        int duracion = 0;
+        String campo;
+        while ((campo = parser.nextFieldName()) != null) {
+            JsonToken valor = parser.nextToken();
+            switch (campo) {
+                case "titulo" -> titulo = texto(parser, valor);
+                case "deporte" -> deporte = repetidos.deporte = repetido(parser, valor, repetidos.deporte);
+                case "distancia" -> distancia = (float) decimal(parser, valor);
+                case "fechaInicio" -> fechaInicio = fecha(parser, valor);
+                case "horaInicio" -> horaInicio = repetidos.hora = repetido(parser, valor, repetidos.hora);
+                case "duracion" -> duracion = (int) entero(parser, valor);
+                default -> parser.skipChildren();
+            }
+        }
+        return new Entrenamiento(titulo, deporte, distancia, fechaInicio, horaInicio, duracion);
+    }
+
+    // Devuelve false si el cuerpo está vacío o es null
+    private static boolean abrirLista(JsonParser parser) throws IOException {
+        JsonToken primero = parser.nextToken();
+        if (primero == null || primero == JsonToken.VALUE_NULL) {
+            return false;
+        }
+        if (primero != JsonToken.START_ARRAY) {
+            throw new JsonParseException(parser, "Se esperaba una lista y se ha recibido " + primero);
+        }
+        return true;
+    }
+
+    private static void cerrarLista(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.END_ARRAY) {
+            throw new JsonParseException(parser, "Se esperaba un objeto y se ha recibido " + parser.currentToken());
+        }
+    }
+
+    private static String texto(JsonParser parser, JsonToken valor) throws IOException {
+        if (valor == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (valor.isScalarValue()) {
+            return parser.getText();
+        }
+        throw new JsonParseException(parser, "Se esperaba un texto y se ha recibido " + valor);
+    }
+
+    // Reutiliza el valor anterior del campo si el texto es el mismo, sin crear un String nuevo
+    private static String repetido(JsonParser parser, JsonToken valor, String anterior) throws IOException {
+        if (valor != JsonToken.VALUE_STRING || anterior == null) {
+            return texto(parser, valor);
+        }
+        int longitud = parser.getTextLength();
+        if (longitud != anterior.length()) {
+            return parser.getText();
+        }
+        char[] caracteres = parser.getTextCharacters();
+        int inicio = parser.getTextOffset();
+        for (int i = 0; i < longitud; i++) {
+            if (caracteres[inicio + i] != anterior.charAt(i)) {
+                return parser.getText();
+            }
+        }
+        return anterior;
+    }
+
+    private static long entero(JsonParser parser, JsonToken valor) throws IOException {
+        return switch (valor) {
+            case VALUE_NUMBER_INT -> parser.getLongValue();
+            case VALUE_NUMBER_FLOAT -> (long) parser.getDoubleValue();
+            case VALUE_STRING -> Long.parseLong(parser.getText().trim());
+            case VALUE_NULL -> 0;
+            default -> throw new JsonParseException(parser, "Se esperaba un número y se ha recibido " + valor);
+        };
+    }
+
+    private static double decimal(JsonParser parser, JsonToken valor) throws IOException {
+        return switch (valor) {
+            case VALUE_NUMBER_INT, VALUE_NUMBER_FLOAT -> parser.getDoubleValue();
+            case VALUE_STRING -> Double.parseDouble(parser.getText().trim());
+            case VALUE_NULL -> 0;
+            default -> throw new JsonParseException(parser, "Se esperaba un número y se ha recibido " + valor);
+        };
+    }
+
+    private static LocalDate fecha(JsonParser parser, JsonToken valor) throws IOException {
+        return switch (valor) {
+            case VALUE_STRING -> fechaIso(parser);
+            case VALUE_NUMBER_INT -> LocalDate.ofEpochDay(parser.getLongValue());
+            case VALUE_NULL -> null;
+            case START_ARRAY -> {
+                // Formato que usa Jackson cuando escribe las fechas como timestamps: [año, mes, día]
+                int anyo = (int) entero(parser, parser.nextToken());
+                int mes = (int) entero(parser, parser.nextToken());
+                int dia = (int) entero(parser, parser.nextToken());
+                if (parser.nextToken() != JsonToken.END_ARRAY) {
+                    throw new JsonParseException(parser, "Fecha con formato [año, mes, día] no válida");
+                }
+                yield LocalDate.of(anyo, mes, dia);
+            }
+            default -> throw new JsonParseException(parser, "Se esperaba una fecha y se ha recibido " + valor);
+        };
+    }
+
+    // Lee yyyy-MM-dd directamente del buffer del parser; cualquier otra forma pasa por LocalDate.parse
+    private static LocalDate fechaIso(JsonParser parser) throws IOException {
+        char[] c = parser.getTextCharacters();
+        int i = parser.getTextOffset();
+        if (parser.getTextLength() == 10 && c[i + 4] == '-' && c[i + 7] == '-') {
+            int anyo = digitos(c, i, 4);
+            int mes = digitos(c, i + 5, 2);
+            int dia = digitos(c, i + 8, 2);
+            if (anyo >= 0 && mes >= 0 && dia >= 0) {
+                return LocalDate.of(anyo, mes, dia);
+            }
+        }
+        return LocalDate.parse(parser.getText().trim());
+    }
+
+    private static int digitos(char[] c, int inicio, int cuantos) {
+        int valor = 0;
+        for (int i = inicio; i < inicio + cuantos; i++) {
+            int digito = c[i] - '0';
+            if (digito < 0 || digito > 9) {
+                return -1;
+            }
+            valor = valor * 10 + digito;
+        }
+        return valor;
+    }
+
+    // Último valor de los campos que suelen repetirse entre elementos de la misma lista
+    private static final class Repetidos {
+        private String deporte;
+        private String hora;
+    }
+}
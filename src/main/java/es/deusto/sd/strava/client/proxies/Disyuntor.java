@@ -0,0 +1,137 @@
+package es.deusto.sd.strava.client.proxies;
+
+/**
+ * Circuit breaker of one {@link OperacionStrava}.
+ *
+ * While closed it keeps the outcome of the last {@code ventana} calls; once
+ * there are at least {@code minimoLlamadas} of them and the percentage of
+ * failures or of slow calls reaches its threshold, it opens. While open every
+ * call is rejected without going upstream. After {@code abierto} it lets
+ * {@code pruebas} calls through (half-open): if all of them go well it closes
+ * with an empty window, and the first one that fails or is slow opens it
+ * again.
+ *
+ * A failure is a call without response or with a 5xx status; a 4xx is the
+ * server answering normally. Calls are recorded in a small ring of flags
+ * under the lock of the breaker, which is held only to update counters.
+ */
+final class Disyuntor {
+
+    private static final byte FALLO = 1;
+    private static final byte LENTA = 2;
+
+    enum Estado {
+        CERRADO, SEMIABIERTO, ABIERTO
+    }
+
+    private final byte[] ventana;
+    private final int minimoLlamadas;
+    private final int umbralFallos;
+    private final int umbralLentas;
+    private final long lentaNanos;
+    private final long abiertoNanos;
+    private final int pruebas;
+
+    private Estado estado = Estado.CERRADO;
+    private int siguiente;
+    private int llamadas;
+    private int fallos;
+    private int lentas;
+    private long abiertoHasta;
+    private int pruebasEnCurso;
+    private int pruebasCorrectas;
+    private long aperturas;
+    private long rechazos;
+
+    Disyuntor(int ventana, int minimoLlamadas, int umbralFallos, int umbralLentas, long lentaNanos,
+            long abiertoNanos, int pruebas) {
+        this.ventana = new byte[ventana];
+        this.minimoLlamadas = Math.min(minimoLlamadas, ventana);
+        this.umbralFallos = umbralFallos;
+        this.umbralLentas = umbralLentas;
+        this.lentaNanos = lentaNanos;
+        this.abiertoNanos = abiertoNanos;
+        this.pruebas = pruebas;
+    }
+
+    /** Whether a call may go upstream now; every call allowed must then be {@linkplain #registrar recorded}. */
+    synchronized boolean permitir() {
+        if (estado == Estado.ABIERTO) {
+            if (System.nanoTime() - abiertoHasta < 0) {
+                rechazos++;
+                return false;
+            }
+            estado = Estado.SEMIABIERTO;
+            pruebasEnCurso = 0;
+            pruebasCorrectas = 0;
+        }
+        if (estado == Estado.SEMIABIERTO) {
+            if (pruebasEnCurso == pruebas) {
+                rechazos++;
+                return false;
+            }
+            pruebasEnCurso++;
+        }
+        return true;
+    }
+
+    synchronized void registrar(boolean fallo, long nanos) {
+        boolean lenta = nanos >= lentaNanos;
+        if (estado == Estado.SEMIABIERTO) {
+            if (fallo || lenta) {
+                abrir();
+            } else if (++pruebasCorrectas == pruebas) {
+                cerrar();
+            }
+            return;
+        }
+        if (estado == Estado.ABIERTO) {
+            // Respuesta de una llamada que empezó antes de abrirse: no cambia nada
+            return;
+        }
+        byte resultado = (byte) ((fallo ? FALLO : 0) | (lenta ? LENTA : 0));
+        if (llamadas == ventana.length) {
+            byte antiguo = ventana[siguiente];
+            fallos -= antiguo & FALLO;
+            lentas -= (antiguo & LENTA) >> 1;
+        } else {
+            llamadas++;
+        }
+        ventana[siguiente] = resultado;
+        siguiente = (siguiente + 1) % ventana.length;
+        fallos += resultado & FALLO;
+        lentas += (resultado & LENTA) >> 1;
+        if (llamadas >= minimoLlamadas
+                && (fallos * 100 >= umbralFallos * llamadas || lentas * 100 >= umbralLentas * llamadas)) {
+            abrir();
+        }
+    }
+
+    synchronized Estado estado() {
+        return estado;
+    }
+
+    synchronized ProteccionStrava.Circuito estadisticas() {
+        return new ProteccionStrava.Circuito(estado.name(), llamadas, llamadas == 0 ? 0 : fallos * 100 / llamadas,
+                llamadas == 0 ? 0 : lentas * 100 / llamadas, aperturas, rechazos);
+    }
+
+    private void abrir() {
+        estado = Estado.ABIERTO;
+        abiertoHasta = System.nanoTime() + abiertoNanos;
+        aperturas++;
+        vaciar();
+    }
+
+    private void cerrar() {
+        estado = Estado.CERRADO;
+        vaciar();
+    }
+
+    private void vaciar() {
+        siguiente = 0;
+        llamadas = 0;
+        fallos = 0;
+        lentas = 0;
+    }
+}
@@ -0,0 +1,113 @@
+package es.deusto.sd.strava.client.proxies;
+
+import java.net.URI;
+import java.time.LocalDate;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import es.deusto.sd.strava.client.data.Credentials;
+import es.deusto.sd.strava.client.data.Usuario;
+
+/**
+ * URLs of the Strava API endpoints used by the service proxies. The endpoints
+ * are declared once in {@link OperacionStrava} and compiled here against
+ * {@code api.base.url} when the application starts; each method fills in the
+ * values of one request, so the blocking and the asynchronous proxies call
+ * exactly the same endpoints with the same parameters.
+ */
+@Component
+public class EndpointsStrava {
+
+    private final Map<OperacionStrava, PlantillaUrl> plantillas = new EnumMap<>(OperacionStrava.class);
+
+    public EndpointsStrava(@Value("${api.base.url}") String apiBaseUrl) {
+        for (OperacionStrava operacion : OperacionStrava.values()) {
+            plantillas.put(operacion, PlantillaUrl.compilar(apiBaseUrl, operacion));
+        }
+    }
+
+    public URI registrar(Usuario usuario) {
+        return url(OperacionStrava.REGISTRAR)
+                .texto(usuario.email())
+                .texto(usuario.tipoLogin())
+                .texto(usuario.nombre())
+                .fechaIso(usuario.fechaNacimiento())
+                .decimal(usuario.peso())
+                .decimal(usuario.altura())
+                .entero(usuario.frecuenciaCardiacaMax())
+                .entero(usuario.frecuenciaCardiacaReposo())
+                .uri();
+    }
+
+    public URI logout() {
+        return url(OperacionStrava.LOGOUT).uri();
+    }
+
+    public URI login(Credentials credentials) {
+        return url(OperacionStrava.LOGIN)
+                .texto(credentials.email())
+                .texto(credentials.password())
+                .uri();
+    }
+
+    /** The dates that are null are left out of the query. */
+    public URI consultarEntrenamientos(String token, LocalDate fechaInicio, LocalDate fechaFin) {
+        return url(OperacionStrava.CONSULTAR_ENTRENAMIENTOS)
+                .texto(token)
+                .fecha(fechaInicio)
+                .fecha(fechaFin)
+                .uri();
+    }
+
+    public URI anadirEntrenamiento(String token, String titulo, String deporte, float distancia, int duracion,
+            LocalDate fechaInicio, String horaInicio) {
+        return url(OperacionStrava.ANADIR_ENTRENAMIENTO)
+                .texto(titulo)
+                .texto(deporte)
+                .real(distancia)
+                .entero(duracion)
+                .fecha(fechaInicio)
+                .texto(horaInicio)
+                .texto(token)
+                .uri();
+    }
+
+    public URI anadirReto(String nombre, String deporte, float objetivoDistancia, int objetivoTiempo,
+            LocalDate fechaInicio, LocalDate fechaFin) {
+        return url(OperacionStrava.ANADIR_RETO)
+                .texto(nombre)
+                .texto(deporte)
+                .real(objetivoDistancia)
+                .entero(objetivoTiempo)
+                .fecha(fechaInicio)
+                .fecha(fechaFin)
+                .uri();
+    }
+
+    public URI aceptarReto(String nombreReto) {
+        return url(OperacionStrava.ACEPTAR_RETO).ruta(nombreReto).uri();
+    }
+
+    public URI consultarRetosActivos() {
+        return url(OperacionStrava.CONSULTAR_RETOS_ACTIVOS).uri();
+    }
+
+    /** Without a date, the retos active today. */
+    public URI consultarRetosActivosFiltrados(LocalDate fechaInicio, String deporte) {
+        return url(OperacionStrava.CONSULTAR_RETOS_FILTRADOS)
+                .fecha(fechaInicio != null ? fechaInicio : LocalDate.now())
+                .texto(deporte)
+                .uri();
+    }
+
+    public URI retosAceptados(String token) {
+        return url(OperacionStrava.RETOS_ACEPTADOS).texto(token).uri();
+    }
+
+    private PlantillaUrl.Url url(OperacionStrava operacion) {
+        return plantillas.get(operacion).url();
+    }
+}
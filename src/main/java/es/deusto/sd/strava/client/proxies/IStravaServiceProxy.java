@@ -10,6 +10,7 @@ import java.util.List;
 
 import es.deusto.sd.strava.client.data.Credentials;
 import es.deusto.sd.strava.client.data.Entrenamiento;
+import es.deusto.sd.strava.client.data.PaginaEntrenamientos;
 import es.deusto.sd.strava.client.data.Reto;
 import es.deusto.sd.strava.client.data.Usuario;
 
@@ -50,6 +51,16 @@ public interface IStravaServiceProxy {
 	String login(Credentials credenciales);
 
 	List<Entrenamiento> consultarEntrenamientos(String token, LocalDate fechaInicio, LocalDate fechaFin);
+
+	/**
+	 * Returns one page of at most {@code limite} trainings. {@code cursor} is
+	 * null for the first page and otherwise the opaque
+	 * {@link PaginaEntrenamientos#siguiente()} of the previous one; any other
+	 * text throws {@link IllegalArgumentException}.
+	 */
+	PaginaEntrenamientos consultarEntrenamientos(String token, LocalDate fechaInicio, LocalDate fechaFin,
+			String cursor, int limite);
+
 	void anadirEntrenamiento(String token, String titulo, String deporte, float distancia, int duracion, LocalDate fechaInicio, String horaInicio);
 	void anadirReto(String token, String nombre, String deporte, float objetivoDistancia, int objetivoTiempo,
 	LocalDate fechaInicio, LocalDate fechaFin);
@@ -0,0 +1,50 @@
+package es.deusto.sd.strava.client.proxies;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import es.deusto.sd.strava.client.data.Credentials;
+import es.deusto.sd.strava.client.data.Entrenamiento;
+import es.deusto.sd.strava.client.data.Reto;
+import es.deusto.sd.strava.client.data.Usuario;
+
+/**
+ * Asynchronous counterpart of {@link IStravaServiceProxy}. It offers the same
+ * operations, but every method returns immediately with a CompletableFuture
+ * that is completed when the upstream response arrives, so the calling thread
+ * is not blocked during the round trip and several calls can be composed or
+ * issued concurrently.
+ *
+ * Failed calls complete the future exceptionally; the cause is the same
+ * {@link StravaServiceException} the blocking proxy would have thrown.
+ */
+public interface IStravaServiceProxyAsync {
+
+	CompletableFuture<String> registrar(Usuario usuario);
+
+	CompletableFuture<Void> logout(String token);
+
+	CompletableFuture<String> login(Credentials credenciales);
+
+	CompletableFuture<List<Entrenamiento>> consultarEntrenamientos(String token, LocalDate fechaInicio, LocalDate fechaFin);
+	CompletableFuture<Void> anadirEntrenamiento(String token, String titulo, String deporte, float distancia, int duracion, LocalDate fechaInicio, String horaInicio);
+	CompletableFuture<Void> anadirReto(String token, String nombre, String deporte, float objetivoDistancia, int objetivoTiempo,
+	LocalDate fechaInicio, LocalDate fechaFin);
+
+	/**
+	 * Same as the methods above, but the request carries {@code claveIdempotencia}
+	 * in the Idempotency-Key header, so that a submission repeated after a
+	 * timeout or a restart can be recognised by the server.
+	 */
+	CompletableFuture<Void> anadirEntrenamiento(String token, String titulo, String deporte, float distancia, int duracion, LocalDate fechaInicio, String horaInicio,
+	String claveIdempotencia);
+	CompletableFuture<Void> anadirReto(String token, String nombre, String deporte, float objetivoDistancia, int objetivoTiempo,
+	LocalDate fechaInicio, LocalDate fechaFin, String claveIdempotencia);
+
+	CompletableFuture<List<Reto>> consultarRetosActivos();
+	CompletableFuture<List<Reto>> consultarRetosActivosFiltrados(String token, LocalDate fechaFin, String deporte);
+	CompletableFuture<String> aceptarReto(String nombreReto, String token);
+	CompletableFuture<List<Reto>> retosAceptados(String token);
+
+}
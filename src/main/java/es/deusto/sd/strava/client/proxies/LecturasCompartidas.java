@@ -0,0 +1,122 @@
+package es.deusto.sd.strava.client.proxies;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Single-flight coalescing of idempotent reads.
+ *
+ * Concurrent calls with the same key share one upstream request: the first
+ * caller performs it and every caller that arrives while it is in flight gets
+ * the same result or the same error. The entry is removed as soon as the
+ * request completes, so nothing is cached here and a later call always goes
+ * upstream (caching is the job of the caches in the cache package).
+ *
+ * The key must identify the effective request, i.e. the URL plus the token
+ * scope when the token does not travel in the URL. Results are shared between
+ * callers and must be treated as read-only. Errors are shared as they are
+ * thrown, so a read must translate upstream errors into
+ * {@link StravaServiceException} itself, as the followers of either proxy
+ * expect.
+ *
+ * Both proxies use the same instance, so a blocking read of the RestTemplate
+ * proxy and an asynchronous one for the same key are also coalesced.
+ */
+@Component
+public class LecturasCompartidas {
+
+    private final ConcurrentHashMap<String, CompletableFuture<?>> enVuelo = new ConcurrentHashMap<>();
+    private final LongAdder lecturas = new LongAdder();
+    private final LongAdder compartidas = new LongAdder();
+
+    /** Blocking variant: the first caller runs the read in its own thread, the rest wait for it. */
+    public <T> T leer(String clave, Supplier<T> lectura) {
+        CompletableFuture<T> propia = new CompletableFuture<>();
+        CompletableFuture<T> existente = registrar(clave, propia);
+        if (existente != null) {
+            return esperar(existente);
+        }
+        try {
+            T valor = lectura.get();
+            enVuelo.remove(clave, propia);
+            propia.complete(valor);
+            return valor;
+        } catch (RuntimeException e) {
+            enVuelo.remove(clave, propia);
+            propia.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Asynchronous variant: callers share the request of the first one, each
+     * through its own copy of the shared future, so a caller that times out
+     * its copy (e.g. with {@code orTimeout}) does not fail the others.
+     */
+    public <T> CompletableFuture<T> leerAsync(String clave, Supplier<CompletableFuture<T>> lectura) {
+        CompletableFuture<T> propia = new CompletableFuture<>();
+        CompletableFuture<T> existente = registrar(clave, propia);
+        if (existente != null) {
+            return existente.copy();
+        }
+        CompletableFuture<T> peticion;
+        try {
+            peticion = lectura.get();
+        } catch (RuntimeException e) {
+            peticion = CompletableFuture.failedFuture(e);
+        }
+        peticion.whenComplete((valor, error) -> {
+            // Se retira antes de completar: quien llegue después hace su propia petición
+            enVuelo.remove(clave, propia);
+            if (error != null) {
+                propia.completeExceptionally(error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error);
+            } else {
+                propia.complete(valor);
+            }
+        });
+        return propia.copy();
+    }
+
+    public Estadisticas estadisticas() {
+        return new Estadisticas(lecturas.sum(), compartidas.sum(), enVuelo.size());
+    }
+
+    // Devuelve la lectura en vuelo con esa clave, o null si la propia queda registrada como la primera
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> registrar(String clave, CompletableFuture<T> propia) {
+        CompletableFuture<?> existente = enVuelo.putIfAbsent(clave, propia);
+        if (existente != null) {
+            compartidas.increment();
+            return (CompletableFuture<T>) existente;
+        }
+        lecturas.increment();
+        return null;
+    }
+
+    private static <T> T esperar(CompletableFuture<T> futuro) {
+        try {
+            return futuro.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException causa) {
+                throw causa;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Counters: upstream reads actually performed, calls collapsed onto a read
+     * already in flight, and reads in flight right now.
+     */
+    public record Estadisticas(
+            long lecturas,
+            long compartidas,
+            int enVuelo) {
+    }
+}
@@ -0,0 +1,135 @@
+package es.deusto.sd.strava.client.proxies;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Metrics of the upstream calls made by both proxies, tagged with the
+ * {@link OperacionStrava} they belong to:
+ * <ul>
+ * <li>{@code strava.upstream.requests}: timer with a percentile histogram,
+ * also tagged with the HTTP status, the outcome and the exception, so its
+ * counts per tag are the status and error counters;</li>
+ * <li>{@code strava.upstream.in.flight}: calls waiting for their response;</li>
+ * <li>{@code strava.upstream.response.size}: bytes of the JSON responses
+ * read.</li>
+ * </ul>
+ * Only real requests are measured: reads served by a cache or shared through
+ * {@link LecturasCompartidas} count once, as the request that went upstream.
+ * URLs are never used as tags, since several of them carry the token.
+ */
+@Component
+public class MetricasStrava {
+
+    private static final String PETICIONES = "strava.upstream.requests";
+
+    private final MeterRegistry registry;
+    private final Map<OperacionStrava, AtomicInteger> enVuelo = new EnumMap<>(OperacionStrava.class);
+    private final Map<OperacionStrava, DistributionSummary> tamanos = new EnumMap<>(OperacionStrava.class);
+
+    public MetricasStrava(MeterRegistry registry) {
+        this.registry = registry;
+        for (OperacionStrava operacion : OperacionStrava.values()) {
+            Tags tags = Tags.of("operacion", operacion.metodo());
+            enVuelo.put(operacion, registry.gauge("strava.upstream.in.flight", tags, new AtomicInteger()));
+            tamanos.put(operacion, DistributionSummary.builder("strava.upstream.response.size")
+                    .description("Tamaño de las respuestas JSON de la API de Strava")
+                    .baseUnit("bytes")
+                    .tags(tags)
+                    .publishPercentileHistogram()
+                    .register(registry));
+        }
+    }
+
+    /** Measures a blocking call; its exceptions are recorded and rethrown unchanged. */
+    public <T> T medir(OperacionStrava operacion, Supplier<T> llamada) {
+        AtomicInteger contador = enVuelo.get(operacion);
+        contador.incrementAndGet();
+        Timer.Sample muestra = Timer.start(registry);
+        try {
+            T resultado = llamada.get();
+            terminar(operacion, muestra, null);
+            return resultado;
+        } catch (RuntimeException e) {
+            terminar(operacion, muestra, e);
+            throw e;
+        } finally {
+            contador.decrementAndGet();
+        }
+    }
+
+    /** Measures an asynchronous call until its future completes. */
+    public <T> CompletableFuture<T> medirAsync(OperacionStrava operacion, Supplier<CompletableFuture<T>> llamada) {
+        AtomicInteger contador = enVuelo.get(operacion);
+        contador.incrementAndGet();
+        Timer.Sample muestra = Timer.start(registry);
+        CompletableFuture<T> futuro;
+        try {
+            futuro = llamada.get();
+        } catch (RuntimeException e) {
+            contador.decrementAndGet();
+            terminar(operacion, muestra, e);
+            throw e;
+        }
+        return futuro.whenComplete((resultado, error) -> {
+            contador.decrementAndGet();
+            terminar(operacion, muestra, error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error);
+        });
+    }
+
+    public void tamanoRespuesta(OperacionStrava operacion, long bytes) {
+        tamanos.get(operacion).record(bytes);
+    }
+
+    private void terminar(OperacionStrava operacion, Timer.Sample muestra, Throwable error) {
+        int status = status(error);
+        String etiquetaStatus;
+        String resultado;
+        if (error == null) {
+            // Las llamadas del RestTemplate no exponen el código exacto de una respuesta correcta
+            etiquetaStatus = "2xx";
+            resultado = "SUCCESS";
+        } else if (status > 0) {
+            etiquetaStatus = String.valueOf(status);
+            resultado = status < 500 ? "CLIENT_ERROR" : "SERVER_ERROR";
+        } else {
+            etiquetaStatus = "none";
+            resultado = "UNKNOWN";
+        }
+        // Un error de status ya queda en su etiqueta; si no hubo respuesta (o no se pudo leer) se anota la causa
+        String excepcion = "none";
+        if (error != null && status == 0) {
+            Throwable causa = error.getCause() != null ? error.getCause() : error;
+            excepcion = causa.getClass().getSimpleName();
+        }
+        muestra.stop(Timer.builder(PETICIONES)
+                .description("Llamadas a la API de Strava")
+                .tags("operacion", operacion.metodo(), "status", etiquetaStatus, "outcome", resultado,
+                        "exception", excepcion)
+                .publishPercentileHistogram()
+                .register(registry));
+    }
+
+    private static int status(Throwable error) {
+        if (error instanceof StravaServiceException fallo) {
+            return fallo.getStatus();
+        }
+        if (error instanceof HttpStatusCodeException fallo) {
+            return fallo.getStatusCode().value();
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,67 @@
+package es.deusto.sd.strava.client.proxies;
+
+/**
+ * Operations offered by the Strava service proxies. Each constant carries the
+ * name of the proxy method it represents, the prefix of the error message
+ * shown to the user when the upstream call fails, and the endpoint it calls:
+ * its path, with path variables between braces, and its query parameters in
+ * the order they are sent. {@link EndpointsStrava} compiles them into URLs.
+ */
+public enum OperacionStrava {
+    REGISTRAR("registrar", "Registro fallido", "/auth/registroUsuario",
+            "email", "tipoLogin", "nombre", "fechaNacimiento", "peso", "altura",
+            "frecuenciaCardiacaMax", "frecuenciaCardiacaReposo"),
+    LOGOUT("logout", "Logout fallido", "/auth/logout"),
+    LOGIN("login", "Login fallido", "/auth/login", "email", "contrasenya"),
+    CONSULTAR_ENTRENAMIENTOS("consultarEntrenamientos", "Consulta de entrenamientos fallida", "/api/entrenamientos",
+            "token", "fechaInicio", "fechaFin"),
+    ANADIR_ENTRENAMIENTO("anadirEntrenamiento", "Error al crear entrenamiento", "/api/entrenamiento",
+            "titulo", "deporte", "distancia", "duracion", "fechaInicio", "horaInicio", "token"),
+    ANADIR_RETO("anadirReto", "Error al crear reto", "/api/reto",
+            "nombre", "deporte", "objetivoDistancia", "objetivoTiempo", "fechaInicio", "fechaFin"),
+    ACEPTAR_RETO("aceptarReto", "Aceptar reto fallido", "/api/retos/{nombre}/aceptar"),
+    CONSULTAR_RETOS_ACTIVOS("consultarRetosActivos", "Consulta de retos fallida", "/api/retos"),
+    CONSULTAR_RETOS_FILTRADOS("consultarRetosActivosFiltrados", "Consulta de retos fallida", "/api/retos",
+            "fecha", "deporte"),
+    RETOS_ACEPTADOS("retosAceptados", "Consulta de retos fallida", "/api/retosAceptados", "token");
+
+    private final String metodo;
+    private final String mensajeFallo;
+    private final String ruta;
+    private final String[] parametros;
+
+    OperacionStrava(String metodo, String mensajeFallo, String ruta, String... parametros) {
+        this.metodo = metodo;
+        this.mensajeFallo = mensajeFallo;
+        this.ruta = ruta;
+        this.parametros = parametros;
+    }
+
+    public String metodo() {
+        return metodo;
+    }
+
+    public String mensajeFallo() {
+        return mensajeFallo;
+    }
+
+    public String ruta() {
+        return ruta;
+    }
+
+    public String[] parametros() {
+        return parametros.clone();
+    }
+
+    /**
+     * Whether the operation only reads, so repeating it or sending it twice at
+     * once has no effect on the server. Only these are hedged and retried by
+     * {@link CoberturaLecturas}.
+     */
+    public boolean idempotente() {
+        return switch (this) {
+            case CONSULTAR_ENTRENAMIENTOS, CONSULTAR_RETOS_ACTIVOS, CONSULTAR_RETOS_FILTRADOS, RETOS_ACEPTADOS -> true;
+            default -> false;
+        };
+    }
+}
@@ -0,0 +1,282 @@
+package es.deusto.sd.strava.client.proxies;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.net.URI;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * URL of one endpoint, compiled once against the base URL of the API.
+ *
+ * The literal parts (base URL, path and the {@code ?name=} / {@code &name=}
+ * prefixes of the parameters) are prepared when the template is built, so
+ * composing a URL only appends them and the values to a StringBuilder. On
+ * platform threads (the default, with {@code spring.threads.virtual.enabled}
+ * off) each thread reuses its own builder, cleared on every use; virtual
+ * threads are not pooled, so they get a new one sized after the longest URL
+ * built so far, as does a URL started while another one of the same thread
+ * is still being built. Values are percent-encoded as they are
+ * appended (everything but the RFC 3986 unreserved characters), and numbers
+ * and dates are written digit by digit instead of through formatters.
+ *
+ * The result is a URI, which both HTTP clients send as is, without parsing
+ * the string as a template or encoding it again.
+ */
+final class PlantillaUrl {
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    private static final boolean[] SIN_CODIFICAR = new boolean[128];
+    private static final DateTimeFormatter FECHA = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+    // Buffer del hilo; vacío (null) mientras se construye una URL con él
+    private static final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<>();
+    // Un buffer que ha crecido más que esto (un texto muy largo) no se guarda
+    private static final int MAX_BUFFER = 4096;
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            SIN_CODIFICAR[c] = true;
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            SIN_CODIFICAR[c] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            SIN_CODIFICAR[c] = true;
+        }
+        SIN_CODIFICAR['-'] = true;
+        SIN_CODIFICAR['.'] = true;
+        SIN_CODIFICAR['_'] = true;
+        SIN_CODIFICAR['~'] = true;
+    }
+
+    private final String inicio;
+    private final String[] tramosRuta;
+    private final String[] primerParametro;
+    private final String[] siguienteParametro;
+    private volatile int capacidad;
+
+    private PlantillaUrl(String inicio, String[] tramosRuta, String[] parametros) {
+        this.inicio = inicio;
+        this.tramosRuta = tramosRuta;
+        this.primerParametro = new String[parametros.length];
+        this.siguienteParametro = new String[parametros.length];
+        int longitud = inicio.length();
+        for (String tramo : tramosRuta) {
+            longitud += tramo.length() + 16;
+        }
+        for (int i = 0; i < parametros.length; i++) {
+            primerParametro[i] = "?" + parametros[i] + "=";
+            siguienteParametro[i] = "&" + parametros[i] + "=";
+            longitud += siguienteParametro[i].length() + 16;
+        }
+        this.capacidad = longitud;
+    }
+
+    /**
+     * Compiles the path and parameters of the operation. Path variables are
+     * written between braces, e.g. {@code /api/retos/{nombre}/aceptar}.
+     */
+    static PlantillaUrl compilar(String apiBaseUrl, OperacionStrava operacion) {
+        String[] partes = operacion.ruta().split("\\{[^}]*}", -1);
+        String[] tramos = new String[partes.length - 1];
+        System.arraycopy(partes, 1, tramos, 0, tramos.length);
+        return new PlantillaUrl(apiBaseUrl + partes[0], tramos, operacion.parametros());
+    }
+
+    /** Starts a URL: path variables first, then every parameter in the declared order. */
+    Url url() {
+        StringBuilder destino = prestar();
+        destino.append(inicio);
+        return new Url(destino);
+    }
+
+    private StringBuilder prestar() {
+        if (!Thread.currentThread().isVirtual()) {
+            StringBuilder buffer = BUFFER.get();
+            if (buffer != null) {
+                BUFFER.set(null);
+                buffer.setLength(0);
+                return buffer;
+            }
+        }
+        return new StringBuilder(capacidad);
+    }
+
+    private static void devolver(StringBuilder buffer) {
+        if (!Thread.currentThread().isVirtual() && buffer.capacity() <= MAX_BUFFER) {
+            BUFFER.set(buffer);
+        }
+    }
+
+    final class Url {
+        private final StringBuilder destino;
+        private int variable;
+        private int parametro;
+        private boolean conParametros;
+
+        private Url(StringBuilder destino) {
+            this.destino = destino;
+        }
+
+        Url ruta(String valor) {
+            codificar(destino, String.valueOf(valor));
+            destino.append(tramosRuta[variable++]);
+            return this;
+        }
+
+        /** A text parameter; null leaves the parameter out. */
+        Url texto(String valor) {
+            if (nombre(valor == null)) {
+                codificar(destino, valor);
+            }
+            return this;
+        }
+
+        Url entero(int valor) {
+            nombre(false);
+            destino.append(valor);
+            return this;
+        }
+
+        /** Written as {@link Float#toString(float)}. */
+        Url real(float valor) {
+            nombre(false);
+            destino.append(valor);
+            return this;
+        }
+
+        /** Written with at most six decimals and no trailing zeros, like the pattern {@code 0.######}. */
+        Url decimal(float valor) {
+            nombre(false);
+            escribirDecimal(destino, valor);
+            return this;
+        }
+
+        /** Written as {@code dd/MM/yyyy}; null leaves the parameter out. */
+        Url fecha(LocalDate valor) {
+            if (nombre(valor == null)) {
+                int anyo = valor.getYear();
+                if (anyo < 0 || anyo > 9999) {
+                    FECHA.formatTo(valor, destino);
+                } else {
+                    dosCifras(destino, valor.getDayOfMonth()).append('/');
+                    dosCifras(destino, valor.getMonthValue()).append('/');
+                    cuatroCifras(destino, anyo);
+                }
+            }
+            return this;
+        }
+
+        /** Written as {@code yyyy-MM-dd}, like {@link LocalDate#toString()}; null leaves the parameter out. */
+        Url fechaIso(LocalDate valor) {
+            if (nombre(valor == null)) {
+                int anyo = valor.getYear();
+                if (anyo < 0 || anyo > 9999) {
+                    destino.append(valor);
+                } else {
+                    cuatroCifras(destino, anyo).append('-');
+                    dosCifras(destino, valor.getMonthValue()).append('-');
+                    dosCifras(destino, valor.getDayOfMonth());
+                }
+            }
+            return this;
+        }
+
+        URI uri() {
+            if (variable != tramosRuta.length || parametro != primerParametro.length) {
+                throw new IllegalStateException("URL incompleta: faltan valores de la plantilla");
+            }
+            if (destino.length() > capacidad) {
+                capacidad = destino.length();
+            }
+            String url = destino.toString();
+            devolver(destino);
+            return URI.create(url);
+        }
+
+        // Escribe el nombre del siguiente parámetro, salvo que se omita; devuelve si hay que escribir el valor
+        private boolean nombre(boolean omitir) {
+            int i = parametro++;
+            if (omitir) {
+                return false;
+            }
+            destino.append(conParametros ? siguienteParametro[i] : primerParametro[i]);
+            conParametros = true;
+            return true;
+        }
+    }
+
+    static void codificar(StringBuilder destino, String valor) {
+        int longitud = valor.length();
+        for (int i = 0; i < longitud; i++) {
+            char c = valor.charAt(i);
+            if (c < 0x80) {
+                if (SIN_CODIFICAR[c]) {
+                    destino.append(c);
+                } else {
+                    octeto(destino, c);
+                }
+            } else if (c < 0x800) {
+                octeto(destino, 0xC0 | (c >> 6));
+                octeto(destino, 0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < longitud
+                    && Character.isLowSurrogate(valor.charAt(i + 1))) {
+                int punto = Character.toCodePoint(c, valor.charAt(++i));
+                octeto(destino, 0xF0 | (punto >> 18));
+                octeto(destino, 0x80 | ((punto >> 12) & 0x3F));
+                octeto(destino, 0x80 | ((punto >> 6) & 0x3F));
+                octeto(destino, 0x80 | (punto & 0x3F));
+            } else {
+                // Un surrogate suelto no es UTF-8 válido: se envía el carácter de sustitución
+                char caracter = Character.isSurrogate(c) ? '�' : c;
+                octeto(destino, 0xE0 | (caracter >> 12));
+                octeto(destino, 0x80 | ((caracter >> 6) & 0x3F));
+                octeto(destino, 0x80 | (caracter & 0x3F));
+            }
+        }
+    }
+
+    private static void octeto(StringBuilder destino, int b) {
+        destino.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+    }
+
+    static void escribirDecimal(StringBuilder destino, float valor) {
+        double d = valor;
+        if (!(Math.abs(d) < 1e12)) {
+            // Fuera del rango en que caben seis decimales en un long (o NaN / infinito)
+            destino.append(Double.isFinite(d)
+                    ? BigDecimal.valueOf(d).setScale(6, RoundingMode.HALF_EVEN).stripTrailingZeros().toPlainString()
+                    : Double.toString(d));
+            return;
+        }
+        long escalado = (long) Math.rint(Math.abs(d) * 1_000_000);
+        if (d < 0 && escalado != 0) {
+            destino.append('-');
+        }
+        destino.append(escalado / 1_000_000);
+        long decimales = escalado % 1_000_000;
+        if (decimales == 0) {
+            return;
+        }
+        // Menor valor con todas las cifras decimales que quedan; por debajo, faltan ceros a la izquierda
+        long primeraCifra = 100_000;
+        while (decimales % 10 == 0) {
+            decimales /= 10;
+            primeraCifra /= 10;
+        }
+        destino.append('.');
+        for (; decimales < primeraCifra; primeraCifra /= 10) {
+            destino.append('0');
+        }
+        destino.append(decimales);
+    }
+
+    private static StringBuilder dosCifras(StringBuilder destino, int valor) {
+        return destino.append((char) ('0' + valor / 10)).append((char) ('0' + valor % 10));
+    }
+
+    private static StringBuilder cuatroCifras(StringBuilder destino, int valor) {
+        return destino.append((char) ('0' + valor / 1000)).append((char) ('0' + valor / 100 % 10))
+                .append((char) ('0' + valor / 10 % 10)).append((char) ('0' + valor % 10));
+    }
+}
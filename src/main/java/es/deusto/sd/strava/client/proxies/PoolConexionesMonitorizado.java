@@ -0,0 +1,76 @@
+package es.deusto.sd.strava.client.proxies;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.io.ConnectionEndpoint;
+import org.apache.hc.client5.http.io.LeaseRequest;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.Timeout;
+
+/**
+ * Connection pool used by the RestTemplate proxy. Besides the usual pooling
+ * behaviour it measures how long each request waits to lease a connection,
+ * so that pool exhaustion can be told apart from a slow upstream.
+ */
+public class PoolConexionesMonitorizado extends PoolingHttpClientConnectionManager {
+
+    private final AtomicLong esperas = new AtomicLong();
+    private final AtomicLong esperaTotalNanos = new AtomicLong();
+    private final LongAccumulator esperaMaxNanos = new LongAccumulator(Math::max, 0);
+
+    @Override
+    public LeaseRequest lease(String id, HttpRoute route, Timeout requestTimeout, Object state) {
+        LeaseRequest delegado = super.lease(id, route, requestTimeout, state);
+        return new LeaseRequest() {
+            @Override
+            public ConnectionEndpoint get(Timeout timeout)
+                    throws InterruptedException, ExecutionException, TimeoutException {
+                long inicio = System.nanoTime();
+                try {
+                    return delegado.get(timeout);
+                } finally {
+                    registrarEspera(System.nanoTime() - inicio);
+                }
+            }
+
+            @Override
+            public boolean cancel() {
+                return delegado.cancel();
+            }
+        };
+    }
+
+    private void registrarEspera(long nanos) {
+        esperas.incrementAndGet();
+        esperaTotalNanos.addAndGet(nanos);
+        esperaMaxNanos.accumulate(nanos);
+    }
+
+    public EstadisticasPool estadisticas() {
+        PoolStats total = getTotalStats();
+        long n = esperas.get();
+        double mediaMs = n == 0 ? 0 : esperaTotalNanos.get() / (double) n / 1_000_000;
+        return new EstadisticasPool("pool", total.getLeased(), total.getAvailable(), total.getPending(),
+                total.getMax(), n, mediaMs, esperaMaxNanos.get() / 1_000_000.0);
+    }
+
+    /**
+     * Snapshot of the pool state: connections in use, idle connections kept
+     * alive, requests waiting for a connection and lease wait times.
+     */
+    public record EstadisticasPool(
+            String modo,
+            int enUso,
+            int inactivas,
+            int pendientes,
+            int maximo,
+            long esperas,
+            double esperaMediaMs,
+            double esperaMaxMs) {
+    }
+}
@@ -0,0 +1,289 @@
+package es.deusto.sd.strava.client.proxies;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpStatusCodeException;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Isolation of the upstream calls made by both proxies, so that one slow or
+ * failing endpoint cannot take the rest of the client down with it:
+ * <ul>
+ * <li>a {@link Disyuntor circuit breaker} per {@link OperacionStrava}, which
+ * stops calling an operation that keeps failing or answering slowly and probes
+ * it again after a while;</li>
+ * <li>a bulkhead per endpoint (the path of the operation, so the plain and the
+ * filtered reto queries share one): at most {@code max-simultaneas} calls in
+ * flight; a call waits up to {@code espera} for a free slot, in arrival
+ * order. A blocking call waits in its thread; an asynchronous one waits in a
+ * queue, without holding any thread, and is sent by the call that frees the
+ * slot.</li>
+ * </ul>
+ * A rejected call fails immediately with a {@link StravaServiceException}
+ * without status, like a server that cannot be reached, marked as
+ * {@linkplain StravaServiceException#isRechazada() rejected}: it was never
+ * sent, so even a write can be repeated. The controllers show it through
+ * their usual error paths, and the write-behind mailbox and the importer retry
+ * it later. Rejections are counted in {@code strava.upstream.rejections} and
+ * the state of each breaker is the gauge {@code strava.upstream.circuit}
+ * (0 closed, 1 half-open, 2 open); both are also listed in
+ * {@code /diagnostico/proteccion}.
+ */
+@Component
+public class ProteccionStrava {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProteccionStrava.class);
+
+    private final Map<OperacionStrava, Disyuntor> disyuntores = new EnumMap<>(OperacionStrava.class);
+    private final Map<String, Compartimento> compartimentos = new LinkedHashMap<>();
+    private final Map<OperacionStrava, Counter> rechazosCircuito = new EnumMap<>(OperacionStrava.class);
+    private final Map<OperacionStrava, Counter> rechazosCompartimento = new EnumMap<>(OperacionStrava.class);
+    private final long esperaNanos;
+
+    public ProteccionStrava(MeterRegistry registry,
+            @Value("${strava.proteccion.ventana:20}") int ventana,
+            @Value("${strava.proteccion.minimo-llamadas:10}") int minimoLlamadas,
+            @Value("${strava.proteccion.umbral-fallos:50}") int umbralFallos,
+            @Value("${strava.proteccion.umbral-lentas:80}") int umbralLentas,
+            @Value("${strava.proteccion.llamada-lenta:3s}") Duration llamadaLenta,
+            @Value("${strava.proteccion.abierto:15s}") Duration abierto,
+            @Value("${strava.proteccion.pruebas:3}") int pruebas,
+            @Value("${strava.proteccion.max-simultaneas:10}") int maxSimultaneas,
+            @Value("${strava.proteccion.espera:200ms}") Duration espera) {
+        this.esperaNanos = espera.toNanos();
+        for (OperacionStrava operacion : OperacionStrava.values()) {
+            Disyuntor disyuntor = new Disyuntor(ventana, minimoLlamadas, umbralFallos, umbralLentas,
+                    llamadaLenta.toNanos(), abierto.toNanos(), pruebas);
+            disyuntores.put(operacion, disyuntor);
+            compartimentos.computeIfAbsent(operacion.ruta(), ruta -> new Compartimento(maxSimultaneas));
+            Gauge.builder("strava.upstream.circuit", disyuntor, d -> d.estado().ordinal())
+                    .description("Estado del disyuntor: 0 cerrado, 1 semiabierto, 2 abierto")
+                    .tag("operacion", operacion.metodo())
+                    .register(registry);
+            rechazosCircuito.put(operacion, rechazos(registry, operacion, "circuito"));
+            rechazosCompartimento.put(operacion, rechazos(registry, operacion, "compartimento"));
+        }
+    }
+
+    private static Counter rechazos(MeterRegistry registry, OperacionStrava operacion, String motivo) {
+        return Counter.builder("strava.upstream.rejections")
+                .description("Llamadas a la API de Strava rechazadas sin enviarlas")
+                .tags("operacion", operacion.metodo(), "motivo", motivo)
+                .register(registry);
+    }
+
+    /** Runs a blocking call inside the breaker and the bulkhead of its operation. */
+    public <T> T ejecutar(OperacionStrava operacion, Supplier<T> llamada) {
+        Compartimento compartimento = compartimentos.get(operacion.ruta());
+        if (!compartimento.entrar(esperaNanos)) {
+            throw rechazar(operacion, rechazosCompartimento, StravaErrores.saturado(operacion));
+        }
+        try {
+            Disyuntor disyuntor = disyuntores.get(operacion);
+            if (!disyuntor.permitir()) {
+                throw rechazar(operacion, rechazosCircuito, StravaErrores.circuitoAbierto(operacion));
+            }
+            long inicio = System.nanoTime();
+            try {
+                T resultado = llamada.get();
+                disyuntor.registrar(false, System.nanoTime() - inicio);
+                return resultado;
+            } catch (RuntimeException e) {
+                disyuntor.registrar(fallo(e), System.nanoTime() - inicio);
+                throw e;
+            }
+        } finally {
+            compartimento.salir();
+        }
+    }
+
+    /** Runs an asynchronous call inside the breaker and the bulkhead of its operation until its future completes. */
+    public <T> CompletableFuture<T> ejecutarAsync(OperacionStrava operacion, Supplier<CompletableFuture<T>> llamada) {
+        Compartimento compartimento = compartimentos.get(operacion.ruta());
+        CompletableFuture<Boolean> turno = compartimento.turno(esperaNanos);
+        if (turno.isDone()) {
+            return dentro(operacion, compartimento, turno.join(), llamada);
+        }
+        return turno.thenCompose(dentro -> dentro(operacion, compartimento, dentro, llamada));
+    }
+
+    private <T> CompletableFuture<T> dentro(OperacionStrava operacion, Compartimento compartimento, boolean dentro,
+            Supplier<CompletableFuture<T>> llamada) {
+        if (!dentro) {
+            return CompletableFuture.failedFuture(
+                    rechazar(operacion, rechazosCompartimento, StravaErrores.saturado(operacion)));
+        }
+        Disyuntor disyuntor = disyuntores.get(operacion);
+        if (!disyuntor.permitir()) {
+            compartimento.salir();
+            return CompletableFuture.failedFuture(
+                    rechazar(operacion, rechazosCircuito, StravaErrores.circuitoAbierto(operacion)));
+        }
+        long inicio = System.nanoTime();
+        CompletableFuture<T> futuro;
+        try {
+            futuro = llamada.get();
+        } catch (RuntimeException e) {
+            compartimento.salir();
+            disyuntor.registrar(fallo(e), System.nanoTime() - inicio);
+            throw e;
+        }
+        return futuro.whenComplete((resultado, error) -> {
+            compartimento.salir();
+            disyuntor.registrar(error != null && fallo(error instanceof CompletionException
+                    && error.getCause() != null ? error.getCause() : error), System.nanoTime() - inicio);
+        });
+    }
+
+    public Estadisticas estadisticas() {
+        Map<String, Circuito> circuitos = new LinkedHashMap<>();
+        disyuntores.forEach((operacion, disyuntor) -> circuitos.put(operacion.metodo(), disyuntor.estadisticas()));
+        Map<String, Ocupacion> ocupacion = new LinkedHashMap<>();
+        compartimentos.forEach((ruta, compartimento) -> ocupacion.put(ruta, compartimento.ocupacion()));
+        return new Estadisticas(circuitos, ocupacion);
+    }
+
+    private StravaServiceException rechazar(OperacionStrava operacion, Map<OperacionStrava, Counter> contadores,
+            StravaServiceException rechazo) {
+        contadores.get(operacion).increment();
+        logger.info("-Proteccion- {}", rechazo.getMessage());
+        return rechazo;
+    }
+
+    // Sin respuesta o con un 5xx; un 4xx es una respuesta normal del servidor
+    private static boolean fallo(Throwable error) {
+        if (error instanceof StravaServiceException fallo) {
+            return fallo.getStatus() == 0 || fallo.getStatus() >= 500;
+        }
+        if (error instanceof HttpStatusCodeException fallo) {
+            return fallo.getStatusCode().is5xxServerError();
+        }
+        return true;
+    }
+
+    /**
+     * Slots of one endpoint. A call that finds none waits in a FIFO queue for
+     * at most {@code espera}; the call that leaves hands its slot to the first
+     * one still waiting instead of freeing it, so the waiting calls are not
+     * overtaken by the ones that arrive later.
+     */
+    private static final class Compartimento {
+        private final int maximo;
+        private final ArrayDeque<CompletableFuture<Boolean>> cola = new ArrayDeque<>();
+        private final LongAdder rechazos = new LongAdder();
+        private int ocupados;
+
+        private Compartimento(int maximo) {
+            this.maximo = maximo;
+        }
+
+        /** Completes with true once the call has a slot, or with false if none is free within the wait. */
+        private CompletableFuture<Boolean> turno(long esperaNanos) {
+            CompletableFuture<Boolean> turno = new CompletableFuture<>();
+            synchronized (this) {
+                if (ocupados < maximo) {
+                    ocupados++;
+                    return CompletableFuture.completedFuture(true);
+                }
+                if (esperaNanos > 0) {
+                    cola.addLast(turno);
+                }
+            }
+            if (esperaNanos <= 0) {
+                rechazos.increment();
+                return CompletableFuture.completedFuture(false);
+            }
+            turno.completeOnTimeout(false, esperaNanos, TimeUnit.NANOSECONDS).thenAccept(dentro -> {
+                if (!dentro) {
+                    synchronized (this) {
+                        cola.remove(turno);
+                    }
+                    rechazos.increment();
+                }
+            });
+            return turno;
+        }
+
+        private boolean entrar(long esperaNanos) {
+            CompletableFuture<Boolean> turno = turno(esperaNanos);
+            try {
+                return turno.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                // Si el hueco ya había llegado se devuelve
+                if (!turno.complete(false) && turno.join()) {
+                    salir();
+                }
+                return false;
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+
+        // Se completa fuera del bloqueo: la llamada que recibe el hueco puede continuar en este hilo
+        private void salir() {
+            while (true) {
+                CompletableFuture<Boolean> siguiente;
+                synchronized (this) {
+                    siguiente = cola.pollFirst();
+                    if (siguiente == null) {
+                        ocupados--;
+                        return;
+                    }
+                }
+                if (siguiente.complete(true)) {
+                    return;
+                }
+            }
+        }
+
+        private synchronized Ocupacion ocupacion() {
+            return new Ocupacion(ocupados, maximo, cola.size(), rechazos.sum());
+        }
+    }
+
+    /** Breakers by proxy method and bulkheads by endpoint path. */
+    public record Estadisticas(
+            Map<String, Circuito> circuitos,
+            Map<String, Ocupacion> compartimentos) {
+    }
+
+    /**
+     * State of a breaker, the calls in its window with their percentage of
+     * failures and of slow calls, how many times it has opened and how many
+     * calls it has rejected.
+     */
+    public record Circuito(
+            String estado,
+            int llamadas,
+            int porcentajeFallos,
+            int porcentajeLentas,
+            long aperturas,
+            long rechazos) {
+    }
+
+    /** Calls in flight on an endpoint, its limit, the calls waiting for a slot and those rejected after waiting. */
+    public record Ocupacion(
+            int enVuelo,
+            int maximo,
+            int enEspera,
+            long rechazos) {
+    }
+}
@@ -0,0 +1,246 @@
+package es.deusto.sd.strava.client.proxies;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Conditional requests for the reads of both proxies. The last response of
+ * each read that came with an {@code ETag} or a {@code Last-Modified} is kept
+ * with its validators and the objects already decoded from it; the next identical read sends them back as
+ * {@code If-None-Match} / {@code If-Modified-Since}, and a 304 returns those
+ * objects with no body to download or decode.
+ *
+ * Reads are identified by the same key as in {@link LecturasCompartidas}
+ * (the URL, plus the part of the list read if it is partial), so the entries
+ * of a user carry the token and are dropped on logout. Decoded objects are
+ * shared by every caller, as they already are between calls joined by
+ * {@link LecturasCompartidas}.
+ *
+ * The objects kept are bounded like those of the caches in front: a response
+ * is dropped after the TTL (by default that of the trainings cache), a list
+ * longer than {@code max-por-respuesta} elements is not kept, and while more
+ * than {@code max-entradas} responses or {@code max-elementos} list elements
+ * in total are kept the least recently used response is dropped.
+ *
+ * Counters: {@code strava.upstream.revalidations} (tagged with the result,
+ * {@code no-modificada} or {@code modificada}), and the body bytes and decode
+ * time saved by each 304, {@code strava.upstream.saved.bytes} and
+ * {@code strava.upstream.saved.decode}.
+ */
+@Component
+public class RevalidacionLecturas {
+
+    private final ConcurrentHashMap<String, Representacion> representaciones = new ConcurrentHashMap<>();
+    private final boolean activa;
+    private final int maxEntradas;
+    private final long ttlNanos;
+    private final long maxElementos;
+    private final int maxPorRespuesta;
+    private final AtomicLong elementos = new AtomicLong();
+
+    private final Map<OperacionStrava, Counter> noModificadas = new EnumMap<>(OperacionStrava.class);
+    private final Map<OperacionStrava, Counter> modificadas = new EnumMap<>(OperacionStrava.class);
+    private final Map<OperacionStrava, Counter> bytesAhorrados = new EnumMap<>(OperacionStrava.class);
+    private final Map<OperacionStrava, Counter> decodificacionAhorrada = new EnumMap<>(OperacionStrava.class);
+    private final LongAdder totalNoModificadas = new LongAdder();
+    private final LongAdder totalModificadas = new LongAdder();
+    private final LongAdder totalBytesAhorrados = new LongAdder();
+    private final LongAdder totalNanosAhorrados = new LongAdder();
+
+    public RevalidacionLecturas(MeterRegistry registry,
+            @Value("${strava.revalidacion.activa:true}") boolean activa,
+            @Value("${strava.revalidacion.max-entradas:1000}") int maxEntradas,
+            @Value("${strava.revalidacion.ttl:${strava.cache.entrenamientos.ttl:5m}}") Duration ttl,
+            @Value("${strava.revalidacion.max-elementos:${strava.cache.entrenamientos.max-total:200000}}")
+            long maxElementos,
+            @Value("${strava.revalidacion.max-por-respuesta:${strava.cache.entrenamientos.max-por-usuario:20000}}")
+            int maxPorRespuesta) {
+        this.activa = activa;
+        this.maxEntradas = maxEntradas;
+        this.ttlNanos = ttl.toNanos();
+        this.maxElementos = maxElementos;
+        this.maxPorRespuesta = maxPorRespuesta;
+        for (OperacionStrava operacion : OperacionStrava.values()) {
+            if (!operacion.idempotente()) {
+                continue;
+            }
+            noModificadas.put(operacion, revalidaciones(registry, operacion, "no-modificada"));
+            modificadas.put(operacion, revalidaciones(registry, operacion, "modificada"));
+            bytesAhorrados.put(operacion, Counter.builder("strava.upstream.saved.bytes")
+                    .description("Bytes de respuesta no descargados gracias a un 304")
+                    .baseUnit("bytes")
+                    .tag("operacion", operacion.metodo())
+                    .register(registry));
+            decodificacionAhorrada.put(operacion, Counter.builder("strava.upstream.saved.decode")
+                    .description("Tiempo de decodificación JSON ahorrado reutilizando los objetos de un 304")
+                    .baseUnit("seconds")
+                    .tag("operacion", operacion.metodo())
+                    .register(registry));
+        }
+    }
+
+    private static Counter revalidaciones(MeterRegistry registry, OperacionStrava operacion, String resultado) {
+        return Counter.builder("strava.upstream.revalidations")
+                .description("Lecturas condicionales a la API de Strava por resultado")
+                .tags("operacion", operacion.metodo(), "resultado", resultado)
+                .register(registry);
+    }
+
+    /** The response kept for a read, whose validators go in the request; null if there is none. */
+    public Representacion buscar(String clave) {
+        if (!activa) {
+            return null;
+        }
+        Representacion representacion = representaciones.get(clave);
+        if (representacion == null) {
+            return null;
+        }
+        long ahora = System.nanoTime();
+        if (ahora - representacion.creada > ttlNanos) {
+            quitar(clave, representacion);
+            return null;
+        }
+        representacion.usada = ahora;
+        return representacion;
+    }
+
+    /** Adds the validators of a kept response to the request, through the setter of its headers. */
+    public void condiciones(Representacion representacion, BiConsumer<String, String> cabecera) {
+        if (representacion.etiqueta != null) {
+            cabecera.accept(HttpHeaders.IF_NONE_MATCH, representacion.etiqueta);
+        }
+        if (representacion.modificada != null) {
+            cabecera.accept(HttpHeaders.IF_MODIFIED_SINCE, representacion.modificada);
+        }
+    }
+
+    /** The objects of a kept response the server has answered 304 for. */
+    @SuppressWarnings("unchecked")
+    public <T> T noModificada(OperacionStrava operacion, Representacion representacion) {
+        noModificadas.get(operacion).increment();
+        bytesAhorrados.get(operacion).increment(representacion.bytes);
+        decodificacionAhorrada.get(operacion).increment(representacion.nanosDecodificacion / 1e9);
+        totalNoModificadas.increment();
+        totalBytesAhorrados.add(representacion.bytes);
+        totalNanosAhorrados.add(representacion.nanosDecodificacion);
+        return (T) representacion.valor;
+    }
+
+    /**
+     * Keeps a response read with its validators ({@code ETag} and
+     * {@code Last-Modified}, null if absent); without any, the previous one is
+     * dropped. {@code enviada} is the response whose validators went in the
+     * request, if any.
+     */
+    public void guardar(OperacionStrava operacion, String clave, Representacion enviada, String etiqueta,
+            String modificada, Object valor, long bytes, long nanosDecodificacion) {
+        if (!activa) {
+            return;
+        }
+        if (enviada != null) {
+            modificadas.get(operacion).increment();
+            totalModificadas.increment();
+        }
+        int cuantos = valor instanceof Collection<?> lista ? lista.size() : 1;
+        if (etiqueta == null && modificada == null || cuantos > maxPorRespuesta) {
+            Representacion anterior = representaciones.remove(clave);
+            if (anterior != null) {
+                elementos.addAndGet(-anterior.elementos);
+            }
+            return;
+        }
+        Representacion nueva = new Representacion(etiqueta, modificada, valor, cuantos, bytes, nanosDecodificacion);
+        Representacion anterior = representaciones.put(clave, nueva);
+        elementos.addAndGet(cuantos - (anterior != null ? anterior.elementos : 0));
+        hacerSitio(clave);
+    }
+
+    /** Drops the responses of the reads made with a token, e.g. after a logout. */
+    public void olvidar(String token) {
+        for (Map.Entry<String, Representacion> entrada : representaciones.entrySet()) {
+            if (entrada.getKey().contains(token)) {
+                quitar(entrada.getKey(), entrada.getValue());
+            }
+        }
+    }
+
+    public Estadisticas estadisticas() {
+        return new Estadisticas(representaciones.size(), elementos.get(), totalNoModificadas.sum(), totalModificadas.sum(),
+                totalBytesAhorrados.sum(), TimeUnit.NANOSECONDS.toMillis(totalNanosAhorrados.sum()));
+    }
+
+    // Descarta las respuestas usadas hace más tiempo mientras se supere alguno de los dos límites
+    private void hacerSitio(String protegida) {
+        while (representaciones.size() > maxEntradas || elementos.get() > maxElementos) {
+            Map.Entry<String, Representacion> masAntigua = null;
+            for (Map.Entry<String, Representacion> candidata : representaciones.entrySet()) {
+                if (candidata.getKey().equals(protegida)) {
+                    continue;
+                }
+                if (masAntigua == null || candidata.getValue().usada - masAntigua.getValue().usada < 0) {
+                    masAntigua = candidata;
+                }
+            }
+            if (masAntigua == null) {
+                return;
+            }
+            quitar(masAntigua.getKey(), masAntigua.getValue());
+        }
+    }
+
+    private void quitar(String clave, Representacion representacion) {
+        if (representaciones.remove(clave, representacion)) {
+            elementos.addAndGet(-representacion.elementos);
+        }
+    }
+
+    /** A response kept: its validators, the objects decoded from it and what reading it cost. */
+    public static final class Representacion {
+        private final String etiqueta;
+        private final String modificada;
+        private final Object valor;
+        private final int elementos;
+        private final long bytes;
+        private final long nanosDecodificacion;
+        private final long creada = System.nanoTime();
+        private volatile long usada = creada;
+
+        private Representacion(String etiqueta, String modificada, Object valor, int elementos, long bytes,
+                long nanosDecodificacion) {
+            this.etiqueta = etiqueta;
+            this.modificada = modificada;
+            this.valor = valor;
+            this.elementos = elementos;
+            this.bytes = bytes;
+            this.nanosDecodificacion = nanosDecodificacion;
+        }
+    }
+
+    /**
+     * Responses kept and the list elements they hold, conditional reads
+     * answered with a 304 and with a new body, and the bytes and decode
+     * milliseconds those 304s saved.
+     */
+    public record Estadisticas(
+            int representaciones,
+            long elementos,
+            long noModificadas,
+            long modificadas,
+            long bytesAhorrados,
+            long msDecodificacionAhorrados) {
+    }
+}
@@ -0,0 +1,46 @@
+package es.deusto.sd.strava.client.proxies;
+
+import es.deusto.sd.strava.client.trazas.Trazas;
+
+/**
+ * Translation of failed upstream responses into the error messages shown by
+ * the web client. It is shared by every proxy implementation so that the
+ * blocking and the asynchronous proxies report failures in the same way.
+ */
+public final class StravaErrores {
+
+    private StravaErrores() {
+    }
+
+    public static StravaServiceException mapear(OperacionStrava operacion, int status) {
+        String mensaje = switch (status) {
+            case 401 -> switch (operacion) {
+                case LOGIN -> "Credenciales invalidas";
+                case REGISTRAR -> "La contrasenya o el correo no son correctos: " + status;
+                default -> "Token inválido";
+            };
+            case 409 -> operacion == OperacionStrava.REGISTRAR
+                    ? "Usuario ya registrado: " + status
+                    : operacion.mensajeFallo() + ": " + status;
+            default -> operacion.mensajeFallo() + ": " + status;
+        };
+        return new StravaServiceException(operacion, status, mensaje);
+    }
+
+    // El mensaje de la causa puede llevar la URL con el token o la contraseña: se censura
+    public static StravaServiceException sinConexion(OperacionStrava operacion, Throwable causa) {
+        return new StravaServiceException(operacion,
+                operacion.mensajeFallo() + ": servidor no disponible (" + Trazas.error(causa) + ")", causa);
+    }
+
+    // Rechazos de ProteccionStrava: sin status, como un servidor que no responde, para que se reintenten
+    public static StravaServiceException circuitoAbierto(OperacionStrava operacion) {
+        return new StravaServiceException(operacion, 0,
+                operacion.mensajeFallo() + ": servidor no disponible, se volverá a intentar en unos segundos", true);
+    }
+
+    public static StravaServiceException saturado(OperacionStrava operacion) {
+        return new StravaServiceException(operacion, 0,
+                operacion.mensajeFallo() + ": demasiadas peticiones en curso, inténtalo de nuevo", true);
+    }
+}
@@ -0,0 +1,292 @@
+package es.deusto.sd.strava.client.proxies;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.stereotype.Service;
+
+import es.deusto.sd.strava.client.analitica.AnaliticaEntrenamientos;
+import es.deusto.sd.strava.client.cache.CatalogoRetosCache;
+import es.deusto.sd.strava.client.cache.EntrenamientosCache;
+import es.deusto.sd.strava.client.data.Credentials;
+import es.deusto.sd.strava.client.data.Entrenamiento;
+import es.deusto.sd.strava.client.data.Reto;
+import es.deusto.sd.strava.client.data.Usuario;
+import es.deusto.sd.strava.client.trazas.Trazas;
+
+/**
+ * Non-blocking implementation of {@link IStravaServiceProxyAsync} built on the
+ * JDK {@link HttpClient}. Requests are sent with {@code sendAsync}, so no
+ * thread waits for the upstream response; the body is decoded once it has
+ * been received. URLs, error messages and the circuit breakers and bulkheads
+ * of {@link ProteccionStrava} are the same ones used by
+ * {@link StravaRestTemplateServiceProxy}.
+ */
+@Service
+public class StravaHttpClientAsyncServiceProxy implements IStravaServiceProxyAsync {
+    private static final Logger logger = LoggerFactory.getLogger(StravaHttpClientAsyncServiceProxy.class);
+    private static final String CABECERA_IDEMPOTENCIA = "Idempotency-Key";
+    private static final int HTTP_NO_MODIFICADO = 304;
+
+    private final HttpClient httpClient;
+    private final DecodificadorJson decodificador;
+    private final CatalogoRetosCache catalogoRetos;
+    private final EntrenamientosCache entrenamientosCache;
+    private final LecturasCompartidas lecturasCompartidas;
+    private final MetricasStrava metricas;
+    private final EndpointsStrava endpoints;
+    private final ProteccionStrava proteccion;
+    private final CoberturaLecturas cobertura;
+    private final AnaliticaEntrenamientos analitica;
+    private final RevalidacionLecturas revalidacion;
+    private final Duration readTimeout;
+
+    public StravaHttpClientAsyncServiceProxy(StravaHttpProperties props, DecodificadorJson decodificador,
+            CatalogoRetosCache catalogoRetos, EntrenamientosCache entrenamientosCache,
+            LecturasCompartidas lecturasCompartidas, MetricasStrava metricas, EndpointsStrava endpoints,
+            ProteccionStrava proteccion, CoberturaLecturas cobertura, AnaliticaEntrenamientos analitica,
+            RevalidacionLecturas revalidacion,
+            @Qualifier(TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME) Executor executor) {
+        // Las respuestas se procesan en el ejecutor de la aplicación, que usa hilos virtuales
+        // cuando spring.threads.virtual.enabled=true
+        this.httpClient = HttpClient.newBuilder()
+                .version(props.http2() ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .connectTimeout(props.connectTimeout())
+                .executor(executor)
+                .build();
+        this.decodificador = decodificador;
+        this.catalogoRetos = catalogoRetos;
+        this.entrenamientosCache = entrenamientosCache;
+        this.lecturasCompartidas = lecturasCompartidas;
+        this.metricas = metricas;
+        this.endpoints = endpoints;
+        this.proteccion = proteccion;
+        this.cobertura = cobertura;
+        this.analitica = analitica;
+        this.revalidacion = revalidacion;
+        this.readTimeout = props.readTimeout();
+    }
+
+    @Override
+    public CompletableFuture<String> registrar(Usuario usuario) {
+        return enviar(OperacionStrava.REGISTRAR, post(endpoints.registrar(usuario), null),
+                StravaHttpClientAsyncServiceProxy::texto);
+    }
+
+    @Override
+    public CompletableFuture<Void> logout(String token) {
+        entrenamientosCache.olvidar(token);
+        analitica.olvidar(token);
+        revalidacion.olvidar(token);
+        return enviar(OperacionStrava.LOGOUT, post(endpoints.logout(), token), body -> null);
+    }
+
+    @Override
+    public CompletableFuture<String> login(Credentials credenciales) {
+        return enviar(OperacionStrava.LOGIN, post(endpoints.login(credenciales), null),
+                StravaHttpClientAsyncServiceProxy::texto);
+    }
+
+    @Override
+    public CompletableFuture<List<Entrenamiento>> consultarEntrenamientos(String token, LocalDate fechaInicio,
+            LocalDate fechaFin) {
+        // Los tramos que faltan se descargan en paralelo y se fusionan cuando han llegado todos
+        Map<EntrenamientosCache.Rango, CompletableFuture<List<Entrenamiento>>> descargas = new HashMap<>();
+        for (EntrenamientosCache.Rango rango : entrenamientosCache.pendientes(token, fechaInicio, fechaFin)) {
+            descargas.put(rango, descargarEntrenamientos(token, rango.desde(), rango.hasta()));
+        }
+        return CompletableFuture.allOf(descargas.values().toArray(CompletableFuture[]::new)).thenCompose(v -> {
+            Map<EntrenamientosCache.Rango, List<Entrenamiento>> descargados = new HashMap<>();
+            descargas.forEach((rango, descarga) -> descargados.put(rango, descarga.join()));
+            List<Entrenamiento> entrenamientos = entrenamientosCache.completar(token, fechaInicio, fechaFin,
+                    descargados);
+            if (entrenamientos != null) {
+                return CompletableFuture.completedFuture(entrenamientos);
+            }
+            // El historial caducó o se expulsó durante la descarga: se pide el rango entero
+            EntrenamientosCache.Rango todo = new EntrenamientosCache.Rango(fechaInicio, fechaFin);
+            return descargarEntrenamientos(token, fechaInicio, fechaFin).thenApply(
+                    entero -> entrenamientosCache.completar(token, fechaInicio, fechaFin, Map.of(todo, entero)));
+        });
+    }
+
+    private CompletableFuture<List<Entrenamiento>> descargarEntrenamientos(String token, LocalDate fechaInicio,
+            LocalDate fechaFin) {
+        return consultar(OperacionStrava.CONSULTAR_ENTRENAMIENTOS,
+                endpoints.consultarEntrenamientos(token, fechaInicio, fechaFin),
+                decodificador::entrenamientos);
+    }
+
+    @Override
+    public CompletableFuture<Void> anadirEntrenamiento(String token, String titulo, String deporte, float distancia,
+            int duracion, LocalDate fechaInicio, String horaInicio) {
+        return anadirEntrenamiento(token, titulo, deporte, distancia, duracion, fechaInicio, horaInicio, null);
+    }
+
+    @Override
+    public CompletableFuture<Void> anadirEntrenamiento(String token, String titulo, String deporte, float distancia,
+            int duracion, LocalDate fechaInicio, String horaInicio, String claveIdempotencia) {
+        URI url = endpoints.anadirEntrenamiento(token, titulo, deporte, distancia, duracion,
+                fechaInicio, horaInicio);
+        long escritura = analitica.escribiendo(token);
+        return enviar(OperacionStrava.ANADIR_ENTRENAMIENTO, post(url, null, claveIdempotencia), body -> null)
+                .thenRun(() -> {
+                    Entrenamiento entrenamiento = new Entrenamiento(titulo, deporte, distancia, fechaInicio,
+                            horaInicio, duracion);
+                    entrenamientosCache.anadir(token, entrenamiento);
+                    analitica.anadir(token, escritura, entrenamiento);
+                });
+    }
+
+    @Override
+    public CompletableFuture<Void> anadirReto(String token, String nombre, String deporte, float objetivoDistancia,
+            int objetivoTiempo, LocalDate fechaInicio, LocalDate fechaFin) {
+        return anadirReto(token, nombre, deporte, objetivoDistancia, objetivoTiempo, fechaInicio, fechaFin, null);
+    }
+
+    @Override
+    public CompletableFuture<Void> anadirReto(String token, String nombre, String deporte, float objetivoDistancia,
+            int objetivoTiempo, LocalDate fechaInicio, LocalDate fechaFin, String claveIdempotencia) {
+        URI url = endpoints.anadirReto(nombre, deporte, objetivoDistancia, objetivoTiempo,
+                fechaInicio, fechaFin);
+        return enviar(OperacionStrava.ANADIR_RETO, post(url, token, claveIdempotencia), body -> null)
+                .thenRun(catalogoRetos::invalidar);
+    }
+
+    @Override
+    public CompletableFuture<List<Reto>> consultarRetosActivos() {
+        return catalogoRetos.activos(() -> consultar(OperacionStrava.CONSULTAR_RETOS_ACTIVOS,
+                endpoints.consultarRetosActivos(), decodificador::retos));
+    }
+
+    @Override
+    public CompletableFuture<List<Reto>> consultarRetosActivosFiltrados(String token, LocalDate fechaInicio,
+            String deporte) {
+        URI url = endpoints.consultarRetosActivosFiltrados(fechaInicio, deporte);
+        return catalogoRetos.filtrados(fechaInicio, deporte,
+                () -> consultar(OperacionStrava.CONSULTAR_RETOS_FILTRADOS, url, decodificador::retos));
+    }
+
+    @Override
+    public CompletableFuture<String> aceptarReto(String nombreReto, String token) {
+        return enviar(OperacionStrava.ACEPTAR_RETO, post(endpoints.aceptarReto(nombreReto), token),
+                StravaHttpClientAsyncServiceProxy::texto);
+    }
+
+    @Override
+    public CompletableFuture<List<Reto>> retosAceptados(String token) {
+        return consultar(OperacionStrava.RETOS_ACEPTADOS, endpoints.retosAceptados(token),
+                decodificador::retos);
+    }
+
+    // Lectura idempotente: las peticiones simultáneas a la misma URL comparten una sola petición al servidor,
+    // que se puede reintentar o cubrir con una segunda. Las URLs de las lecturas privadas llevan el token,
+    // así que nunca se comparten entre usuarios
+    // Con una respuesta anterior guardada la petición es condicional y un 304 devuelve sus objetos ya decodificados
+    private <T> CompletableFuture<T> consultar(OperacionStrava operacion, URI url, Lectura<T> lectura) {
+        String clave = url.toString();
+        return lecturasCompartidas.leerAsync(clave, () -> cobertura.ejecutarAsync(operacion, () -> {
+            RevalidacionLecturas.Representacion guardada = revalidacion.buscar(clave);
+            return intercambiar(operacion, get(url, guardada), response -> {
+                if (guardada != null && response.statusCode() == HTTP_NO_MODIFICADO) {
+                    return revalidacion.<T>noModificada(operacion, guardada);
+                }
+                long inicio = System.nanoTime();
+                T valor = leer(operacion, response.body(), lectura);
+                revalidacion.guardar(operacion, clave, guardada, response.headers().firstValue("ETag").orElse(null),
+                        response.headers().firstValue("Last-Modified").orElse(null), valor, response.body().length,
+                        System.nanoTime() - inicio);
+                return valor;
+            });
+        }));
+    }
+
+    private HttpRequest get(URI url, RevalidacionLecturas.Representacion guardada) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(url)
+                .timeout(readTimeout)
+                .header("Accept", "application/json");
+        if (guardada != null) {
+            revalidacion.condiciones(guardada, builder::header);
+        }
+        return builder.GET().build();
+    }
+
+    private HttpRequest post(URI url, String body) {
+        return post(url, body, null);
+    }
+
+    private HttpRequest post(URI url, String body, String claveIdempotencia) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(url).timeout(readTimeout);
+        if (claveIdempotencia != null) {
+            builder.header(CABECERA_IDEMPOTENCIA, claveIdempotencia);
+        }
+        if (body == null) {
+            return builder.POST(HttpRequest.BodyPublishers.noBody()).build();
+        }
+        return builder.header("Content-Type", "text/plain;charset=UTF-8")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    private <T> CompletableFuture<T> enviar(OperacionStrava operacion, HttpRequest request,
+            Function<byte[], T> decodificador) {
+        return intercambiar(operacion, request, response -> decodificador.apply(response.body()));
+    }
+
+    private <T> CompletableFuture<T> intercambiar(OperacionStrava operacion, HttpRequest request,
+            Function<HttpResponse<byte[]>, T> respuesta) {
+        logger.info("-HttpClient- URL: {}", Trazas.censurado(request.uri()));
+        return proteccion.ejecutarAsync(operacion, () -> metricas.medirAsync(operacion, () -> httpClient
+                .sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .handle((response, error) -> {
+                    if (error != null) {
+                        Throwable causa = error instanceof CompletionException ? error.getCause() : error;
+                        logger.error("-HttpClient-    {} sin respuesta: {}", operacion.metodo(),
+                                Trazas.censurado(causa));
+                        throw StravaErrores.sinConexion(operacion, causa);
+                    }
+                    if (response.statusCode() >= 400) {
+                        StravaServiceException fallo = StravaErrores.mapear(operacion, response.statusCode());
+                        logger.error("-HttpClient-    {}", fallo.getMessage());
+                        throw fallo;
+                    }
+                    return respuesta.apply(response);
+                })));
+    }
+
+    private static String texto(byte[] body) {
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    private <T> T leer(OperacionStrava operacion, byte[] body, Lectura<T> lectura) {
+        metricas.tamanoRespuesta(operacion, body.length);
+        try {
+            return lectura.leer(body);
+        } catch (IOException | IllegalArgumentException | DateTimeException e) {
+            throw new StravaServiceException(operacion, operacion.mensajeFallo() + ": respuesta no válida", e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Lectura<T> {
+        T leer(byte[] body) throws IOException;
+    }
+}
@@ -0,0 +1,31 @@
+package es.deusto.sd.strava.client.proxies;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Transport settings for the HTTP client used by the Strava service proxies,
+ * bound from the {@code strava.http.*} keys of {@code application.properties}.
+ *
+ * @param maxConexiones        maximum number of pooled connections in total
+ * @param maxConexionesPorRuta maximum number of pooled connections per host
+ * @param connectTimeout       time allowed to open a TCP connection
+ * @param readTimeout          time allowed between two packets of a response
+ * @param poolTimeout          time a request may wait for a free connection
+ * @param idleTimeout          idle time after which a pooled connection is closed
+ * @param keepAlive            maximum lifetime of a pooled connection
+ * @param http2                use the JDK client negotiating HTTP/2 instead of the pool
+ */
+@ConfigurationProperties(prefix = "strava.http")
+public record StravaHttpProperties(
+        @DefaultValue("50") int maxConexiones,
+        @DefaultValue("20") int maxConexionesPorRuta,
+        @DefaultValue("2s") Duration connectTimeout,
+        @DefaultValue("10s") Duration readTimeout,
+        @DefaultValue("2s") Duration poolTimeout,
+        @DefaultValue("30s") Duration idleTimeout,
+        @DefaultValue("5m") Duration keepAlive,
+        @DefaultValue("false") boolean http2) {
+}
@@ -0,0 +1,93 @@
+package es.deusto.sd.strava.client.proxies;
+
+import java.net.http.HttpClient;
+import java.util.concurrent.Executor;
+
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.core5.http.io.SocketConfig;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Builds the HTTP transport shared by the Strava service proxies.
+ *
+ * By default requests go through a bounded Apache HttpClient pool that keeps
+ * connections alive between calls, so a page that performs several upstream
+ * calls reuses the same sockets instead of opening a new one per call. Setting
+ * {@code strava.http.http2=true} switches to the JDK client, which negotiates
+ * HTTP/2 and multiplexes all requests over a single connection per host.
+ */
+@Configuration
+@EnableConfigurationProperties(StravaHttpProperties.class)
+public class StravaHttpTransportConfig {
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(prefix = "strava.http", name = "http2", havingValue = "false", matchIfMissing = true)
+    public PoolConexionesMonitorizado poolConexiones(StravaHttpProperties props) {
+        PoolConexionesMonitorizado pool = new PoolConexionesMonitorizado();
+        pool.setMaxTotal(props.maxConexiones());
+        pool.setDefaultMaxPerRoute(props.maxConexionesPorRuta());
+        pool.setDefaultSocketConfig(SocketConfig.custom()
+                .setSoTimeout(Timeout.of(props.readTimeout()))
+                .setSoKeepAlive(true)
+                .build());
+        pool.setDefaultConnectionConfig(ConnectionConfig.custom()
+                .setConnectTimeout(Timeout.of(props.connectTimeout()))
+                .setSocketTimeout(Timeout.of(props.readTimeout()))
+                .setTimeToLive(TimeValue.of(props.keepAlive()))
+                .build());
+        return pool;
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(prefix = "strava.http", name = "http2", havingValue = "false", matchIfMissing = true)
+    public CloseableHttpClient apacheHttpClient(PoolConexionesMonitorizado pool, StravaHttpProperties props) {
+        return HttpClients.custom()
+                .setConnectionManager(pool)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.of(props.poolTimeout()))
+                        .setResponseTimeout(Timeout.of(props.readTimeout()))
+                        .build())
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.of(props.idleTimeout()))
+                .build();
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "strava.http", name = "http2", havingValue = "false", matchIfMissing = true)
+    public ClientHttpRequestFactory pooledRequestFactory(CloseableHttpClient apacheHttpClient) {
+        return new HttpComponentsClientHttpRequestFactory(apacheHttpClient);
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "strava.http", name = "http2", havingValue = "true")
+    public ClientHttpRequestFactory http2RequestFactory(StravaHttpProperties props,
+            @Qualifier(TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME) Executor executor) {
+        HttpClient httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(props.connectTimeout())
+                .executor(executor)
+                .build();
+        JdkClientHttpRequestFactory factory = new JdkClientHttpRequestFactory(httpClient);
+        factory.setReadTimeout(props.readTimeout());
+        return factory;
+    }
+
+    @Bean
+    public RestTemplate restTemplate(ClientHttpRequestFactory requestFactory) {
+        return new RestTemplate(requestFactory);
+    }
+}
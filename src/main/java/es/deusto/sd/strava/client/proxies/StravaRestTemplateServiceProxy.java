@@ -1,304 +1,409 @@
 package es.deusto.sd.strava.client.proxies;
 
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.time.DateTimeException;
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
 
+import es.deusto.sd.strava.client.analitica.AnaliticaEntrenamientos;
+import es.deusto.sd.strava.client.cache.CatalogoRetosCache;
+import es.deusto.sd.strava.client.cache.EntrenamientosCache;
 import es.deusto.sd.strava.client.data.Credentials;
 import es.deusto.sd.strava.client.data.Entrenamiento;
+import es.deusto.sd.strava.client.data.PaginaEntrenamientos;
 import es.deusto.sd.strava.client.data.Reto;
 import es.deusto.sd.strava.client.data.Usuario;
+import es.deusto.sd.strava.client.trazas.Trazas;
 
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.RequestCallback;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.core.JacksonException;
+
 @Service
 public class StravaRestTemplateServiceProxy implements IStravaServiceProxy {
+    // Prefijo de los cursores que indican una posición en la respuesta del servidor
+    private static final String PREFIJO_DESPLAZAMIENTO = "o";
+    private static final RequestCallback ACEPTAR_JSON = request -> request.getHeaders()
+            .setAccept(List.of(MediaType.APPLICATION_JSON));
+
     private final RestTemplate restTemplate;
+    private final DecodificadorJson decodificador;
+    private final CatalogoRetosCache catalogoRetos;
+    private final EntrenamientosCache entrenamientosCache;
+    private final LecturasCompartidas lecturasCompartidas;
+    private final MetricasStrava metricas;
+    private final EndpointsStrava endpoints;
+    private final ProteccionStrava proteccion;
+    private final CoberturaLecturas cobertura;
+    private final AnaliticaEntrenamientos analitica;
+    private final RevalidacionLecturas revalidacion;
     private static final Logger logger = LoggerFactory.getLogger(StravaRestTemplateServiceProxy.class);
 
-    @Value("${api.base.url}")
-    private String apiBaseUrl;
-
-    public StravaRestTemplateServiceProxy(RestTemplate restTemplate) {
+    public StravaRestTemplateServiceProxy(RestTemplate restTemplate, DecodificadorJson decodificador,
+            CatalogoRetosCache catalogoRetos, EntrenamientosCache entrenamientosCache,
+            LecturasCompartidas lecturasCompartidas, MetricasStrava metricas, EndpointsStrava endpoints,
+            ProteccionStrava proteccion, CoberturaLecturas cobertura, AnaliticaEntrenamientos analitica,
+            RevalidacionLecturas revalidacion) {
         this.restTemplate = restTemplate;
+        this.decodificador = decodificador;
+        this.catalogoRetos = catalogoRetos;
+        this.entrenamientosCache = entrenamientosCache;
+        this.lecturasCompartidas = lecturasCompartidas;
+        this.metricas = metricas;
+        this.endpoints = endpoints;
+        this.proteccion = proteccion;
+        this.cobertura = cobertura;
+        this.analitica = analitica;
+        this.revalidacion = revalidacion;
     }
 
     @Override
     public String registrar(Usuario usuario) {
-        DecimalFormat decimalFormat = new DecimalFormat("0.######", DecimalFormatSymbols.getInstance(Locale.US));
-        String peso = decimalFormat.format(usuario.peso());
-        String altura = decimalFormat.format(usuario.altura());
-
-        String url = String.format(
-                "%s/auth/registroUsuario?email=%s&tipoLogin=%s&nombre=%s&fechaNacimiento=%s&peso=%s&altura=%s&frecuenciaCardiacaMax=%d&frecuenciaCardiacaReposo=%d",
-                apiBaseUrl,
-                usuario.email(),
-                usuario.tipoLogin(),
-                usuario.nombre(),
-                usuario.fechaNacimiento(),
-                peso,
-                altura,
-                usuario.frecuenciaCardiacaMax(),
-                usuario.frecuenciaCardiacaReposo());
-        logger.info("-RestTemplate- URL: " + url);
+        URI url = endpoints.registrar(usuario);
+        logger.info("-RestTemplate- URL: {}", Trazas.censurado(url));
         try {
-            return restTemplate.postForObject(url, null, String.class);
+            return llamar(OperacionStrava.REGISTRAR,
+                    () -> restTemplate.postForObject(url, null, String.class));
         } catch (HttpStatusCodeException e) {
-            switch (e.getStatusCode().value()) {
-                case 409:
-                    logger.info("-RestTemplate-    Usuario ya registrado");
-                    throw new RuntimeException("Usuario ya registrado: " + e.getStatusCode().value());
-                case 401:
-                    logger.info("-RestTemplate-    La contrasenya o el correo no son correctos");
-                    throw new RuntimeException(
-                            "La contrasenya o el correo no son correctos: " + e.getStatusCode().value());
-                default:
-                    throw new RuntimeException("Registro fallido: " + e.getStatusCode().value());
-            }
+            throw fallo(OperacionStrava.REGISTRAR, e);
         }
     }
 
     @Override
     public void logout(String token) {
-        String url = apiBaseUrl + "/auth/logout";
+        URI url = endpoints.logout();
+        entrenamientosCache.olvidar(token);
+        analitica.olvidar(token);
+        revalidacion.olvidar(token);
 
         try {
-            restTemplate.postForObject(url, token, Void.class);
+            llamar(OperacionStrava.LOGOUT, () -> restTemplate.postForObject(url, token, Void.class));
         } catch (HttpStatusCodeException e) {
-            switch (e.getStatusCode().value()) {
-                case 401:
-                    throw new RuntimeException("Token inválido");
-                default:
-                    throw new RuntimeException("Logout fallido: " + e.getStatusCode().value());
-            }
+            throw fallo(OperacionStrava.LOGOUT, e);
         }
     }
 
     @Override
     public String login(Credentials credentials) {
         // Construir la URL con los parámetros
-        String url = String.format("%s/auth/login?email=%s&contrasenya=%s",
-                apiBaseUrl,
-                credentials.email(),
-                credentials.password());
-        logger.info("-RestTemplate- URL: " + url);
+        URI url = endpoints.login(credentials);
+        logger.info("-RestTemplate- URL: {}", Trazas.censurado(url));
         try {
             logger.info("-RestTemplate-    Procesando login");
-            return restTemplate.postForObject(url, null, String.class);
+            return llamar(OperacionStrava.LOGIN, () -> restTemplate.postForObject(url, null, String.class));
         } catch (HttpStatusCodeException e) {
-            switch (e.getStatusCode().value()) {
-                case 401:
-                    logger.error("-RestTemplate-    Credenciales invalidas");
-                    throw new RuntimeException("Credenciales invalidas");
-                default:
-                    logger.error("-RestTemplate-    Login fallido: " + e.getStatusCode().value());
-                    throw new RuntimeException("Login fallido: " + e.getStatusCode().value());
-            }
+            throw fallo(OperacionStrava.LOGIN, e);
         }
     }
 
     @Override
     public List<Entrenamiento> consultarEntrenamientos(String token, LocalDate fechaInicio, LocalDate fechaFin) {
-        // Formatear las fechas si no son nulas
-        String fechaInicioParam = (fechaInicio != null) ? fechaInicio.format(DateTimeFormatter.ofPattern("dd/MM/yyyy"))
-                : null;
-        String fechaFinParam = (fechaFin != null) ? fechaFin.format(DateTimeFormatter.ofPattern("dd/MM/yyyy")) : null;
-
-        // Construir la URL sin incluir las fechas si son nulas
-        StringBuilder url = new StringBuilder(String.format("%s/api/entrenamientos?token=%s", apiBaseUrl, token));
-
-        // Solo agregar los parámetros de fechas si no son nulos
-        if (fechaInicioParam != null) {
-            url.append("&fechaInicio=").append(fechaInicioParam);
+        // Solo se piden al servidor los tramos del rango que el usuario aún no ha cargado
+        Map<EntrenamientosCache.Rango, List<Entrenamiento>> descargados = new HashMap<>();
+        for (EntrenamientosCache.Rango rango : entrenamientosCache.pendientes(token, fechaInicio, fechaFin)) {
+            descargados.put(rango, descargarEntrenamientos(token, rango.desde(), rango.hasta(), 0, Integer.MAX_VALUE));
         }
-        if (fechaFinParam != null) {
-            url.append("&fechaFin=").append(fechaFinParam);
+        List<Entrenamiento> entrenamientos = entrenamientosCache.completar(token, fechaInicio, fechaFin, descargados);
+        if (entrenamientos == null) {
+            // El historial caducó o se expulsó durante la descarga: se pide el rango entero
+            entrenamientos = entrenamientosCache.completar(token, fechaInicio, fechaFin,
+                    Map.of(new EntrenamientosCache.Rango(fechaInicio, fechaFin),
+                            descargarEntrenamientos(token, fechaInicio, fechaFin, 0, Integer.MAX_VALUE)));
         }
+        return entrenamientos;
+    }
 
-        logger.info("-RestTemplate- URL: " + url.toString());
+    @Override
+    public PaginaEntrenamientos consultarEntrenamientos(String token, LocalDate fechaInicio, LocalDate fechaFin,
+            String cursor, int limite) {
+        boolean cursorDeServidor = cursor != null && cursor.startsWith(PREFIJO_DESPLAZAMIENTO);
+        if (cursor != null && !cursorDeServidor && !EntrenamientosCache.esCursor(cursor)) {
+            throw new IllegalArgumentException("cursor no válido");
+        }
+        if (!cursorDeServidor && !entrenamientosCache.excluido(token) && cargarEnCache(token, fechaInicio, fechaFin)) {
+            PaginaEntrenamientos pagina = entrenamientosCache.pagina(token, fechaInicio, fechaFin, cursor, limite);
+            if (pagina != null) {
+                return pagina;
+            }
+        }
+        // Historial demasiado grande para la caché: cada página se lee del servidor saltando las anteriores.
+        // Un cursor de la caché no se puede traducir a una posición del servidor, así que se empieza de nuevo
+        int desplazamiento = 0;
+        if (cursorDeServidor) {
+            try {
+                desplazamiento = Integer.parseInt(cursor.substring(PREFIJO_DESPLAZAMIENTO.length()));
+            } catch (NumberFormatException e) {
+                desplazamiento = -1;
+            }
+            if (desplazamiento < 0) {
+                throw new IllegalArgumentException("cursor no válido");
+            }
+        }
+        List<Entrenamiento> filas = descargarEntrenamientos(token, fechaInicio, fechaFin, desplazamiento, limite + 1);
+        if (filas.size() <= limite) {
+            return new PaginaEntrenamientos(filas, null);
+        }
+        return new PaginaEntrenamientos(List.copyOf(filas.subList(0, limite)),
+                PREFIJO_DESPLAZAMIENTO + (desplazamiento + limite));
+    }
 
-        try {
-            logger.info("-RestTemplate-    Procesando consulta de entrenamientos");
-            // Realizamos la solicitud al servidor
-            List<Entrenamiento> entrenamientos = restTemplate.exchange(url.toString(), HttpMethod.GET, null,
-                    new ParameterizedTypeReference<List<Entrenamiento>>() {
-                    }).getBody();
-            return entrenamientos;
-        } catch (HttpStatusCodeException e) {
-            switch (e.getStatusCode().value()) {
-                case 401:
-                    logger.error("-RestTemplate-    Token inválido");
-                    throw new RuntimeException("Token inválido");
-                default:
-                    logger.error("-RestTemplate-    Consulta de entrenamientos fallida: " + e.getStatusCode().value());
-                    throw new RuntimeException("Consulta de entrenamientos fallida: " + e.getStatusCode().value());
+    // Descarga los tramos que faltan sin decodificar más del máximo por usuario; false si el historial no cabe
+    private boolean cargarEnCache(String token, LocalDate fechaInicio, LocalDate fechaFin) {
+        int maximo = entrenamientosCache.maxPorUsuario();
+        int total = 0;
+        Map<EntrenamientosCache.Rango, List<Entrenamiento>> descargados = new HashMap<>();
+        for (EntrenamientosCache.Rango rango : entrenamientosCache.pendientes(token, fechaInicio, fechaFin)) {
+            List<Entrenamiento> tramo = descargarEntrenamientos(token, rango.desde(), rango.hasta(), 0, maximo + 1);
+            total += tramo.size();
+            if (total > maximo) {
+                logger.info("-RestTemplate-    Historial demasiado grande para la caché, se paginará desde el servidor");
+                entrenamientosCache.excluir(token);
+                return false;
             }
+            descargados.put(rango, tramo);
         }
+        entrenamientosCache.incorporar(token, descargados);
+        return true;
+    }
+
+    private List<Entrenamiento> descargarEntrenamientos(String token, LocalDate fechaInicio, LocalDate fechaFin,
+            int saltar, int limite) {
+        URI url = endpoints.consultarEntrenamientos(token, fechaInicio, fechaFin);
+        logger.info("-RestTemplate- URL: {}", Trazas.censurado(url));
+
+        logger.info("-RestTemplate-    Procesando consulta de entrenamientos");
+        // Realizamos la solicitud al servidor; una lectura parcial solo se comparte con otra idéntica
+        String clave = saltar == 0 && limite == Integer.MAX_VALUE ? url.toString() : url + "#" + saltar + "," + limite;
+        return lecturasCompartidas.leer(clave, () -> leer(OperacionStrava.CONSULTAR_ENTRENAMIENTOS, url, clave,
+                body -> decodificador.entrenamientos(body, saltar, limite)));
     }
 
     @Override
     public void anadirEntrenamiento(String token, String titulo, String deporte, float distancia, int duracion,
             LocalDate fechaInicio, String horaInicio) {
-        String url = String.format(
-                "%s/api/entrenamiento?titulo=%s&deporte=%s&distancia=%s&duracion=%d&fechaInicio=%s&horaInicio=%s&token=%s",
-                apiBaseUrl,
-                titulo,
-                deporte,
-                distancia,
-                duracion,
-                fechaInicio.format(DateTimeFormatter.ofPattern("dd/MM/yyyy")),
-                horaInicio,
-                token);
+        URI url = endpoints.anadirEntrenamiento(token, titulo, deporte, distancia, duracion,
+                fechaInicio, horaInicio);
         try {
-            logger.info("-RestTemplate- Enviando solicitud para crear entrenamiento: " + url);
-            logger.info("Esta es la : "+ String.format("%.2f", distancia));
-            restTemplate.postForEntity(url, null, String.class);
+            logger.info("-RestTemplate- Enviando solicitud para crear entrenamiento: {}", Trazas.censurado(url));
+            long escritura = analitica.escribiendo(token);
+            llamar(OperacionStrava.ANADIR_ENTRENAMIENTO,
+                    () -> restTemplate.postForEntity(url, null, String.class));
             logger.info("-RestTemplate- Entrenamiento creado exitosamente.");
+            Entrenamiento entrenamiento = new Entrenamiento(titulo, deporte, distancia, fechaInicio, horaInicio,
+                    duracion);
+            entrenamientosCache.anadir(token, entrenamiento);
+            analitica.anadir(token, escritura, entrenamiento);
         } catch (HttpStatusCodeException e) {
-            switch (e.getStatusCode().value()) {
-                case 401:
-                    logger.error("-RestTemplate- Token inválido");
-                    throw new RuntimeException("Token inválido");
-                default:
-                    logger.error("-RestTemplate- Error al crear entrenamiento: " + e.getStatusCode().value());
-                    throw new RuntimeException("Error al crear entrenamiento: " + e.getStatusCode().value());
-            }
+            throw fallo(OperacionStrava.ANADIR_ENTRENAMIENTO, e);
         }
     }
 
     @Override
     public void anadirReto(String token, String nombre, String deporte, float objetivoDistancia, int objetivoTiempo,
             LocalDate fechaInicio, LocalDate fechaFin) {
-        String url = String.format("%s/api/reto?nombre=%s&deporte=%s&objetivoDistancia=%s&objetivoTiempo=%s&fechaInicio=%s&fechaFin=%s",
-                apiBaseUrl,
-                nombre,
-                deporte,
-                objetivoDistancia,
-                objetivoTiempo,
-                fechaInicio.format(DateTimeFormatter.ofPattern("dd/MM/yyyy")),
-                fechaFin.format(DateTimeFormatter.ofPattern("dd/MM/yyyy"))
-            );
+        URI url = endpoints.anadirReto(nombre, deporte, objetivoDistancia, objetivoTiempo,
+                fechaInicio, fechaFin);
         try {
-            logger.info("-RestTemplate- Enviando solicitud para crear reto: " + url);
-            restTemplate.postForEntity(url, token, String.class);
+            logger.info("-RestTemplate- Enviando solicitud para crear reto: {}", Trazas.censurado(url));
+            llamar(OperacionStrava.ANADIR_RETO, () -> restTemplate.postForEntity(url, token, String.class));
             logger.info("-RestTemplate- Reto creado exitosamente.");
+            // El catálogo ha cambiado: la próxima consulta debe ir al servidor
+            catalogoRetos.invalidar();
         } catch (HttpStatusCodeException e) {
-            switch (e.getStatusCode().value()) {
-                case 401:
-                    logger.error("-RestTemplate- Token inválido");
-                    throw new RuntimeException("Token inválido");
-                default:
-                    logger.error("-RestTemplate- Error al crear reto: " + e.getStatusCode().value());
-                    throw new RuntimeException("Error al crear reto: " + e.getStatusCode().value());
-            }
+            throw fallo(OperacionStrava.ANADIR_RETO, e);
         }
     }
 
     @Override
     public String aceptarReto(String nombreReto, String token) {
-        String url = String.format("%s/api/retos/%s/aceptar",
-                apiBaseUrl,
-                nombreReto);
-        logger.info("-RestTemplate- URL: " + url);
+        URI url = endpoints.aceptarReto(nombreReto);
+        logger.info("-RestTemplate- URL: {}", Trazas.censurado(url));
         try {
             logger.info("-RestTemplate-    Procesando aceptar reto");
-            return restTemplate.postForObject(url, token, String.class);
+            return llamar(OperacionStrava.ACEPTAR_RETO,
+                    () -> restTemplate.postForObject(url, token, String.class));
 
         } catch (HttpStatusCodeException e) {
-            logger.error("-RestTemplate- Error al aceptar reto: " + e.getStatusCode());
-
-            switch (e.getStatusCode().value()) {
-                case 401:
-                    logger.error("-RestTemplate-    Token inválido");
-                    throw new RuntimeException("Token inválido");
-                default:
-                    logger.error("-RestTemplate-    Aceptar reto fallido: " + e.getStatusCode().value());
-                    throw new RuntimeException("Aceptar reto fallido: " + e.getStatusCode().value());
-            }
+            throw fallo(OperacionStrava.ACEPTAR_RETO, e);
         }
     }
 
     @Override
     public List<Reto> consultarRetosActivos() {
-        // Construir la URL con String.format en el formato esperado
-        String url = String.format("%s/api/retos", apiBaseUrl);
-        logger.info("-RestTemplate- URL: " + url);
-        try {
-            logger.info("-RestTemplate-    Procesando consulta de retos sin filtrar");
-            @SuppressWarnings("unchecked")
-            List<Reto> retos = restTemplate.getForObject(url, List.class);
-            logger.info("-RestTemplate-    Retos: " + retos);
-            return retos;
-        } catch (HttpStatusCodeException e) {
-            switch (e.getStatusCode().value()) {
-                case 401:
-                    logger.error("-RestTemplate-    Token inválido");
-                    throw new RuntimeException("Token inválido");
-                default:
-                    logger.error("-RestTemplate-    Consulta de retos fallida: " + e.getStatusCode().value());
-                    throw new RuntimeException("Consulta de retos fallida: " + e.getStatusCode().value());
-            }
-        }
+        return esperar(catalogoRetos.activos(() -> CompletableFuture.completedFuture(descargarRetosActivos())));
+    }
+
+    private List<Reto> descargarRetosActivos() {
+        URI url = endpoints.consultarRetosActivos();
+        logger.info("-RestTemplate- URL: {}", url);
+        logger.info("-RestTemplate-    Procesando consulta de retos sin filtrar");
+        List<Reto> retos = lecturasCompartidas.leer(url.toString(),
+                () -> leer(OperacionStrava.CONSULTAR_RETOS_ACTIVOS, url, url.toString(), decodificador::retos));
+        logger.info("-RestTemplate-    Retos: {}", Trazas.resumen(retos));
+        return retos;
     }
 
     @Override
     public List<Reto> consultarRetosActivosFiltrados(String token, LocalDate fechaInicio, String deporte) {
-        // Construir la URL con String.format en el formato esperado
-        if (fechaInicio == null) {
-            fechaInicio = LocalDate.now();
-        }
-        String fechaFormateada = fechaInicio.format(DateTimeFormatter.ofPattern("dd/MM/yyyy"));
-        String url = String.format("%s/api/retos?fecha=%s&deporte=%s", apiBaseUrl, fechaFormateada, deporte); 
+        return esperar(catalogoRetos.filtrados(fechaInicio, deporte,
+                () -> CompletableFuture.completedFuture(descargarRetosFiltrados(fechaInicio, deporte))));
+    }
+
+    private List<Reto> descargarRetosFiltrados(LocalDate fechaInicio, String deporte) {
+        URI url = endpoints.consultarRetosActivosFiltrados(fechaInicio, deporte);
+
+        logger.info("-RestTemplate- URL para retos Filtrados: {}", url);
+        logger.info("-RestTemplate-    Procesando consulta de retos filtrados");
+        List<Reto> retos = lecturasCompartidas.leer(url.toString(),
+                () -> leer(OperacionStrava.CONSULTAR_RETOS_FILTRADOS, url, url.toString(), decodificador::retos));
+        logger.info("-RestTemplate-    Retos: {}", Trazas.resumen(retos));
+        return retos;
+    }
+
+    @Override
+    public List<Reto> retosAceptados(String token) {
+        URI url = endpoints.retosAceptados(token);
+        logger.info("-RestTemplate- URL retosAceptados {}", Trazas.censurado(url));
+        logger.info("-RestTemplate-    Procesando consulta de retos sin filtrar");
+        // El token va en la URL, así que solo se comparte entre peticiones de la misma sesión
+        List<Reto> retosAceptados = lecturasCompartidas.leer(url.toString(),
+                () -> leer(OperacionStrava.RETOS_ACEPTADOS, url, url.toString(), decodificador::retos));
+        logger.info("-RestTemplate-    Retos Aceptados: {}", Trazas.resumen(retosAceptados));
+        return retosAceptados;
+    }
 
-        logger.info("-RestTemplate- URL para retos Filtrados: " + url);
+    // Decodifica el cuerpo de la respuesta a medida que se recibe, sin cargarlo entero en memoria.
+    // Es una lectura idempotente: se puede reintentar o cubrir con una segunda petición
+    // Con una respuesta anterior guardada la petición es condicional y un 304 devuelve sus objetos ya decodificados.
+    // El error del servidor se traduce aquí, antes de compartirse con las lecturas unidas a esta
+    private <T> T leer(OperacionStrava operacion, URI url, String clave, Lectura<T> lectura) {
         try {
-            logger.info("-RestTemplate-    Procesando consulta de retos filtrados");
-            @SuppressWarnings("unchecked")
-            List<Reto> retos = restTemplate.getForObject(url, List.class);
-            logger.info("-RestTemplate-    Retos: " + retos);
-            return retos;
+            return leerProtegida(operacion, url, clave, lectura);
         } catch (HttpStatusCodeException e) {
-            switch (e.getStatusCode().value()) {
-                case 401:
-                    logger.error("-RestTemplate-    Token inválido");
-                    throw new RuntimeException("Token inválido");
-                default:
-                    logger.error("-RestTemplate-    Consulta de retos fallida: " + e.getStatusCode().value());
-                    throw new RuntimeException("Consulta de retos fallida: " + e.getStatusCode().value());
+            throw fallo(operacion, e);
+        }
+    }
+
+    private <T> T leerProtegida(OperacionStrava operacion, URI url, String clave, Lectura<T> lectura) {
+        return cobertura.ejecutar(operacion, () -> llamar(operacion, () -> {
+            RevalidacionLecturas.Representacion guardada = revalidacion.buscar(clave);
+            RequestCallback peticion = guardada == null ? ACEPTAR_JSON : request -> {
+                ACEPTAR_JSON.doWithRequest(request);
+                revalidacion.condiciones(guardada, request.getHeaders()::set);
+            };
+            return restTemplate.execute(url, HttpMethod.GET, peticion, response -> {
+                if (guardada != null && response.getStatusCode().isSameCodeAs(HttpStatus.NOT_MODIFIED)) {
+                    return revalidacion.<T>noModificada(operacion, guardada);
+                }
+                BytesLeidos body = new BytesLeidos(response.getBody());
+                try {
+                    long inicio = System.nanoTime();
+                    T valor = lectura.leer(body);
+                    HttpHeaders cabeceras = response.getHeaders();
+                    revalidacion.guardar(operacion, clave, guardada, cabeceras.getETag(),
+                            cabeceras.getFirst(HttpHeaders.LAST_MODIFIED), valor, body.total,
+                            System.nanoTime() - inicio);
+                    return valor;
+                } catch (JacksonException | IllegalArgumentException | DateTimeException e) {
+                    logger.error("-RestTemplate-    Respuesta no válida de {}: {}", operacion.metodo(),
+                            e.getMessage());
+                    throw new StravaServiceException(operacion,
+                            operacion.mensajeFallo() + ": respuesta no válida", e);
+                } finally {
+                    metricas.tamanoRespuesta(operacion, body.total);
+                }
+            });
+        }));
+    }
+
+    @FunctionalInterface
+    private interface Lectura<T> {
+        T leer(InputStream body) throws IOException;
+    }
+
+    // Cuenta los bytes de la respuesta que llega a leer el decodificador
+    private static final class BytesLeidos extends FilterInputStream {
+        private long total;
+
+        private BytesLeidos(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                total++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                total += n;
             }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long saltados = super.skip(n);
+            total += saltados;
+            return saltados;
         }
     }
-   
-    @Override
-    public List<Reto> retosAceptados(String token) {
-        // Construir la URL con String.format en el formato esperado
-        String url = String.format("%s/api/retosAceptados?token=%s", apiBaseUrl, token);
-        logger.info("-RestTemplate- URL retosAceptados " + url);
+
+    // Las cargas de la caché fallan con una CompletionException: se relanza el error original
+    private static <T> T esperar(CompletableFuture<T> futuro) {
         try {
-            logger.info("-RestTemplate-    Procesando consulta de retos sin filtrar");
-            @SuppressWarnings("unchecked")
-            List<Reto> retosAceptados = restTemplate.getForObject(url, List.class);
-            logger.info("-RestTemplate-    Retos Aceptados: " + retosAceptados);
-            return retosAceptados;
-        } catch (HttpStatusCodeException e) {
-            switch (e.getStatusCode().value()) {
-                case 401:
-                    logger.error("-RestTemplate-    Token inválido");
-                    throw new RuntimeException("Token inválido");
-                default:
-                    logger.error("-RestTemplate-    Consulta de retos fallida: " + e.getStatusCode().value());
-                    throw new RuntimeException("Consulta de retos fallida: " + e.getStatusCode().value());
+            return futuro.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException causa) {
+                throw causa;
             }
+            throw e;
         }
     }
-}
\ No newline at end of file
+
+    // Traduce la respuesta de error del servidor al mensaje que se muestra al usuario
+    private StravaServiceException fallo(OperacionStrava operacion, HttpStatusCodeException e) {
+        StravaServiceException error = StravaErrores.mapear(operacion, e.getStatusCode().value());
+        logger.error("-RestTemplate-    {}", error.getMessage());
+        return error;
+    }
+
+    // Mide la llamada dentro del disyuntor y el compartimento de la operación. Sin respuesta, el error se da
+    // con su causa original: el de RestTemplate lleva la URL, y con ella el token o la contraseña, hasta el
+    // mensaje que ve el usuario y las trazas
+    private <T> T llamar(OperacionStrava operacion, Supplier<T> llamada) {
+        return proteccion.ejecutar(operacion, () -> {
+            try {
+                return metricas.medir(operacion, llamada);
+            } catch (ResourceAccessException e) {
+                Throwable causa = e.getMostSpecificCause();
+                logger.error("-RestTemplate-    {} sin respuesta: {}", operacion.metodo(), Trazas.censurado(causa));
+                throw StravaErrores.sinConexion(operacion, causa);
+            }
+        });
+    }
+}
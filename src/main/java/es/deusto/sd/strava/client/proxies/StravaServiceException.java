@@ -0,0 +1,48 @@
+package es.deusto.sd.strava.client.proxies;
+
+/**
+ * Error raised by the Strava service proxies when an upstream call fails. It
+ * remains a RuntimeException, so the controller keeps handling it as before,
+ * but it also records the operation and the HTTP status (0 when the server
+ * could not be reached). A call rejected by {@link ProteccionStrava} before
+ * being sent is marked as {@linkplain #isRechazada() rejected}.
+ */
+public class StravaServiceException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final OperacionStrava operacion;
+    private final int status;
+    private final boolean rechazada;
+
+    public StravaServiceException(OperacionStrava operacion, int status, String message) {
+        this(operacion, status, message, false);
+    }
+
+    public StravaServiceException(OperacionStrava operacion, String message, Throwable cause) {
+        super(message, cause);
+        this.operacion = operacion;
+        this.status = 0;
+        this.rechazada = false;
+    }
+
+    StravaServiceException(OperacionStrava operacion, int status, String message, boolean rechazada) {
+        super(message);
+        this.operacion = operacion;
+        this.status = status;
+        this.rechazada = rechazada;
+    }
+
+    public OperacionStrava getOperacion() {
+        return operacion;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    /** Whether the call was rejected without being sent, so it can be repeated even if it is a write. */
+    public boolean isRechazada() {
+        return rechazada;
+    }
+}
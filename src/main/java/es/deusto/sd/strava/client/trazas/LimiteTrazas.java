@@ -0,0 +1,91 @@
+package es.deusto.sd.strava.client.trazas;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.LoggerFactory;
+import org.slf4j.Marker;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+
+/**
+ * Logback turbo filter that limits how many messages of each type are written
+ * per second. The type of a message is its format string, which is why the
+ * proxies and controllers log with parameters: every
+ * {@code "-RestTemplate- URL: {}"} counts as the same type, whatever the URL.
+ *
+ * Only levels up to {@code nivelMaximo} (INFO by default) are limited; warnings
+ * and errors always pass. When a second ends with messages dropped, one
+ * warning tells how many. Runs before the appenders, so a dropped message is
+ * never formatted nor queued.
+ */
+public class LimiteTrazas extends TurboFilter {
+
+    private static final org.slf4j.Logger logger = LoggerFactory.getLogger(LimiteTrazas.class);
+
+    private final ConcurrentHashMap<String, Ventana> ventanas = new ConcurrentHashMap<>();
+    private int maxPorSegundo = 50;
+    private Level nivelMaximo = Level.INFO;
+    private int maxTipos = 1024;
+
+    @Override
+    public FilterReply decide(Marker marker, Logger destino, Level level, String format, Object[] params,
+            Throwable t) {
+        // Las comprobaciones isXxxEnabled llegan sin formato; los niveles desactivados no cuentan
+        if (format == null || level.toInt() > nivelMaximo.toInt()
+                || !level.isGreaterOrEqual(destino.getEffectiveLevel())) {
+            return FilterReply.NEUTRAL;
+        }
+        Ventana ventana = ventanas.get(format);
+        if (ventana == null) {
+            if (ventanas.size() >= maxTipos) {
+                return FilterReply.NEUTRAL;
+            }
+            ventana = ventanas.computeIfAbsent(format, f -> new Ventana());
+        }
+        long segundo = System.currentTimeMillis() / 1000;
+        if (ventana.segundo != segundo) {
+            ventana.reiniciar(segundo, format);
+        }
+        if (ventana.escritas.incrementAndGet() <= maxPorSegundo) {
+            return FilterReply.NEUTRAL;
+        }
+        ventana.descartadas.incrementAndGet();
+        return FilterReply.DENY;
+    }
+
+    public void setMaxPorSegundo(int maxPorSegundo) {
+        this.maxPorSegundo = maxPorSegundo;
+    }
+
+    public void setNivelMaximo(String nivelMaximo) {
+        this.nivelMaximo = Level.toLevel(nivelMaximo, Level.INFO);
+    }
+
+    public void setMaxTipos(int maxTipos) {
+        this.maxTipos = maxTipos;
+    }
+
+    private static final class Ventana {
+        private volatile long segundo;
+        private final AtomicInteger escritas = new AtomicInteger();
+        private final AtomicInteger descartadas = new AtomicInteger();
+
+        private synchronized void reiniciar(long nuevoSegundo, String format) {
+            if (segundo == nuevoSegundo) {
+                return;
+            }
+            int perdidas = descartadas.getAndSet(0);
+            escritas.set(0);
+            segundo = nuevoSegundo;
+            if (perdidas > 0) {
+                // Es un WARN: no pasa por el límite, así que no vuelve a entrar aquí
+                logger.warn("-Trazas- {} trazas \"{}\" descartadas por exceder el límite por segundo", perdidas,
+                        format);
+            }
+        }
+    }
+}
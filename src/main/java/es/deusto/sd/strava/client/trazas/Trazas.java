@@ -0,0 +1,111 @@
+package es.deusto.sd.strava.client.trazas;
+
+import java.util.Collection;
+
+/**
+ * Arguments for parameterized log messages that are turned into text only
+ * when the message is actually written, so a disabled level costs nothing
+ * beyond the wrapper. On the way they hide what must not reach the logs: the
+ * values of the {@code token} and {@code contrasenya} parameters in URLs and
+ * error messages, session tokens, and the bulk of large response lists.
+ */
+public final class Trazas {
+
+    private static final String[] PARAMETROS_SECRETOS = { "token=", "contrasenya=", "password=" };
+    private static final String OCULTO = "***";
+    private static final int MAX_ELEMENTOS = 3;
+    private static final int MAX_CARACTERES = 200;
+
+    private Trazas() {
+    }
+
+    /** A URL or any text that may carry secret parameters, e.g. the message of a RestTemplate I/O error. */
+    public static Object censurado(Object valor) {
+        return new Censurado(valor);
+    }
+
+    /** The message of the error, censored; the name of its class if it has none, e.g. a timeout. */
+    public static Object error(Throwable error) {
+        if (error == null) {
+            return new Censurado(null);
+        }
+        return new Censurado(error.getMessage() != null ? error.getMessage() : error.getClass().getSimpleName());
+    }
+
+    /** A short fingerprint of the token: enough to follow one session through the log, useless to reuse it. */
+    public static Object token(String token) {
+        return new Huella(token);
+    }
+
+    /** The size of the list and its first elements, cut to a couple of hundred characters. */
+    public static Object resumen(Collection<?> elementos) {
+        return new Resumen(elementos);
+    }
+
+    static String censurar(String texto) {
+        StringBuilder resultado = null;
+        for (String parametro : PARAMETROS_SECRETOS) {
+            String actual = resultado == null ? texto : resultado.toString();
+            int inicio = actual.indexOf(parametro);
+            if (inicio < 0) {
+                continue;
+            }
+            resultado = new StringBuilder(actual.length());
+            int desde = 0;
+            while (inicio >= 0) {
+                int valor = inicio + parametro.length();
+                int fin = valor;
+                while (fin < actual.length() && !finDeValor(actual.charAt(fin))) {
+                    fin++;
+                }
+                resultado.append(actual, desde, valor).append(OCULTO);
+                desde = fin;
+                inicio = actual.indexOf(parametro, fin);
+            }
+            resultado.append(actual, desde, actual.length());
+        }
+        return resultado == null ? texto : resultado.toString();
+    }
+
+    private static boolean finDeValor(char c) {
+        return c == '&' || c == '#' || c == '"' || c == '\'' || c == ',' || c == ')' || Character.isWhitespace(c);
+    }
+
+    private record Censurado(Object valor) {
+        @Override
+        public String toString() {
+            return valor == null ? "null" : censurar(valor.toString());
+        }
+    }
+
+    private record Huella(String token) {
+        @Override
+        public String toString() {
+            return token == null ? "null" : OCULTO + Integer.toHexString(token.hashCode());
+        }
+    }
+
+    private record Resumen(Collection<?> elementos) {
+        @Override
+        public String toString() {
+            if (elementos == null) {
+                return "null";
+            }
+            StringBuilder texto = new StringBuilder(MAX_CARACTERES + 16);
+            texto.append(elementos.size()).append(" elementos");
+            int escritos = 0;
+            for (Object elemento : elementos) {
+                if (escritos == MAX_ELEMENTOS || texto.length() >= MAX_CARACTERES) {
+                    texto.append(", …");
+                    break;
+                }
+                texto.append(escritos++ == 0 ? ": " : ", ").append(elemento);
+            }
+            if (texto.length() > MAX_CARACTERES) {
+                texto.setLength(MAX_CARACTERES);
+                texto.append('…');
+            }
+            return texto.toString();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package es.deusto.sd.strava.client.web;
+
+import java.util.Map;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import es.deusto.sd.strava.client.analitica.AnaliticaEntrenamientos;
+import es.deusto.sd.strava.client.cache.CacheLectura;
+import es.deusto.sd.strava.client.cache.CatalogoRetosCache;
+import es.deusto.sd.strava.client.cache.EntrenamientosCache;
+import es.deusto.sd.strava.client.envios.BuzonEnvios;
+import es.deusto.sd.strava.client.proxies.CoberturaLecturas;
+import es.deusto.sd.strava.client.proxies.LecturasCompartidas;
+import es.deusto.sd.strava.client.proxies.PoolConexionesMonitorizado;
+import es.deusto.sd.strava.client.proxies.ProteccionStrava;
+import es.deusto.sd.strava.client.proxies.RevalidacionLecturas;
+
+/**
+ * DiagnosticoController exposes, as JSON, runtime information about the
+ * internals of the web client (connection pool, caches...) so that it can be
+ * inspected while the application is under load.
+ */
+@RestController
+@RequestMapping("/diagnostico")
+public class DiagnosticoController {
+
+	private final ObjectProvider<PoolConexionesMonitorizado> poolConexiones;
+	private final RegistroSesiones registroSesiones;
+	private final CatalogoRetosCache catalogoRetos;
+	private final EntrenamientosCache entrenamientosCache;
+	private final LecturasCompartidas lecturasCompartidas;
+	private final ObjectProvider<BuzonEnvios> buzonEnvios;
+	private final ProteccionStrava proteccion;
+	private final CoberturaLecturas cobertura;
+	private final AnaliticaEntrenamientos analitica;
+	private final RevalidacionLecturas revalidacion;
+	private final FragmentosRetos fragmentosRetos;
+
+	public DiagnosticoController(ObjectProvider<PoolConexionesMonitorizado> poolConexiones,
+			RegistroSesiones registroSesiones, CatalogoRetosCache catalogoRetos,
+			EntrenamientosCache entrenamientosCache, LecturasCompartidas lecturasCompartidas,
+			ObjectProvider<BuzonEnvios> buzonEnvios, ProteccionStrava proteccion,
+			CoberturaLecturas cobertura, AnaliticaEntrenamientos analitica, RevalidacionLecturas revalidacion,
+			FragmentosRetos fragmentosRetos) {
+		this.poolConexiones = poolConexiones;
+		this.registroSesiones = registroSesiones;
+		this.catalogoRetos = catalogoRetos;
+		this.entrenamientosCache = entrenamientosCache;
+		this.lecturasCompartidas = lecturasCompartidas;
+		this.buzonEnvios = buzonEnvios;
+		this.proteccion = proteccion;
+		this.cobertura = cobertura;
+		this.analitica = analitica;
+		this.revalidacion = revalidacion;
+		this.fragmentosRetos = fragmentosRetos;
+	}
+
+	@GetMapping("/http")
+	public Object estadisticasHttp() {
+		PoolConexionesMonitorizado pool = poolConexiones.getIfAvailable();
+		if (pool == null) {
+			// En modo HTTP/2 el cliente del JDK gestiona sus conexiones internamente
+			return Map.of("modo", "http2");
+		}
+		return pool.estadisticas();
+	}
+
+	@GetMapping("/sesiones")
+	public Map<String, Object> estadisticasSesiones() {
+		return Map.of(
+				"activas", registroSesiones.sesionesActivas(),
+				"expulsadas", registroSesiones.sesionesExpulsadas());
+	}
+
+	@GetMapping("/cache/retos")
+	public CacheLectura.Estadisticas estadisticasCatalogoRetos() {
+		return catalogoRetos.estadisticas();
+	}
+
+	@GetMapping("/cache/retos/indice")
+	public CatalogoRetosCache.EstadisticasIndice estadisticasIndiceRetos() {
+		return catalogoRetos.indice();
+	}
+
+	@GetMapping("/cache/entrenamientos")
+	public EntrenamientosCache.Estadisticas estadisticasEntrenamientos() {
+		return entrenamientosCache.estadisticas();
+	}
+
+	@GetMapping("/lecturas")
+	public LecturasCompartidas.Estadisticas estadisticasLecturas() {
+		return lecturasCompartidas.estadisticas();
+	}
+
+	@GetMapping("/envios")
+	public Object estadisticasEnvios() {
+		BuzonEnvios buzon = buzonEnvios.getIfAvailable();
+		if (buzon == null) {
+			// Sin envíos diferidos las escrituras van directamente al servidor
+			return Map.of("diferidos", false);
+		}
+		return buzon.estadisticas();
+	}
+
+	@GetMapping("/proteccion")
+	public ProteccionStrava.Estadisticas estadisticasProteccion() {
+		return proteccion.estadisticas();
+	}
+
+	@GetMapping("/cobertura")
+	public Map<String, CoberturaLecturas.Estadisticas> estadisticasCobertura() {
+		return cobertura.estadisticas();
+	}
+
+	@GetMapping("/analitica")
+	public AnaliticaEntrenamientos.Estadisticas estadisticasAnalitica() {
+		return analitica.estadisticas();
+	}
+
+	@GetMapping("/revalidacion")
+	public RevalidacionLecturas.Estadisticas estadisticasRevalidacion() {
+		return revalidacion.estadisticas();
+	}
+
+	@GetMapping("/fragmentos")
+	public FragmentosRetos.Estadisticas estadisticasFragmentos() {
+		return fragmentosRetos.estadisticas();
+	}
+}
@@ -0,0 +1,82 @@
+package es.deusto.sd.strava.client.web;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.support.RedirectAttributes;
+
+import es.deusto.sd.strava.client.envios.BuzonEnvios;
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * EnviosController shows the trainings and challenges of the user that are
+ * still waiting to reach the server, or that it rejected, when they are sent
+ * in the background by {@link BuzonEnvios}. Failed submissions can be sent
+ * again or discarded from here.
+ */
+@Controller
+public class EnviosController {
+
+	private final ObjectProvider<BuzonEnvios> buzonEnvios;
+	private final RegistroSesiones registroSesiones;
+
+	public EnviosController(ObjectProvider<BuzonEnvios> buzonEnvios, RegistroSesiones registroSesiones) {
+		this.buzonEnvios = buzonEnvios;
+		this.registroSesiones = registroSesiones;
+	}
+
+	@GetMapping("/envios")
+	public String envios(Model model, HttpServletRequest request) {
+		String token = registroSesiones.token(request);
+		if (token == null) {
+			return "redirect:/login?redirectUrl=/envios";
+		}
+		model.addAttribute("token", token);
+		model.addAttribute("envios", buzon().deUsuario(registroSesiones.usuario(request)));
+		return "envios";
+	}
+
+	@PostMapping("/envios/{id}/reintentar")
+	public String reintentar(@PathVariable("id") String id, RedirectAttributes redirectAttributes,
+			HttpServletRequest request) {
+		String token = registroSesiones.token(request);
+		if (token == null) {
+			return "redirect:/login?redirectUrl=/envios";
+		}
+		if (buzon().reintentar(id, registroSesiones.usuario(request), token)) {
+			redirectAttributes.addFlashAttribute("message", "El envío se ha vuelto a poner en cola");
+		} else {
+			redirectAttributes.addFlashAttribute("errorMessage", "Envío no encontrado");
+		}
+		return "redirect:/envios";
+	}
+
+	@PostMapping("/envios/{id}/descartar")
+	public String descartar(@PathVariable("id") String id, RedirectAttributes redirectAttributes,
+			HttpServletRequest request) {
+		String token = registroSesiones.token(request);
+		if (token == null) {
+			return "redirect:/login?redirectUrl=/envios";
+		}
+		if (buzon().descartar(id, registroSesiones.usuario(request))) {
+			redirectAttributes.addFlashAttribute("message", "Envío descartado");
+		} else {
+			redirectAttributes.addFlashAttribute("errorMessage", "Envío no encontrado");
+		}
+		return "redirect:/envios";
+	}
+
+	// Sin envíos diferidos la página no existe
+	private BuzonEnvios buzon() {
+		BuzonEnvios buzon = buzonEnvios.getIfAvailable();
+		if (buzon == null) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Los envíos diferidos no están activados");
+		}
+		return buzon;
+	}
+}
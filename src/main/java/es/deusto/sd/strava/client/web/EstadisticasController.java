@@ -0,0 +1,63 @@
+package es.deusto.sd.strava.client.web;
+
+import java.time.LocalDate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+
+import es.deusto.sd.strava.client.analitica.AnaliticaEntrenamientos;
+import es.deusto.sd.strava.client.analitica.Periodo;
+import es.deusto.sd.strava.client.proxies.IStravaServiceProxy;
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * EstadisticasController shows the training statistics of the logged-in
+ * user by week or by month and by sport, computed on the client by
+ * {@link AnaliticaEntrenamientos} from the user's whole history.
+ */
+@Controller
+public class EstadisticasController {
+
+	private static final Logger logger = LoggerFactory.getLogger(EstadisticasController.class);
+	private static final int MAX_PERIODOS = 120;
+
+	private final AnaliticaEntrenamientos analitica;
+	private final IStravaServiceProxy stravaServiceProxy;
+	private final RegistroSesiones registroSesiones;
+
+	public EstadisticasController(AnaliticaEntrenamientos analitica, IStravaServiceProxy stravaServiceProxy,
+			RegistroSesiones registroSesiones) {
+		this.analitica = analitica;
+		this.stravaServiceProxy = stravaServiceProxy;
+		this.registroSesiones = registroSesiones;
+	}
+
+	@GetMapping("/estadisticas")
+	public String estadisticas(
+			@RequestParam(value = "periodo", defaultValue = "semana") String periodo,
+			@RequestParam(value = "periodos", defaultValue = "12") int periodos,
+			Model model,
+			HttpServletRequest request) {
+		String token = registroSesiones.token(request);
+		if (token == null) {
+			return "redirect:/login?redirectUrl=/estadisticas";
+		}
+		Periodo agrupacion = "mes".equalsIgnoreCase(periodo) ? Periodo.MES : Periodo.SEMANA;
+		int numero = Math.max(1, Math.min(periodos, MAX_PERIODOS));
+		model.addAttribute("token", token);
+		model.addAttribute("periodo", agrupacion.name().toLowerCase());
+		model.addAttribute("periodos", numero);
+		try {
+			model.addAttribute("resumen", analitica.resumen(token, agrupacion, numero, LocalDate.now(),
+					() -> stravaServiceProxy.consultarEntrenamientos(token, null, null)));
+		} catch (RuntimeException e) {
+			logger.error("-Controller-\tError al calcular las estadísticas: {}", e.getMessage());
+			model.addAttribute("errorMessage", "No se han podido cargar los entrenamientos: " + e.getMessage());
+		}
+		return "estadisticas";
+	}
+}
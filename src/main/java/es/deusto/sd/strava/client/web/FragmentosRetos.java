@@ -0,0 +1,154 @@
+package es.deusto.sd.strava.client.web;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.thymeleaf.ITemplateEngine;
+import org.thymeleaf.context.Context;
+
+import es.deusto.sd.strava.client.cache.CatalogoRetosCache;
+import es.deusto.sd.strava.client.data.Reto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.ServletContext;
+
+/**
+ * Shared cache of the rendered reto catalog table of {@code retos.html}
+ * (fragment {@code catalogo}). The table is the same for every user, so it is
+ * rendered once per catalog version and filter and the page inserts the HTML
+ * as is; the parts of the page that depend on the user (navigation, accepted
+ * retos, messages) are still rendered on every request.
+ *
+ * A table is reused only while {@link CatalogoRetosCache#version()} has not
+ * changed and for the same list of retos it was rendered from (the same
+ * instance, or an equal one for the filtered queries answered by the index),
+ * so a catalog loaded while a table was being rendered is never shown with
+ * the old HTML. A new version drops every table of the previous one. At most
+ * {@code strava.web.fragmentos.max-entradas} filters are kept; past that the
+ * new ones are rendered without being kept.
+ *
+ * The links of the table are built with the context path of the
+ * application, not with {@code @{...}}, so that no session id added by URL
+ * rewriting ends up in the HTML shared with other users.
+ *
+ * The table is rendered in the thread that completes the server queries, so
+ * the template is resolved with the class loader of the application set as
+ * the context class loader of that thread.
+ *
+ * Disabled with {@code strava.web.fragmentos=false}.
+ */
+@Component
+public class FragmentosRetos {
+
+	static final String PLANTILLA = "retos";
+	static final String FRAGMENTO = "catalogo";
+
+	private final ConcurrentHashMap<String, Fragmento> fragmentos = new ConcurrentHashMap<>();
+	private final ITemplateEngine templateEngine;
+	private final CatalogoRetosCache catalogoRetos;
+	private final String accionAceptar;
+	private final boolean activo;
+	private final int maxEntradas;
+	private volatile long version = -1;
+
+	private final Counter aciertos;
+	private final Counter fallos;
+	private final LongAdder totalAciertos = new LongAdder();
+	private final LongAdder totalFallos = new LongAdder();
+
+	public FragmentosRetos(ITemplateEngine templateEngine, CatalogoRetosCache catalogoRetos,
+			ServletContext servletContext, MeterRegistry registry,
+			@Value("${strava.web.fragmentos:true}") boolean activo,
+			@Value("${strava.web.fragmentos.max-entradas:64}") int maxEntradas) {
+		this.templateEngine = templateEngine;
+		this.catalogoRetos = catalogoRetos;
+		this.accionAceptar = servletContext.getContextPath() + "/retos/aceptar";
+		this.activo = activo;
+		this.maxEntradas = maxEntradas;
+		this.aciertos = fragmentos(registry, "acierto");
+		this.fallos = fragmentos(registry, "fallo");
+	}
+
+	private static Counter fragmentos(MeterRegistry registry, String resultado) {
+		return Counter.builder("strava.web.fragments")
+				.description("Tablas del catálogo de retos servidas ya renderizadas o renderizadas de nuevo")
+				.tags("fragmento", FRAGMENTO, "resultado", resultado)
+				.register(registry);
+	}
+
+	/**
+	 * HTML of the catalog table for these retos, shown with this filter (any
+	 * text that identifies it); null if the cache is disabled, and then the
+	 * page renders the table itself.
+	 */
+	public String catalogo(String filtro, List<Reto> retos) {
+		if (!activo) {
+			return null;
+		}
+		long actual = catalogoRetos.version();
+		if (actual != version) {
+			// Versión nueva del catálogo: las tablas de la anterior ya no sirven
+			synchronized (this) {
+				if (actual != version) {
+					fragmentos.clear();
+					version = actual;
+				}
+			}
+		}
+		Fragmento guardado = fragmentos.get(filtro);
+		if (guardado != null && guardado.version() == actual
+				&& (guardado.retos() == retos || guardado.retos().equals(retos))) {
+			aciertos.increment();
+			totalAciertos.increment();
+			return guardado.html();
+		}
+		fallos.increment();
+		totalFallos.increment();
+		String html = renderizar(retos);
+		if (guardado != null || fragmentos.size() < maxEntradas) {
+			fragmentos.put(filtro, new Fragmento(actual, retos, html));
+		}
+		return html;
+	}
+
+	private String renderizar(List<Reto> retos) {
+		Context contexto = new Context(Locale.getDefault());
+		contexto.setVariable("retos", retos);
+		contexto.setVariable("accionAceptar", accionAceptar);
+		// La plantilla se busca con el cargador de clases del hilo, y la tabla se renderiza en el hilo que
+		// completa la consulta al servidor; con hilos virtuales ese hilo no tiene el de la aplicación
+		Thread hilo = Thread.currentThread();
+		ClassLoader anterior = hilo.getContextClassLoader();
+		hilo.setContextClassLoader(FragmentosRetos.class.getClassLoader());
+		try {
+			return templateEngine.process(PLANTILLA, Set.of(FRAGMENTO), contexto);
+		} finally {
+			hilo.setContextClassLoader(anterior);
+		}
+	}
+
+	public Estadisticas estadisticas() {
+		long caracteres = 0;
+		for (Fragmento fragmento : fragmentos.values()) {
+			caracteres += fragmento.html().length();
+		}
+		return new Estadisticas(version, fragmentos.size(), caracteres, totalAciertos.sum(), totalFallos.sum());
+	}
+
+	private record Fragmento(long version, List<Reto> retos, String html) {
+	}
+
+	/** Catalog version of the tables kept, how many and their characters, and the tables reused and rendered. */
+	public record Estadisticas(
+			long version,
+			int fragmentos,
+			long caracteres,
+			long aciertos,
+			long fallos) {
+	}
+}
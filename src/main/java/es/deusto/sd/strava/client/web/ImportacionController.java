@@ -0,0 +1,100 @@
+package es.deusto.sd.strava.client.web;
+
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.support.RedirectAttributes;
+
+import es.deusto.sd.strava.client.importacion.ImportadorEntrenamientos;
+import es.deusto.sd.strava.client.importacion.Importacion;
+import jakarta.servlet.http.HttpServletRequest;
+
+/**
+ * ImportacionController lets a logged-in user upload a CSV or GPX file with
+ * many trainings and follow the progress of the import, which runs in the
+ * background in {@link ImportadorEntrenamientos}.
+ */
+@Controller
+public class ImportacionController {
+
+	private static final Logger logger = LoggerFactory.getLogger(ImportacionController.class);
+
+	private final ImportadorEntrenamientos importador;
+	private final RegistroSesiones registroSesiones;
+
+	public ImportacionController(ImportadorEntrenamientos importador, RegistroSesiones registroSesiones) {
+		this.importador = importador;
+		this.registroSesiones = registroSesiones;
+	}
+
+	@GetMapping("/importar")
+	public String formularioImportacion(Model model, HttpServletRequest request) {
+		String token = registroSesiones.token(request);
+		if (token == null) {
+			return "redirect:/login?redirectUrl=/importar";
+		}
+		model.addAttribute("token", token);
+		model.addAttribute("importaciones", importador.deUsuario(token));
+		return "importar";
+	}
+
+	@PostMapping("/importar")
+	public String importar(@RequestParam("fichero") MultipartFile fichero,
+			@RequestParam(value = "deporte", required = false) String deportePorDefecto,
+			RedirectAttributes redirectAttributes,
+			HttpServletRequest request) {
+		String token = registroSesiones.token(request);
+		if (token == null) {
+			return "redirect:/login?redirectUrl=/importar";
+		}
+		if (fichero.isEmpty()) {
+			redirectAttributes.addFlashAttribute("errorMessage", "Selecciona un fichero CSV o GPX");
+			return "redirect:/importar";
+		}
+		try {
+			Importacion importacion = importador.iniciar(token, fichero, deportePorDefecto);
+			return "redirect:/importar/" + importacion.id();
+		} catch (IOException | RuntimeException e) {
+			logger.error("-Controller-\tError al iniciar la importación: {}", e.getMessage());
+			redirectAttributes.addFlashAttribute("errorMessage", "No se ha podido importar: " + e.getMessage());
+			return "redirect:/importar";
+		}
+	}
+
+	@GetMapping("/importar/{id}")
+	public String estadoImportacion(@PathVariable("id") String id, Model model, HttpServletRequest request) {
+		String token = registroSesiones.token(request);
+		if (token == null) {
+			return "redirect:/login?redirectUrl=/importar";
+		}
+		model.addAttribute("token", token);
+		model.addAttribute("importacion", importacion(id, token).resumen());
+		return "importar";
+	}
+
+	// Progreso en JSON, que la página consulta periódicamente mientras la importación sigue en curso
+	@GetMapping("/importar/{id}/estado")
+	@ResponseBody
+	public Importacion.Resumen resumenImportacion(@PathVariable("id") String id, HttpServletRequest request) {
+		return importacion(id, registroSesiones.token(request)).resumen();
+	}
+
+	private Importacion importacion(String id, String token) {
+		Importacion importacion = token != null ? importador.consultar(id, token) : null;
+		if (importacion == null) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Importación no encontrada");
+		}
+		return importacion;
+	}
+}
@@ -0,0 +1,228 @@
+package es.deusto.sd.strava.client.web;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import es.deusto.sd.strava.client.envios.BuzonEnvios;
+import es.deusto.sd.strava.client.proxies.IStravaServiceProxyAsync;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpSession;
+
+/**
+ * RegistroSesiones keeps the Strava token and the email of every logged-in
+ * browser session, keyed by the HTTP session id.
+ *
+ * The map is a ConcurrentHashMap, so lookups are O(1) and concurrent requests
+ * only contend on the bin they touch, never on a global lock. Sessions idle for
+ * longer than {@code strava.sesiones.ttl} are evicted, both lazily when they
+ * are looked up and by a periodic sweep. The registry never holds more than
+ * {@code strava.sesiones.max} entries: when it is full the least recently used
+ * session is evicted. Evicted tokens are logged out upstream in the
+ * background through the asynchronous proxy, unless the mailbox of deferred
+ * submissions still has something to send with them, in which case it logs
+ * them out later. The sweep is scheduled on startup, also with lazy
+ * initialization.
+ */
+@Component
+@Lazy(false)
+public class RegistroSesiones {
+
+	private static final Logger logger = LoggerFactory.getLogger(RegistroSesiones.class);
+	// Atributo de la petición donde se guarda la sesión ya resuelta, para no buscarla dos veces
+	private static final String ATRIBUTO_SESION = RegistroSesiones.class.getName() + ".sesion";
+	// Precisión con la que se actualiza el último acceso, para no escribir en cada petición
+	private static final long PRECISION_ACCESO_NANOS = 1_000_000_000L;
+
+	private final ConcurrentHashMap<String, Sesion> sesiones = new ConcurrentHashMap<>();
+	private final IStravaServiceProxyAsync stravaServiceProxyAsync;
+	private final ObjectProvider<BuzonEnvios> buzonEnvios; // Solo existe con strava.envios.diferidos=true
+	private final long ttlNanos;
+	private final int maxSesiones;
+	private final AtomicLong expulsadas = new AtomicLong();
+
+	public RegistroSesiones(IStravaServiceProxyAsync stravaServiceProxyAsync,
+			ObjectProvider<BuzonEnvios> buzonEnvios,
+			@Value("${strava.sesiones.ttl:30m}") Duration ttl,
+			@Value("${strava.sesiones.max:50000}") int maxSesiones) {
+		this.stravaServiceProxyAsync = stravaServiceProxyAsync;
+		this.buzonEnvios = buzonEnvios;
+		this.ttlNanos = ttl.toNanos();
+		this.maxSesiones = maxSesiones;
+	}
+
+	/**
+	 * Associates the token and the email the user logged in with with the
+	 * session of the request. The session id is renewed first, so an id known
+	 * before the login cannot be reused.
+	 */
+	public void registrar(HttpServletRequest request, String token, String usuario) {
+		HttpSession session = request.getSession(true);
+		String anterior = session.getId();
+		String sessionId = request.changeSessionId();
+		Sesion previa = sesiones.remove(anterior);
+		if (previa != null && !previa.token.equals(token)) {
+			cerrarEnServidor(previa.token);
+		}
+		if (sesiones.size() >= maxSesiones) {
+			hacerSitio();
+		}
+		Sesion nueva = new Sesion(token, usuario, System.nanoTime());
+		previa = sesiones.put(sessionId, nueva);
+		if (previa != null && !previa.token.equals(token)) {
+			cerrarEnServidor(previa.token);
+		}
+		request.setAttribute(ATRIBUTO_SESION, nueva);
+		BuzonEnvios buzon = buzonEnvios.getIfAvailable();
+		if (buzon != null) {
+			// Lo que el usuario tenga en cola sale con el nuevo token
+			buzon.sesionIniciada(usuario, token);
+		}
+	}
+
+	/**
+	 * Returns the token of the session of the request, or null when the
+	 * session is not logged in or has expired.
+	 */
+	public String token(HttpServletRequest request) {
+		Sesion sesion = sesion(request);
+		return sesion != null ? sesion.token : null;
+	}
+
+	/**
+	 * Returns the email the user of the session logged in with, or null when
+	 * the session is not logged in or has expired.
+	 */
+	public String usuario(HttpServletRequest request) {
+		Sesion sesion = sesion(request);
+		return sesion != null ? sesion.usuario : null;
+	}
+
+	private Sesion sesion(HttpServletRequest request) {
+		Object resuelta = request.getAttribute(ATRIBUTO_SESION);
+		if (resuelta != null) {
+			return (Sesion) resuelta;
+		}
+		HttpSession session = request.getSession(false);
+		if (session == null) {
+			return null;
+		}
+		String sessionId = session.getId();
+		Sesion sesion = sesiones.get(sessionId);
+		if (sesion == null) {
+			return null;
+		}
+		long ahora = System.nanoTime();
+		if (ahora - sesion.ultimoAcceso > ttlNanos) {
+			expulsar(sessionId, sesion);
+			return null;
+		}
+		if (ahora - sesion.ultimoAcceso > PRECISION_ACCESO_NANOS) {
+			sesion.ultimoAcceso = ahora;
+		}
+		request.setAttribute(ATRIBUTO_SESION, sesion);
+		return sesion;
+	}
+
+	/**
+	 * Removes the session of the request from the registry and returns its
+	 * token, so the caller can log it out (see {@link #aplazarCierre}).
+	 */
+	public String eliminar(HttpServletRequest request) {
+		request.removeAttribute(ATRIBUTO_SESION);
+		HttpSession session = request.getSession(false);
+		if (session == null) {
+			return null;
+		}
+		Sesion sesion = sesiones.remove(session.getId());
+		return sesion != null ? sesion.token : null;
+	}
+
+	public int sesionesActivas() {
+		return sesiones.size();
+	}
+
+	public long sesionesExpulsadas() {
+		return expulsadas.get();
+	}
+
+	@Scheduled(fixedDelayString = "${strava.sesiones.barrido:1m}")
+	public void barrerCaducadas() {
+		long ahora = System.nanoTime();
+		for (Map.Entry<String, Sesion> entrada : sesiones.entrySet()) {
+			if (ahora - entrada.getValue().ultimoAcceso > ttlNanos) {
+				expulsar(entrada.getKey(), entrada.getValue());
+			}
+		}
+	}
+
+	// El registro está lleno: se eliminan las caducadas y, si no basta, la usada hace más tiempo
+	private void hacerSitio() {
+		barrerCaducadas();
+		if (sesiones.size() < maxSesiones) {
+			return;
+		}
+		Map.Entry<String, Sesion> masAntigua = null;
+		for (Map.Entry<String, Sesion> entrada : sesiones.entrySet()) {
+			if (masAntigua == null || entrada.getValue().ultimoAcceso - masAntigua.getValue().ultimoAcceso < 0) {
+				masAntigua = entrada;
+			}
+		}
+		if (masAntigua != null) {
+			expulsar(masAntigua.getKey(), masAntigua.getValue());
+		}
+	}
+
+	private void expulsar(String sessionId, Sesion sesion) {
+		// remove(clave, valor) evita expulsar una sesión que otra petición acaba de renovar
+		if (sesiones.remove(sessionId, sesion)) {
+			expulsadas.incrementAndGet();
+			cerrarEnServidor(sesion.token);
+		}
+	}
+
+	/**
+	 * Hands the upstream logout of the token to the mailbox of deferred
+	 * submissions when it still has something to send with it, so that the
+	 * logout does not make those submissions fail. Returns false when the
+	 * caller must log the token out now.
+	 */
+	public boolean aplazarCierre(String token) {
+		BuzonEnvios buzon = buzonEnvios.getIfAvailable();
+		return buzon != null && buzon.aplazarCierre(token, () -> cerrarAhora(token));
+	}
+
+	private void cerrarEnServidor(String token) {
+		if (!aplazarCierre(token)) {
+			cerrarAhora(token);
+		}
+	}
+
+	private void cerrarAhora(String token) {
+		stravaServiceProxyAsync.logout(token).exceptionally(e -> {
+			logger.warn("-Sesiones-\tNo se ha podido cerrar la sesión en el servidor: {}", e.getMessage());
+			return null;
+		});
+	}
+
+	private static final class Sesion {
+		private final String token;
+		private final String usuario;
+		private volatile long ultimoAcceso;
+
+		private Sesion(String token, String usuario, long ultimoAcceso) {
+			this.token = token;
+			this.usuario = usuario;
+			this.ultimoAcceso = ultimoAcceso;
+		}
+	}
+}
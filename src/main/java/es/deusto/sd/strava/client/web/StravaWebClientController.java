@@ -5,13 +5,23 @@
  */
 package es.deusto.sd.strava.client.web;
 
+import java.time.Duration;
 import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
 import org.slf4j.Logger;
 
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -19,15 +29,22 @@ import org.springframework.web.bind.annotation.ModelAttribute;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 
+import org.springframework.web.server.ResponseStatusException;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import org.springframework.web.util.UriComponentsBuilder;
 
+import es.deusto.sd.strava.client.analitica.AnaliticaEntrenamientos;
 import es.deusto.sd.strava.client.data.Credentials;
-import es.deusto.sd.strava.client.data.Entrenamiento;
+import es.deusto.sd.strava.client.data.PaginaEntrenamientos;
 import es.deusto.sd.strava.client.data.Reto;
 import es.deusto.sd.strava.client.data.Usuario;
+import es.deusto.sd.strava.client.envios.BuzonEnvios;
 import es.deusto.sd.strava.client.proxies.IStravaServiceProxy;
+import es.deusto.sd.strava.client.proxies.IStravaServiceProxyAsync;
+import es.deusto.sd.strava.client.trazas.Trazas;
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 
 /**
  * WebClientController class serves as the primary controller for the web client
@@ -82,15 +99,30 @@ public class StravaWebClientController {
 
 	@Autowired
 	private IStravaServiceProxy stravaServiceProxy;
+	@Autowired
+	private IStravaServiceProxyAsync stravaServiceProxyAsync;
+	@Value("${strava.retos.deadline:3s}")
+	private Duration deadlineRetos; // Tiempo máximo para componer la página de retos
+	@Value("${strava.entrenamientos.pagina:50}")
+	private int tamanoPaginaEntrenamientos; // Filas de entrenamientos que se cargan de cada vez
+	private static final DateTimeFormatter FORMATO_FILTRO = DateTimeFormatter.ofPattern("dd/MM/yyyy");
 	private static final Logger logger = LoggerFactory.getLogger(StravaWebClientController.class);
-	private String token; // Stores the session token
+	@Autowired
+	private RegistroSesiones registroSesiones; // Stores the token of each browser session
+	@Autowired
+	private ObjectProvider<BuzonEnvios> buzonEnvios; // Solo existe con strava.envios.diferidos=true
+	@Autowired
+	private AnaliticaEntrenamientos analitica; // Progreso de los retos aceptados
+	@Autowired
+	private FragmentosRetos fragmentosRetos; // Tabla del catálogo ya renderizada, compartida
 
 	// Add current URL and token to all views
 	@ModelAttribute
 	public void addAttributes(Model model, HttpServletRequest request) {
 		String currentUrl = ServletUriComponentsBuilder.fromRequestUri(request).toUriString();
 		model.addAttribute("currentUrl", currentUrl); // Makes current URL available in all templates
-		model.addAttribute("token", token); // Makes token available in all templates
+		model.addAttribute("token", registroSesiones.token(request)); // Makes token available in all templates
+		model.addAttribute("enviosDiferidos", buzonEnvios.getIfAvailable() != null);
 	}
 
 	@GetMapping("/")
@@ -132,7 +164,7 @@ public class StravaWebClientController {
 					frecuenciaCardiacaMax,
 					frecuenciaCardiacaReposo,
 					tipoLogin);
-			logger.info("-Controller-\tRegistrando usuario: " + usuario.toString());
+			logger.info("-Controller-\tRegistrando usuario: {}", usuario);
 			stravaServiceProxy.registrar(usuario);
 
 			// Si todo va bien, redirigimos a una página de éxito o a la vista de
@@ -142,7 +174,7 @@ public class StravaWebClientController {
 			return "inicio"; // Redirige a la página de inicio
 
 		} catch (RuntimeException e) {
-			logger.info("-Controller-    Registro fallido: " + e);
+			logger.info("-Controller-    Registro fallido: {}", Trazas.censurado(e));
 			model.addAttribute("errorMessage", "Registro fallido: " + e.getMessage());
 			return "registrarStrava";
 		}
@@ -159,16 +191,16 @@ public class StravaWebClientController {
 
 	@PostMapping("/login")
 	public String performLogin(@RequestParam("email") String email, @RequestParam("password") String password,
-			@RequestParam(value = "redirectUrl", required = false) String redirectUrl, Model model) {
+			@RequestParam(value = "redirectUrl", required = false) String redirectUrl, Model model,
+			HttpServletRequest request) {
 		Credentials credentials = new Credentials(email, password);
 
 		try {
-			logger.info("-Controller-	Las credenciales para hacer login son: email: " + credentials.email()
-					+ " password: "
-					+ credentials.password());
+			logger.info("-Controller-\tLogin de {}", credentials.email());
 			String tokenId = stravaServiceProxy.login(credentials);
-			logger.info("-Controller-\tEl token de la sesion es: " + tokenId);
-			token = tokenId;
+			logger.info("-Controller-\tEl token de la sesion es: {}", Trazas.token(tokenId));
+			registroSesiones.registrar(request, tokenId, credentials.email());
+			model.addAttribute("token", tokenId);
 			// Redirect to the original page or root if redirectUrl is null
 			return "indexStrava";
 		} catch (RuntimeException e) {
@@ -179,10 +211,13 @@ public class StravaWebClientController {
 
 	@GetMapping("/logout")
 	public String performLogout(@RequestParam(value = "redirectUrl", defaultValue = "/") String redirectUrl,
-			Model model) {
+			Model model, HttpServletRequest request) {
 		try {
-			stravaServiceProxy.logout(token);
-			token = null; // Clear the token after logout
+			String token = registroSesiones.eliminar(request); // Clear the token of this session
+			// Si quedan envíos diferidos con este token, el buzón cierra la sesión cuando salgan
+			if (token != null && !registroSesiones.aplazarCierre(token)) {
+				stravaServiceProxy.logout(token);
+			}
 			model.addAttribute("successMessage", "Logout successful.");
 		} catch (RuntimeException e) {
 			model.addAttribute("errorMessage", "Logout failed: " + e.getMessage());
@@ -196,29 +231,26 @@ public class StravaWebClientController {
 	public String conseguirEntrenamientosUsuario(
 			@RequestParam(value = "fechaInicio", required = false) @DateTimeFormat(pattern = "dd/MM/yyyy") LocalDate fechaInicio,
 			@RequestParam(value = "fechaFin", required = false) @DateTimeFormat(pattern = "dd/MM/yyyy") LocalDate fechaFin,
+			@RequestParam(value = "cursor", required = false) String cursor,
 			Model model,
-			RedirectAttributes redirectAttributes) {
+			RedirectAttributes redirectAttributes,
+			HttpServletRequest request) {
 
+		String token = registroSesiones.token(request);
 		if (!estaLogeado(token)) {
 			logger.warn("-Controller-\tUsuario no logeado, redirigiendo a la página de login");
 			return "redirect:/login?redirectUrl=/usuarios/entrenamientos";
 		}
 
 		try {
-			// Llama al servicio proxy para obtener los entrenamientos del usuario
-			List<Entrenamiento> entrenamientos = stravaServiceProxy.consultarEntrenamientos(token, fechaInicio,
-					fechaFin);
-			logger.info(
-					"-Controller-\tEntrenamientos obtenidos: " + entrenamientos.size() + " entrenamientos encontrados");
-			model.addAttribute("entrenamientos", entrenamientos);
-			// Agrega los entrenamientos al modelo para mostrarlos en la vista
-			model.addAttribute("entrenamientos", entrenamientos);
+			// Solo se carga la primera página; el resto de filas las pide la propia página por fragmentos
+			cargarPaginaEntrenamientos(token, fechaInicio, fechaFin, cursor, model);
 			model.addAttribute("fechaInicio", fechaInicio);
 			model.addAttribute("fechaFin", fechaFin);
 
 			return "entrenamientos";
 		} catch (RuntimeException e) {
-			logger.error("-Controller-\tError al obtener los entrenamientos: " + e.getMessage(), e);
+			logger.error("-Controller-\tError al obtener los entrenamientos: {}", Trazas.error(e));
 			redirectAttributes.addFlashAttribute("errorMessage",
 					"Error al obtener los entrenamientos: " + e.getMessage());
 			return "errorPage"; // Redirige a una página de error o a otra apropiada
@@ -226,6 +258,59 @@ public class StravaWebClientController {
 
 	}
 
+	// Filas de la tabla de entrenamientos a partir de un cursor, para añadirlas a la página ya mostrada.
+	// La pide el script de la página: sin sesión responde 401 y, si falla, una fila con el error y un 400
+	// (cursor no válido) o un 502 (error del servidor), para que el script deje de pedir más
+	@GetMapping("/entrenamientos/filas")
+	public String filasEntrenamientosUsuario(
+			@RequestParam(value = "fechaInicio", required = false) @DateTimeFormat(pattern = "dd/MM/yyyy") LocalDate fechaInicio,
+			@RequestParam(value = "fechaFin", required = false) @DateTimeFormat(pattern = "dd/MM/yyyy") LocalDate fechaFin,
+			@RequestParam("cursor") String cursor,
+			Model model,
+			HttpServletRequest request,
+			HttpServletResponse response) {
+
+		String token = registroSesiones.token(request);
+		if (!estaLogeado(token)) {
+			logger.warn("-Controller-\tUsuario no logeado al pedir más entrenamientos");
+			throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Sesión caducada");
+		}
+
+		try {
+			cargarPaginaEntrenamientos(token, fechaInicio, fechaFin, cursor, model);
+			return "entrenamientos :: filas";
+		} catch (IllegalArgumentException e) {
+			logger.warn("-Controller-\tCursor de entrenamientos no válido: {}", Trazas.censurado(cursor));
+			response.setStatus(HttpStatus.BAD_REQUEST.value());
+			model.addAttribute("errorFilas", "No se pueden cargar más entrenamientos: " + e.getMessage());
+			return "entrenamientos :: filasError";
+		} catch (RuntimeException e) {
+			logger.error("-Controller-\tError al obtener más entrenamientos: {}", Trazas.error(e));
+			response.setStatus(HttpStatus.BAD_GATEWAY.value());
+			model.addAttribute("errorFilas", "Error al obtener los entrenamientos: " + e.getMessage());
+			return "entrenamientos :: filasError";
+		}
+	}
+
+	private void cargarPaginaEntrenamientos(String token, LocalDate fechaInicio, LocalDate fechaFin, String cursor,
+			Model model) {
+		PaginaEntrenamientos pagina = stravaServiceProxy.consultarEntrenamientos(token, fechaInicio, fechaFin,
+				cursor, tamanoPaginaEntrenamientos);
+		logger.info("-Controller-\tEntrenamientos obtenidos: {} entrenamientos en la página",
+				pagina.entrenamientos().size());
+		model.addAttribute("entrenamientos", pagina.entrenamientos());
+		model.addAttribute("primeraPagina", cursor == null);
+		if (pagina.siguiente() != null) {
+			// Misma consulta con el cursor siguiente: como página completa (sin JavaScript) y como fragmento
+			UriComponentsBuilder consulta = UriComponentsBuilder.newInstance()
+					.queryParamIfPresent("fechaInicio", Optional.ofNullable(fechaInicio).map(FORMATO_FILTRO::format))
+					.queryParamIfPresent("fechaFin", Optional.ofNullable(fechaFin).map(FORMATO_FILTRO::format))
+					.queryParam("cursor", pagina.siguiente());
+			model.addAttribute("siguientePagina", consulta.cloneBuilder().path("/entrenamientos").toUriString());
+			model.addAttribute("siguientesFilas", consulta.path("/entrenamientos/filas").toUriString());
+		}
+	}
+
 	@PostMapping("/anadirEntrenamientos")
 	public String anadirEntrenamientos(
 			@RequestParam("titulo") String titulo,
@@ -235,7 +320,9 @@ public class StravaWebClientController {
 			@RequestParam("horaInicio") String horaInicio,
 			@RequestParam("duracion") int duracion,
 			Model model,
-			RedirectAttributes redirectAttributes) {
+			RedirectAttributes redirectAttributes,
+			HttpServletRequest request) {
+		String token = registroSesiones.token(request);
 		if (!estaLogeado(token)) {
 			logger.warn("-Controller-\tUsuario no logeado, redirigiendo a la página de login");
 			return "redirect:/login?redirectUrl=/entrenamientos";
@@ -244,8 +331,19 @@ public class StravaWebClientController {
 		try {
 			distancia = Float.parseFloat(distanciaStr.replace(",", "."));
 
-			logger.info("-Controller-\tCreando entrenamiento: " + titulo + " " + deporte + " " + distancia + " "
-					+ duracion + " " + fechaInicio + " " + horaInicio);
+			if (logger.isInfoEnabled()) {
+				logger.info("-Controller-\tCreando entrenamiento: {} {} {} {} {} {}", titulo, deporte, distancia,
+						duracion, fechaInicio, horaInicio);
+			}
+			BuzonEnvios buzon = buzonEnvios.getIfAvailable();
+			if (buzon != null) {
+				// Modo diferido: se confirma en cuanto queda guardado y se envía en segundo plano
+				buzon.encolarEntrenamiento(registroSesiones.usuario(request), token, titulo, deporte, distancia,
+						duracion, fechaInicio, horaInicio);
+				redirectAttributes.addFlashAttribute("message",
+						"Entrenamiento guardado, se enviará al servidor en segundo plano");
+				return "redirect:/entrenamientos";
+			}
 			// Llamar al proxy para crear el entrenamiento
 			stravaServiceProxy.anadirEntrenamiento(token, titulo, deporte, distancia, duracion, fechaInicio,
 					horaInicio);
@@ -253,11 +351,11 @@ public class StravaWebClientController {
 			redirectAttributes.addFlashAttribute("successMessage", "Entrenamiento creado con éxito");
 			return "redirect:/entrenamientos"; // Redirige a la lista de entrenamientos
 		} catch (NumberFormatException er) {
-			logger.error("-Controller-\tError al crear entrenamiento: " + er.getMessage(), er);
+			logger.error("-Controller-\tError al crear entrenamiento: {}", er.getMessage(), er);
 			redirectAttributes.addFlashAttribute("errorMessage", "Error al crear el entrenamiento: " + er.getMessage());
 			return "redirect:/entrenamientos";
 		} catch (RuntimeException e) {
-			logger.error("-Controller-\tError al crear entrenamiento: " + e.getMessage(), e);
+			logger.error("-Controller-\tError al crear entrenamiento: {}", Trazas.error(e));
 			redirectAttributes.addFlashAttribute("errorMessage", "Error al crear el entrenamiento: " + e.getMessage());
 			return "redirect:/entrenamientos";
 		}
@@ -273,11 +371,22 @@ public class StravaWebClientController {
 			@RequestParam("fechaFin") @DateTimeFormat(pattern = "yyyy-MM-dd") LocalDate fechaFin,
 			Model model,
 
-			RedirectAttributes redirectAttributes) {
+			RedirectAttributes redirectAttributes,
+			HttpServletRequest request) {
 
+		String token = registroSesiones.token(request);
 		try {
-			logger.info("-Controller-\tAgregando reto: " + nombre + " " + deporte + " " + objetivoDistancia + " "
-					+ objetivoTiempo + " " + fechaInicio + " " + fechaFin);
+			if (logger.isInfoEnabled()) {
+				logger.info("-Controller-\tAgregando reto: {} {} {} {} {} {}", nombre, deporte, objetivoDistancia,
+						objetivoTiempo, fechaInicio, fechaFin);
+			}
+			BuzonEnvios buzon = buzonEnvios.getIfAvailable();
+			if (buzon != null && token != null) {
+				buzon.encolarReto(registroSesiones.usuario(request), token, nombre, deporte, objetivoDistancia,
+						objetivoTiempo, fechaInicio, fechaFin);
+				redirectAttributes.addFlashAttribute("message", "Reto guardado, se enviará al servidor en segundo plano");
+				return "redirect:/retos";
+			}
 			stravaServiceProxy.anadirReto(token, nombre, deporte, objetivoDistancia, objetivoTiempo, fechaInicio,
 					fechaFin);
 			logger.info("-Controller-\tReto agregado exitosamente");
@@ -286,7 +395,7 @@ public class StravaWebClientController {
 			return "redirect:/retos"; // Redirigir a la página del usuario
 
 		} catch (Exception e) {
-			e.printStackTrace();
+			logger.error("-Controller-\tError al agregar el reto: {}", Trazas.error(e));
 			redirectAttributes.addFlashAttribute("errorMessage", "Hubo un error al agregar el reto");
 			return "errorPage"; // Redirigir a la página del usuario
 		}
@@ -299,51 +408,82 @@ public class StravaWebClientController {
 		return false;
 	}
 
+	// Los futuros fallidos envuelven la excepción original en una CompletionException
+	private static Throwable causa(Throwable e) {
+		return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+	}
+
 	@GetMapping("/retos")
-	public String obtenerRetos(
+	public CompletableFuture<String> obtenerRetos(
 			@RequestParam(value = "fechaInicio", required = false) LocalDate fechaInicio,
 			@RequestParam(value = "deporte", required = false) String deporte,
 			Model model,
-			RedirectAttributes redirectAttributes) {
+			RedirectAttributes redirectAttributes,
+			HttpServletRequest request) {
 
+		String token = registroSesiones.token(request);
 		if (!estaLogeado(token))
-			return "redirect:/login?redirectUrl=/usuarios/retos";
-
-		try {
-			if(deporte != null) {
-				logger.info("-Controller-\tObteniendo retos filtrados por deporte: " + deporte);
-				// Llama al servicio proxy para obtener los retos del usuario
-				List<Reto> retosFiltrados = stravaServiceProxy.consultarRetosActivosFiltrados(token, fechaInicio, deporte);
-				List<Reto> retosAceptados = stravaServiceProxy.retosAceptados(token);
-				// Agrega los retos al modelo para mostrarlos en la vista
-				model.addAttribute("retos", retosFiltrados);
-				model.addAttribute("retosAceptados", retosAceptados);
-			}else{
-			// Llama al servicio proxy para obtener los retos del usuario
+			return CompletableFuture.completedFuture("redirect:/login?redirectUrl=/usuarios/retos");
+
+		// Las dos consultas son independientes: se lanzan a la vez y la página tarda lo que la más lenta
+		CompletableFuture<List<Reto>> catalogo;
+		String filtro = deporte != null ? deporte + "|" + fechaInicio : "";
+		model.addAttribute("accionAceptar", request.getContextPath() + "/retos/aceptar");
+		if (deporte != null) {
+			logger.info("-Controller-\tObteniendo retos filtrados por deporte: {}", deporte);
+			catalogo = stravaServiceProxyAsync.consultarRetosActivosFiltrados(token, fechaInicio, deporte);
+		} else {
 			logger.info("-Controller-\tObteniendo retos");
-			List<Reto> retos = stravaServiceProxy.consultarRetosActivos();
-			List<Reto> retosAceptados = stravaServiceProxy.retosAceptados(token);
-			// Agrega los retos al modelo para mostrarlos en la vista
-			model.addAttribute("retos", retos);
-			model.addAttribute("retosAceptados", retosAceptados);
-			}
-
-			return "retos";
-		} catch (RuntimeException e) {
-			e.printStackTrace();
-			redirectAttributes.addFlashAttribute("errorMessage",
-					"Error al obtener los retos: " + e.getMessage());
-			return "errorPage"; // Redirige a una página de error o a otra apropiada
+			catalogo = stravaServiceProxyAsync.consultarRetosActivos();
 		}
-
+		CompletableFuture<List<Reto>> aceptados = stravaServiceProxyAsync.retosAceptados(token);
+		// El progreso se calcula con el historial de entrenamientos en memoria; solo se descarga si no está
+		CompletableFuture<Void> historial = analitica
+				.cargarAsync(token, () -> stravaServiceProxyAsync.consultarEntrenamientos(token, null, null))
+				.orTimeout(deadlineRetos.toMillis(), TimeUnit.MILLISECONDS)
+				.exceptionally(e -> {
+					logger.warn("-Controller-\tHistorial no disponible, progreso del servidor: {}",
+							Trazas.censurado(causa(e)));
+					return null;
+				});
+
+		// Si los retos aceptados no llegan a tiempo la página se muestra igualmente, sin esa sección
+		CompletableFuture<List<Reto>> aceptadosODegradado = aceptados
+				.orTimeout(deadlineRetos.toMillis(), TimeUnit.MILLISECONDS)
+				.thenCombine(historial, (retosAceptados, cargado) -> analitica.conProgreso(token, retosAceptados))
+				.exceptionally(e -> {
+					logger.warn("-Controller-\tRetos aceptados no disponibles: {}", Trazas.censurado(causa(e)));
+					model.addAttribute("avisoRetosAceptados",
+							"No se han podido cargar tus retos aceptados. Inténtalo de nuevo en unos instantes.");
+					return List.of();
+				});
+
+		return catalogo
+				.orTimeout(deadlineRetos.toMillis(), TimeUnit.MILLISECONDS)
+				.thenCombine(aceptadosODegradado, (retos, retosAceptados) -> {
+					// Agrega los retos al modelo para mostrarlos en la vista
+					model.addAttribute("retos", retos);
+					model.addAttribute("tablaRetos", fragmentosRetos.catalogo(filtro, retos));
+					model.addAttribute("retosAceptados", retosAceptados);
+					return "retos";
+				})
+				.exceptionally(e -> {
+					Throwable error = causa(e);
+					logger.error("-Controller-\tError al obtener los retos: {}", Trazas.error(error));
+					redirectAttributes.addFlashAttribute("errorMessage",
+							"Error al obtener los retos: " + error.getMessage());
+					return "errorPage"; // Redirige a una página de error o a otra apropiada
+				});
 	}
 
 	@PostMapping("/retos/aceptar")
 	public String aceptarReto(
 			@RequestParam("retoNombre") String retoNombre,
 			Model model,
-			RedirectAttributes redirectAttributes) {
+			RedirectAttributes redirectAttributes,
+			HttpServletRequest request) {
 
+		String token = registroSesiones.token(request);
 		if (!estaLogeado(token)) {
 			return "redirect:/login?redirectUrl=/retos";
 		}
@@ -353,7 +493,7 @@ public class StravaWebClientController {
 			stravaServiceProxy.aceptarReto(retoNombre, token);
 
 		} catch (RuntimeException e) {
-			e.printStackTrace();
+			logger.error("-Controller-\tError al aceptar el reto: {}", Trazas.error(e));
 			// Mensaje de error
 			redirectAttributes.addFlashAttribute("errorMessage", "Error al aceptar el reto: " + e.getMessage());
 		}
@@ -0,0 +1,118 @@
+package es.deusto.sd.strava.client.web;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * TiemposPeticion splits the time of every controller request in two timers,
+ * complementing the {@code http.server.requests} timer of Spring Boot, which
+ * only measures the whole request:
+ * <ul>
+ * <li>{@code strava.web.handler}: from the start of the request until the
+ * handler returns, i.e. the time spent in the controller and the upstream
+ * calls it makes;</li>
+ * <li>{@code strava.web.render}: the time spent rendering the Thymeleaf
+ * template the handler returned.</li>
+ * </ul>
+ * For handlers that return a CompletableFuture the handler time ends when the
+ * future completes, since the request is dispatched again at that moment.
+ */
+@Component
+public class TiemposPeticion implements WebMvcConfigurer, AsyncHandlerInterceptor {
+
+	private static final String INICIO = TiemposPeticion.class.getName() + ".inicio";
+	private static final String FIN_HANDLER = TiemposPeticion.class.getName() + ".finHandler";
+	private static final String VISTA = TiemposPeticion.class.getName() + ".vista";
+
+	private final MeterRegistry registry;
+
+	public TiemposPeticion(MeterRegistry registry) {
+		this.registry = registry;
+	}
+
+	@Override
+	public void addInterceptors(InterceptorRegistry interceptores) {
+		interceptores.addInterceptor(this).excludePathPatterns("/actuator/**");
+	}
+
+	@Override
+	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+		// Al redespachar una petición asíncrona se vuelve a llamar: se conserva el inicio original
+		if (request.getAttribute(INICIO) == null) {
+			request.setAttribute(INICIO, System.nanoTime());
+		}
+		return true;
+	}
+
+	@Override
+	public void postHandle(HttpServletRequest request, HttpServletResponse response, Object handler,
+			ModelAndView modelAndView) {
+		long fin = System.nanoTime();
+		Long inicio = (Long) request.getAttribute(INICIO);
+		if (inicio == null) {
+			return;
+		}
+		registrarHandler(request, fin - inicio, null);
+		request.setAttribute(FIN_HANDLER, fin);
+		if (modelAndView != null && modelAndView.getViewName() != null) {
+			request.setAttribute(VISTA, modelAndView.getViewName());
+		}
+	}
+
+	@Override
+	public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+			Exception ex) {
+		long fin = System.nanoTime();
+		Long finHandler = (Long) request.getAttribute(FIN_HANDLER);
+		if (finHandler == null) {
+			// El handler lanzó una excepción y no se llamó a postHandle
+			Long inicio = (Long) request.getAttribute(INICIO);
+			if (inicio != null) {
+				registrarHandler(request, fin - inicio, ex);
+			}
+			return;
+		}
+		String vista = (String) request.getAttribute(VISTA);
+		if (vista != null) {
+			Timer.builder("strava.web.render")
+					.description("Tiempo de renderizado de las plantillas")
+					.tags("vista", etiquetaVista(vista), "exception", ex == null ? "none" : ex.getClass().getSimpleName())
+					.publishPercentileHistogram()
+					.register(registry)
+					.record(fin - finHandler, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	private void registrarHandler(HttpServletRequest request, long nanos, Exception ex) {
+		Object patron = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+		Timer.builder("strava.web.handler")
+				.description("Tiempo de los controladores sin el renderizado")
+				.tags("uri", patron != null ? patron.toString() : "UNKNOWN", "method", request.getMethod(),
+						"exception", ex == null ? "none" : ex.getClass().getSimpleName())
+				.publishPercentileHistogram()
+				.register(registry)
+				.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	// Las redirecciones llevan la URL (y a veces parámetros) en el nombre: no sirven como etiqueta
+	private static String etiquetaVista(String vista) {
+		if (vista.startsWith("redirect:")) {
+			return "redirect";
+		}
+		if (vista.startsWith("forward:")) {
+			return "forward";
+		}
+		return vista;
+	}
+}
@@ -0,0 +1,68 @@
+package es.deusto.sd.strava.client.web;
+
+import java.io.IOException;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.filter.ShallowEtagHeaderFilter;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * ValidacionPaginas adds an ETag, computed from the rendered HTML, to the
+ * pages that show data of the server, and answers 304 without body when the
+ * browser sends it back in {@code If-None-Match} and the page has not
+ * changed. The pages are marked {@code Cache-Control: private, no-cache}, so
+ * the browser keeps them but always asks before reusing them. The page is
+ * still rendered; what is saved is sending it. The 304s are counted in
+ * {@code strava.web.not.modified}.
+ *
+ * Disabled with {@code strava.web.validadores=false}.
+ */
+@Configuration
+public class ValidacionPaginas {
+
+	static final String[] PAGINAS = { "/entrenamientos", "/entrenamientos/filas", "/retos", "/estadisticas" };
+
+	@Bean
+	public FilterRegistrationBean<ShallowEtagHeaderFilter> filtroValidacionPaginas(MeterRegistry registry,
+			@Value("${strava.web.validadores:true}") boolean activo) {
+		FilterRegistrationBean<ShallowEtagHeaderFilter> registro = new FilterRegistrationBean<>(
+				new FiltroEtiquetas(registry));
+		registro.addUrlPatterns(PAGINAS);
+		registro.setEnabled(activo);
+		return registro;
+	}
+
+	private static final class FiltroEtiquetas extends ShallowEtagHeaderFilter {
+
+		private final Counter noModificadas;
+
+		private FiltroEtiquetas(MeterRegistry registry) {
+			this.noModificadas = Counter.builder("strava.web.not.modified")
+					.description("Páginas respondidas con 304 porque el navegador ya las tenía")
+					.register(registry);
+		}
+
+		@Override
+		protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+				FilterChain filterChain) throws ServletException, IOException {
+			if (!isAsyncDispatch(request)) {
+				response.setHeader(HttpHeaders.CACHE_CONTROL, "private, no-cache");
+			}
+			super.doFilterInternal(request, response, filterChain);
+			// Con un controlador asíncrono la respuesta se decide en el segundo despacho
+			if (!isAsyncStarted(request) && response.getStatus() == HttpServletResponse.SC_NOT_MODIFIED) {
+				noModificadas.increment();
+			}
+		}
+	}
+}
@@ -7,23 +7,19 @@ package es.deusto.sd.strava.client.web;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
-import org.springframework.context.annotation.Bean;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * WebClientApplication class is the main class for the web client application.
+ * The RestTemplate used by the proxies is built in StravaHttpTransportConfig.
  */
 
 // Anotar el motivo de la ubicación.
 @SpringBootApplication(scanBasePackages = {"es.deusto.sd.strava"})
+@EnableScheduling
 public class WebClientApplication {
 
     public static void main(String[] args) {
         SpringApplication.run(WebClientApplication.class, args);
     }
-
-    @Bean
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
-    }
 }
\ No newline at end of file
@@ -0,0 +1,42 @@
+package es.deusto.sd.strava.client.analitica;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import es.deusto.sd.strava.client.data.Entrenamiento;
+import es.deusto.sd.strava.client.data.Reto;
+
+class AnaliticaEntrenamientosTest {
+
+    // Un reto de un solo día, con las fechas del servidor (medianoche UTC), cuenta los entrenamientos de ese día
+    @ParameterizedTest
+    @ValueSource(strings = { "Pacific/Kiritimati", "Pacific/Pago_Pago", "Europe/Madrid" })
+    void cuentaLosDiasDelRetoEnLaZonaDelServidor(String zona) {
+        TimeZone anterior = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone(zona));
+        try {
+            AnaliticaEntrenamientos analitica = new AnaliticaEntrenamientos(Duration.ofMinutes(5), 1000,
+                    ZoneOffset.UTC);
+            LocalDate dia = LocalDate.now().minusDays(3);
+            analitica.cargarAsync("token", () -> CompletableFuture.completedFuture(List.of(
+                    new Entrenamiento("Antes", "Correr", 4, dia.minusDays(1), "10:00", 20),
+                    new Entrenamiento("Dentro", "Correr", 5, dia, "10:00", 30),
+                    new Entrenamiento("Después", "Correr", 8, dia.plusDays(1), "10:00", 40)))).join();
+            long milis = dia.atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+            Reto reto = new Reto("Un día", milis, milis, 10, 0, "Correr", null);
+
+            assertEquals(50f, analitica.conProgreso("token", List.of(reto)).get(0).progreso(), 0.001);
+        } finally {
+            TimeZone.setDefault(anterior);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package es.deusto.sd.strava.client.analitica;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class IndiceProgresoTest {
+
+    private static final int HOY = 20_000;
+    private static final int DEPORTES = 6;
+
+    private record Fila(int dia, byte deporte, float distancia, int duracion) {
+    }
+
+    // Cualquier ventana, dentro o fuera del rango, suma lo mismo que recorrer todo el historial
+    @ParameterizedTest
+    @ValueSource(longs = { 1, 2, 3, 4, 5 })
+    void sumaComoUnRecorridoCompleto(long semilla) {
+        Random aleatorio = new Random(semilla);
+        List<Fila> filas = new ArrayList<>();
+        ColumnasEntrenamientos columnas = new ColumnasEntrenamientos(0);
+        int total = aleatorio.nextInt(400);
+        for (int i = 0; i < total; i++) {
+            // El último deporte nunca tiene entrenamientos
+            Fila fila = new Fila(HOY - aleatorio.nextInt(800), (byte) aleatorio.nextInt(DEPORTES - 1),
+                    aleatorio.nextFloat() * 40, aleatorio.nextInt(240));
+            filas.add(fila);
+            columnas.anadir(fila.dia(), fila.deporte(), fila.distancia(), fila.duracion());
+        }
+        IndiceProgreso indice = IndiceProgreso.construir(columnas, HOY);
+
+        // Entrenamientos creados después de construir el índice, también en días nuevos
+        for (int i = 0; i < 100; i++) {
+            Fila fila = new Fila(HOY - 50 + aleatorio.nextInt(400), (byte) aleatorio.nextInt(DEPORTES - 1),
+                    aleatorio.nextFloat() * 40, aleatorio.nextInt(240));
+            assertTrue(indice.cabe(fila.dia()), "día " + fila.dia());
+            filas.add(fila);
+            indice.anadir(fila.dia(), fila.deporte(), fila.distancia(), fila.duracion());
+        }
+
+        int primero = filas.stream().mapToInt(Fila::dia).min().orElse(HOY);
+        int ultimo = HOY + 366;
+        List<int[]> ventanas = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            int desde = HOY - 1000 + aleatorio.nextInt(1800);
+            ventanas.add(new int[] { desde, desde + aleatorio.nextInt(120) });
+        }
+        // Bordes del rango, ventanas de un día, ventanas enteras fuera y ventanas vacías
+        ventanas.add(new int[] { primero, primero });
+        ventanas.add(new int[] { primero - 1, primero - 1 });
+        ventanas.add(new int[] { primero - 10, primero });
+        ventanas.add(new int[] { ultimo, ultimo });
+        ventanas.add(new int[] { ultimo + 1, ultimo + 30 });
+        ventanas.add(new int[] { ultimo - 5, ultimo + 5 });
+        ventanas.add(new int[] { primero - 30, primero - 1 });
+        ventanas.add(new int[] { Integer.MIN_VALUE / 2, Integer.MAX_VALUE / 2 });
+        ventanas.add(new int[] { HOY, HOY - 1 });
+
+        for (int[] ventana : ventanas) {
+            for (int deporte = 0; deporte < DEPORTES; deporte++) {
+                double distancia = 0;
+                long minutos = 0;
+                for (Fila fila : filas) {
+                    if (fila.deporte() == deporte && fila.dia() >= ventana[0] && fila.dia() <= ventana[1]) {
+                        distancia += fila.distancia();
+                        minutos += fila.duracion();
+                    }
+                }
+                String caso = "deporte " + deporte + " de " + ventana[0] + " a " + ventana[1];
+                assertEquals(distancia, indice.distancia(deporte, ventana[0], ventana[1]), 1e-6 * (1 + distancia),
+                        caso);
+                assertEquals(minutos, indice.minutos(deporte, ventana[0], ventana[1]), caso);
+            }
+        }
+    }
+
+    @Test
+    void elRangoVaDelPrimerEntrenamientoAUnAnoDespuesDelUltimo() {
+        ColumnasEntrenamientos columnas = new ColumnasEntrenamientos(0);
+        columnas.anadir(HOY - 100, (byte) 0, 5, 30);
+        columnas.anadir(HOY + 10, (byte) 1, 8, 40);
+        IndiceProgreso indice = IndiceProgreso.construir(columnas, HOY);
+
+        assertFalse(indice.cabe(HOY - 101));
+        assertTrue(indice.cabe(HOY - 100));
+        assertTrue(indice.cabe(HOY + 10 + 366));
+        assertFalse(indice.cabe(HOY + 10 + 367));
+
+        indice.anadir(HOY - 100, (byte) 2, 3, 15);
+        indice.anadir(HOY + 10 + 366, (byte) 2, 4, 20);
+        assertEquals(7, indice.distancia(2, HOY - 100, HOY + 10 + 366), 1e-6);
+        assertEquals(15, indice.minutos(2, HOY - 100, HOY - 100));
+        assertEquals(20, indice.minutos(2, HOY + 10 + 366, HOY + 1000));
+    }
+
+    @Test
+    void sinEntrenamientosTodoEsCero() {
+        IndiceProgreso indice = IndiceProgreso.construir(new ColumnasEntrenamientos(0), HOY);
+
+        assertTrue(indice.cabe(HOY));
+        assertFalse(indice.cabe(HOY - 1));
+        assertEquals(0, indice.distancia(0, HOY - 10, HOY + 10));
+        assertEquals(0, indice.minutos(CodigosDeporte.MAX_DEPORTES - 1, HOY, HOY));
+        assertEquals(0, indice.bytes());
+    }
+}
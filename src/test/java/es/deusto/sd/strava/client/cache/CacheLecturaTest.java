@@ -0,0 +1,56 @@
+package es.deusto.sd.strava.client.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class CacheLecturaTest {
+
+    private final CacheLectura<String, String> cache = new CacheLectura<>(Duration.ofMinutes(5).toNanos(),
+            Duration.ofMinutes(5).toNanos(), 16, Runnable::run);
+
+    // Un plazo más corto que la carga falla la copia de quien lo puso, no el valor guardado
+    @Test
+    void unaCargaMasLentaQueElPlazoNoDejaElFalloEnLaCache() throws Exception {
+        CompletableFuture<String> carga = new CompletableFuture<>();
+        AtomicInteger cargas = new AtomicInteger();
+
+        CompletableFuture<String> conPlazo = cache.obtener("retos", () -> {
+            cargas.incrementAndGet();
+            return carga;
+        }).orTimeout(10, TimeUnit.MILLISECONDS);
+        ExecutionException error = assertThrows(ExecutionException.class, conPlazo::get);
+        assertTrue(error.getCause() instanceof TimeoutException);
+
+        // Quien llega mientras tanto comparte la carga y no ve el plazo del primero
+        CompletableFuture<String> enCurso = cache.obtener("retos", () -> sinCarga());
+        carga.complete("catálogo");
+
+        assertEquals("catálogo", enCurso.get());
+        assertEquals("catálogo", cache.obtener("retos", () -> sinCarga()).get());
+        assertEquals(1, cargas.get());
+    }
+
+    @Test
+    void completarLaCopiaDeUnAciertoNoCambiaElValor() throws Exception {
+        cache.obtener("2024-12-01|Correr", () -> CompletableFuture.completedFuture("filtrados")).get();
+
+        CompletableFuture<String> acierto = cache.obtener("2024-12-01|Correr", () -> sinCarga());
+        acierto.obtrudeException(new TimeoutException());
+
+        assertEquals("filtrados", cache.obtener("2024-12-01|Correr", () -> sinCarga()).get());
+    }
+
+    private static CompletableFuture<String> sinCarga() {
+        throw new AssertionError("Carga no esperada: el valor está en la cache");
+    }
+}
@@ -0,0 +1,72 @@
+package es.deusto.sd.strava.client.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import es.deusto.sd.strava.client.carga.ServidorSimulado;
+import es.deusto.sd.strava.client.data.Reto;
+import es.deusto.sd.strava.client.proxies.DecodificadorJson;
+
+class CatalogoRetosCacheTest {
+
+    private static final DateTimeFormatter FECHA = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+
+    private final HttpClient cliente = HttpClient.newHttpClient();
+    private final DecodificadorJson decodificador = new DecodificadorJson(new ObjectMapper());
+
+    // El servidor cuenta los días en UTC; la zona del equipo del cliente no debe cambiar el resultado
+    @ParameterizedTest
+    @ValueSource(strings = { "Pacific/Kiritimati", "Pacific/Pago_Pago", "Europe/Madrid" })
+    void filtraComoElServidorEnCualquierZona(String zona) throws Exception {
+        TimeZone anterior = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone(zona));
+        try (ServidorSimulado servidor = ServidorSimulado.iniciar("--puerto=0", "--retos=300", "--semilla=7")) {
+            String retos = "http://127.0.0.1:" + servidor.puerto() + "/api/retos";
+            List<Reto> catalogo = retos(retos);
+            CatalogoRetosCache cache = new CatalogoRetosCache(Duration.ofMinutes(5), Duration.ofMinutes(5), 64,
+                    ZoneOffset.UTC, Runnable::run);
+            cache.activos(() -> CompletableFuture.completedFuture(catalogo)).join();
+
+            LocalDate hoy = LocalDate.now();
+            for (int dias = 0; dias <= 100; dias++) {
+                LocalDate fecha = hoy.plusDays(dias);
+                for (String deporte : new String[] { null, "Ciclismo", "Correr", "Natación" }) {
+                    String filtro = "?fecha=" + fecha.format(FECHA)
+                            + (deporte != null ? "&deporte=" + URLEncoder.encode(deporte, StandardCharsets.UTF_8) : "");
+                    List<Reto> locales = cache.filtrados(fecha, deporte, () -> fail("Consulta enviada al servidor"))
+                            .join();
+                    assertEquals(retos(retos + filtro), locales, fecha + " " + deporte);
+                }
+            }
+            assertEquals(0, cache.indice().consultasServidor());
+        } finally {
+            TimeZone.setDefault(anterior);
+        }
+    }
+
+    private List<Reto> retos(String url) throws Exception {
+        HttpResponse<byte[]> respuesta = cliente.send(HttpRequest.newBuilder(URI.create(url)).build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(200, respuesta.statusCode(), url);
+        return decodificador.retos(respuesta.body());
+    }
+}
@@ -0,0 +1,56 @@
+package es.deusto.sd.strava.client.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import es.deusto.sd.strava.client.cache.EntrenamientosCache.Rango;
+import es.deusto.sd.strava.client.data.Entrenamiento;
+
+class EntrenamientosCacheTest {
+
+    private static final LocalDate DIA_1 = LocalDate.of(2024, 12, 1);
+    private static final LocalDate DIA_10 = LocalDate.of(2024, 12, 10);
+    private static final LocalDate DIA_11 = LocalDate.of(2024, 12, 11);
+    private static final LocalDate DIA_20 = LocalDate.of(2024, 12, 20);
+
+    private final EntrenamientosCache cache = new EntrenamientosCache(Duration.ofMinutes(5), 1000, 100);
+
+    // Si el historial desaparece mientras se descargan los huecos, lo ya cubierto no está: no se da una lista a medias
+    @Test
+    void unHistorialExpulsadoDuranteLaDescargaPideElRangoEntero() {
+        Entrenamiento primero = entrenamiento("Rodaje", DIA_1);
+        Entrenamiento segundo = entrenamiento("Series", DIA_20);
+        cache.completar("token", DIA_1, DIA_10, Map.of(new Rango(DIA_1, DIA_10), List.of(primero)));
+
+        List<Rango> pendientes = cache.pendientes("token", DIA_1, DIA_20);
+        assertEquals(List.of(new Rango(DIA_11, DIA_20)), pendientes);
+        cache.olvidar("token");
+
+        assertNull(cache.completar("token", DIA_1, DIA_20, Map.of(pendientes.get(0), List.of(segundo))));
+        assertEquals(List.of(primero, segundo), cache.completar("token", DIA_1, DIA_20,
+                Map.of(new Rango(DIA_1, DIA_20), List.of(primero, segundo))));
+        assertTrue(cache.pendientes("token", DIA_1, DIA_20).isEmpty());
+        assertEquals(2, cache.estadisticas().entrenamientos());
+    }
+
+    @Test
+    void unAciertoSinDescargasSeSirveDeMemoria() {
+        Entrenamiento rodaje = entrenamiento("Rodaje", DIA_10);
+        cache.completar("token", DIA_1, DIA_20, Map.of(new Rango(DIA_1, DIA_20), List.of(rodaje)));
+
+        assertTrue(cache.pendientes("token", DIA_1, DIA_10).isEmpty());
+        assertEquals(List.of(rodaje), cache.completar("token", DIA_1, DIA_10, Map.of()));
+    }
+
+    private static Entrenamiento entrenamiento(String titulo, LocalDate dia) {
+        return new Entrenamiento(titulo, "Correr", 5, dia, "10:00", 30);
+    }
+}
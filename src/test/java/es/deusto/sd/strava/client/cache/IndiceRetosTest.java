@@ -0,0 +1,79 @@
+package es.deusto.sd.strava.client.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import es.deusto.sd.strava.client.data.Reto;
+
+class IndiceRetosTest {
+
+    private static final long DIA = IndiceRetos.DIA;
+    private static final long PRIMER_DIA = 20_000 * DIA;
+    private static final String[] DEPORTES = { "Correr", "Ciclismo", "Natación", null };
+    private static final String[] FILTROS = { null, "", " ", "Correr", "Ciclismo", "Natación", "Remo" };
+
+    // Cualquier día y deporte da los mismos retos, en el mismo orden, que recorrer todo el catálogo
+    @ParameterizedTest
+    @ValueSource(longs = { 1, 2, 3, 4, 5 })
+    void filtraComoUnRecorridoCompleto(long semilla) {
+        Random aleatorio = new Random(semilla);
+        List<Reto> catalogo = new ArrayList<>();
+        int total = aleatorio.nextInt(300);
+        for (int i = 0; i < total; i++) {
+            // Fechas a medianoche como las del servidor y, a veces, a cualquier hora; algunos terminan antes de empezar
+            long inicio = PRIMER_DIA + aleatorio.nextInt(200) * DIA
+                    + (aleatorio.nextInt(4) == 0 ? aleatorio.nextInt((int) DIA) : 0);
+            long fin = inicio + (aleatorio.nextInt(40) - 2) * DIA;
+            catalogo.add(new Reto("Reto " + i, inicio, fin, 10, 60, DEPORTES[aleatorio.nextInt(DEPORTES.length)],
+                    null));
+        }
+        IndiceRetos indice = new IndiceRetos(catalogo);
+
+        List<Long> dias = new ArrayList<>();
+        for (long dia = PRIMER_DIA - 5 * DIA; dia <= PRIMER_DIA + 250 * DIA; dia += DIA) {
+            dias.add(dia);
+        }
+        // Bordes exactos de cada reto: el día que termina y el que acaba justo cuando empieza
+        for (Reto reto : catalogo) {
+            dias.add(reto.fechaFin());
+            dias.add(reto.fechaFin() + 1);
+            dias.add(reto.fechaInicio() - DIA);
+            dias.add(reto.fechaInicio() - DIA - 1);
+        }
+
+        for (long dia : dias) {
+            for (String deporte : FILTROS) {
+                assertEquals(recorrido(catalogo, dia, deporte), indice.filtrar(dia, deporte), dia + " " + deporte);
+            }
+        }
+    }
+
+    @Test
+    void unCatalogoVacioNoDevuelveNada() {
+        IndiceRetos indice = new IndiceRetos(List.of());
+
+        assertEquals(0, indice.retos());
+        assertEquals(0, indice.deportes());
+        for (String deporte : FILTROS) {
+            assertEquals(List.of(), indice.filtrar(PRIMER_DIA, deporte));
+        }
+    }
+
+    private static List<Reto> recorrido(List<Reto> catalogo, long inicioDia, String deporte) {
+        List<Reto> resultado = new ArrayList<>();
+        for (Reto reto : catalogo) {
+            boolean mismoDeporte = deporte == null || deporte.isBlank() || deporte.equals(reto.deporte());
+            if (mismoDeporte && reto.fechaInicio() <= inicioDia + DIA && reto.fechaFin() >= inicioDia) {
+                resultado.add(reto);
+            }
+        }
+        return resultado;
+    }
+}
@@ -0,0 +1,117 @@
+package es.deusto.sd.strava.client.envios;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import es.deusto.sd.strava.client.proxies.IStravaServiceProxyAsync;
+import es.deusto.sd.strava.client.proxies.OperacionStrava;
+import es.deusto.sd.strava.client.proxies.StravaServiceException;
+
+class BuzonEnviosTest {
+
+    private static final String USUARIO = "ana@deusto.es";
+
+    @TempDir
+    Path directorio;
+
+    // Token de cada entrenamiento que ha llegado al servidor y su respuesta, que completa el test
+    private final List<String> tokensUsados = new ArrayList<>();
+    private final Deque<CompletableFuture<Void>> respuestas = new ArrayDeque<>();
+
+    @Test
+    void aplazaElLogoutHastaQueSaleLoPendienteYNoGuardaElToken() throws IOException {
+        BuzonEnvios buzon = buzon();
+        encolar(buzon, "token-sesion-1");
+        encolar(buzon, "token-sesion-1");
+        AtomicInteger cierres = new AtomicInteger();
+
+        assertTrue(buzon.aplazarCierre("token-sesion-1", cierres::incrementAndGet));
+        respuestas.poll().complete(null);
+        assertEquals(0, cierres.get());
+        respuestas.poll().complete(null);
+
+        assertEquals(List.of("token-sesion-1", "token-sesion-1"), tokensUsados);
+        assertEquals(1, cierres.get());
+        assertFalse(buzon.aplazarCierre("token-sesion-1", cierres::incrementAndGet));
+        assertFalse(Files.readString(directorio.resolve("envios.log")).contains("token-sesion"));
+        buzon.cerrar();
+    }
+
+    @Test
+    void unTokenCaducadoEsperaAlSiguienteLoginEnVezDeFallar() throws IOException {
+        BuzonEnvios buzon = buzon();
+        encolar(buzon, "token-sesion-1");
+
+        respuestas.poll().completeExceptionally(
+                new StravaServiceException(OperacionStrava.ANADIR_ENTRENAMIENTO, 401, "Token inválido"));
+        buzon.despachar();
+        assertEquals(1, buzon.deUsuario(USUARIO).pendientes().size());
+        assertTrue(buzon.deUsuario(USUARIO).fallidos().isEmpty());
+        assertEquals(1, tokensUsados.size());
+
+        buzon.sesionIniciada(USUARIO, "token-sesion-2");
+        assertEquals(List.of("token-sesion-1", "token-sesion-2"), tokensUsados);
+        buzon.cerrar();
+    }
+
+    @Test
+    void trasReiniciarLoPendienteSaleConElTokenDelNuevoLogin() throws IOException {
+        BuzonEnvios buzon = buzon();
+        encolar(buzon, "token-sesion-1");
+        buzon.cerrar();
+        tokensUsados.clear();
+
+        BuzonEnvios recuperado = buzon();
+        assertTrue(tokensUsados.isEmpty());
+        assertEquals(1, recuperado.deUsuario(USUARIO).pendientes().size());
+
+        recuperado.sesionIniciada("otro@deusto.es", "token-otro");
+        assertTrue(tokensUsados.isEmpty());
+        recuperado.sesionIniciada(USUARIO, "token-sesion-2");
+        assertEquals(List.of("token-sesion-2"), tokensUsados);
+        recuperado.cerrar();
+    }
+
+    private static void encolar(BuzonEnvios buzon, String token) {
+        buzon.encolarEntrenamiento(USUARIO, token, "Rodaje", "Correr", 10, 60, LocalDate.of(2024, 12, 1), "10:00");
+    }
+
+    private BuzonEnvios buzon() throws IOException {
+        IStravaServiceProxyAsync servidor = (IStravaServiceProxyAsync) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[] { IStravaServiceProxyAsync.class },
+                (proxy, metodo, argumentos) -> {
+                    if (!metodo.getName().equals("anadirEntrenamiento")) {
+                        throw new UnsupportedOperationException(metodo.getName());
+                    }
+                    tokensUsados.add((String) argumentos[0]);
+                    CompletableFuture<Void> respuesta = new CompletableFuture<>();
+                    respuestas.add(respuesta);
+                    return respuesta;
+                });
+        BuzonEnvios buzon = new BuzonEnvios(servidor, new ObjectMapper().findAndRegisterModules(), Runnable::run,
+                directorio.resolve("envios.log"), false, 16, 10, Duration.ofSeconds(1), Duration.ofMinutes(5),
+                DataSize.ofMegabytes(16));
+        buzon.recuperar();
+        return buzon;
+    }
+}
@@ -0,0 +1,103 @@
+package es.deusto.sd.strava.client.envios;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import es.deusto.sd.strava.client.envios.RegistroEnvios.Evento;
+import es.deusto.sd.strava.client.envios.RegistroEnvios.TipoEvento;
+
+class RegistroEnviosTest {
+
+    @TempDir
+    Path directorio;
+
+    @Test
+    void sigueAnotandoTrasUnaReescrituraFallida() throws IOException {
+        Path fichero = directorio.resolve("envios.log");
+        try (RegistroEnvios registro = new RegistroEnvios(fichero, new ObjectMapper(), false)) {
+            registro.reescribir(() -> List.of(Evento.de(TipoEvento.ENVIADO, "a", null)));
+
+            // El temporal no se puede crear: la reescritura falla antes de tocar el fichero
+            Files.createDirectories(directorio.resolve("envios.log.tmp").resolve("ocupado"));
+            assertThrows(IOException.class,
+                    () -> registro.reescribir(() -> List.of(Evento.de(TipoEvento.ENVIADO, "b", null))));
+
+            registro.anotar(Evento.de(TipoEvento.FALLIDO, "c", "503"), () -> {
+            });
+            assertEquals(Files.size(fichero), registro.tamano());
+            assertEquals(List.of("a", "c"), registro.leer().stream().map(Evento::id).toList());
+        }
+    }
+
+    // Cada cambio se aplica una sola vez, después de escribir su línea y en el orden del fichero
+    @Test
+    void aplicaLasAnotacionesConcurrentesEnElOrdenDelFichero() throws Exception {
+        Path fichero = directorio.resolve("envios.log");
+        List<String> aplicados = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService hilos = Executors.newFixedThreadPool(8);
+        try (RegistroEnvios registro = new RegistroEnvios(fichero, new ObjectMapper(), true)) {
+            List<Future<?>> anotaciones = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                String id = "e" + i;
+                anotaciones.add(hilos.submit(() -> {
+                    registro.anotar(Evento.de(TipoEvento.ENVIADO, id, null), () -> aplicados.add(id));
+                    return null;
+                }));
+            }
+            for (Future<?> anotacion : anotaciones) {
+                anotacion.get();
+            }
+            assertEquals(registro.leer().stream().map(Evento::id).toList(), aplicados);
+            assertEquals(200, aplicados.size());
+        } finally {
+            hilos.shutdown();
+        }
+    }
+
+    // Lo anotado mientras se escribe el fichero nuevo no se pierde al moverlo sobre el anterior
+    @Test
+    void conservaLoAnotadoDuranteUnaReescritura() throws Exception {
+        Path fichero = directorio.resolve("envios.log");
+        ExecutorService hilos = Executors.newFixedThreadPool(4);
+        try (RegistroEnvios registro = new RegistroEnvios(fichero, new ObjectMapper(), false)) {
+            registro.anotar(Evento.de(TipoEvento.ENVIADO, "antes", null), () -> {
+            });
+            List<Future<?>> anotaciones = new ArrayList<>();
+            registro.reescribir(() -> {
+                for (int i = 0; i < 50; i++) {
+                    String id = "durante" + i;
+                    anotaciones.add(hilos.submit(() -> {
+                        registro.anotar(Evento.de(TipoEvento.ENVIADO, id, null), () -> {
+                        });
+                        return null;
+                    }));
+                }
+                return List.of(Evento.de(TipoEvento.ENVIADO, "antes", null));
+            });
+            for (Future<?> anotacion : anotaciones) {
+                anotacion.get();
+            }
+
+            List<String> ids = registro.leer().stream().map(Evento::id).toList();
+            assertEquals("antes", ids.get(0));
+            assertEquals(51, ids.stream().distinct().count());
+        } finally {
+            hilos.shutdown();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package es.deusto.sd.strava.client.proxies;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.Test;
+
+class LecturasCompartidasTest {
+
+    private final LecturasCompartidas lecturas = new LecturasCompartidas();
+
+    // El plazo del primero en llegar no corta la lectura de los que la comparten
+    @Test
+    void cadaLlamadaTieneSuPropioPlazo() throws Exception {
+        CompletableFuture<String> peticion = new CompletableFuture<>();
+
+        CompletableFuture<String> primera = lecturas.leerAsync("/api/retosAceptados?token=t", () -> peticion)
+                .orTimeout(10, TimeUnit.MILLISECONDS);
+        ExecutionException error = assertThrows(ExecutionException.class, primera::get);
+        assertTrue(error.getCause() instanceof TimeoutException);
+
+        CompletableFuture<String> segunda = lecturas.leerAsync("/api/retosAceptados?token=t", () -> {
+            throw new AssertionError("Petición no esperada: hay una en vuelo");
+        });
+        peticion.complete("retos");
+
+        assertEquals("retos", segunda.get());
+        assertEquals(1, lecturas.estadisticas().lecturas());
+        assertEquals(1, lecturas.estadisticas().compartidas());
+        assertEquals(0, lecturas.estadisticas().enVuelo());
+    }
+}